@@ -224,7 +224,8 @@ uses
 {$IFDEF MSWindows}
   Windows,
 {$ENDIF}
-  Types;
+  Types,
+  bs.vfs;
 
 var
   CurrentCP: uint32;
@@ -1160,7 +1161,7 @@ begin
   FOnDeleteNode := nil;
   FOnAddNode := nil;
   FURL := AURL;
-  if Load and FileExists(AURL) then
+  if Load and FileExistsVFS(AURL) then
     LoadFromURL(FURL);
 end;
 
@@ -1568,17 +1569,16 @@ end;
 
 procedure TheXmlWriter.LoadFromURL(const AURL: string);
 var
-  f: TMemoryStream;
+  f: TCustomMemoryStream;
 begin
   FURL := AURL;
-  if not FileExists(FURL) then
+  if not FileExistsVFS(FURL) then
   begin
     Clear;
     exit;
   end;
-  f := TMemoryStream.Create;
+  f := OpenFileMemoryVFS(FURL);
   try
-    f.LoadFromFile(FURL);
     LoadFromBuf(f.Memory, f.Size);
   finally
     f.Free;
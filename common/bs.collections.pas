@@ -37,6 +37,11 @@ uses
   SysUtils
   ;
 
+const
+  FNV64_OFFSET_BASIS = uint64($CBF29CE484222325);
+  { 2^64 / golden ratio; a multiplier of the Fibonacci hashing }
+  FIBONACCI_HASH_64 = uint64($9E3779B97F4A7C15);
+
 type
 
 { order iterate for find item in container by a value }
@@ -126,14 +131,29 @@ public
       Next: PListItem;
       Prev: PListItem;
     end;
+private
+  const
+    { amount of nodes in the first block; every next block is as big as all
+      previous together, but not more than NODES_BLOCK_MAX }
+    NODES_BLOCK_MIN = 16;
+    NODES_BLOCK_MAX = 4096;
+  type
+    TNodesBlock = record
+      Nodes: PListItem;
+      Count: int32;
+    end;
 private
   FCount: int32;
   FFirst: TListItem;
   FLast: PListItem;
   FreeItems: PListItem;
+  { nodes are allocated by blocks and live until destruction of the list }
+  FBlocks: array of TNodesBlock;
+  FCountNodes: int32;
   fDefault: T;
   FCursor: int32;
   CursorItem: PListItem;
+  procedure AllocNodes;
   function GetFreeItem: PListItem; inline;
   function GetItemListFirst: PListItem;
   function GetItemListLast: PListItem;
@@ -790,6 +810,131 @@ public
   property Count: int32 read FCount;
 end;
 
+{ TOpenHashMap<K, V>
+
+  A hash table with open addressing and robin-hood probing: a new key moves
+  forward the keys which are closer to their home buckets than it, therefore
+  lengths of probes are even and a search stops as soon as it meets a key
+  closer to its home than the searched one would be; keys, values and hashes
+  are kept inline in the array of buckets; a deleted bucket is filled by the
+  backward shift of the next keys, so there are no tombstones; the array grows
+  twice when it is filled by 7/8 }
+
+TOpenHashMap<K, V> = class
+public
+  type
+    TBucket = record
+      Key: K;
+      Value: V;
+      Hash: uint32;
+      { 1 + distance from the home bucket; 0 - the bucket is empty }
+      Distance: int32;
+    end;
+    TBuckets = array of TBucket;
+private
+  FHashFunction: THashFunction<K>;
+  FKeyComparator: TKeyComparatorEqual<K>;
+  FItems: TBuckets;
+  FMask: int32;
+  FShift: int32;
+  FCount: int32;
+  FThresholdRehash: int32;
+  FDefaultValue: V;
+  EmptyItem: TBucket;
+  IteratedBucket: int32;
+  { buckets at the end of the table which were already iterated: a backward
+    shift of a deletion while iterating wraps from the first bucket to the last }
+  IteratedAtEnd: int32;
+  function GetHome(Hash: uint32): int32; inline;
+  function DoFind(const Key: K; Hash: uint32): int32; inline;
+  procedure DoInsert(const Key: K; const Value: V; Hash: uint32);
+  procedure DeleteBucket(AIndex: int32);
+  procedure Grow(ANewCapacity: int32);
+  function GetValue(const Key: K): V;
+  procedure SetValue(const Key: K; const Value: V);
+public
+  constructor Create(AHashFunction: THashFunction<K>; AKeyComparator: TKeyComparatorEqual<K>; ACapacity: int32 = 32);
+  destructor Destroy; override;
+  procedure Clear(FreeMemory: boolean = false);
+  procedure Delete(const Key: K);
+  function Exists(const Key: K): boolean;
+  function Find(const Key: K; out Value: V): boolean;
+  function TryAdd(const Key: K; const Value: V): boolean;
+  procedure TryAddOrReplace(const Key: K; const Value: V);
+  { the current bucket only can be deleted while iterating }
+  function GetFirst(out Bucket: TBucket): boolean;
+  function GetNext(out Bucket: TBucket): boolean;
+  property Items[const Key: K]: V read GetValue write SetValue;
+  property Count: int32 read FCount;
+  property DefaultValue: V read FDefaultValue write FDefaultValue;
+end;
+
+{ TInt64HashMap<V>
+
+  TOpenHashMap<K, V> specialized for integer keys: the key is hashed and
+  compared inline without invocations of functions by pointers, and the hash
+  isn't kept in a bucket }
+
+TInt64HashMap<V> = class
+public
+  type
+    TBucket = record
+      Key: int64;
+      Value: V;
+      { 1 + distance from the home bucket; 0 - the bucket is empty }
+      Distance: int32;
+    end;
+    TBuckets = array of TBucket;
+private
+  FItems: TBuckets;
+  FMask: int32;
+  FShift: int32;
+  FCount: int32;
+  FThresholdRehash: int32;
+  FDefaultValue: V;
+  EmptyItem: TBucket;
+  IteratedBucket: int32;
+  { buckets at the end of the table which were already iterated: a backward
+    shift of a deletion while iterating wraps from the first bucket to the last }
+  IteratedAtEnd: int32;
+  function GetHome(const Key: int64): int32; inline;
+  function DoFind(const Key: int64): int32; inline;
+  procedure DoInsert(const Key: int64; const Value: V);
+  procedure DeleteBucket(AIndex: int32);
+  procedure Grow(ANewCapacity: int32);
+  function GetValue(const Key: int64): V;
+  procedure SetValue(const Key: int64; const Value: V);
+public
+  constructor Create(ACapacity: int32 = 32);
+  destructor Destroy; override;
+  procedure Clear(FreeMemory: boolean = false);
+  procedure Delete(const Key: int64); overload;
+  function Exists(const Key: int64): boolean; overload;
+  function Find(const Key: int64; out Value: V): boolean; overload;
+  function TryAdd(const Key: int64; const Value: V): boolean; overload;
+  procedure TryAddOrReplace(const Key: int64; const Value: V); overload;
+  { the current bucket only can be deleted while iterating }
+  function GetFirst(out Bucket: TBucket): boolean;
+  function GetNext(out Bucket: TBucket): boolean;
+  property Items[const Key: int64]: V read GetValue write SetValue;
+  property Count: int32 read FCount;
+  property DefaultValue: V read FDefaultValue write FDefaultValue;
+end;
+
+{ TPointerHashMap<V>
+
+  TInt64HashMap<V> with pointers as keys; Bucket.Key of the iteration is
+  a pointer casted to int64 }
+
+TPointerHashMap<V> = class(TInt64HashMap<V>)
+public
+  procedure Delete(Key: Pointer); overload; inline;
+  function Exists(Key: Pointer): boolean; overload; inline;
+  function Find(Key: Pointer; out Value: V): boolean; overload; inline;
+  function TryAdd(Key: Pointer; const Value: V): boolean; overload; inline;
+  procedure TryAddOrReplace(Key: Pointer; const Value: V); overload; inline;
+end;
+
 function GetHashSedgwick(Data: pByte; Len: int32; Capacity: uint32): uint32; overload; inline;
 function GetHashSedgwick(Data: pByte; Len: int32): uint32; overload; inline;
 function GetHashSedgwickS(const Key: string): uint32; inline;
@@ -801,6 +946,8 @@ function GetHashBlackSharkUInt32(const Key: uint32): uint32; inline;
 function GetHashBlackSharkInt32(const Key: int32): uint32; inline;
 function GetHashBlackSharkPointer(const Key: Pointer): uint32; inline;
 function GetHashBlackShark(Key: PByte; Len: int32): uint32; inline;
+{ FNV-1a; AHash continues a hash of the previous data }
+function GetHashFNV64(AData: PByte; ASize: NativeInt; AHash: uint64 = FNV64_OFFSET_BASIS): uint64;
 { Default comparators }
 function Int32cmp(const Key1, Key2: int32): int8; inline;
 function Singlecmp(const Key1, Key2: Single): int8; inline;
@@ -1423,6 +1570,15 @@ begin
     Result := ((Result + Key[i]) shl 8) + (Result shr 24 xor Key[i]);
 end;
 
+function GetHashFNV64(AData: PByte; ASize: NativeInt; AHash: uint64): uint64;
+var
+  i: NativeInt;
+begin
+  Result := AHash;
+  for i := 0 to ASize - 1 do
+    Result := (Result xor AData[i]) * uint64($00000100000001B3);
+end;
+
 function GetHashBlackSharkInt64(const Key: int64): uint32;
 begin
   Result := GetHashBlackShark(@Key, sizeof(Key));
@@ -3024,18 +3180,48 @@ end;
 
 destructor TListDual<T>.Destroy;
 var
-  it: PListItem;
+  i, j: int32;
 begin
   Clear;
-  while FreeItems <> nil do
+  for i := 0 to Length(FBlocks) - 1 do
   begin
-    it := FreeItems.Next;
-    dispose(PListItem(FreeItems));
-    FreeItems := it;
+    { removed by Pop and Clear nodes can still keep managed values }
+    for j := 0 to FBlocks[i].Count - 1 do
+      Finalize(PListItem(PByte(FBlocks[i].Nodes) + j * SizeOf(TListItem))^.Item);
+    FreeMem(FBlocks[i].Nodes);
   end;
+  FreeItems := nil;
   inherited;
 end;
 
+procedure TListDual<T>.AllocNodes;
+var
+  i, count: int32;
+  nodes, node: PListItem;
+begin
+  count := FCountNodes;
+  if count < NODES_BLOCK_MIN then
+    count := NODES_BLOCK_MIN
+  else
+  if count > NODES_BLOCK_MAX then
+    count := NODES_BLOCK_MAX;
+  GetMem(nodes, count * SizeOf(TListItem));
+  { zero is a valid value of uninitialized managed types }
+  FillChar(nodes^, count * SizeOf(TListItem), 0);
+  node := nodes;
+  for i := 0 to count - 2 do
+  begin
+    node.Next := PListItem(PByte(node) + SizeOf(TListItem));
+    node := node.Next;
+  end;
+  node.Next := FreeItems;
+  FreeItems := nodes;
+  SetLength(FBlocks, Length(FBlocks) + 1);
+  FBlocks[Length(FBlocks) - 1].Nodes := nodes;
+  FBlocks[Length(FBlocks) - 1].Count := count;
+  inc(FCountNodes, count);
+end;
+
 procedure TListDual<T>.Clear;
 begin
   if FFirst.Next <> nil then
@@ -3052,15 +3238,10 @@ end;
 
 function TListDual<T>.GetFreeItem: PListItem;
 begin
-  if FreeItems <> nil then
-  begin
-    Result := FreeItems;
-    FreeItems := FreeItems.Next;
-  end else
-  begin
-    new(Result);
-    //Result.Owner := self;
-  end;
+  if FreeItems = nil then
+    AllocNodes;
+  Result := FreeItems;
+  FreeItems := FreeItems.Next;
 end;
 
 function TListDual<T>.GetItem(Index: int32): T;
@@ -4397,5 +4578,469 @@ begin
     raise Exception.Create('The Key already exists!');
 end;
 
+{ TOpenHashMap<K, V> }
+
+constructor TOpenHashMap<K, V>.Create(AHashFunction: THashFunction<K>; AKeyComparator: TKeyComparatorEqual<K>; ACapacity: int32 = 32);
+begin
+  FHashFunction := AHashFunction;
+  FKeyComparator := AKeyComparator;
+  IteratedBucket := -1;
+  Grow(ACapacity);
+end;
+
+destructor TOpenHashMap<K, V>.Destroy;
+begin
+  Clear(true);
+  inherited;
+end;
+
+function TOpenHashMap<K, V>.GetHome(Hash: uint32): int32;
+begin
+  { the high bits of the product are mixed well by all bits of the hash }
+  Result := int32((uint64(Hash) * FIBONACCI_HASH_64) shr FShift);
+end;
+
+function TOpenHashMap<K, V>.DoFind(const Key: K; Hash: uint32): int32;
+var
+  dist: int32;
+begin
+  Result := GetHome(Hash);
+  dist := 1;
+  { an empty bucket has zero distance, so it stops the search too }
+  while FItems[Result].Distance >= dist do
+  begin
+    if (FItems[Result].Hash = Hash) and FKeyComparator(FItems[Result].Key, Key) then
+      exit;
+    Result := (Result + 1) and FMask;
+    inc(dist);
+  end;
+  Result := -1;
+end;
+
+procedure TOpenHashMap<K, V>.DoInsert(const Key: K; const Value: V; Hash: uint32);
+var
+  index: int32;
+  bucket, tmp: TBucket;
+begin
+  bucket.Key := Key;
+  bucket.Value := Value;
+  bucket.Hash := Hash;
+  bucket.Distance := 1;
+  index := GetHome(Hash);
+  while FItems[index].Distance > 0 do
+  begin
+    if FItems[index].Distance < bucket.Distance then
+    begin
+      { takes the place of the key closer to its home and goes on with it }
+      tmp := FItems[index];
+      FItems[index] := bucket;
+      bucket := tmp;
+    end;
+    index := (index + 1) and FMask;
+    inc(bucket.Distance);
+  end;
+  FItems[index] := bucket;
+  inc(FCount);
+end;
+
+procedure TOpenHashMap<K, V>.DeleteBucket(AIndex: int32);
+var
+  next: int32;
+  iterating: boolean;
+begin
+  iterating := AIndex = IteratedBucket;
+  if iterating then
+    dec(IteratedBucket);
+  next := (AIndex + 1) and FMask;
+  while FItems[next].Distance > 1 do
+  begin
+    { the first iterated bucket at the end (or the first bucket of the table, if
+      there are no such ones yet) goes back, so the iterated range at the end grows }
+    if iterating and (next = (Length(FItems) - IteratedAtEnd) and FMask) then
+      inc(IteratedAtEnd);
+    FItems[AIndex] := FItems[next];
+    dec(FItems[AIndex].Distance);
+    AIndex := next;
+    next := (next + 1) and FMask;
+  end;
+  FItems[AIndex] := EmptyItem;
+  dec(FCount);
+end;
+
+procedure TOpenHashMap<K, V>.Grow(ANewCapacity: int32);
+var
+  old_buckets: TBuckets;
+  i, bits: int32;
+begin
+  bits := 3;
+  while (1 shl bits) < ANewCapacity do
+    inc(bits);
+  old_buckets := FItems;
+  FItems := nil;
+  SetLength(FItems, 1 shl bits);
+  FMask := (1 shl bits) - 1;
+  FShift := 64 - bits;
+  FThresholdRehash := Length(FItems) - Length(FItems) shr 3;
+  FCount := 0;
+  for i := 0 to Length(old_buckets) - 1 do
+    if old_buckets[i].Distance > 0 then
+      DoInsert(old_buckets[i].Key, old_buckets[i].Value, old_buckets[i].Hash);
+end;
+
+procedure TOpenHashMap<K, V>.Clear(FreeMemory: boolean = false);
+var
+  i: int32;
+begin
+  if FreeMemory then
+  begin
+    FItems := nil;
+    FCount := 0;
+    Grow(0);
+  end else
+  begin
+    for i := 0 to Length(FItems) - 1 do
+      FItems[i] := EmptyItem;
+    FCount := 0;
+  end;
+end;
+
+procedure TOpenHashMap<K, V>.Delete(const Key: K);
+var
+  index: int32;
+begin
+  if FCount = 0 then
+    exit;
+  index := DoFind(Key, FHashFunction(Key));
+  if index >= 0 then
+    DeleteBucket(index);
+end;
+
+function TOpenHashMap<K, V>.Exists(const Key: K): boolean;
+begin
+  Result := (FCount > 0) and (DoFind(Key, FHashFunction(Key)) >= 0);
+end;
+
+function TOpenHashMap<K, V>.Find(const Key: K; out Value: V): boolean;
+var
+  index: int32;
+begin
+  if FCount > 0 then
+    index := DoFind(Key, FHashFunction(Key))
+  else
+    index := -1;
+  Result := index >= 0;
+  if Result then
+    Value := FItems[index].Value
+  else
+    Value := FDefaultValue;
+end;
+
+function TOpenHashMap<K, V>.TryAdd(const Key: K; const Value: V): boolean;
+var
+  hash: uint32;
+begin
+  hash := FHashFunction(Key);
+  if (FCount > 0) and (DoFind(Key, hash) >= 0) then
+    exit(false);
+  if FCount >= FThresholdRehash then
+    Grow(Length(FItems) shl 1);
+  DoInsert(Key, Value, hash);
+  Result := true;
+end;
+
+procedure TOpenHashMap<K, V>.TryAddOrReplace(const Key: K; const Value: V);
+var
+  hash: uint32;
+  index: int32;
+begin
+  hash := FHashFunction(Key);
+  if FCount > 0 then
+    index := DoFind(Key, hash)
+  else
+    index := -1;
+  if index >= 0 then
+    FItems[index].Value := Value
+  else
+  begin
+    if FCount >= FThresholdRehash then
+      Grow(Length(FItems) shl 1);
+    DoInsert(Key, Value, hash);
+  end;
+end;
+
+function TOpenHashMap<K, V>.GetFirst(out Bucket: TBucket): boolean;
+begin
+  IteratedBucket := -1;
+  IteratedAtEnd := 0;
+  Result := GetNext(Bucket);
+end;
+
+function TOpenHashMap<K, V>.GetNext(out Bucket: TBucket): boolean;
+begin
+  inc(IteratedBucket);
+  while IteratedBucket < Length(FItems) - IteratedAtEnd do
+  begin
+    if FItems[IteratedBucket].Distance > 0 then
+    begin
+      Bucket := FItems[IteratedBucket];
+      exit(true);
+    end;
+    inc(IteratedBucket);
+  end;
+  Result := false;
+end;
+
+function TOpenHashMap<K, V>.GetValue(const Key: K): V;
+begin
+  if not Find(Key, Result) then
+    raise Exception.Create('The Key doesn''t exist!');
+end;
+
+procedure TOpenHashMap<K, V>.SetValue(const Key: K; const Value: V);
+begin
+  if not TryAdd(Key, Value) then
+    raise Exception.Create('The Key already exists!');
+end;
+
+{ TInt64HashMap<V> }
+
+constructor TInt64HashMap<V>.Create(ACapacity: int32 = 32);
+begin
+  IteratedBucket := -1;
+  Grow(ACapacity);
+end;
+
+destructor TInt64HashMap<V>.Destroy;
+begin
+  Clear(true);
+  inherited;
+end;
+
+function TInt64HashMap<V>.GetHome(const Key: int64): int32;
+begin
+  Result := int32((uint64(Key) * FIBONACCI_HASH_64) shr FShift);
+end;
+
+function TInt64HashMap<V>.DoFind(const Key: int64): int32;
+var
+  dist: int32;
+begin
+  Result := GetHome(Key);
+  dist := 1;
+  while FItems[Result].Distance >= dist do
+  begin
+    if FItems[Result].Key = Key then
+      exit;
+    Result := (Result + 1) and FMask;
+    inc(dist);
+  end;
+  Result := -1;
+end;
+
+procedure TInt64HashMap<V>.DoInsert(const Key: int64; const Value: V);
+var
+  index: int32;
+  bucket, tmp: TBucket;
+begin
+  bucket.Key := Key;
+  bucket.Value := Value;
+  bucket.Distance := 1;
+  index := GetHome(Key);
+  while FItems[index].Distance > 0 do
+  begin
+    if FItems[index].Distance < bucket.Distance then
+    begin
+      tmp := FItems[index];
+      FItems[index] := bucket;
+      bucket := tmp;
+    end;
+    index := (index + 1) and FMask;
+    inc(bucket.Distance);
+  end;
+  FItems[index] := bucket;
+  inc(FCount);
+end;
+
+procedure TInt64HashMap<V>.DeleteBucket(AIndex: int32);
+var
+  next: int32;
+  iterating: boolean;
+begin
+  iterating := AIndex = IteratedBucket;
+  if iterating then
+    dec(IteratedBucket);
+  next := (AIndex + 1) and FMask;
+  while FItems[next].Distance > 1 do
+  begin
+    { the first iterated bucket at the end (or the first bucket of the table, if
+      there are no such ones yet) goes back, so the iterated range at the end grows }
+    if iterating and (next = (Length(FItems) - IteratedAtEnd) and FMask) then
+      inc(IteratedAtEnd);
+    FItems[AIndex] := FItems[next];
+    dec(FItems[AIndex].Distance);
+    AIndex := next;
+    next := (next + 1) and FMask;
+  end;
+  FItems[AIndex] := EmptyItem;
+  dec(FCount);
+end;
+
+procedure TInt64HashMap<V>.Grow(ANewCapacity: int32);
+var
+  old_buckets: TBuckets;
+  i, bits: int32;
+begin
+  bits := 3;
+  while (1 shl bits) < ANewCapacity do
+    inc(bits);
+  old_buckets := FItems;
+  FItems := nil;
+  SetLength(FItems, 1 shl bits);
+  FMask := (1 shl bits) - 1;
+  FShift := 64 - bits;
+  FThresholdRehash := Length(FItems) - Length(FItems) shr 3;
+  FCount := 0;
+  for i := 0 to Length(old_buckets) - 1 do
+    if old_buckets[i].Distance > 0 then
+      DoInsert(old_buckets[i].Key, old_buckets[i].Value);
+end;
+
+procedure TInt64HashMap<V>.Clear(FreeMemory: boolean = false);
+var
+  i: int32;
+begin
+  if FreeMemory then
+  begin
+    FItems := nil;
+    FCount := 0;
+    Grow(0);
+  end else
+  begin
+    for i := 0 to Length(FItems) - 1 do
+      FItems[i] := EmptyItem;
+    FCount := 0;
+  end;
+end;
+
+procedure TInt64HashMap<V>.Delete(const Key: int64);
+var
+  index: int32;
+begin
+  if FCount = 0 then
+    exit;
+  index := DoFind(Key);
+  if index >= 0 then
+    DeleteBucket(index);
+end;
+
+function TInt64HashMap<V>.Exists(const Key: int64): boolean;
+begin
+  Result := (FCount > 0) and (DoFind(Key) >= 0);
+end;
+
+function TInt64HashMap<V>.Find(const Key: int64; out Value: V): boolean;
+var
+  index: int32;
+begin
+  if FCount > 0 then
+    index := DoFind(Key)
+  else
+    index := -1;
+  Result := index >= 0;
+  if Result then
+    Value := FItems[index].Value
+  else
+    Value := FDefaultValue;
+end;
+
+function TInt64HashMap<V>.TryAdd(const Key: int64; const Value: V): boolean;
+begin
+  if (FCount > 0) and (DoFind(Key) >= 0) then
+    exit(false);
+  if FCount >= FThresholdRehash then
+    Grow(Length(FItems) shl 1);
+  DoInsert(Key, Value);
+  Result := true;
+end;
+
+procedure TInt64HashMap<V>.TryAddOrReplace(const Key: int64; const Value: V);
+var
+  index: int32;
+begin
+  if FCount > 0 then
+    index := DoFind(Key)
+  else
+    index := -1;
+  if index >= 0 then
+    FItems[index].Value := Value
+  else
+  begin
+    if FCount >= FThresholdRehash then
+      Grow(Length(FItems) shl 1);
+    DoInsert(Key, Value);
+  end;
+end;
+
+function TInt64HashMap<V>.GetFirst(out Bucket: TBucket): boolean;
+begin
+  IteratedBucket := -1;
+  IteratedAtEnd := 0;
+  Result := GetNext(Bucket);
+end;
+
+function TInt64HashMap<V>.GetNext(out Bucket: TBucket): boolean;
+begin
+  inc(IteratedBucket);
+  while IteratedBucket < Length(FItems) - IteratedAtEnd do
+  begin
+    if FItems[IteratedBucket].Distance > 0 then
+    begin
+      Bucket := FItems[IteratedBucket];
+      exit(true);
+    end;
+    inc(IteratedBucket);
+  end;
+  Result := false;
+end;
+
+function TInt64HashMap<V>.GetValue(const Key: int64): V;
+begin
+  if not Find(Key, Result) then
+    raise Exception.Create('The Key doesn''t exist!');
+end;
+
+procedure TInt64HashMap<V>.SetValue(const Key: int64; const Value: V);
+begin
+  if not TryAdd(Key, Value) then
+    raise Exception.Create('The Key already exists!');
+end;
+
+{ TPointerHashMap<V> }
+
+procedure TPointerHashMap<V>.Delete(Key: Pointer);
+begin
+  Delete(int64(NativeInt(Key)));
+end;
+
+function TPointerHashMap<V>.Exists(Key: Pointer): boolean;
+begin
+  Result := Exists(int64(NativeInt(Key)));
+end;
+
+function TPointerHashMap<V>.Find(Key: Pointer; out Value: V): boolean;
+begin
+  Result := Find(int64(NativeInt(Key)), Value);
+end;
+
+function TPointerHashMap<V>.TryAdd(Key: Pointer; const Value: V): boolean;
+begin
+  Result := TryAdd(int64(NativeInt(Key)), Value);
+end;
+
+procedure TPointerHashMap<V>.TryAddOrReplace(Key: Pointer; const Value: V);
+begin
+  TryAddOrReplace(int64(NativeInt(Key)), Value);
+end;
+
 end.
 
@@ -29,9 +29,16 @@ unit bs.log;
 
 interface
 
+type
+  TLogLevel = (llDebug, llInfo, llWarning, llError);
+
 procedure BSWriteMsg(const Source: string; const Msg: string; Unical: boolean = false); overload;
 procedure BSWriteMsg(const Source: string; Msg: int32; Unical: boolean = false); overload;
 procedure BSWriteMsg(const Source: string; Unical: boolean = false); overload;
+procedure BSWriteMsg(Level: TLogLevel; const Source: string; const Msg: string; Unical: boolean = false); overload;
+{ writes all accumulated messages into the file in the calling thread; it is
+  invoked automatically for llError, on an unhandled exception and on exit }
+procedure BSLogFlush;
 
 type
   TLogEventNotify = procedure (Source: string; Msg: string);
@@ -44,6 +51,12 @@ const
 var
   // if true - begin new log every time after run
   g_RewriteLog: boolean = false;
+  // messages with a lower level are discarded
+  g_LogLevel: TLogLevel = llDebug;
+  // the log is moved to BlackSharkLog.1.txt when its size exceeds the value; 0 - without limit
+  g_LogMaxSize: int64 = 16*1024*1024;
+  // how many of the moved logs are kept: BlackSharkLog.1.txt ... BlackSharkLog.N.txt
+  g_LogMaxFiles: int32 = 3;
   LogEventNotify: TLogEventNotify = nil;
 
 implementation
@@ -51,53 +64,216 @@ implementation
 uses
     Classes
   , SysUtils
+  , syncobjs
   , bs.strings
   , bs.collections
+  , bs.thread
   , bs.utils
   , bs.config
   ;
 
+const
+  LOG_FILE_NAME = 'BlackSharkLog';
+  LOG_FILE_EXT = '.txt';
+  { the flusher writes the queue at least so often (ms); it is woken earlier if
+    the queue is filled for half }
+  LOG_FLUSH_INTERVAL = 250;
+  LOG_BATCH = 256;
+  { the max amount of remembered unique messages; the oldest one is forgotten }
+  LOG_UNIQUE_CAPACITY = 1024;
+  LEVEL_NAMES: array[TLogLevel] of string = ('Debug', 'Info', 'Warn', 'Error');
+
+type
+
+  PLogRecord = ^TLogRecord;
+  TLogRecord = record
+    Time: TDateTime;
+    Level: TLogLevel;
+    Source: string;
+    Msg: string;
+  end;
+
+  { TLogFlusher
+
+    takes away the records from the queue and writes them into the file by
+    batches, so the writers never wait for the disk }
+
+  TLogFlusher = class(TThread)
+  private
+    FWakeUp: TEvent;
+  protected
+    procedure Execute; override;
+  public
+    constructor Create;
+    destructor Destroy; override;
+    procedure WakeUp;
+  end;
+
 var
   Log: TFileStream = nil;
-  UnicMsg: THashTable<string, int32>;
+  LogFileName: string;
+  LogSize: int64 = 0;
+  LogQueue: TQueueMPSC<TLogRecord> = nil;
+  LogFlusher: TLogFlusher = nil;
+  { serializes the reading side of LogQueue and all writes into the file }
+  LogCS: TCriticalSection = nil;
+  Batch: array[0..LOG_BATCH - 1] of TLogRecord;
+  { the text of a batch; it is reused under LogCS }
+  BatchText: TStringBuilder = nil;
+  UnicCS: TCriticalSection = nil;
+  UnicMsg: THashTable<string, int32> = nil;
+  { unique messages in order of addition }
+  UnicRing: array of string;
+  UnicPos: int32 = 0;
+  Finalized: boolean = false;
+  {$ifdef FPC}
+  PrevExceptProc: TExceptProc = nil;
+  {$else}
+  PrevExceptProc: Pointer = nil;
+  {$endif}
 
-procedure InitLog;
+function RotatedFileName(AIndex: int32): string;
 begin
+  Result := GetApplicationPath + LOG_FILE_NAME + '.' + IntToStr(AIndex) + LOG_FILE_EXT;
+end;
 
-  {$ifndef DBG_IO}
-  SetCurrentDir(GetApplicationPath);
-  if g_RewriteLog or not FileExists('BlackSharkLog.txt') then
-    Log := TFileStream.Create('BlackSharkLog.txt', fmCreate)
+procedure OpenLogFile(ARewrite: boolean);
+begin
+  if ARewrite or not FileExists(LogFileName) then
+    Log := TFileStream.Create(LogFileName, fmCreate)
   else
-    Log := TFileStream.Create('BlackSharkLog.txt', fmOpenWrite);
-  {$endif}
+  begin
+    Log := TFileStream.Create(LogFileName, fmOpenWrite or fmShareDenyWrite);
+    Log.Seek(0, soEnd);
+  end;
+  LogSize := Log.Size;
+end;
 
-  UnicMsg := THashTable<string, int32>.Create(@GetHashBlackSharkS, @StrCmpBool);
+procedure RotateLog;
+var
+  i: int32;
+begin
+  FreeAndNil(Log);
+  if g_LogMaxFiles > 0 then
+  begin
+    DeleteFile(RotatedFileName(g_LogMaxFiles));
+    for i := g_LogMaxFiles - 1 downto 1 do
+      if FileExists(RotatedFileName(i)) then
+        RenameFile(RotatedFileName(i), RotatedFileName(i + 1));
+    RenameFile(LogFileName, RotatedFileName(1));
+  end;
+  OpenLogFile(true);
+end;
+
+procedure InitLog;
+var
+  queue: TQueueMPSC<TLogRecord>;
+begin
+  LogCS.Enter;
+  try
+    if Assigned(LogQueue) then
+      exit;
+    {$ifndef DBG_IO}
+    SetCurrentDir(GetApplicationPath);
+    LogFileName := GetApplicationPath + LOG_FILE_NAME + LOG_FILE_EXT;
+    OpenLogFile(g_RewriteLog);
+    {$endif}
+    UnicMsg := THashTable<string, int32>.Create(@GetHashBlackSharkS, @StrCmpBool);
+    SetLength(UnicRing, LOG_UNIQUE_CAPACITY);
+    BatchText := TStringBuilder.Create(LOG_BATCH * 128);
+    queue := TQueueMPSC<TLogRecord>.Create;
+    {$ifndef DBG_IO}
+    LogFlusher := TLogFlusher.Create;
+    {$endif}
+    { the queue is published the last, writers check it without the lock, so
+      the publish is a full barrier and they read it by GetLogQueue }
+    if TAtomic.CompareExchange(pointer(LogQueue), pointer(queue), nil) <> nil then
+      queue.Free;
+  finally
+    LogCS.Leave;
+  end;
 end;
 
-procedure WriteToLog(Data: pByte; Len: int32);
+{ the queue or nil; all that InitLog initializes before the publish is visible
+  together with it }
+function GetLogQueue: TQueueMPSC<TLogRecord>; inline;
 begin
-  if not BSConfig.WriteLog then
-    exit;
-  Log.WriteBuffer(Data^, Len);
+  Result := TQueueMPSC<TLogRecord>(TAtomic.Load(pointer(LogQueue)));
+end;
+
+{ to invoke only under LogCS }
+procedure WriteRecords(const ARecords: array of TLogRecord; ACount: int32);
+var
+  i: int32;
+  buf: AnsiString;
+begin
+  BatchText.Clear;
+  for i := 0 to ACount - 1 do
+    BatchText.Append(FormatDateTime('dd.MM.yy hh:mm:ss', ARecords[i].Time)).Append(#$09).
+      Append(LEVEL_NAMES[ARecords[i].Level]).Append(#$09).Append(ARecords[i].Source).Append(#$09).
+      Append(ARecords[i].Msg).Append(#$0d#$0a);
+  buf := StringToAnsi(BatchText.ToString);
+  if (g_LogMaxSize > 0) and (LogSize > 0) and (LogSize + length(buf) > g_LogMaxSize) then
+    RotateLog;
+  Log.WriteBuffer(buf[1], length(buf));
+  inc(LogSize, length(buf));
+end;
+
+{ empties the queue into the file; AExtra is written after the queue if the
+  writer could not place it because of the full queue }
+procedure FlushQueue(AExtra: PLogRecord);
+var
+  count: int32;
+begin
+  LogCS.Enter;
+  try
+    if not Assigned(Log) or not Assigned(LogQueue) then
+      exit;
+    repeat
+      count := LogQueue.Drain(Batch);
+      if count > 0 then
+        WriteRecords(Batch, count);
+    until count < LOG_BATCH;
+    if Assigned(AExtra) then
+      WriteRecords([AExtra^], 1);
+  finally
+    LogCS.Leave;
+  end;
 end;
 
 function CheckUnic(const Msg: string): boolean;
 begin
-  Result := UnicMsg.TryAdd(Msg, 0);
+  UnicCS.Enter;
+  try
+    Result := UnicMsg.TryAdd(Msg, 0);
+    if not Result then
+      exit;
+    { the cache is bounded: the new message displaces the oldest one }
+    if UnicRing[UnicPos] <> '' then
+      UnicMsg.Delete(UnicRing[UnicPos]);
+    UnicRing[UnicPos] := Msg;
+    UnicPos := (UnicPos + 1) mod LOG_UNIQUE_CAPACITY;
+  finally
+    UnicCS.Leave;
+  end;
 end;
 
-procedure BSWriteMsg(const Source: string; const Msg: string; Unical: boolean = false);
-{$ifndef DBG_IO}
+procedure BSWriteMsg(Level: TLogLevel; const Source: string; const Msg: string; Unical: boolean = false);
 var
-  add_m: AnsiString;
+  queue: TQueueMPSC<TLogRecord>;
+{$ifndef DBG_IO}
+  rec: TLogRecord;
 {$endif}
 begin
-  if not BSConfig.WriteLog then
+  if Finalized or not BSConfig.WriteLog or (Level < g_LogLevel) then
     exit;
 
-  if not Assigned(Log) then
+  queue := GetLogQueue;
+  if not Assigned(queue) then
+  begin
     InitLog;
+    queue := GetLogQueue;
+  end;
 
   if (Unical and not CheckUnic(Msg)) then
     exit;
@@ -107,34 +283,135 @@ begin
   {$ifdef DBG_IO}
   writeln(Source, ' ', Msg);
   {$else}
-  add_m := StringToAnsi((FormatDateTime('dd.MM.yy hh:mm:ss', now)) + #$09 + Source + #$09 + Msg + #$0d+#$0a);
-  WriteToLog(@(add_m)[1], length(add_m));
+  rec.Time := now;
+  rec.Level := Level;
+  rec.Source := Source;
+  rec.Msg := Msg;
+  if not queue.Push(rec) then
+    { the flusher does not keep up; the writer empties the queue itself, so the
+      message is not lost }
+    FlushQueue(@rec)
+  else
+  if Level = llError then
+    { an error can precede a crash, therefore it reaches the disk at once }
+    FlushQueue(nil)
+  else
+  if queue.Count > queue.Capacity shr 1 then
+    LogFlusher.WakeUp;
   {$endif}
 end;
 
+procedure BSWriteMsg(const Source: string; const Msg: string; Unical: boolean = false);
+begin
+  BSWriteMsg(llInfo, Source, Msg, Unical);
+end;
+
 procedure BSWriteMsg(const Source: string; Msg: int32; Unical: boolean = false);
 begin
   case Msg of
-      MESSAGE_INFO: BSWriteMsg(Source, 'Info', Unical);
-      MESSAGE_WARN: BSWriteMsg(Source, 'Warr', Unical);
-      MESSAGE_ERROR: BSWriteMsg(Source, 'Error', Unical)
+      MESSAGE_INFO: BSWriteMsg(llInfo, Source, 'Info', Unical);
+      MESSAGE_WARN: BSWriteMsg(llWarning, Source, 'Warr', Unical);
+      MESSAGE_ERROR: BSWriteMsg(llError, Source, 'Error', Unical)
     else
-      BSWriteMsg(Source, IntToStr(Msg), Unical);
+      BSWriteMsg(llInfo, Source, IntToStr(Msg), Unical);
   end;
 end;
 
 procedure BSWriteMsg(const Source: string; Unical: boolean);
 begin
-  BSWriteMsg(Source, 'Info', Unical);
+  BSWriteMsg(llInfo, Source, 'Info', Unical);
 end;
 
+procedure BSLogFlush;
+begin
+  if Assigned(GetLogQueue) and not Finalized then
+    FlushQueue(nil);
+end;
 
-initialization
+procedure WriteUnhandledException(Obj: TObject);
+begin
+  if Obj is Exception then
+    BSWriteMsg(llError, 'Unhandled exception', Obj.ClassName + ': ' + Exception(Obj).Message)
+  else
+  if Assigned(Obj) then
+    BSWriteMsg(llError, 'Unhandled exception', Obj.ClassName);
+  { llError has been written synchronously; the rest of the queue too }
+  BSLogFlush;
+end;
+
+{$ifdef FPC}
+procedure LogExceptProc(Obj: TObject; Addr: CodePointer; FrameCount: Longint; Frame: PCodePointer);
+begin
+  WriteUnhandledException(Obj);
+  if Assigned(PrevExceptProc) then
+    PrevExceptProc(Obj, Addr, FrameCount, Frame);
+end;
+{$else}
+procedure LogExceptProc(ExceptObject: TObject; ExceptAddr: Pointer);
+type
+  TExceptProc = procedure(ExceptObject: TObject; ExceptAddr: Pointer);
+begin
+  WriteUnhandledException(ExceptObject);
+  if Assigned(PrevExceptProc) then
+    TExceptProc(PrevExceptProc)(ExceptObject, ExceptAddr);
+end;
+{$endif}
+
+{ TLogFlusher }
+
+constructor TLogFlusher.Create;
+begin
+  FWakeUp := TEvent.Create(nil, false, false, '');
+  inherited Create(false);
+end;
+
+destructor TLogFlusher.Destroy;
+begin
+  inherited;
+  FWakeUp.Free;
+end;
 
+procedure TLogFlusher.Execute;
+begin
+  while not Terminated do
+  begin
+    FWakeUp.WaitFor(LOG_FLUSH_INTERVAL);
+    try
+      FlushQueue(nil);
+    except
+      { there is nowhere to report a failure of the log (for example, the disk
+        is full); the next batch tries again }
+    end;
+  end;
+end;
+
+procedure TLogFlusher.WakeUp;
+begin
+  FWakeUp.SetEvent;
+end;
+
+initialization
+  LogCS := TCriticalSection.Create;
+  UnicCS := TCriticalSection.Create;
+  PrevExceptProc := ExceptProc;
+  ExceptProc := @LogExceptProc;
 
 finalization
-    Log.Free;
-    UnicMsg.Free;
+  ExceptProc := PrevExceptProc;
+  if Assigned(LogFlusher) then
+  begin
+    LogFlusher.Terminate;
+    LogFlusher.WakeUp;
+    { waits for the end of the thread }
+    LogFlusher.Free;
+  end;
+  BSLogFlush;
+  Finalized := true;
+  FreeAndNil(Log);
+  FreeAndNil(LogQueue);
+  FreeAndNil(BatchText);
+  FreeAndNil(UnicMsg);
+  FreeAndNil(UnicCS);
+  FreeAndNil(LogCS);
 
 end.
-
@@ -73,6 +73,7 @@ uses
   {$endif}
     bs.log
   , bs.strings
+  , bs.vfs
   ;
 
 function GetRelativeFromFullPath(RootPath, FullPath: string): string;
@@ -218,13 +219,13 @@ end;
 
 function GetFileExistsPath(const FileName: string; const Preambule: string): string;
 begin
-  if FileExists(FileName) then
+  if FileExistsVFS(FileName) then
     exit(FileName);
   Result := AppPath + FileName;
-  if FileExists(Result) then
+  if FileExistsVFS(Result) then
     exit;
   Result := AppPath + IncludeTrailingPathDelimiter(Preambule) + FileName;
-  if FileExists(Result) then
+  if FileExistsVFS(Result) then
     exit;
   Result := '';
 end;
@@ -243,7 +244,7 @@ begin
     {$ENDIF}
   {$ENDIF}
 
-  if FileExists(tmp_str) or (tmp_str[2] = ':') or (tmp_str[2] = '/') or (tmp_str[2] = '\') or (tmp_str[1] = '/') then // contain full path ?
+  if FileExistsVFS(tmp_str) or (tmp_str[2] = ':') or (tmp_str[2] = '/') or (tmp_str[2] = '\') or (tmp_str[1] = '/') then // contain full path ?
   begin
     Result := tmp_str;
   end else
@@ -0,0 +1,716 @@
+{
+-- Begin License block --
+
+  Copyright (C) 2019-2022 Pavlov V.V. (PVV)
+
+  "Black Shark Graphics Engine" for Delphi and Lazarus (named
+"Library" in the file "License(LGPL).txt" included in this distribution).
+The Library is free software.
+
+  Last revised June, 2022
+
+  This file is part of "Black Shark Graphics Engine", and may only be
+used, modified, and distributed under the terms of the project license
+"License(LGPL).txt". By continuing to use, modify, or distribute this
+file you indicate that you have read the license and understand and
+accept it fully.
+
+  "Black Shark Graphics Engine" is distributed in the hope that it will be
+useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+-- End License block --
+}
+
+{
+  A virtual file system for read-only resources of the engine (shaders, fonts,
+  pictures, meshes); it allows to read files directly from a zip archive (for
+  example, from APK on Android) without unpacking; only entries stored without
+  compression are served; on unix systems an entry is memory-mapped by its
+  offset and length in the archive, therefore reading does not copy data;
+  all other files are read from a disk as usual; a file of the mount path
+  written by the engine (for example, a cache) must be created by
+  CreateFileVFS, otherwise the entry of the archive shadows it
+}
+
+unit bs.vfs;
+
+{$I BlackSharkCfg.inc}
+
+{$ifdef FPC}
+  {$ifdef UNIX}
+    {$define VFS_MMAP}
+  {$endif}
+{$endif}
+
+interface
+
+uses
+    Classes
+  , syncobjs
+  , bs.collections
+  ;
+
+type
+
+  { TVirtualFileStream }
+
+  { a read-only stream over a mapped entry of an archive }
+
+  TVirtualFileStream = class(TCustomMemoryStream)
+  private
+    FMapping: Pointer;
+    FMappingSize: NativeInt;
+  public
+    constructor Create(AMapping: Pointer; AMappingSize: NativeInt; AData: Pointer; ASize: NativeInt);
+    destructor Destroy; override;
+  end;
+
+  { TMappedFile
+
+    random read access to a file of any size through a few windows; on unix
+    systems the windows are memory-mapped, otherwise they are read into buffers;
+    the least recently used window is recycled, so consumption of memory does
+    not depend on the size of the file }
+
+  TMappedFile = class
+  private
+    type
+      TWindow = record
+        Offset: int64;
+        Size: int64;
+        Data: PByte;
+        LastUse: uint32;
+      end;
+  private
+    FFileName: string;
+    FSize: int64;
+    FWindowSize: int64;
+    FWindows: array of TWindow;
+    FUseCounter: uint32;
+    {$ifdef VFS_MMAP}
+    FHandle: int32;
+    {$else}
+    FStream: TFileStream;
+    {$endif}
+    procedure ReleaseWindow(var AWindow: TWindow);
+    function LoadWindow(var AWindow: TWindow; AOffset, ASize: int64): boolean;
+  public
+    { AWindowSize is rounded up to 64Kb, what is a multiple of a page size
+      on all systems }
+    constructor Create(const AFileName: string; ACountWindows: int32 = 4; AWindowSize: int32 = 1 shl 20);
+    destructor Destroy; override;
+    { returns a pointer on ACount bytes of the file from AOffset; the memory is
+      valid until a next call of the method; returns nil if the range goes out
+      of the file }
+    function Read(AOffset: int64; ACount: int32): PByte;
+    property FileName: string read FFileName;
+    property Size: int64 read FSize;
+  end;
+
+  TVirtualFileEntry = record
+    LocalHeaderOffset: int64;
+    Size: int64;
+  end;
+
+  { BSVirtualFS }
+
+  BSVirtualFS = class
+  private
+    class var FEntries: THashTable<string, TVirtualFileEntry>;
+    { entries are read by workers, and can be invalidated by any thread }
+    class var FLock: TCriticalSection;
+    class var FArchive: string;
+    class var FMountPath: string;
+    {$ifdef VFS_MMAP}
+    class var FHandle: int32;
+    class var FPageSize: int64;
+    {$endif}
+    class function ReadAt(AOffset: int64; var ABuffer; ACount: int32): boolean; static;
+    class function GetDataOffset(const AEntry: TVirtualFileEntry): int64; static;
+    class function GetCount: int32; static;
+    class constructor Create;
+    class destructor Destroy;
+  public
+    { mounts the zip archive AArchive; entries with names which begin from
+      AArchivePrefix and stored without compression become available by
+      paths AMountPath + <name without the prefix> }
+    class function Mount(const AArchive, AArchivePrefix, AMountPath: string): boolean;
+    class procedure Unmount;
+    class function Exists(const AFileName: string): boolean;
+    { returns nil if the file is absent in the virtual file system }
+    class function Open(const AFileName: string): TCustomMemoryStream;
+    { forgets the entry, so the file is read from a disk; it is invoked when the
+      file is rewritten on the disk }
+    class procedure Invalidate(const AFileName: string);
+    class property Archive: string read FArchive;
+    class property Count: int32 read GetCount;
+  end;
+
+{ the file exists in the virtual file system or on a disk }
+function FileExistsVFS(const AFileName: string): boolean;
+{ opens the file for read from the virtual file system or from a disk }
+function OpenFileVFS(const AFileName: string): TStream;
+{ returns memory of the whole file; the mapped memory for the virtual file system,
+  otherwise the file is loaded from a disk }
+function OpenFileMemoryVFS(const AFileName: string): TCustomMemoryStream;
+{ the same as OpenFileMemoryVFS, but on unix systems a file on a disk is
+  memory-mapped too instead of loading }
+function MapFileVFS(const AFileName: string): TCustomMemoryStream;
+{ copies the file to AStream }
+procedure LoadFileVFS(const AFileName: string; AStream: TMemoryStream);
+{ creates (rewrites) the file on a disk; the entry of the virtual file system
+  with the same name is invalidated, so the new content is read after }
+function CreateFileVFS(const AFileName: string): TFileStream;
+
+implementation
+
+uses
+    SysUtils
+  {$ifdef VFS_MMAP}
+  , BaseUnix
+  , Unix
+  {$endif}
+  {$ifdef DEBUG_BS}
+  , bs.log
+  {$endif}
+  ;
+
+const
+  ZIP_END_OF_CENTRAL_DIR_SIGN = $06054b50;
+  ZIP_CENTRAL_DIR_SIGN = $02014b50;
+  ZIP_LOCAL_HEADER_SIGN = $04034b50;
+  ZIP_METHOD_STORED = 0;
+  ZIP_END_OF_CENTRAL_DIR_SIZE = 22;
+  ZIP_MAX_COMMENT = 65535;
+
+type
+  TZipEndOfCentralDir = packed record
+    Signature: uint32;
+    DiskNumber: uint16;
+    CentralDirDisk: uint16;
+    EntriesOnDisk: uint16;
+    EntriesTotal: uint16;
+    CentralDirSize: uint32;
+    CentralDirOffset: uint32;
+    CommentLength: uint16;
+  end;
+  PZipEndOfCentralDir = ^TZipEndOfCentralDir;
+
+  TZipCentralDirHeader = packed record
+    Signature: uint32;
+    VersionMadeBy: uint16;
+    VersionNeeded: uint16;
+    Flags: uint16;
+    Method: uint16;
+    Time: uint16;
+    Date: uint16;
+    Crc32: uint32;
+    CompressedSize: uint32;
+    UncompressedSize: uint32;
+    NameLength: uint16;
+    ExtraLength: uint16;
+    CommentLength: uint16;
+    DiskStart: uint16;
+    InternalAttributes: uint16;
+    ExternalAttributes: uint32;
+    LocalHeaderOffset: uint32;
+  end;
+  PZipCentralDirHeader = ^TZipCentralDirHeader;
+
+  TZipLocalHeader = packed record
+    Signature: uint32;
+    VersionNeeded: uint16;
+    Flags: uint16;
+    Method: uint16;
+    Time: uint16;
+    Date: uint16;
+    Crc32: uint32;
+    CompressedSize: uint32;
+    UncompressedSize: uint32;
+    NameLength: uint16;
+    ExtraLength: uint16;
+  end;
+
+function NormalizePath(const AFileName: string): string;
+begin
+  Result := StringReplace(AFileName, '\', '/', [rfReplaceAll]);
+  while Pos('//', Result) > 0 do
+    Result := StringReplace(Result, '//', '/', [rfReplaceAll]);
+end;
+
+function FileExistsVFS(const AFileName: string): boolean;
+begin
+  Result := BSVirtualFS.Exists(AFileName) or FileExists(AFileName);
+end;
+
+function OpenFileVFS(const AFileName: string): TStream;
+begin
+  Result := BSVirtualFS.Open(AFileName);
+  if not Assigned(Result) then
+    Result := TFileStream.Create(AFileName, fmOpenRead or fmShareDenyWrite);
+end;
+
+function OpenFileMemoryVFS(const AFileName: string): TCustomMemoryStream;
+begin
+  Result := BSVirtualFS.Open(AFileName);
+  if not Assigned(Result) then
+  begin
+    Result := TMemoryStream.Create;
+    try
+      TMemoryStream(Result).LoadFromFile(AFileName);
+    except
+      Result.Free;
+      raise;
+    end;
+  end;
+end;
+
+{$ifdef VFS_MMAP}
+function MapDiskFile(const AFileName: string): TCustomMemoryStream;
+var
+  handle: int32;
+  info: TStat;
+  mapping: Pointer;
+begin
+  Result := nil;
+  handle := FpOpen(PAnsiChar(AnsiString(AFileName)), O_RDONLY);
+  if handle < 0 then
+    exit;
+  try
+    { mmap of an empty file fails }
+    if (FpFStat(handle, info) <> 0) or (info.st_size <= 0) then
+      exit;
+    mapping := Fpmmap(nil, info.st_size, PROT_READ or PROT_WRITE, MAP_PRIVATE, handle, 0);
+    if (mapping = nil) or (mapping = MAP_FAILED) then
+      exit;
+    Result := TVirtualFileStream.Create(mapping, info.st_size, mapping, info.st_size);
+  finally
+    { the mapping stays valid after close of the descriptor }
+    FpClose(handle);
+  end;
+end;
+{$endif}
+
+function MapFileVFS(const AFileName: string): TCustomMemoryStream;
+begin
+  Result := BSVirtualFS.Open(AFileName);
+  {$ifdef VFS_MMAP}
+  if not Assigned(Result) then
+    Result := MapDiskFile(AFileName);
+  {$endif}
+  if not Assigned(Result) then
+  begin
+    Result := TMemoryStream.Create;
+    try
+      TMemoryStream(Result).LoadFromFile(AFileName);
+    except
+      Result.Free;
+      raise;
+    end;
+  end;
+end;
+
+procedure LoadFileVFS(const AFileName: string; AStream: TMemoryStream);
+var
+  s: TCustomMemoryStream;
+begin
+  s := BSVirtualFS.Open(AFileName);
+  if not Assigned(s) then
+  begin
+    AStream.LoadFromFile(AFileName);
+    exit;
+  end;
+  try
+    AStream.LoadFromStream(s);
+  finally
+    s.Free;
+  end;
+end;
+
+function CreateFileVFS(const AFileName: string): TFileStream;
+begin
+  BSVirtualFS.Invalidate(AFileName);
+  Result := TFileStream.Create(AFileName, fmCreate);
+end;
+
+{ TVirtualFileStream }
+
+constructor TVirtualFileStream.Create(AMapping: Pointer; AMappingSize: NativeInt; AData: Pointer; ASize: NativeInt);
+begin
+  inherited Create;
+  FMapping := AMapping;
+  FMappingSize := AMappingSize;
+  SetPointer(AData, ASize);
+end;
+
+destructor TVirtualFileStream.Destroy;
+begin
+  if Assigned(FMapping) then
+  begin
+    {$ifdef VFS_MMAP}
+    Fpmunmap(FMapping, FMappingSize);
+    {$else}
+    FreeMem(FMapping);
+    {$endif}
+  end;
+  inherited;
+end;
+
+{ TMappedFile }
+
+constructor TMappedFile.Create(const AFileName: string; ACountWindows: int32; AWindowSize: int32);
+{$ifdef VFS_MMAP}
+var
+  info: TStat;
+{$endif}
+begin
+  inherited Create;
+  FFileName := AFileName;
+  if ACountWindows < 2 then
+    ACountWindows := 2;
+  SetLength(FWindows, ACountWindows);
+  FWindowSize := ((int64(AWindowSize) + $FFFF) shr 16) shl 16;
+  if FWindowSize <= 0 then
+    FWindowSize := $10000;
+  {$ifdef VFS_MMAP}
+  FHandle := FpOpen(PAnsiChar(AnsiString(AFileName)), O_RDONLY);
+  if FHandle < 0 then
+    raise EFOpenError.Create('Can not open the file ' + AFileName);
+  if FpFStat(FHandle, info) <> 0 then
+  begin
+    FpClose(FHandle);
+    FHandle := -1;
+    raise EFOpenError.Create('Can not get the size of the file ' + AFileName);
+  end;
+  FSize := info.st_size;
+  {$else}
+  FStream := TFileStream.Create(AFileName, fmOpenRead or fmShareDenyWrite);
+  FSize := FStream.Size;
+  {$endif}
+end;
+
+destructor TMappedFile.Destroy;
+var
+  i: int32;
+begin
+  for i := 0 to length(FWindows) - 1 do
+    ReleaseWindow(FWindows[i]);
+  {$ifdef VFS_MMAP}
+  if FHandle >= 0 then
+    FpClose(FHandle);
+  {$else}
+  FStream.Free;
+  {$endif}
+  inherited;
+end;
+
+procedure TMappedFile.ReleaseWindow(var AWindow: TWindow);
+begin
+  if not Assigned(AWindow.Data) then
+    exit;
+  {$ifdef VFS_MMAP}
+  Fpmunmap(AWindow.Data, AWindow.Size);
+  {$else}
+  FreeMem(AWindow.Data);
+  {$endif}
+  AWindow.Data := nil;
+  AWindow.Size := 0;
+end;
+
+function TMappedFile.LoadWindow(var AWindow: TWindow; AOffset, ASize: int64): boolean;
+{$ifdef VFS_MMAP}
+var
+  mapping: Pointer;
+{$endif}
+begin
+  ReleaseWindow(AWindow);
+  {$ifdef VFS_MMAP}
+  mapping := Fpmmap(nil, ASize, PROT_READ, MAP_SHARED, FHandle, AOffset);
+  if (mapping = nil) or (mapping = MAP_FAILED) then
+    exit(false);
+  AWindow.Data := mapping;
+  {$else}
+  GetMem(AWindow.Data, ASize);
+  FStream.Position := AOffset;
+  { a window covers ACount (int32) and not more than two sizes of a window besides,
+    so it fits into int32 }
+  if FStream.Read(AWindow.Data^, int32(ASize)) <> ASize then
+  begin
+    FreeMem(AWindow.Data);
+    AWindow.Data := nil;
+    exit(false);
+  end;
+  {$endif}
+  AWindow.Offset := AOffset;
+  AWindow.Size := ASize;
+  Result := true;
+end;
+
+function TMappedFile.Read(AOffset: int64; ACount: int32): PByte;
+var
+  i, lru: int32;
+  offset, size: int64;
+begin
+  if (AOffset < 0) or (ACount <= 0) or (AOffset + ACount > FSize) then
+    exit(nil);
+
+  inc(FUseCounter);
+  lru := 0;
+  for i := 0 to length(FWindows) - 1 do
+  begin
+    if Assigned(FWindows[i].Data) and (FWindows[i].Offset <= AOffset) and
+      (AOffset + ACount <= FWindows[i].Offset + FWindows[i].Size) then
+    begin
+      FWindows[i].LastUse := FUseCounter;
+      exit(FWindows[i].Data + (AOffset - FWindows[i].Offset));
+    end;
+    { a free window or the least recently used }
+    if not Assigned(FWindows[i].Data) or (Assigned(FWindows[lru].Data) and
+      (FWindows[i].LastUse < FWindows[lru].LastUse)) then
+      lru := i;
+  end;
+
+  { the window is aligned on its size; the range crossing a bound of windows
+    gets a window of a double (or more) size }
+  offset := AOffset - AOffset mod FWindowSize;
+  size := ((AOffset + ACount - offset + FWindowSize - 1) div FWindowSize) * FWindowSize;
+  if offset + size > FSize then
+    size := FSize - offset;
+
+  if not LoadWindow(FWindows[lru], offset, size) then
+    exit(nil);
+  FWindows[lru].LastUse := FUseCounter;
+  Result := FWindows[lru].Data + (AOffset - offset);
+end;
+
+{ BSVirtualFS }
+
+class constructor BSVirtualFS.Create;
+begin
+  FEntries := THashTable<string, TVirtualFileEntry>.Create(GetHashBlackSharkS, StrCmpBool, 256);
+  FLock := TCriticalSection.Create;
+  {$ifdef VFS_MMAP}
+  FHandle := -1;
+  FPageSize := sysconf(_SC_PAGESIZE);
+  if FPageSize <= 0 then
+    FPageSize := 4096;
+  {$endif}
+end;
+
+class destructor BSVirtualFS.Destroy;
+begin
+  Unmount;
+  FEntries.Free;
+  FLock.Free;
+end;
+
+class function BSVirtualFS.GetCount: int32;
+begin
+  Result := FEntries.Count;
+end;
+
+class function BSVirtualFS.ReadAt(AOffset: int64; var ABuffer; ACount: int32): boolean;
+{$ifndef VFS_MMAP}
+var
+  f: TFileStream;
+{$endif}
+begin
+  {$ifdef VFS_MMAP}
+  { pread does not move a position of the file, so it is safe for any thread }
+  Result := FpPRead(FHandle, @ABuffer, ACount, AOffset) = ACount;
+  {$else}
+  f := TFileStream.Create(FArchive, fmOpenRead or fmShareDenyWrite);
+  try
+    f.Position := AOffset;
+    Result := f.Read(ABuffer, ACount) = ACount;
+  finally
+    f.Free;
+  end;
+  {$endif}
+end;
+
+class function BSVirtualFS.GetDataOffset(const AEntry: TVirtualFileEntry): int64;
+var
+  header: TZipLocalHeader;
+begin
+  { the local extra field may differ from one in the central directory (for
+    example, zipalign adds padding there), so read the local header }
+  if not ReadAt(AEntry.LocalHeaderOffset, header{%H-}, SizeOf(header)) or (header.Signature <> ZIP_LOCAL_HEADER_SIGN) then
+    exit(-1);
+  Result := AEntry.LocalHeaderOffset + SizeOf(header) + header.NameLength + header.ExtraLength;
+end;
+
+class function BSVirtualFS.Mount(const AArchive, AArchivePrefix, AMountPath: string): boolean;
+var
+  f: TFileStream;
+  tail: TBytes;
+  dir: TBytes;
+  i, pos_eocd, count: int32;
+  eocd: PZipEndOfCentralDir;
+  header: PZipCentralDirHeader;
+  pos_header: int32;
+  name: AnsiString;
+  entry: TVirtualFileEntry;
+  len_prefix: int32;
+  prefix: AnsiString;
+  root: string;
+begin
+  Unmount;
+  Result := false;
+  if not FileExists(AArchive) then
+    exit;
+
+  f := TFileStream.Create(AArchive, fmOpenRead or fmShareDenyWrite);
+  try
+    { look for the end of the central directory; it is at the end of the file before an optional comment }
+    SetLength(tail, ZIP_END_OF_CENTRAL_DIR_SIZE + ZIP_MAX_COMMENT);
+    if f.Size < length(tail) then
+      SetLength(tail, f.Size);
+    f.Position := f.Size - length(tail);
+    f.ReadBuffer(tail[0], length(tail));
+    eocd := nil;
+    for pos_eocd := length(tail) - ZIP_END_OF_CENTRAL_DIR_SIZE downto 0 do
+      if PZipEndOfCentralDir(@tail[pos_eocd]).Signature = ZIP_END_OF_CENTRAL_DIR_SIGN then
+      begin
+        eocd := PZipEndOfCentralDir(@tail[pos_eocd]);
+        break;
+      end;
+
+    if not Assigned(eocd) then
+      exit;
+
+    count := eocd.EntriesTotal;
+    SetLength(dir, eocd.CentralDirSize);
+    f.Position := eocd.CentralDirOffset;
+    f.ReadBuffer(dir[0], length(dir));
+  finally
+    f.Free;
+  end;
+
+  prefix := AnsiString(AArchivePrefix);
+  len_prefix := length(prefix);
+  root := NormalizePath(IncludeTrailingPathDelimiter(AMountPath));
+  pos_header := 0;
+  for i := 0 to count - 1 do
+  begin
+    if pos_header + SizeOf(TZipCentralDirHeader) > length(dir) then
+      break;
+    header := PZipCentralDirHeader(@dir[pos_header]);
+    if header.Signature <> ZIP_CENTRAL_DIR_SIGN then
+      break;
+    SetString(name, PAnsiChar(@dir[pos_header + SizeOf(TZipCentralDirHeader)]), header.NameLength);
+    if (header.Method = ZIP_METHOD_STORED) and (header.CompressedSize = header.UncompressedSize) and
+      (length(name) > len_prefix) and (name[length(name)] <> '/') and (Copy(name, 1, len_prefix) = prefix) then
+    begin
+      entry.LocalHeaderOffset := header.LocalHeaderOffset;
+      entry.Size := header.UncompressedSize;
+      FEntries.TryAddOrReplace(root + UTF8ToString(Copy(name, len_prefix + 1, length(name) - len_prefix)), entry);
+    end;
+    inc(pos_header, SizeOf(TZipCentralDirHeader) + header.NameLength + header.ExtraLength + header.CommentLength);
+  end;
+
+  {$ifdef VFS_MMAP}
+  FHandle := FpOpen(PAnsiChar(AnsiString(AArchive)), O_RDONLY);
+  if FHandle < 0 then
+  begin
+    FEntries.Clear;
+    exit;
+  end;
+  {$endif}
+
+  FArchive := AArchive;
+  FMountPath := root;
+  Result := true;
+
+  {$ifdef DEBUG_BS}
+  BSWriteMsg('BSVirtualFS.Mount', AArchive + ' -> ' + root + '; stored entries: ' + IntToStr(FEntries.Count));
+  {$endif}
+end;
+
+class procedure BSVirtualFS.Unmount;
+begin
+  FEntries.Clear;
+  FArchive := '';
+  FMountPath := '';
+  {$ifdef VFS_MMAP}
+  if FHandle >= 0 then
+  begin
+    FpClose(FHandle);
+    FHandle := -1;
+  end;
+  {$endif}
+end;
+
+class function BSVirtualFS.Exists(const AFileName: string): boolean;
+begin
+  if FArchive = '' then
+    exit(false);
+  FLock.Enter;
+  try
+    Result := FEntries.Exists(NormalizePath(AFileName));
+  finally
+    FLock.Leave;
+  end;
+end;
+
+class procedure BSVirtualFS.Invalidate(const AFileName: string);
+begin
+  if FArchive = '' then
+    exit;
+  FLock.Enter;
+  try
+    FEntries.Delete(NormalizePath(AFileName));
+  finally
+    FLock.Leave;
+  end;
+end;
+
+class function BSVirtualFS.Open(const AFileName: string): TCustomMemoryStream;
+var
+  entry: TVirtualFileEntry;
+  offset: int64;
+  mapping: Pointer;
+  {$ifdef VFS_MMAP}
+  aligned: int64;
+  {$endif}
+begin
+  Result := nil;
+  if FArchive = '' then
+    exit;
+  FLock.Enter;
+  try
+    if not FEntries.Find(NormalizePath(AFileName), entry) then
+      exit;
+  finally
+    FLock.Leave;
+  end;
+
+  { mmap of zero bytes fails, so an empty entry gets a stream without memory }
+  if entry.Size = 0 then
+    exit(TVirtualFileStream.Create(nil, 0, nil, 0));
+
+  offset := GetDataOffset(entry);
+  if offset < 0 then
+    exit;
+
+  {$ifdef VFS_MMAP}
+  { an offset of mapping must be aligned on a page size; the mapping is private,
+    so a write to the memory (if somebody does it) makes only a copy of a page }
+  aligned := offset - offset mod FPageSize;
+  mapping := Fpmmap(nil, entry.Size + offset - aligned, PROT_READ or PROT_WRITE, MAP_PRIVATE, FHandle, aligned);
+  if (mapping = nil) or (mapping = MAP_FAILED) then
+    exit;
+  Result := TVirtualFileStream.Create(mapping, entry.Size + offset - aligned, PByte(mapping) + (offset - aligned), entry.Size);
+  {$else}
+  GetMem(mapping, entry.Size);
+  if not ReadAt(offset, mapping^, entry.Size) then
+  begin
+    FreeMem(mapping);
+    exit;
+  end;
+  Result := TVirtualFileStream.Create(mapping, entry.Size, mapping, entry.Size);
+  {$endif}
+end;
+
+end.
@@ -37,6 +37,10 @@ uses
   {$endif}
   ;
 
+const
+  { the default size of the output buffer of ZLibDecompressor }
+  ZLIB_OUT_BUFFER_SIZE = 1024*1024;
+
 type
 
   ZLibDecompressor = class
@@ -45,7 +49,9 @@ type
     FOutBuffer: PByte;
     FOutBufferSize: uint32;
   public
-    constructor Create;
+    { AOutBufferSize is the size of a piece of the output; the less the buffer
+      the more often AOutStream.Write is invoked }
+    constructor Create(AOutBufferSize: uint32 = ZLIB_OUT_BUFFER_SIZE);
     destructor Destroy; override;
     function Decompress(AData: PByte; ASize: int32; AOutStream: TStream): uint32;
   end;
@@ -54,10 +60,10 @@ implementation
 
 { ZLibDecompressor }
 
-constructor ZLibDecompressor.Create;
+constructor ZLibDecompressor.Create(AOutBufferSize: uint32);
 begin
   InflateInit2(FZStream, 15);
-  FOutBufferSize := 1024*1024;
+  FOutBufferSize := AOutBufferSize;
   GetMem(FOutBuffer, FOutBufferSize);
 end;
 
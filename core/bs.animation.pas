@@ -190,7 +190,7 @@ type
   private
     type
       TBSFloatItemQ = TItemQueue<BSFloat>;
-      TBSFloatDataQ = TQueueTemplate<TBSFloatItemQ>;
+      TBSFloatDataQ = TQueueMPSCTemplate<TBSFloatItemQ>;
   protected
     procedure Reverse; override;
     //function GetLawMethod: TAniValueLawBase<BSFloat>.TLawMethodAniRef; override;
@@ -206,7 +206,7 @@ type
   private
     type
       TVec2fItemQ = TItemQueue<TVec2f>;
-      TVec2fDataQ = TQueueTemplate<TVec2fItemQ>;
+      TVec2fDataQ = TQueueMPSCTemplate<TVec2fItemQ>;
   private
     Fc: BSFloat;
     Fa: BSFloat;
@@ -236,7 +236,7 @@ type
   private
     type
       TInt32ItemQ = TItemQueue<int32>;
-      TInt32DataQ = TQueueTemplate<TInt32ItemQ>;
+      TInt32DataQ = TQueueMPSCTemplate<TInt32ItemQ>;
   protected
     procedure Reverse; override;
     procedure Update; override;
@@ -251,7 +251,7 @@ type
   private
     type
       TVec2fItemQ = TItemQueue<TVec2f>;
-      TVec2fDataQ = TQueueTemplate<TVec2fItemQ>;
+      TVec2fDataQ = TQueueMPSCTemplate<TVec2fItemQ>;
   protected
     procedure Reverse; override;
     procedure Update; override;
@@ -266,7 +266,7 @@ type
   private
     type
       TVec3fItemQ = TItemQueue<TVec3f>;
-      TVec3fDataQ = TQueueTemplate<TVec3fItemQ>;
+      TVec3fDataQ = TQueueMPSCTemplate<TVec3fItemQ>;
   protected
     procedure Reverse; override;
     procedure Update; override;
@@ -280,7 +280,7 @@ type
   TAniPath3d = class(TAniValueLawBase<TVec3f>, IBAnimationPath3d)
   private type
     TVec3fItemQ = TItemQueue<TVec3f>;
-    TVec3fDataQ = TQueueTemplate<TVec3fItemQ>;
+    TVec3fDataQ = TQueueMPSCTemplate<TVec3fItemQ>;
     TIntrpFunc = procedure of object;
   private
     FuncIntrp: array [TInterpolateSpline] of TIntrpFunc;
@@ -227,6 +227,9 @@ procedure TCanvasMapChars.AssignFontTexture;
 begin
   if Canvas.Font.IsVectoral then
     raise Exception.Create('Can not use a vectoral font!');
+  { keys of distance fields contain sizes of glyphs instead of rects on the texture }
+  if Canvas.Font.IsDistanceField then
+    raise Exception.Create('Can not use a font of distance fields!');
   // enforce generate texture
   //if FCanvas.Font.Texture = nil then
   //  FCanvas.Font.CreateTexture;
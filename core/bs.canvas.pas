@@ -336,6 +336,8 @@ type
     constructor Create(ACanvas: TBCanvas; AParent: TCanvasObject); override;
     destructor Destroy; override;
     function CreateCustomFont: IBlackSharkFont;
+    { see TGraphicObjectText.TextEdited }
+    procedure TextEdited(APosition, ACountDeleted, ACountInserted: int32);
     property Text: string read GetText write SetText;
     property SceneTextData: TGraphicObjectText read GetSceneTextData;
     property ScalableModeToFontSize: boolean read FScalableModeToFontSize write FScalableModeToFontSize;
@@ -969,32 +971,47 @@ type
     type
       TPoints    = TBlackSharkTesselator.TListPoints.TSingleListHead;
       TContours  = TBlackSharkTesselator.TListContours.TSingleListHead;
-      TIntrpFunc = procedure of object;
+      TIndexes   = TBlackSharkTesselator.TListIndexes.TSingleListHead;
   private
     FPoints: TPoints;
     FContours: TContours;
     FInterpolateSpline: TInterpolateSpline;
-    FuncIntrp: array [TInterpolateSpline] of TIntrpFunc;
     FQualityInterpolate: BSFloat;
-    procedure SplineInterpolateBezier;
-    procedure SplineInterpolateCubic;
-    procedure SplineInterpolateCubicHermite;
-    procedure SplineNoInterpolate;
+    FBackground: boolean;
+    { the last geometry built in background; it is shown until the next one is ready }
+    FReadyKey: uint64;
+    FReadyPoints: TPoints;
+    FReadyIndexes: TIndexes;
+    FTask: TObject;
+    function GetKey: uint64;
+    procedure RunTask(AKey: uint64);
+    procedure FillMesh(const APoints: TPoints; const AIndexes: TIndexes);
   protected
-
     procedure DoBuild; override;
   public
     constructor Create(ACanvas: TBCanvas; AParent: TCanvasObject); override;
+    destructor Destroy; override;
+    { interpolates the contours and triangulates them through TesselationCache;
+      does not touch a canvas, so it can be invoked in any thread with its own
+      ATesselator }
+    class procedure Tesselate(ATesselator: TBlackSharkTesselator; const APoints: TPoints; const AContours: TContours;
+      AInterpolate: TInterpolateSpline; AQuality: BSFloat; var OutPoints: TPoints; var OutIndexes: TIndexes); static;
     procedure AddContour(const AContour: array of TVec2f); overload;
     procedure AddContour(const AContour: TListVec<TVec2f>); overload;
     procedure AddContour(const AContour: array of TVec3f); overload;
-    procedure BeginContour;
+    { contours of different groups do not make holes in each other; a changed
+      shape is triangulated again only for its changed groups }
+    procedure BeginContour(AGroup: int8 = 0);
     procedure AddPoint(const APoint: TVec2f);
     procedure EndContour;
     procedure Clear;
     procedure Save(const FileName: string);
     property Interpolate: TInterpolateSpline read FInterpolateSpline write FInterpolateSpline;
     property QualityInterpolate: BSFloat read FQualityInterpolate write FQualityInterpolate;
+    { if true, the shape is interpolated and triangulated by a worker (see
+      BSJobs), and the previous geometry stays on the screen until the new one
+      is ready }
+    property Background: boolean read FBackground write FBackground;
   end;
 
   TCanvasEvent = IBEmptyEvent;
@@ -1107,8 +1124,70 @@ uses
   , bs.frustum
   , bs.utils
   , bs.strings
+  , bs.jobs
   ;
 
+type
+
+  { TFreeShapeTask
+    interpolates and triangulates a copy of contours of TFreeShape in a worker }
+
+  TFreeShapeTask = class
+  public
+    Shape: TFreeShape;
+    Key: uint64;
+    Interpolate: TInterpolateSpline;
+    Quality: BSFloat;
+    Points: TFreeShape.TPoints;
+    Contours: TFreeShape.TContours;
+    OutPoints: TFreeShape.TPoints;
+    OutIndexes: TFreeShape.TIndexes;
+    { the triangulation has raised an exception, the result is not used }
+    Failed: boolean;
+    procedure OnExecute(AData: Pointer);
+    procedure OnDone(AData: Pointer);
+  end;
+
+{ TFreeShapeTask }
+
+procedure TFreeShapeTask.OnExecute(AData: Pointer);
+var
+  tesselator: TBlackSharkTesselator;
+begin
+  TBlackSharkTesselator.TListPoints.Create(OutPoints, 64);
+  TBlackSharkTesselator.TListIndexes.Create(OutIndexes, 64);
+  { the global Tesselator belongs to the GUI thread }
+  tesselator := TBlackSharkTesselator.Create;
+  try
+    try
+      TFreeShape.Tesselate(tesselator, Points, Contours, Interpolate, Quality, OutPoints, OutIndexes);
+    except
+      Failed := true;
+      raise;
+    end;
+  finally
+    tesselator.Free;
+  end;
+end;
+
+procedure TFreeShapeTask.OnDone(AData: Pointer);
+begin
+  try
+    if Assigned(Shape) then
+    begin
+      Shape.FTask := nil;
+      if Failed then
+        exit;
+      Shape.FReadyKey := Key;
+      Shape.FReadyPoints := OutPoints;
+      Shape.FReadyIndexes := OutIndexes;
+      Shape.Build;
+    end;
+  finally
+    Free;
+  end;
+end;
+
 function CreateCanvasEventObserver(const ACanvasEvent: TCanvasEvent; ObserverProc: TGenericRecieveProc<BEmpty>): TCanvasEventObserver;
 begin
   Result := CreateEmptyObserver(ACanvasEvent, ObserverProc);
@@ -2147,6 +2226,18 @@ begin
     SetCanvasObjectPosition(pos.X, pos.Y, Data.BaseInstance);
 end;
 
+procedure TCanvasText.TextEdited(APosition, ACountDeleted, ACountInserted: int32);
+var
+  pos: TVec2f;
+begin
+  pos := FPosition2d;
+  TGraphicObjectText(Data).TextEdited(APosition, ACountDeleted, ACountInserted);
+  if Anchors[aRight] or Anchors[aBottom] then
+    TryRealign
+  else
+    SetCanvasObjectPosition(pos.X, pos.Y, Data.BaseInstance);
+end;
+
 procedure TCanvasText.UpdateObservices;
 begin
   if (TGraphicObjectText(FData).Font <> Canvas.Font) then
@@ -4634,12 +4725,13 @@ begin
     FPosition2d.y := APoint.y;
 end;
 
-procedure TFreeShape.BeginContour;
+procedure TFreeShape.BeginContour(AGroup: int8);
 var
   contour: TContour;
 begin
   FillChar(contour, SizeOf(contour), 0);
   contour.PointIndexBegin := FPoints.Count;
+  contour.Group := AGroup;
   TBlackSharkTesselator.TListContours.Add(FContours, contour);
 end;
 
@@ -4657,16 +4749,37 @@ begin
   FQualityInterpolate := 0.2;
   TBlackSharkTesselator.TListPoints.Create(FPoints, 32);
   TBlackSharkTesselator.TListContours.Create(FContours, 4);
-  FuncIntrp[isNone        ] := SplineNoInterpolate;
-  FuncIntrp[isBezier      ] := SplineInterpolateBezier;
-  FuncIntrp[isCubic       ] := SplineInterpolateCubic;
-  FuncIntrp[isCubicHermite] := SplineInterpolateCubicHermite;
+end;
+
+destructor TFreeShape.Destroy;
+begin
+  if Assigned(FTask) then
+    TFreeShapeTask(FTask).Shape := nil;
+  inherited;
 end;
 
 procedure TFreeShape.DoBuild;
+var
+  key: uint64;
+  points: TPoints;
+  indexes: TIndexes;
 begin
   if FPoints.Count > 1 then
-    FuncIntrp[FInterpolateSpline]();
+  begin
+    if FBackground then
+    begin
+      key := GetKey;
+      if key <> FReadyKey then
+        RunTask(key);
+      FillMesh(FReadyPoints, FReadyIndexes);
+    end else
+    begin
+      TBlackSharkTesselator.TListPoints.Create(points{%H-}, 64);
+      TBlackSharkTesselator.TListIndexes.Create(indexes{%H-}, 64);
+      Tesselate(Tesselator, FPoints, FContours, FInterpolateSpline, FQualityInterpolate, points, indexes);
+      FillMesh(points, indexes);
+    end;
+  end;
   Data.Mesh.CalcBoundingBox(true);
 end;
 
@@ -4695,136 +4808,90 @@ begin
   end;
 end;
 
-procedure TFreeShape.SplineInterpolateBezier;
+function TFreeShape.GetKey: uint64;
 var
-  out_values: TListVec<TVec3f>;
-  i, j: int32;
-  out_points: TPoints;
-  out_contours: TContours;
-  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
-  contour: TContour;
+  i: int32;
 begin
-  out_values := nil;
-  out_points.Items := nil;
-  out_contours.Items := nil;
-  TBlackSharkTesselator.TListPoints.Create(out_points, 64);
-  TBlackSharkTesselator.TListContours.Create(out_contours, FContours.Count);
+  Result := GetHashFNV64(@FInterpolateSpline, SizeOf(FInterpolateSpline));
+  Result := GetHashFNV64(@FQualityInterpolate, SizeOf(FQualityInterpolate), Result);
   for i := 0 to FContours.Count - 1 do
   begin
-    contour.PointIndexBegin := out_points.Count;
-    GenerateBezierSpline(PArrayVec3f(@FPoints.Items[FContours.Items[i].PointIndexBegin]), FContours.Items[i].CountPoints, out_values, FQualityInterpolate);
-    for j := 0 to out_values.Count - 1 do
-      TBlackSharkTesselator.TListPoints.Add(out_points, out_values.Items[j]);
-
-    contour.CountPoints := out_values.Count;
-    TBlackSharkTesselator.TListContours.Add(out_contours, contour);
-    out_values.Count := 0;
-  end;
-  out_values.Free;
-  indexes.Items := nil;
-  TBlackSharkTesselator.TListIndexes.Create(indexes, 64);
-  Tesselator.Triangulate(out_points, out_contours, indexes);
-  for i := 0 to out_points.Count - 1 do
-  begin
-    Data.Mesh.AddVertex(out_points.Items[i]);
-  end;
-  for i := 0 to indexes.Count - 1 do
-  begin
-    Data.Mesh.Indexes.Add(indexes.Items[i]);
+    Result := GetHashFNV64(@FContours.Items[i].CountPoints, SizeOf(FContours.Items[i].CountPoints), Result);
+    Result := GetHashFNV64(@FContours.Items[i].Group, SizeOf(FContours.Items[i].Group), Result);
   end;
+  if FPoints.Count > 0 then
+    Result := GetHashFNV64(@FPoints.Items[0], FPoints.Count * SizeOf(TVec3f), Result);
 end;
 
-procedure TFreeShape.SplineInterpolateCubic;
+procedure TFreeShape.RunTask(AKey: uint64);
 var
-  out_values: TListVec<TVec3f>;
-  i, j: int32;
-  out_points: TPoints;
-  out_contours: TContours;
-  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
-  contour: TContour;
+  task: TFreeShapeTask;
 begin
-  out_values := nil;
-  out_points.Items := nil;
-  out_contours.Items := nil;
-  TBlackSharkTesselator.TListPoints.Create(out_points, 64);
-  TBlackSharkTesselator.TListContours.Create(out_contours, FContours.Count);
-  for i := 0 to FContours.Count - 1 do
-  begin
-    contour.PointIndexBegin := out_points.Count;
-    GenerateCubicSpline(PArrayVec3f(@FPoints.Items[FContours.Items[i].PointIndexBegin]), FContours.Items[i].CountPoints, out_values, FQualityInterpolate);
-    for j := 0 to out_values.Count - 1 do
-      TBlackSharkTesselator.TListPoints.Add(out_points, out_values.Items[j]);
-
-    contour.CountPoints := out_values.Count;
-    TBlackSharkTesselator.TListContours.Add(out_contours, contour);
-    out_values.Count := 0;
-  end;
-  out_values.Free;
-  indexes.Items := nil;
-  TBlackSharkTesselator.TListIndexes.Create(indexes, 64);
-  Tesselator.Triangulate(out_points, out_contours, indexes);
-  for i := 0 to out_points.Count - 1 do
-  begin
-    Data.Mesh.AddVertex(out_points.Items[i]);
-  end;
-  for i := 0 to indexes.Count - 1 do
-  begin
-    Data.Mesh.Indexes.Add(indexes.Items[i]);
-  end;
+  { only one task at a time; when it is done, the shape is built again and
+    starts a task for the last geometry if it has been changed meanwhile }
+  if Assigned(FTask) then
+    exit;
+  task := TFreeShapeTask.Create;
+  task.Shape := Self;
+  task.Key := AKey;
+  task.Interpolate := FInterpolateSpline;
+  task.Quality := FQualityInterpolate;
+  TBlackSharkTesselator.TListPoints.Create(task.Points, FPoints.Count);
+  TBlackSharkTesselator.TListPoints.Copy(task.Points, FPoints);
+  TBlackSharkTesselator.TListContours.Create(task.Contours, FContours.Count);
+  TBlackSharkTesselator.TListContours.Copy(task.Contours, FContours);
+  FTask := task;
+  BSJobs.Run(task.OnExecute, nil, task.OnDone);
+end;
+
+procedure TFreeShape.FillMesh(const APoints: TPoints; const AIndexes: TIndexes);
+var
+  i: int32;
+begin
+  for i := 0 to APoints.Count - 1 do
+    Data.Mesh.AddVertex(APoints.Items[i]);
+  for i := 0 to AIndexes.Count - 1 do
+    Data.Mesh.Indexes.Add(AIndexes.Items[i]);
 end;
 
-procedure TFreeShape.SplineInterpolateCubicHermite;
+class procedure TFreeShape.Tesselate(ATesselator: TBlackSharkTesselator; const APoints: TPoints; const AContours: TContours;
+  AInterpolate: TInterpolateSpline; AQuality: BSFloat; var OutPoints: TPoints; var OutIndexes: TIndexes);
 var
   out_values: TListVec<TVec3f>;
   i, j: int32;
-  out_points: TPoints;
   out_contours: TContours;
-  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
   contour: TContour;
 begin
+  if AInterpolate = isNone then
+  begin
+    TBlackSharkTesselator.TListPoints.Copy(OutPoints, APoints);
+    TesselationCache.Triangulate(ATesselator, APoints, AContours, OutIndexes);
+    exit;
+  end;
+
   out_values := nil;
-  TBlackSharkTesselator.TListPoints.Create(out_points{%H-}, 64);
-  TBlackSharkTesselator.TListContours.Create(out_contours{%H-}, FContours.Count);
-  for i := 0 to FContours.Count - 1 do
+  TBlackSharkTesselator.TListContours.Create(out_contours{%H-}, AContours.Count);
+  for i := 0 to AContours.Count - 1 do
   begin
-    contour.PointIndexBegin := out_points.Count;
-    GenerateCubicHermiteSpline(PArrayVec3f(@FPoints.Items[FContours.Items[i].PointIndexBegin]), FContours.Items[i].CountPoints, out_values, FQualityInterpolate, true);
+    contour := AContours.Items[i];
+    contour.PointIndexBegin := OutPoints.Count;
+    case AInterpolate of
+      isBezier:
+        GenerateBezierSpline(PArrayVec3f(@APoints.Items[AContours.Items[i].PointIndexBegin]), AContours.Items[i].CountPoints, out_values, AQuality);
+      isCubic:
+        GenerateCubicSpline(PArrayVec3f(@APoints.Items[AContours.Items[i].PointIndexBegin]), AContours.Items[i].CountPoints, out_values, AQuality);
+      isCubicHermite:
+        GenerateCubicHermiteSpline(PArrayVec3f(@APoints.Items[AContours.Items[i].PointIndexBegin]), AContours.Items[i].CountPoints, out_values, AQuality, true);
+    end;
     for j := 0 to out_values.Count - 1 do
-      TBlackSharkTesselator.TListPoints.Add(out_points, out_values.Items[j]);
+      TBlackSharkTesselator.TListPoints.Add(OutPoints, out_values.Items[j]);
 
     contour.CountPoints := out_values.Count;
     TBlackSharkTesselator.TListContours.Add(out_contours, contour);
     out_values.Count := 0;
   end;
   out_values.Free;
-  TBlackSharkTesselator.TListIndexes.Create(indexes{%H-}, 64);
-  Tesselator.Triangulate(out_points, out_contours, indexes);
-  for i := 0 to out_points.Count - 1 do
-  begin
-    Data.Mesh.AddVertex(out_points.Items[i]);
-  end;
-  for i := 0 to indexes.Count - 1 do
-  begin
-    Data.Mesh.Indexes.Add(indexes.Items[i]);
-  end;
-end;
-
-procedure TFreeShape.SplineNoInterpolate;
-var
-  i: int32;
-  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
-begin
-  indexes.Items := nil;
-  TBlackSharkTesselator.TListIndexes.Create(indexes, 64);
-  Tesselator.Triangulate(FPoints, FContours, indexes);
-  for i := 0 to FPoints.Count - 1 do
-  begin
-    Data.Mesh.AddVertex(FPoints.Items[i]);
-  end;
-  for i := 0 to indexes.Count - 1 do
-  begin
-    Data.Mesh.Indexes.Add(indexes.Items[i]);
-  end;
+  TesselationCache.Triangulate(ATesselator, OutPoints, out_contours, OutIndexes);
 end;
 
 { TBaseLine }
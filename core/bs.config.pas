@@ -70,6 +70,27 @@ type
       otherwise all tasks accomplish in gui thread; for to get an executer your any task you
       can use method bs.thread.NextExecutor; how use it see an example bs.test.gui.TBSTestSimpleAnimation }
     class var UseTaskExecutersSet: boolean;
+    { collects the per-frame statistics (see bs.frame.stats) }
+    class var FrameStats: boolean;
+    { the renderer sorts visible instances by states and merges small 2d
+      primitives with the same shader and texture (see bs.renderer.batch) }
+    class var DrawBatching: boolean;
+    { time in microseconds which GUIThread spends per frame on upload of textures
+      loaded by BSTextureManager.LoadTextureAsync }
+    class var TextureUploadBudget: int32;
+    { bytes of GPU memory for textures; when it is exceeded BSTextureManager
+      deletes from GPU least recently used textures which were not drawn in the
+      last frame and can be loaded again; 0 - unlimited }
+    class var TextureMemoryBudget: int64;
+    { bs.mesh.loaders writes a binary cache next to an imported model and loads
+      it instead of parsing the text of the model while the model is not changed }
+    class var MeshCache: boolean;
+    { bs.shader keeps programs linked by the driver in AppPath\ShadersCache and
+      loads them instead of compile the sources (see TShaderProgramCache) }
+    class var ShaderCache: boolean;
+    { a new renderer redraws only regions of the screen changed since the previous
+      frame (see bs.renderer.damage); it suits mostly static GUI scenes }
+    class var PartialRedraw: boolean;
     { custom properties; you can add here your any custom properties for your application }
     class var Properties: THashTable<string, string>;
     class function GetProperty(const AName: string; ADefault: int32): int32; overload;
@@ -88,6 +109,7 @@ uses
   , bs.log
   {$endif}
   , bs.utils
+  , bs.vfs
   ;
 
 { BSConfig }
@@ -119,6 +141,13 @@ begin
   VerticalSynchronization := true;
   FMaxFps := false;
   UseTaskExecutersSet := false;
+  FrameStats := true;
+  DrawBatching := false;
+  TextureUploadBudget := 2000;
+  TextureMemoryBudget := 0;
+  MeshCache := true;
+  ShaderCache := true;
+  PartialRedraw := false;
   CalculateVoxelSize;
   UpdateCommonAttributes;
 end;
@@ -147,15 +176,23 @@ begin
   Properties.TryAddOrReplace('UseTaskExecutersSet', BoolToStr(UseTaskExecutersSet));
   Properties.TryAddOrReplace('VerticalSynchronization', BoolToStr(VerticalSynchronization));
   Properties.TryAddOrReplace('WriteLog', BoolToStr(WriteLog));
+  Properties.TryAddOrReplace('FrameStats', BoolToStr(FrameStats));
+  Properties.TryAddOrReplace('DrawBatching', BoolToStr(DrawBatching));
+  Properties.TryAddOrReplace('TextureUploadBudget', IntToStr(TextureUploadBudget));
+  Properties.TryAddOrReplace('TextureMemoryBudget', IntToStr(TextureMemoryBudget));
+  Properties.TryAddOrReplace('MeshCache', BoolToStr(MeshCache));
+  Properties.TryAddOrReplace('ShaderCache', BoolToStr(ShaderCache));
+  Properties.TryAddOrReplace('PartialRedraw', BoolToStr(PartialRedraw));
 end;
 
 class procedure BSConfig.Load;
 var
-  ini: TIniFile;
+  ini: TMemIniFile;
   slCustom: TStringList;
   s: string;
   keyVal: TArray<string>;
   fn: string;
+  f: TStream;
 begin
   fn := GetFileProperties;
 
@@ -163,7 +200,7 @@ begin
   BSWriteMsg('BSConfig.Load', 'Trying to load the application file properties... "' + fn + '"');
   {$endif}
 
-  if not FileExists(fn) then
+  if not FileExistsVFS(fn) then
   begin
     {$ifdef DEBUG_BS}
     BSWriteMsg('BSConfig.Load', 'The applicatoin file properties does not found');
@@ -172,7 +209,21 @@ begin
     exit;
   end;
 
-  ini := TIniFile.Create(fn);
+  { the file may be served by the virtual file system, therefore it is read
+    through a stream }
+  ini := TMemIniFile.Create('');
+  slCustom := TStringList.Create;
+  try
+    f := OpenFileVFS(fn);
+    try
+      slCustom.LoadFromStream(f);
+    finally
+      f.Free;
+    end;
+    ini.SetStrings(slCustom);
+  finally
+    slCustom.Free;
+  end;
 
   {$ifdef FPC}
   ini.BoolTrueStrings := ['-1'];
@@ -187,6 +238,13 @@ begin
   MaxFps := ini.ReadBool('app', 'MaxFps', FMaxFps);
   VerticalSynchronization := ini.ReadBool('app', 'VerticalSynchronization', VerticalSynchronization);
   WriteLog := ini.ReadBool('app', 'WriteLog', WriteLog);
+  FrameStats := ini.ReadBool('app', 'FrameStats', FrameStats);
+  DrawBatching := ini.ReadBool('app', 'DrawBatching', DrawBatching);
+  TextureUploadBudget := ini.ReadInteger('app', 'TextureUploadBudget', TextureUploadBudget);
+  TextureMemoryBudget := ini.ReadInt64('app', 'TextureMemoryBudget', TextureMemoryBudget);
+  MeshCache := ini.ReadBool('app', 'MeshCache', MeshCache);
+  ShaderCache := ini.ReadBool('app', 'ShaderCache', ShaderCache);
+  PartialRedraw := ini.ReadBool('app', 'PartialRedraw', PartialRedraw);
 
   {$ifdef DEBUG_BS}
   BSWriteMsg('BSConfig.Load', 'MaxFps = ' + BoolToStr(MaxFps, true));
@@ -254,6 +312,8 @@ var
   ini: TIniFile;
   bucket: THashTable<string, string>.TBucket;
 begin
+  { the file is rewritten on a disk, so it must not be read from the archive after }
+  BSVirtualFS.Invalidate(GetFileProperties);
   ini := TIniFile.Create(GetFileProperties);
   {ini.WriteInteger('app', 'ResolutionWidth', FResolutionWidth);
   ini.WriteInteger('app', 'ResolutionHeigth', FResolutionHeight);
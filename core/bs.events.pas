@@ -223,6 +223,8 @@ type
     Proc: TUpdateTaskProc;
     Pos: TListTasks.PListItem;
     Deleted: boolean;
+    { Proc may be invoked by several workers at once (see TTemplateBTask<T>.ThreadSafe) }
+    ThreadSafe: boolean;
   end;
 
   { IBTask<T>
@@ -273,8 +275,11 @@ type
     FTasks: TListTasks;
     FAwaitTasks: TListAwaitTasks;
     FThreadContext: TBThread;
+    { thread safe tasks updated by BSJobs.ParallelFor in the current step }
+    FUpdates: TListVec<PRecTask>;
     function ProcessEvents: boolean;
-    function Add(const Task: IUnknown; TaskUpdateProc: TUpdateTaskProc): PRecTask; inline;
+    procedure UpdateTasks(AFrom, ATo: int32; {%H-}AData: Pointer);
+    function Add(const Task: IUnknown; TaskUpdateProc: TUpdateTaskProc; AThreadSafe: boolean): PRecTask; inline;
     procedure AddAwaitTask(AAwaitTaskProc: TAwaitTaskProc; ATimeAwait: Cardinal;  AData: Pointer); inline;
     procedure Remove(var TaskPos: PRecTask); inline;
     procedure ClearFromTasks;
@@ -287,7 +292,8 @@ type
   public
     constructor Create(AThreadContext: TBThread);
     destructor Destroy; override;
-    class function AddTask(const ATask: IUnknown; ATaskUpdateProc: TUpdateTaskProc; AContext: TBThread): PRecTask;
+    class function AddTask(const ATask: IUnknown; ATaskUpdateProc: TUpdateTaskProc; AContext: TBThread;
+      AThreadSafe: boolean = false): PRecTask;
     class procedure AwaitExecuteTask(AAwaitTaskProc: TAwaitTaskProc; ATimeAwait: Cardinal; AContext: TBThread; AData: Pointer); overload;
     class procedure AwaitExecuteTask(AAwaitTaskProc: TAwaitTaskProc; AData: Pointer; ATimeAwait: Cardinal); overload;
     class procedure AwaitExecuteTask(AAwaitTaskProc: TAwaitTaskProc; AData: Pointer); overload;
@@ -310,6 +316,7 @@ type
     Postn: PRecTask;
     //FTrapValue: TTaskTrapResult<T>;
     FIsRun: boolean;
+    FThreadSafe: boolean;
     procedure OnAutoStop(const Value: BEmpty);
     procedure StartStop(const Value: BOpCode);
   protected
@@ -331,6 +338,10 @@ type
     procedure Stop; virtual;
     property IsRun: boolean read GetIsRun;
     property IntervalUpdate: int32 read GetIntervalUpdate write SetIntervalUpdate;
+    { Update touches only own data of the task, so the tasks of a context of
+      the pool may be updated by several workers at once; by default tasks are
+      updated one by one in the context; set before Run }
+    property ThreadSafe: boolean read FThreadSafe write FThreadSafe;
   end;
 
   IBEmptyTask = IBTaskObservable<byte>;
@@ -394,19 +405,25 @@ type
 implementation
 
 uses
-  SysUtils
+    SysUtils
+  , bs.jobs
   {$ifdef DEBUG_BS}
   , bs.log
   {$endif}
   ;
 
+const
+  { the least count of tasks updated by one job; thread safe tasks of a context
+    of the pool are updated in parallel if there are at least two such parts }
+  TASKS_PARALLEL_BATCH = 16;
+
 type
 
   TBMouseEvent = class(TTemplateBEvent<BMouseData>, IBMouseEvent)
   private
     type
       TMouseItemQ = TItemQueue<BMouseData>;
-      TMouseDataQ = TQueueTemplate<TMouseItemQ>;
+      TMouseDataQ = TQueueMPSCTemplate<TMouseItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer; X, Y, DeltaWeel: int32; Button: TBSMouseButtons; ShiftState: TBSShiftState);
@@ -418,7 +435,7 @@ type
   private
     type
       TKeyItemQ = TItemQueue<BKeyData>;
-      TKeyDataQ = TQueueTemplate<TKeyItemQ>;
+      TKeyDataQ = TQueueMPSCTemplate<TKeyItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer; Key: Word; ShiftState: TBSShiftState);
@@ -430,7 +447,7 @@ type
   private
     type
       TWindResizeItemQ = TItemQueue<BResizeEventData>;
-      TWindResizeDataQ = TQueueTemplate<TWindResizeItemQ>;
+      TWindResizeDataQ = TQueueMPSCTemplate<TWindResizeItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
   public
@@ -444,7 +461,7 @@ type
   private
     type
       TEmptyItemQ = TItemQueue<BEmpty>;
-      TEmptyDataQ = TQueueTemplate<TEmptyItemQ>;
+      TEmptyDataQ = TQueueMPSCTemplate<TEmptyItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer);
@@ -456,7 +473,7 @@ type
   private
     type
       TMsgItemQ = TItemQueue<BMessage>;
-      TMsgDataQ = TQueueTemplate<TMsgItemQ>;
+      TMsgDataQ = TQueueMPSCTemplate<TMsgItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
   end;
@@ -467,7 +484,7 @@ type
   private
     type
       TOpCodeItemQ = TItemQueue<BOpCode>;
-      TOpCodeDataQ = TQueueTemplate<TOpCodeItemQ>;
+      TOpCodeDataQ = TQueueMPSCTemplate<TOpCodeItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer; OpCode: int32; Data: NativeInt = -1; Data2: NativeInt = -1);
@@ -479,7 +496,7 @@ type
   private
     type
       TEmptyItemQ = TItemQueue<byte>;
-      TEmptyDataQ = TQueueTemplate<TEmptyItemQ>;
+      TEmptyDataQ = TQueueMPSCTemplate<TEmptyItemQ>;
   private
     LastTime: uint64;
   protected
@@ -493,7 +510,7 @@ type
   private
     type
       TFocusItemQ = TItemQueue<BFocusEventData>;
-      TFocusDataQ = TQueueTemplate<TFocusItemQ>;
+      TFocusDataQ = TQueueMPSCTemplate<TFocusItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer; Control: Pointer; Focused: boolean; ControlLevel: int32);
@@ -505,7 +522,7 @@ type
   private
     type
       TDragDropItemQ = TItemQueue<BDragDropData>;
-      TDragDropDataQ = TQueueTemplate<TDragDropItemQ>;
+      TDragDropDataQ = TQueueMPSCTemplate<TDragDropItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer; CheckDragParent: boolean);
@@ -517,7 +534,7 @@ type
   private
     type
       TTransformItemQ = TItemQueue<BTransformData>;
-      TTransformDataQ = TQueueTemplate<TTransformItemQ>;
+      TTransformDataQ = TQueueMPSCTemplate<TTransformItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(Instance: Pointer; MeshTransformed: boolean);
@@ -760,7 +777,7 @@ begin
     FIsRun := true;
     if Postn <> nil then
       exit;
-    Postn := TTaskExecutor.AddTask(Self as IUnknown, Update, ThreadContext);
+    Postn := TTaskExecutor.AddTask(Self as IUnknown, Update, ThreadContext, FThreadSafe);
   end else
   if Value.OpCode = TASK_STOP then
   begin
@@ -885,13 +902,14 @@ end;
 
 { TTaskExecutor }
 
-function TTaskExecutor.Add(const Task: IUnknown; TaskUpdateProc: TUpdateTaskProc): PRecTask;
+function TTaskExecutor.Add(const Task: IUnknown; TaskUpdateProc: TUpdateTaskProc; AThreadSafe: boolean): PRecTask;
 begin
   new(Result);
   Result.Task := Pointer(Task);
   Result.Proc := TaskUpdateProc;
   Result.Pos := FTasks.PushToEnd(Result);
   Result.Deleted := false;
+  Result.ThreadSafe := AThreadSafe;
 end;
 
 procedure TTaskExecutor.AddAwaitTask(AAwaitTaskProc: TAwaitTaskProc; ATimeAwait: Cardinal; AData: Pointer);
@@ -906,7 +924,8 @@ begin
   awaitTask.TimeStart := TBTimer.CurrentTime.Low;
 end;
 
-class function TTaskExecutor.AddTask(const ATask: IUnknown; ATaskUpdateProc: TUpdateTaskProc; AContext: TBThread): PRecTask;
+class function TTaskExecutor.AddTask(const ATask: IUnknown; ATaskUpdateProc: TUpdateTaskProc; AContext: TBThread;
+  AThreadSafe: boolean): PRecTask;
 var
   exec: TTaskExecutor;
 begin
@@ -917,7 +936,7 @@ begin
   try
     inc(FCountTasks);
     exec := GetExecuter(AContext);
-    Result := exec.Add(ATask, ATaskUpdateProc);
+    Result := exec.Add(ATask, ATaskUpdateProc, AThreadSafe);
   finally
     CS.Leave;
   end;
@@ -986,6 +1005,7 @@ begin
   AThreadContext.AddUpdateMethod(ProcessEvents);
   FTasks := TListTasks.Create;
   FAwaitTasks := TListAwaitTasks.Create;
+  FUpdates := TListVec<PRecTask>.Create;
 end;
 
 destructor TTaskExecutor.Destroy;
@@ -995,6 +1015,7 @@ begin
   Executors.Items[FThreadContext.Index] := nil;
   FTasks.Free;
   FAwaitTasks.Free;
+  FUpdates.Free;
 end;
 
 class function TTaskExecutor.GetExecuter(AContext: TBThread): TTaskExecutor;
@@ -1028,8 +1049,13 @@ var
   pit: PRecTask;
   awaitTaskIt: TListAwaitTasks.PListItem;
   awaitTask: PAwaitTask;
+  parallel: boolean;
 begin
   Result := FTasks.Count > 0;
+  { tasks are updated in the context; only thread safe tasks of a context of
+    the pool are put aside to update them by all workers, a task is updated by
+    one worker only }
+  parallel := FThreadContext is TJobContext;
   it := FTasks.ItemListFirst;
   while Assigned(it) do
   begin
@@ -1040,8 +1066,20 @@ begin
       FTasks.Remove(pit.Pos);
       dispose(pit);
     end else
+    if parallel and pit.ThreadSafe then
+      FUpdates.Add(pit)
+    else
       pit.Proc();
   end;
+  if FUpdates.Count > 0 then
+  try
+    if FUpdates.Count >= TASKS_PARALLEL_BATCH * 2 then
+      BSJobs.ParallelFor(FUpdates.Count, UpdateTasks, nil, TASKS_PARALLEL_BATCH)
+    else
+      UpdateTasks(0, FUpdates.Count - 1, nil);
+  finally
+    FUpdates.Count := 0;
+  end;
 
   if not Result then
     Result := FAwaitTasks.Count > 0;
@@ -1060,6 +1098,14 @@ begin
   end;
 end;
 
+procedure TTaskExecutor.UpdateTasks(AFrom, ATo: int32; AData: Pointer);
+var
+  i: int32;
+begin
+  for i := AFrom to ATo do
+    FUpdates.Items[i].Proc();
+end;
+
 procedure TTaskExecutor.Remove(var TaskPos: PRecTask);
 begin
   TaskPos.Deleted := true;
@@ -35,6 +35,10 @@ warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
     - supports mixed mode (with the use a special class TTrueTypeRasterFont)
     allowing automaticaly for a size of font a smaller threshold to display from
     a texture and if the size more threshold to display from meshes;
+    - supports signed distance fields of glyphs (the class TTrueTypeSDFFont):
+    every glyph is rasterized once into an atlas shared by all sizes of a font
+    and is drawn by a special shader, so a text is scaled without repeated
+    rasterization;
     - for sharing between consumers and managing the lifetime fonts have automatic
     reference counting;
 
@@ -381,8 +385,8 @@ type
     {$endif}
     function GetTexture: IBlackSharkTexture; stdcall;
     function GetOnChangeEvent: IBEmptyEvent; stdcall;
-    procedure BeginUpdate; stdcall;
-    function EndUpdate(FontSizeInPixels: int32; Reload: boolean): boolean; stdcall;
+    procedure BeginUpdate; virtual; stdcall;
+    function EndUpdate(FontSizeInPixels: int32; Reload: boolean): boolean; virtual; stdcall;
   public
     constructor Create(AWidth: int32; AHeight: int32; TrilinearFilter: boolean; const Name: string);
     destructor Destroy; override;
@@ -393,6 +397,77 @@ type
     property OnChangeEvent: IBEmptyEvent read GetOnChangeEvent;
   end;
 
+  { TSDFFontTexture
+
+    The atlas of signed distance fields of glyphs shared by all sizes of a font
+    (see TTrueTypeSDFFont); the atlas is a grid of equal cells, a glyph is found
+    by a hash of its code point; if the grid is full then the atlas is doubled
+    up to MAX_ATLAS_SIZE, and only then the least recently used cell is reused;
+    glyphs used since the outermost BeginUpdate are not pushed out while there
+    are other cells; the event OnChangeEvent is sent for keys of fonts after the
+    outermost EndUpdate if glyphs were pushed out or moved in UV by growth }
+
+  TSDFFontTexture = class(TFontTexture)
+  public
+    const
+      { the initial size of the atlas }
+      ATLAS_SIZE = 1024;
+      MAX_ATLAS_SIZE = 4096;
+      CELL_SIZE = 64;
+    type
+      PSDFGlyph = ^TSDFGlyph;
+      TSDFGlyph = record
+        Code: uint32;
+        Cell: int32;
+        { the glyph without the spread in pixels of the atlas }
+        Rect: TRectBSf;
+        { the glyph without the spread }
+        UV: TRectBSf;
+        { pixels of the atlas in one unit of the font }
+        Scale: BSFloat;
+        LastUsed: uint32;
+      end;
+  private
+    FGlyphs: THashTable<uint32, PSDFGlyph>;
+    FCells: array of PSDFGlyph;
+    { positions of cells in pixels; cells added by growth go after old ones }
+    FCellsPos: array of TVec2i;
+    FCountGlyphs: int32;
+    FSize: int32;
+    FTick: uint32;
+    { the tick of the outermost BeginUpdate }
+    FPinTick: uint32;
+    FEvictions: int32;
+    FGrowths: int32;
+    ChangedInUpdate: boolean;
+    function GetCountCells: int32;
+    procedure AddCells(FromSize, ToSize: int32);
+    function Grow: boolean;
+    function FindVictim: int32;
+  protected
+    procedure BeginUpdate; override;
+    function EndUpdate(FontSizeInPixels: int32; Reload: boolean): boolean; override;
+  public
+    constructor Create(const Name: string);
+    destructor Destroy; override;
+    { finds the glyph and marks it as recently used }
+    function FindGlyph(Code: uint32; out Glyph: PSDFGlyph): boolean;
+    { finds the glyph without the mark }
+    function PeekGlyph(Code: uint32): PSDFGlyph;
+    { reserves a cell for the glyph; CellPos is a position of the cell in
+      rows of the picture memory (from top to bottom); the atlas can grow, so
+      UV must be calculated by the current Size }
+    function AddGlyph(Code: uint32; out CellPos: TVec2i): PSDFGlyph;
+    property CountCells: int32 read GetCountCells;
+    property CountGlyphs: int32 read FCountGlyphs;
+    { the current width and height of the atlas }
+    property Size: int32 read FSize;
+    { amount of glyphs pushed out from the atlas }
+    property Evictions: int32 read FEvictions;
+    { amount of doublings of the atlas }
+    property Growths: int32 read FGrowths;
+  end;
+
   { TODO: TBSFontStyle }
   TBSFontStyle = (fsBold, fsItalic, fsUnderline, fsStrikeOut);
 
@@ -407,6 +482,7 @@ type
     function GetAverageHeight: BSFloat; stdcall;
     function GetOnChangeEvent: IBEmptyEvent; stdcall;
     function GetIsVectoral: boolean; stdcall;
+    function GetIsDistanceField: boolean; stdcall;
     function GetSizeInPixels: int16; stdcall;
     procedure SetSizeInPixels(const Value: int16); stdcall;
     function GetTexture: IFontTexture; stdcall;
@@ -429,6 +505,8 @@ type
     property AverageHeight: BSFloat read GetAverageHeight;
     property OnChangeEvent: IBEmptyEvent read GetOnChangeEvent;
     property IsVectoral: boolean read GetIsVectoral;
+    { the texture contains signed distance fields of glyphs }
+    property IsDistanceField: boolean read GetIsDistanceField;
     property SizeInPixels: int16 read GetSizeInPixels write SetSizeInPixels;
     property Texture: IFontTexture read GetTexture write SetTexture;
     property Key[CodeUTF16: uint16]: PKeyInfo read GetKey;
@@ -502,7 +580,7 @@ type
     procedure SetIsVectoral(AValue: boolean);
     procedure CalcScale;
     { create texture for the font }
-    procedure CreateTexture;
+    procedure CreateTexture; virtual;
     { it calculate all contours; if the font textured then generated glyphs }
     procedure CalcContours; virtual;
     {$ifdef FPC}
@@ -520,6 +598,7 @@ type
     function GetAverageHeight: BSFloat; stdcall;
     function GetOnChangeEvent: IBEmptyEvent; stdcall;
     function GetIsVectoral: boolean; stdcall;
+    function GetIsDistanceField: boolean; virtual; stdcall;
     function GetSizeInPixels: int16; stdcall;
     procedure SetSizeInPixels(const Value: int16); stdcall;
     function GetTexture: IFontTexture; stdcall;
@@ -532,6 +611,9 @@ type
     procedure SetCodePage(const Value: TCodePage); stdcall;
     function GetName: string; stdcall;
     procedure OnChangeTexture(const {%H-}Value: BData); virtual;
+    { it is invoked by GetKey for an already built key while the text is being
+      selected (see BeginSelectChars) }
+    procedure KeyUsed({%H-}Key: PKeyInfo); virtual;
   public
     constructor Create(const AName: string); virtual;
     destructor Destroy; override;
@@ -569,6 +651,7 @@ type
     property PixelsPerInch: BSFloat read FPixelsPerInch write SetPixelsPerInch;
     property CodePage: TCodePage read FCodePage write SetCodePage;
     property IsVectoral: boolean read GetIsVectoral;
+    property IsDistanceField: boolean read GetIsDistanceField;
     property ID: uint32 read FID;
     { TODO: FontStyle }
     property FontStyle: TBSFontStyleSet read FFontStyle write FFontStyle;
@@ -693,6 +776,53 @@ type
     property MaxRasterSize: int16 read FMaxRasterSize write SetMaxRasterSize;
   end;
 
+  { TTrueTypeSDFFont }
+
+  { The class presents a text by signed distance fields of glyphs; every glyph
+    is rasterized once with the height of capital letters GLYPH_SIZE into the
+    atlas TSDFFontTexture shared by all sizes of the font; a change of the size
+    recalculates only quads of keys, the text is drawn by TTextFromSDFShader }
+
+  TTrueTypeSDFFont = class(TTrueTypeFont)
+  public
+    const
+      { the height of capital letters in the atlas, pixels }
+      GLYPH_SIZE = 48;
+      { the width of a band of distances on both sides of a contour, pixels of
+        the atlas }
+      SPREAD = 6;
+      { subpixels in a pixel of the atlas by one axis for calculating distances }
+      SUBPIXELS = 4;
+  private
+    type
+      TDistPoint = record
+        dx, dy: int16;
+      end;
+      TDistPoints = array of TDistPoint;
+  private
+    FAtlas: TSDFFontTexture;
+    FRasterizator: TBlackSharkBitMap;
+    FToInside: TDistPoints;
+    FToOutside: TDistPoints;
+    FCountRasterized: int32;
+    procedure BuildDistanceField(Raw: PKeyInfo; const CellPos: TVec2i; AScale: BSFloat);
+  protected
+    procedure CreateTexture; override;
+    function GetIsDistanceField: boolean; override;
+    procedure OnChangeTexture(const Value: BData); override;
+    procedure KeyUsed(Key: PKeyInfo); override;
+  public
+    destructor Destroy; override;
+    procedure CalcContours; override;
+    procedure BeginSelectChars; override;
+    procedure Triangulate(Key: PKeyInfo); override;
+    { a half width of the smoothed edge for TTextFromSDFShader }
+    class function Smoothing(ASizeInPixels: int32): BSFloat;
+    property Atlas: TSDFFontTexture read FAtlas;
+    { amount of glyphs rasterized by the instance }
+    property CountRasterized: int32 read FCountRasterized;
+  end;
+
   { Black Shark font header }
   TFontMainHeader = packed record
     Signature: array[0..3] of AnsiChar;
@@ -761,6 +891,7 @@ type
     class procedure OnDestroyFont(const Font: TBlackSharkCustomFont);
     class function GetDefaultFont: IBlackSharkFont; static;
     class function GetTexture(const Name: string; FontSize: int32; CountRects: uint32): IFontTexture;
+    class function GetSDFTexture(const Name: string): TSDFFontTexture;
     class procedure FreeTexture(const Texture: TFontTexture);
     class function GetCountFontTextures: int32; static;
     class function GetFonts: TListVec<string>; static;
@@ -900,6 +1031,7 @@ uses
   , bs.strings
   , bs.stream
   , bs.math
+  , bs.vfs
   , math
   ;
 
@@ -1719,6 +1851,340 @@ begin
   end;
 end;
 
+{ TTrueTypeSDFFont }
+
+procedure TTrueTypeSDFFont.BeginSelectChars;
+begin
+  { the atlas has to be in the update of the text from the first glyph, so
+    the event about changed glyphs comes after the whole text is built, and
+    glyphs of the text are not pushed out by each other }
+  if (RawDataFont <> nil) and not FIsVectoral and ((FTexture = nil) or (FAtlas = nil)) then
+    CreateTexture;
+  inherited;
+end;
+
+procedure TTrueTypeSDFFont.BuildDistanceField(Raw: PKeyInfo; const CellPos: TVec2i; AScale: BSFloat);
+const
+  FAR_AWAY = 9999;
+var
+  w, h: int32;
+  bw, bh: int32;
+  x, y, i: int32;
+  v0, v1, v2: TVec2i;
+  src: PByte;
+  dst: PByte;
+  d_in, d_out: BSFloat;
+  dist: BSFloat;
+  s: BSFloat;
+
+  function ToSubpixels(const Point: TVec3f): TVec2f;
+  begin
+    Result := vec2(((Point.x - Raw^.Glyph^.xMin) * AScale + SPREAD) * SUBPIXELS,
+      ((Point.y - Raw^.Glyph^.yMin) * AScale + SPREAD) * SUBPIXELS);
+  end;
+
+  function Dist2(const Point: TDistPoint): int32; inline;
+  begin
+    Result := int32(Point.dx) * Point.dx + int32(Point.dy) * Point.dy;
+  end;
+
+  procedure Compare(var Grid: TDistPoints; X, Y, OffsetX, OffsetY: int32); inline;
+  var
+    other: TDistPoint;
+  begin
+    if (X + OffsetX < 0) or (X + OffsetX >= w) or (Y + OffsetY < 0) or (Y + OffsetY >= h) then
+      exit;
+    other := Grid[(Y + OffsetY) * w + X + OffsetX];
+    inc(other.dx, OffsetX);
+    inc(other.dy, OffsetY);
+    if Dist2(other) < Dist2(Grid[Y * w + X]) then
+      Grid[Y * w + X] := other;
+  end;
+
+  { the eight-points sequential euclidean distance transform: every point gets
+    an offset to the nearest seed }
+  procedure Propagate(var Grid: TDistPoints);
+  var
+    x, y: int32;
+  begin
+    for y := 0 to h - 1 do
+    begin
+      for x := 0 to w - 1 do
+      begin
+        Compare(Grid, x, y, -1,  0);
+        Compare(Grid, x, y,  0, -1);
+        Compare(Grid, x, y, -1, -1);
+        Compare(Grid, x, y,  1, -1);
+      end;
+      for x := w - 1 downto 0 do
+        Compare(Grid, x, y, 1, 0);
+    end;
+
+    for y := h - 1 downto 0 do
+    begin
+      for x := w - 1 downto 0 do
+      begin
+        Compare(Grid, x, y,  1, 0);
+        Compare(Grid, x, y,  0, 1);
+        Compare(Grid, x, y, -1, 1);
+        Compare(Grid, x, y,  1, 1);
+      end;
+      for x := 0 to w - 1 do
+        Compare(Grid, x, y, -1, 0);
+    end;
+  end;
+
+begin
+  bw := Min(ceil((Raw^.Glyph^.xMax - Raw^.Glyph^.xMin) * AScale) + SPREAD * 2, TSDFFontTexture.CELL_SIZE);
+  bh := Min(ceil((Raw^.Glyph^.yMax - Raw^.Glyph^.yMin) * AScale) + SPREAD * 2, TSDFFontTexture.CELL_SIZE);
+  w := bw * SUBPIXELS;
+  h := bh * SUBPIXELS;
+
+  if FRasterizator = nil then
+  begin
+    FRasterizator := TBlackSharkBitMap.Create;
+    FRasterizator.PixelFormat := TBSPixelFormat.pf8bit;
+  end;
+
+  { fills the contours by triangles; edges are drawn too, otherwise gaps
+    between triangles give false contours }
+  FRasterizator.SetSize(w, h);
+  FRasterizator.Canvas.Clear;
+  for i := 0 to Raw^.Indexes.Count div 3 - 1 do
+  begin
+    v0 := ToSubpixels(Raw^.Glyph^.Points.Items[Raw^.Indexes.Items[i*3  ]]);
+    v1 := ToSubpixels(Raw^.Glyph^.Points.Items[Raw^.Indexes.Items[i*3+1]]);
+    v2 := ToSubpixels(Raw^.Glyph^.Points.Items[Raw^.Indexes.Items[i*3+2]]);
+    FRasterizator.Canvas.DrawTriangle(v0, v1, v2, true);
+    FRasterizator.Canvas.DrawLine(v0, v1);
+    FRasterizator.Canvas.DrawLine(v1, v2);
+    FRasterizator.Canvas.DrawLine(v2, v0);
+  end;
+
+  if Length(FToInside) < w * h then
+  begin
+    SetLength(FToInside, w * h);
+    SetLength(FToOutside, w * h);
+  end;
+
+  for y := 0 to h - 1 do
+  begin
+    src := FRasterizator.Canvas.PtrOnColor(0, y);
+    for x := 0 to w - 1 do
+    begin
+      i := y * w + x;
+      if src^ > 127 then
+      begin
+        FToInside[i].dx := 0;
+        FToInside[i].dy := 0;
+        FToOutside[i].dx := FAR_AWAY;
+        FToOutside[i].dy := FAR_AWAY;
+      end else
+      begin
+        FToInside[i].dx := FAR_AWAY;
+        FToInside[i].dy := FAR_AWAY;
+        FToOutside[i].dx := 0;
+        FToOutside[i].dy := 0;
+      end;
+      inc(src);
+    end;
+  end;
+
+  Propagate(FToInside);
+  Propagate(FToOutside);
+
+  { writes the whole cell, because it could contain a pushed out glyph; rows of
+    the cell go from top to bottom as rows of the picture memory, and the
+    canvas counts Y from bottom }
+  s := 1 / (SUBPIXELS * SPREAD * 2);
+  for y := 0 to TSDFFontTexture.CELL_SIZE - 1 do
+  begin
+    dst := Map.Picture.Canvas.PtrOnColor(CellPos.x, Map.Picture.Height - 1 - (CellPos.y + y));
+    for x := 0 to TSDFFontTexture.CELL_SIZE - 1 do
+    begin
+      if (x < bw) and (y < bh) then
+      begin
+        i := ((bh - 1 - y) * SUBPIXELS + SUBPIXELS shr 1) * w + x * SUBPIXELS + SUBPIXELS shr 1;
+        d_out := sqrt(Dist2(FToInside[i]));
+        d_in := sqrt(Dist2(FToOutside[i]));
+        { 0.5 is the contour, more - inside }
+        dist := 0.5 + (d_in - d_out) * s;
+        if dist < 0 then
+          dist := 0
+        else
+        if dist > 1 then
+          dist := 1;
+        dst^ := round(dist * 255);
+      end else
+        dst^ := 0;
+      inc(dst);
+    end;
+  end;
+
+  Map.Picture.Canvas.Changed := true;
+  inc(FCountRasterized);
+end;
+
+procedure TTrueTypeSDFFont.CalcContours;
+begin
+  CalcScale;
+  { the prototype (a source of raw data) keeps only contours }
+  FIsVectoral := RawDataFont = nil;
+  if not FIsVectoral then
+    CreateTexture;
+  inherited CalcContours;
+end;
+
+procedure TTrueTypeSDFFont.CreateTexture;
+begin
+  if Assigned(FTexture) and Assigned(FAtlas) then
+    exit;
+  FAtlas := BSFontManager.GetSDFTexture('SDF' + FFileName);
+  FTexture := FAtlas;
+  Map := FTexture.Texture as TBlackSharkTextureMap;
+  ObserverChangeTexture := CreateEmptyObserver(FTexture.OnChangeEvent, OnChangeTexture);
+end;
+
+destructor TTrueTypeSDFFont.Destroy;
+begin
+  FAtlas := nil;
+  FRasterizator.Free;
+  inherited;
+end;
+
+function TTrueTypeSDFFont.GetIsDistanceField: boolean;
+begin
+  Result := not FIsVectoral;
+end;
+
+procedure TTrueTypeSDFFont.KeyUsed(Key: PKeyInfo);
+var
+  glyph: TSDFFontTexture.PSDFGlyph;
+begin
+  { marks the glyph as used by the build, so it is not pushed out by other
+    glyphs of the same text }
+  if Assigned(FAtlas) then
+    FAtlas.FindGlyph(Key^.Code, glyph);
+end;
+
+procedure TTrueTypeSDFFont.OnChangeTexture(const Value: BData);
+var
+  i: int32;
+  k: PKeyInfo;
+  g: TSDFFontTexture.PSDFGlyph;
+begin
+  { some cells of the atlas were reused or the atlas grew; keys referring to
+    changed glyphs are dropped and will be built again on demand (see GetKey) }
+  if Assigned(FTexture) and Assigned(FAtlas) and (FKeys[tsUnicodeCS2] <> nil) then
+    for i := 0 to FKeys[tsUnicodeCS2].Count - 1 do
+    begin
+      k := FKeys[tsUnicodeCS2].Items[i];
+      if (k = nil) or (k^.Glyph = nil) or (k^.Indexes.Count = 0) then
+        continue;
+      g := FAtlas.PeekGlyph(k^.Code);
+      if (g = nil) or (g^.UV.Left <> k^.UV.Left) or (g^.UV.Top <> k^.UV.Top) then
+      begin
+        k^.Glyph^.Points.Count := 0;
+        k^.Indexes.Count := 0;
+      end;
+    end;
+  inherited;
+end;
+
+class function TTrueTypeSDFFont.Smoothing(ASizeInPixels: int32): BSFloat;
+begin
+  { a half of a pixel of the screen in units of the distance field }
+  if ASizeInPixels < 1 then
+    ASizeInPixels := 1;
+  Result := GLYPH_SIZE / (4 * SPREAD * ASizeInPixels);
+  if Result > 0.5 then
+    Result := 0.5;
+end;
+
+procedure TTrueTypeSDFFont.Triangulate(Key: PKeyInfo);
+var
+  raw: PKeyInfo;
+  glyph: TSDFFontTexture.PSDFGlyph;
+  cell_pos: TVec2i;
+  w, h: BSFloat;
+  scale: BSFloat;
+  pad: BSFloat;
+  added: boolean;
+begin
+  inherited Triangulate(Key);
+
+  if (RawDataFont = nil) or FIsVectoral then
+    exit;
+
+  raw := RawDataFont.Key[Key^.Code];
+  if (raw = nil) or (raw^.Glyph = nil) or (raw^.Indexes.Count < 3) then
+    exit;
+
+  if (FTexture = nil) or (FAtlas = nil) then
+    CreateTexture;
+
+  w := raw^.Glyph^.xMax - raw^.Glyph^.xMin;
+  if w < 1 then
+    w := 1;
+  h := raw^.Glyph^.yMax - raw^.Glyph^.yMin;
+  if h < 1 then
+    h := 1;
+
+  added := not FAtlas.FindGlyph(Key^.Code, glyph);
+  { the update lasts until the key is complete, so the event about changed
+    glyphs does not find the key half built }
+  if added then
+    FTexture.BeginUpdate;
+  try
+    if added then
+    begin
+      { the scale does not depend on the size: FScale/FSizeInPixels = 1/(height of "A") }
+      scale := FScale * GLYPH_SIZE / FSizeInPixels;
+      { too big glyphs are reduced to the cell }
+      if w * scale > TSDFFontTexture.CELL_SIZE - SPREAD * 2 - 1 then
+        scale := (TSDFFontTexture.CELL_SIZE - SPREAD * 2 - 1) / w;
+      if h * scale > TSDFFontTexture.CELL_SIZE - SPREAD * 2 - 1 then
+        scale := (TSDFFontTexture.CELL_SIZE - SPREAD * 2 - 1) / h;
+      glyph := FAtlas.AddGlyph(Key^.Code, cell_pos);
+      BuildDistanceField(raw, cell_pos, scale);
+      glyph^.Scale := scale;
+      glyph^.Rect := RectBS(cell_pos.x + SPREAD + 0.0, cell_pos.y + SPREAD + 0.0, w * scale, h * scale);
+      glyph^.UV := RectToUV(FAtlas.Size, FAtlas.Size, glyph^.Rect);
+    end;
+
+    { the key keeps metrics of the glyph without the spread as raster keys; the
+      quad is extended by the spread and its UV are extrapolated by AddKeyToShape }
+    if raw^.Glyph^.xMin >= 0 then
+      Key^.Glyph^.xMin := 0
+    else
+      Key^.Glyph^.xMin := raw^.Glyph^.xMin * ToSelfScale;
+    Key^.Glyph^.yMin := raw^.Glyph^.yMin * ToSelfScale;
+    Key^.Glyph^.xMax := Key^.Glyph^.xMin + w * ToSelfScale;
+    Key^.Glyph^.yMax := Key^.Glyph^.yMin + h * ToSelfScale;
+    Key^.Rect := RectBS(0.0, 0.0, w * ToSelfScale, h * ToSelfScale);
+    Key^.UV := glyph^.UV;
+
+    pad := SPREAD * ToSelfScale / glyph^.Scale;
+
+    Key^.Glyph^.Points.Count := 0;
+    TBlackSharkTesselator.TListPoints.Add(Key^.Glyph^.Points, vec3(Key^.Glyph^.xMin - pad, Key^.Glyph^.yMin - pad, 0.0));
+    TBlackSharkTesselator.TListPoints.Add(Key^.Glyph^.Points, vec3(Key^.Glyph^.xMin - pad, Key^.Glyph^.yMax + pad, 0.0));
+    TBlackSharkTesselator.TListPoints.Add(Key^.Glyph^.Points, vec3(Key^.Glyph^.xMax + pad, Key^.Glyph^.yMax + pad, 0.0));
+    TBlackSharkTesselator.TListPoints.Add(Key^.Glyph^.Points, vec3(Key^.Glyph^.xMax + pad, Key^.Glyph^.yMin - pad, 0.0));
+
+    Key^.Indexes.Count := 0;
+    TBlackSharkTesselator.TListIndexes.Add(Key^.Indexes, 0);
+    TBlackSharkTesselator.TListIndexes.Add(Key^.Indexes, 1);
+    TBlackSharkTesselator.TListIndexes.Add(Key^.Indexes, 2);
+    TBlackSharkTesselator.TListIndexes.Add(Key^.Indexes, 2);
+    TBlackSharkTesselator.TListIndexes.Add(Key^.Indexes, 0);
+    TBlackSharkTesselator.TListIndexes.Add(Key^.Indexes, 3);
+  finally
+    if added then
+      FTexture.EndUpdate(FSizeInPixels, true);
+  end;
+end;
+
   { TFontParser }
 
 procedure TFontParser.Proc_cmap(hdr: PTableRec);
@@ -2601,7 +3067,7 @@ var
   TableRec: PTableRec;
   pos_r: uint32;
   i: int32;
-  s: TMemoryStream;
+  s: TCustomMemoryStream;
   fn_new: string;
   Proc: PProcParse;
   CountTables: int16;
@@ -2610,9 +3076,9 @@ begin
   //Symblols.Count := 0;
   fn_new := GetFileExistsPath(FileName, 'Fonts');
   FDestFont := DestFont;
-  s := TMemoryStream.Create;
+  { the font is parsed directly in the mapped memory if it is in the virtual file system }
+  s := OpenFileMemoryVFS(fn_new);
   try
-    s.LoadFromFile(fn_new);
     pData := s.Memory;
     TCHeader := PTCHeader(pData);
     size_f := s.Size;
@@ -2877,8 +3343,8 @@ begin
       f := GetFilePath(Name + '.ttf', 'Fonts')
     else
       f := GetFilePath(Name, 'Fonts');
-    if FileExists(f) then
-      Result := GetFont(f, TTrueTypeRasterFont); 
+    if FileExistsVFS(f) then
+      Result := GetFont(f, TTrueTypeRasterFont);
   end else
     Result := res;
 end;
@@ -2903,6 +3369,16 @@ begin
     Result := res;
 end;
 
+class function BSFontManager.GetSDFTexture(const Name: string): TSDFFontTexture;
+var
+  res: TFontTexture;
+begin
+  if Textures.Find(Name, res) and (res is TSDFFontTexture) then
+    exit(TSDFFontTexture(res));
+  Result := TSDFFontTexture.Create(Name);
+  Textures.Add(Result.Texture.Name, Result);
+end;
+
 class procedure BSFontManager.OnUpdateFont(const OldShortName: string; const Font: TBlackSharkCustomFont);
 var
   f: TBlackSharkCustomFont;
@@ -2927,6 +3403,8 @@ begin
 end;
 
 class procedure BSFontManager.OnDestroyFont(const Font: TBlackSharkCustomFont);
+var
+  res: TBlackSharkCustomFont;
 begin
 
   AllFonts.Remove(Font, otFromEnd);
@@ -2936,7 +3414,11 @@ begin
     if (Font.RawDataFont.RefCount = 1) then
       RawFonts.Remove(AnsiUpperCase(Font.ShortName));
     Font.RawDataFont._Release;
-  end;
+  end else
+  { a prototype destroyed directly (for example, it failed to load) must not stay
+    in the list, otherwise a next font with the same name gets a freed prototype }
+  if RawFonts.Find(AnsiUpperCase(Font.ShortName), res) and (res = Font) then
+    RawFonts.Remove(AnsiUpperCase(Font.ShortName));
   FontNames.Remove(AnsiUpperCase(Font.ShortName));
 
 end;
@@ -2959,6 +3441,7 @@ class function BSFontManager.AnsiToUTF16(Code: uint8;
   CodePage: TCodePage): int32;
 var
   sl: TStringList;
+  s: TStream;
   fn: string;
   tbl: PConvertTable;
   i: int32;
@@ -2966,12 +3449,17 @@ begin
   if ConvertTables[CodePage] = nil then
   begin
     fn := GetFileExistsPath(CODE_PAGE_NAMES[CodePage]+'ToUTF16.txt', 'Fonts');
-    if not FileExists(fn) then
+    if not FileExistsVFS(fn) then
       raise Exception.Create('Do not found file containing convertion table - "' + fn +'". You may create file for convertion independently with use example "cpCyrillicToUTF16.txt"');
 
     sl := TStringList.Create;
     try
-      sl.LoadFromFile(fn);
+      s := OpenFileVFS(fn);
+      try
+        sl.LoadFromStream(s);
+      finally
+        s.Free;
+      end;
       new(tbl);
       ConvertTables[CodePage] := tbl;
       for i := 128 to 255 do
@@ -3203,6 +3691,11 @@ begin
   Result := FIsVectoral;
 end;
 
+function TBlackSharkCustomFont.GetIsDistanceField: boolean;
+begin
+  Result := false;
+end;
+
 function TBlackSharkCustomFont.GetKey(CodeUTF16: uint16): PKeyInfo;
 var
   code: int32;
@@ -3225,7 +3718,10 @@ begin
     end;
 
     if Assigned(Result) and (((Result.Glyph = nil) or (Result.Glyph.Points.Count = 0)) or (Result.Indexes.Count = 0)) then
-      Triangulate(Result);
+      Triangulate(Result)
+    else
+    if Assigned(Result) and Selecting then
+      KeyUsed(Result);
 
   end else
     Result := nil;
@@ -3239,7 +3735,10 @@ begin
     Result := nil;
 
   if (Result <> nil) and ((Result.Glyph = nil) or (Result.Glyph.Points.Count = 0)) then
-    Triangulate(Result);
+    Triangulate(Result)
+  else
+  if (Result <> nil) and Selecting then
+    KeyUsed(Result);
 end;
 
 function TBlackSharkCustomFont.GetName: string;
@@ -3602,7 +4101,7 @@ begin
     FFileName := GetFileExistsPath(FileName + '.ttf', 'Fonts')
   else
     FFileName := GetFileExistsPath(FileName, 'Fonts');
-  if not FileExists(FFileName) then
+  if not FileExistsVFS(FFileName) then
     raise Exception.Create('Font file "'+ FileName +'" not found!');
   //FShortName := ChangeFileExt(ExtractFileName(FFileName), '');
   if new_sn <> FShortName then
@@ -3618,6 +4117,11 @@ begin
   FAverageHeight := 0;
 end;
 
+procedure TBlackSharkCustomFont.KeyUsed(Key: PKeyInfo);
+begin
+
+end;
+
 procedure TBlackSharkCustomFont.OnChangeTexture(const Value: BData);
 begin
   FOnChangeEvent.Send(Self);
@@ -3734,7 +4238,7 @@ end;
 
 procedure TTrueTypeFont.SaveInd;
 var
-  f: TFileStream;
+  f: TStream;
   h: TFileIndexesHeader;
   kh: TKeyHeader;
   i: int32;
@@ -3742,15 +4246,16 @@ var
   s: string;
 begin
   s := GetFileInd;
-  if FileExists(s) then
+  if FileExistsVFS(s) then
     begin
-    f := TFileStream.Create(s, fmOpenRead);
+    f := OpenFileVFS(s);
     f.Read({%H-}h, sizeof(h));
     f.Free;
     if h.CountGlyphs >= FTriangulatedKeys then
       exit;
     end;
-  f := TFileStream.Create(s, fmCreate);
+  { the file can be packed in APK, the new one must not be shadowed by it }
+  f := CreateFileVFS(s);
   try
     h.Version := VER_FILE_IND;
     h.CountGlyphs := 0;
@@ -3776,7 +4281,7 @@ end;
 
 procedure TTrueTypeFont.LoadInd;
 var
-  f: TMemoryStream;
+  f: TCustomMemoryStream;
   s: string;
   h: TFileIndexesHeader;
   kh: TKeyHeader;
@@ -3784,11 +4289,10 @@ var
   k: PKeyInfo;
 begin
   s := GetFileInd;
-  if not FileExists(s) then
+  if not FileExistsVFS(s) then
     exit;
-  f := TMemoryStream.Create;
+  f := OpenFileMemoryVFS(s);
   try
-    f.LoadFromFile(s);
     f.Position := 0;
     f.Read(h{%H-}, sizeof(h));
     if h.Version <> VER_FILE_IND then
@@ -4280,7 +4784,7 @@ end;
 
 function TBlackSharkRasterFont.Load(const FileName: string): boolean;
 var
-  s: TFileStream;
+  s: TStream;
   fn: string;
   MainHeader: TFontMainHeader;
 begin
@@ -4290,7 +4794,7 @@ begin
   fn := GetFileExistsPath(FileName, 'Fonts');
   if (fn = '') then
     exit(false);
-  s := TFileStream.Create(fn, fmOpenRead);
+  s := OpenFileVFS(fn);
   try
     s.Read(MainHeader{%H-}, SizeOf(TFontMainHeader));
     case MainHeader.Version of
@@ -4447,6 +4951,176 @@ begin
     Destroy;
 end;
 
+{ TSDFFontTexture }
+
+procedure TSDFFontTexture.AddCells(FromSize, ToSize: int32);
+var
+  x, y, count, old_cells, cells_in_row: int32;
+begin
+  old_cells := FromSize div CELL_SIZE;
+  cells_in_row := ToSize div CELL_SIZE;
+  count := Length(FCellsPos);
+  SetLength(FCellsPos, cells_in_row * cells_in_row);
+  SetLength(FCells, cells_in_row * cells_in_row);
+  { old cells keep their places in the picture }
+  for y := 0 to cells_in_row - 1 do
+    for x := 0 to cells_in_row - 1 do
+      if (x >= old_cells) or (y >= old_cells) then
+      begin
+        FCellsPos[count] := vec2(x * CELL_SIZE, y * CELL_SIZE);
+        inc(count);
+      end;
+end;
+
+function TSDFFontTexture.AddGlyph(Code: uint32; out CellPos: TVec2i): PSDFGlyph;
+var
+  cell: int32;
+begin
+  { the atlas grows instead of pushing out glyphs while it is possible,
+    otherwise texts with a lot of different glyphs (CJK) rebuild each other }
+  if (FCountGlyphs = Length(FCells)) and (FSize < MAX_ATLAS_SIZE) then
+    Grow;
+  if FCountGlyphs < Length(FCells) then
+  begin
+    cell := FCountGlyphs;
+    inc(FCountGlyphs);
+    new(Result);
+    FCells[cell] := Result;
+  end else
+  begin
+    cell := FindVictim;
+    Result := FCells[cell];
+    FGlyphs.Delete(Result.Code);
+    inc(FEvictions);
+    ChangedInUpdate := true;
+  end;
+  inc(FTick);
+  Result.Code := Code;
+  Result.Cell := cell;
+  Result.LastUsed := FTick;
+  Result.Scale := 0.0;
+  FGlyphs.TryAdd(Code, Result);
+  CellPos := FCellsPos[cell];
+end;
+
+procedure TSDFFontTexture.BeginUpdate;
+begin
+  { glyphs used after the tick belong to the build in progress }
+  if CountUpdate = 0 then
+    FPinTick := FTick;
+  inherited;
+end;
+
+constructor TSDFFontTexture.Create(const Name: string);
+begin
+  inherited Create(ATLAS_SIZE, ATLAS_SIZE, true, Name);
+  FGlyphs := THashTable<uint32, PSDFGlyph>.Create(@GetHashBlackSharkUInt32, @UInt32CmpBool, 256);
+  FSize := ATLAS_SIZE;
+  AddCells(0, FSize);
+end;
+
+destructor TSDFFontTexture.Destroy;
+var
+  i: int32;
+begin
+  for i := 0 to FCountGlyphs - 1 do
+    dispose(FCells[i]);
+  FGlyphs.Free;
+  inherited;
+end;
+
+function TSDFFontTexture.EndUpdate(FontSizeInPixels: int32; Reload: boolean): boolean;
+begin
+  dec(CountUpdate);
+  if CountUpdate < 0 then
+    CountUpdate := 0;
+  Result := false;
+  FTexture.EndUpdate(Reload);
+  { the atlas does not depend on a size of fonts, so the event is sent only
+    if glyphs were pushed out or moved by growth }
+  if (CountUpdate = 0) and ChangedInUpdate then
+  begin
+    ChangedInUpdate := false;
+    Result := true;
+    FOnChangeEvent.Send(Self);
+  end;
+end;
+
+function TSDFFontTexture.FindGlyph(Code: uint32; out Glyph: PSDFGlyph): boolean;
+begin
+  Result := FGlyphs.Find(Code, Glyph);
+  if Result then
+  begin
+    inc(FTick);
+    Glyph.LastUsed := FTick;
+  end;
+end;
+
+function TSDFFontTexture.FindVictim: int32;
+var
+  i: int32;
+begin
+  { the least recently used glyph which is not used by the build in progress }
+  Result := -1;
+  for i := 0 to Length(FCells) - 1 do
+    if ((CountUpdate = 0) or (FCells[i].LastUsed <= FPinTick)) and
+      ((Result < 0) or (FCells[i].LastUsed < FCells[Result].LastUsed)) then
+        Result := i;
+  if Result >= 0 then
+    exit;
+  { the whole atlas is used by the build - the text does not fit anyway }
+  Result := 0;
+  for i := 1 to Length(FCells) - 1 do
+    if FCells[i].LastUsed < FCells[Result].LastUsed then
+      Result := i;
+end;
+
+function TSDFFontTexture.GetCountCells: int32;
+begin
+  Result := Length(FCells);
+end;
+
+function TSDFFontTexture.Grow: boolean;
+var
+  picture: TBlackSharkBitMap;
+  old: TBlackSharkPicture;
+  new_size, y, i: int32;
+begin
+  if FSize >= MAX_ATLAS_SIZE then
+    exit(false);
+  new_size := FSize * 2;
+  old := FTexture.Picture;
+  picture := TBlackSharkBitMap.Create;
+  picture.PixelFormat := TBSPixelFormat.pf8bit;
+  picture.SetSize(new_size, new_size);
+  picture.Canvas.Clear;
+  picture.Canvas.Changed := true;
+  { rows of the memory are numbered from the top, rows of the canvas from the
+    bottom (see TTrueTypeSDFFont.BuildDistanceField) }
+  for y := 0 to FSize - 1 do
+    move(old.Canvas.PtrOnColor(0, FSize - 1 - y)^, picture.Canvas.PtrOnColor(0, new_size - 1 - y)^, FSize);
+  FTexture.BeginUpdate;
+  try
+    { frees the old picture }
+    FTexture.Picture := picture;
+  finally
+    FTexture.EndUpdate(false);
+  end;
+  AddCells(FSize, new_size);
+  FSize := new_size;
+  for i := 0 to FCountGlyphs - 1 do
+    FCells[i].UV := RectToUV(FSize, FSize, FCells[i].Rect);
+  inc(FGrowths);
+  ChangedInUpdate := true;
+  Result := true;
+end;
+
+function TSDFFontTexture.PeekGlyph(Code: uint32): PSDFGlyph;
+begin
+  if not FGlyphs.Find(Code, Result) then
+    Result := nil;
+end;
+
 initialization
   FontParser := TFontParser.Create;
 
@@ -0,0 +1,245 @@
+{
+-- Begin License block --
+
+  Copyright (C) 2019-2022 Pavlov V.V. (PVV)
+
+  "Black Shark Graphics Engine" for Delphi and Lazarus (named
+"Library" in the file "License(LGPL).txt" included in this distribution).
+The Library is free software.
+
+  Last revised June, 2022
+
+  This file is part of "Black Shark Graphics Engine", and may only be
+used, modified, and distributed under the terms of the project license
+"License(LGPL).txt". By continuing to use, modify, or distribute this
+file you indicate that you have read the license and understand and
+accept it fully.
+
+  "Black Shark Graphics Engine" is distributed in the hope that it will be
+useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+-- End License block --
+}
+
+{
+  Per-frame statistics: CPU time of the stages of a frame and counters of the
+  renderer are accumulated into the current sample and committed to a ring of
+  the last FRAME_STATS_CAPACITY frames by BSFrameStats.EndFrame; all methods
+  must be invoked from the thread which renders (the thread owning GL context)
+}
+
+unit bs.frame.stats;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+const
+  { amount of the last frames kept; power of two }
+  FRAME_STATS_CAPACITY = 256;
+
+type
+
+  TFrameStage = (
+    { events processing of GUIThread (TGUIThread.OnIdleApplication) }
+    fsEvents,
+    { selection of the instances hit into frustum (TBlackSharkRenderer.OnChangeFrustum) }
+    fsCulling,
+    { TBlackSharkRenderer.DrawAllInstances }
+    fsDraw,
+    { swap of buffers of a GL context }
+    fsSwap
+  );
+
+  { the layout is shared with a host (see BlackSharkApplication.FrameStats),
+    all times in microseconds }
+  TFrameStatsSample = packed record
+    Frame: uint32;
+    TotalTime: uint32;
+    EventsTime: uint32;
+    CullingTime: uint32;
+    DrawTime: uint32;
+    SwapTime: uint32;
+    DrawCalls: uint32;
+    VisibleInstances: uint32;
+    StateChanges: uint32;
+    { draw calls which would be without batching (see BSConfig.DrawBatching) }
+    UnbatchedDrawCalls: uint32;
+  end;
+  PFrameStatsSample = ^TFrameStatsSample;
+
+  { BSFrameStats }
+
+  BSFrameStats = class
+  private
+    class var FRing: array[0..FRAME_STATS_CAPACITY - 1] of TFrameStatsSample;
+    class var FCurrent: TFrameStatsSample;
+    class var FCountFrames: uint32;
+    class function GetCount: int32; static;
+    class function GetLast: TFrameStatsSample; static;
+  public
+    { returns a mark of the beginning of a stage for StageEnd }
+    class function StageBegin: uint64; static; inline;
+    class procedure StageEnd(AStage: TFrameStage; AStageBegin: uint64); static;
+    class procedure IncDrawCalls; static; inline;
+    { one draw call replaced AInstances draw calls of instances }
+    class procedure AddBatch(AInstances: int32); static; inline;
+    class procedure IncStateChanges; static; inline;
+    class procedure SetVisibleInstances(ACount: int32); static; inline;
+    { commits the current frame to the ring; the frame time is the sum of the
+      times of its stages, so waiting for events between frames (on demand
+      drawing) is not counted }
+    class procedure EndFrame; static;
+    class procedure Reset; static;
+    { copies up to AMaxCount of the last frames to ABuffer from the oldest to
+      the newest; returns amount of the copied frames }
+    class function Snapshot(ABuffer: PFrameStatsSample; AMaxCount: int32): int32; static;
+    { writes the kept frames and a summary to the log (BSConfig.WriteLog must be
+      on); frames longer than ASpikeFactor * <average time> are marked as spikes }
+    class procedure Dump(ASpikeFactor: single = 2.0); static;
+    { amount of the kept frames }
+    class property Count: int32 read GetCount;
+    class property Last: TFrameStatsSample read GetLast;
+  end;
+
+implementation
+
+uses
+    SysUtils
+  , bs.log
+  , bs.thread
+  , bs.config
+  ;
+
+{ BSFrameStats }
+
+class function BSFrameStats.StageBegin: uint64;
+begin
+  if BSConfig.FrameStats then
+    Result := TBTimer.MicroSeconds
+  else
+    Result := 0;
+end;
+
+class procedure BSFrameStats.StageEnd(AStage: TFrameStage; AStageBegin: uint64);
+var
+  delta: uint32;
+begin
+  if not BSConfig.FrameStats then
+    exit;
+  delta := uint32(TBTimer.MicroSeconds - AStageBegin);
+  case AStage of
+    fsEvents: inc(FCurrent.EventsTime, delta);
+    fsCulling: inc(FCurrent.CullingTime, delta);
+    fsDraw: inc(FCurrent.DrawTime, delta);
+    fsSwap: inc(FCurrent.SwapTime, delta);
+  end;
+end;
+
+class procedure BSFrameStats.IncDrawCalls;
+begin
+  inc(FCurrent.DrawCalls);
+  inc(FCurrent.UnbatchedDrawCalls);
+end;
+
+class procedure BSFrameStats.AddBatch(AInstances: int32);
+begin
+  inc(FCurrent.DrawCalls);
+  inc(FCurrent.UnbatchedDrawCalls, AInstances);
+end;
+
+class procedure BSFrameStats.IncStateChanges;
+begin
+  inc(FCurrent.StateChanges);
+end;
+
+class procedure BSFrameStats.SetVisibleInstances(ACount: int32);
+begin
+  FCurrent.VisibleInstances := ACount;
+end;
+
+class procedure BSFrameStats.EndFrame;
+begin
+  if not BSConfig.FrameStats then
+    exit;
+  FCurrent.TotalTime := FCurrent.EventsTime + FCurrent.CullingTime + FCurrent.DrawTime + FCurrent.SwapTime;
+  FCurrent.Frame := FCountFrames;
+  FRing[FCountFrames and (FRAME_STATS_CAPACITY - 1)] := FCurrent;
+  inc(FCountFrames);
+  FillChar(FCurrent, SizeOf(FCurrent), 0);
+end;
+
+class procedure BSFrameStats.Reset;
+begin
+  FCountFrames := 0;
+  FillChar(FCurrent, SizeOf(FCurrent), 0);
+end;
+
+class function BSFrameStats.GetCount: int32;
+begin
+  if FCountFrames < FRAME_STATS_CAPACITY then
+    Result := FCountFrames
+  else
+    Result := FRAME_STATS_CAPACITY;
+end;
+
+class function BSFrameStats.GetLast: TFrameStatsSample;
+begin
+  if FCountFrames > 0 then
+    Result := FRing[(FCountFrames - 1) and (FRAME_STATS_CAPACITY - 1)]
+  else
+    FillChar(Result{%H-}, SizeOf(Result), 0);
+end;
+
+class function BSFrameStats.Snapshot(ABuffer: PFrameStatsSample; AMaxCount: int32): int32;
+var
+  i: int32;
+  first: uint32;
+begin
+  Result := Count;
+  if Result > AMaxCount then
+    Result := AMaxCount;
+  first := FCountFrames - uint32(Result);
+  for i := 0 to Result - 1 do
+  begin
+    ABuffer^ := FRing[(first + uint32(i)) and (FRAME_STATS_CAPACITY - 1)];
+    inc(ABuffer);
+  end;
+end;
+
+class procedure BSFrameStats.Dump(ASpikeFactor: single);
+var
+  samples: array[0..FRAME_STATS_CAPACITY - 1] of TFrameStatsSample;
+  i, cnt: int32;
+  total, max_time: uint64;
+  avg: double;
+  s: string;
+begin
+  cnt := Snapshot(@samples[0], FRAME_STATS_CAPACITY);
+  if cnt = 0 then
+    exit;
+
+  total := 0;
+  max_time := 0;
+  for i := 0 to cnt - 1 do
+  begin
+    inc(total, samples[i].TotalTime);
+    if samples[i].TotalTime > max_time then
+      max_time := samples[i].TotalTime;
+  end;
+  avg := total / cnt;
+
+  BSWriteMsg('BSFrameStats.Dump', Format('frames: %d; average: %.0f us; max: %d us', [cnt, avg, max_time]));
+  for i := 0 to cnt - 1 do
+  begin
+    s := Format('#%d total: %d; events: %d; culling: %d; draw: %d; swap: %d; draw calls: %d (unbatched %d); visible: %d; state changes: %d',
+      [samples[i].Frame, samples[i].TotalTime, samples[i].EventsTime, samples[i].CullingTime, samples[i].DrawTime,
+       samples[i].SwapTime, samples[i].DrawCalls, samples[i].UnbatchedDrawCalls, samples[i].VisibleInstances, samples[i].StateChanges]);
+    if samples[i].TotalTime > avg * ASpikeFactor then
+      s := s + ' - SPIKE';
+    BSWriteMsg('BSFrameStats.Dump', s);
+  end;
+end;
+
+end.
@@ -188,6 +188,21 @@ type
     {$endif}
   end;
 
+  { an item for TBlackSharkRTree.BulkLoad }
+  TSpaceTreeItem = record
+    Data: Pointer;
+    BB: TBox3d;
+  end;
+
+  TSpaceTreeUpdateMode = (
+    { a moved leaf is removed and inserted again by ChooseNode/SplitNode }
+    umReinsert,
+    { a moved leaf stays in its node; boxes of the node and its parents grow
+      and shrink in place; the tree is rebuilt after a number of moves (see
+      TBlackSharkRTree.RefitRebuildFactor) }
+    umRefit
+  );
+
   { The class present R-tree algorithm }
 
   TBlackSharkRTree = class(TBlackSharkSpaceTree)
@@ -197,14 +212,42 @@ type
   private
     TmpNodes: TListVec<PNodeSpaceTree>;
     TmpLists: array[TAxis3d, TSide] of TListVec<PNodeSpaceTree>;
+    FUpdateMode: TSpaceTreeUpdateMode;
+    FRefitRebuildFactor: BSFloat;
+    FBackgroundRebuild: boolean;
+    FCountRefits: int32;
+    { changes when a leaf is added or removed; a background rebuild is
+      discarded if the version changed }
+    FVersion: uint32;
+    FRebuildTask: TObject;
     function ChooseNode(const BB: TBox3d): PNodeSpaceTree;
     function SplitNode(Node: PNodeSpaceTree; Data: Pointer; const BB: TBox3d): PNodeSpaceTree; overload;
     procedure SplitNode(Node: PNodeSpaceTree); overload;
+    procedure CollectLeaves(var ALeaves: TListNodes);
+    { replaces all no leaf nodes by the hierarchy built by TRTreeBuilder }
+    procedure LinkLeaves(const ALeaves: array of PNodeSpaceTree; const AParents: array of int32);
+    procedure CheckRefits;
   public
     constructor Create; override;
     destructor Destroy; override;
     procedure Add(Data: Pointer; const BB: TBox3d; out Node: PNodeSpaceTree); override;
+    { inserts all AItems at once and packs the whole tree by STR
+      (Sort-Tile-Recursive); much faster than Add of every item and gives a
+      balanced tree with minimal overlaps; ANodes receives nodes of AItems
+      in the same order }
+    procedure BulkLoad(const AItems: array of TSpaceTreeItem; var ANodes: array of PNodeSpaceTree);
     function UpdatePosition(OldPosition: PNodeSpaceTree; const NewBB: TBox3d): PNodeSpaceTree; override;
+    procedure Remove(Position: PNodeSpaceTree); override;
+    { packs the current leaves by STR; the leaf nodes stay valid }
+    procedure Rebuild;
+    { the same as Rebuild, but the packing is calculated by BSJobs and applied
+      in GUIThread; it is discarded if leaves were added or removed meanwhile }
+    procedure RebuildAsync;
+    property UpdateMode: TSpaceTreeUpdateMode read FUpdateMode write FUpdateMode;
+    { in umRefit mode the tree is rebuilt after Count * RefitRebuildFactor moves }
+    property RefitRebuildFactor: BSFloat read FRefitRebuildFactor write FRefitRebuildFactor;
+    { the rebuild after refits is done by RebuildAsync, otherwise by Rebuild }
+    property BackgroundRebuild: boolean read FBackgroundRebuild write FBackgroundRebuild;
   end;
 
   { for 1024 Dimensions }
@@ -390,6 +433,7 @@ implementation
 
 uses
     Math
+  , bs.jobs
   ;
 
 function PointBetween(const P00, P01, Point: TVec3f): boolean;
@@ -1834,6 +1878,178 @@ begin
   FViewPort := Box3(vec3d(X, Y, 0.0), vec3d(X + Width, Y + Height, 0.0));
 end;
 
+type
+
+  { calculates a packing of boxes by STR: boxes are sorted by the first axis,
+    cut to slabs, every slab is sorted by the next axis and so on; runs of
+    MAX_COUNT_AABB boxes become parents, and the parents are packed again up
+    to the root; uses only own data, so can be executed by any thread }
+
+  TRTreeBuilder = class
+  private
+    Keys: array of double;
+    Axes: array of TAxis3D;
+    procedure SortByKeys(var AIndexes: array of int32; AFrom, ATo: int32);
+    procedure SortTiles(var AIndexes: array of int32; AFrom, ATo, AAxis: int32);
+  public
+    Tree: TBlackSharkRTree;
+    Version: uint32;
+    Leaves: array of PNodeSpaceTree;
+    { boxes of the leaves, then of the built parents }
+    Boxes: array of TBox3d;
+    { a parent of every leaf and built node: an index in Boxes or -1 for the
+      root }
+    Parents: array of int32;
+    { Build has raised an exception, the result must not be linked }
+    Failed: boolean;
+    constructor Create(const ADimensions: TAxisSet);
+    procedure Build;
+    procedure OnExecute({%H-}AData: Pointer);
+    procedure OnDone({%H-}AData: Pointer);
+  end;
+
+{ TRTreeBuilder }
+
+constructor TRTreeBuilder.Create(const ADimensions: TAxisSet);
+var
+  a: TAxis3D;
+begin
+  for a := Low(TAxis3D) to High(TAxis3D) do
+    if a in ADimensions then
+    begin
+      SetLength(Axes, Length(Axes) + 1);
+      Axes[Length(Axes) - 1] := a;
+    end;
+  if Length(Axes) = 0 then
+  begin
+    SetLength(Axes, 1);
+    Axes[0] := TAxis3D.AxleX;
+  end;
+end;
+
+procedure TRTreeBuilder.SortByKeys(var AIndexes: array of int32; AFrom, ATo: int32);
+var
+  i, j, tmp: int32;
+  pivot: double;
+begin
+  while AFrom < ATo do
+  begin
+    i := AFrom;
+    j := ATo;
+    pivot := Keys[AIndexes[(AFrom + ATo) shr 1]];
+    repeat
+      while Keys[AIndexes[i]] < pivot do
+        inc(i);
+      while Keys[AIndexes[j]] > pivot do
+        dec(j);
+      if i <= j then
+      begin
+        tmp := AIndexes[i];
+        AIndexes[i] := AIndexes[j];
+        AIndexes[j] := tmp;
+        inc(i);
+        dec(j);
+      end;
+    until i > j;
+    { recursion for the smaller part keeps the stack short }
+    if j - AFrom < ATo - i then
+    begin
+      SortByKeys(AIndexes, AFrom, j);
+      AFrom := i;
+    end else
+    begin
+      SortByKeys(AIndexes, i, ATo);
+      ATo := j;
+    end;
+  end;
+end;
+
+procedure TRTreeBuilder.SortTiles(var AIndexes: array of int32; AFrom, ATo, AAxis: int32);
+var
+  i, count, pages, slabs, slab_size: int32;
+begin
+  for i := AFrom to ATo do
+    Keys[AIndexes[i]] := Boxes[AIndexes[i]].Min.p[int8(Axes[AAxis])] + Boxes[AIndexes[i]].Max.p[int8(Axes[AAxis])];
+  SortByKeys(AIndexes, AFrom, ATo);
+
+  if AAxis = Length(Axes) - 1 then
+    exit;
+
+  count := ATo - AFrom + 1;
+  pages := (count + MAX_COUNT_AABB - 1) div MAX_COUNT_AABB;
+  slabs := Ceil(Power(pages, 1 / (Length(Axes) - AAxis)));
+  slab_size := ((pages + slabs - 1) div slabs) * MAX_COUNT_AABB;
+  i := AFrom;
+  while i <= ATo do
+  begin
+    SortTiles(AIndexes, i, Min(i + slab_size - 1, ATo), AAxis + 1);
+    inc(i, slab_size);
+  end;
+end;
+
+procedure TRTreeBuilder.Build;
+var
+  level: array of int32;
+  next: array of int32;
+  i, j, count_nodes, groups: int32;
+begin
+  count_nodes := Length(Boxes);
+  SetLength(Parents, count_nodes);
+  SetLength(level, count_nodes);
+  for i := 0 to count_nodes - 1 do
+    level[i] := i;
+
+  while Length(level) > MAX_COUNT_AABB do
+  begin
+    SetLength(Keys, count_nodes);
+    SortTiles(level, 0, Length(level) - 1, 0);
+    groups := (Length(level) + MAX_COUNT_AABB - 1) div MAX_COUNT_AABB;
+    SetLength(next, groups);
+    SetLength(Boxes, count_nodes + groups);
+    SetLength(Parents, count_nodes + groups);
+    for j := 0 to groups - 1 do
+    begin
+      next[j] := count_nodes + j;
+      Boxes[next[j]] := Boxes[level[j * MAX_COUNT_AABB]];
+      for i := j * MAX_COUNT_AABB to Min((j + 1) * MAX_COUNT_AABB, Length(level)) - 1 do
+      begin
+        Parents[level[i]] := next[j];
+        Box3CheckBB(Boxes[next[j]], Boxes[level[i]]);
+      end;
+    end;
+    inc(count_nodes, groups);
+    level := Copy(next, 0, groups);
+  end;
+
+  for i := 0 to Length(level) - 1 do
+    Parents[level[i]] := -1;
+  Keys := nil;
+end;
+
+procedure TRTreeBuilder.OnExecute(AData: Pointer);
+begin
+  try
+    Build;
+  except
+    Failed := true;
+    raise;
+  end;
+end;
+
+procedure TRTreeBuilder.OnDone(AData: Pointer);
+begin
+  try
+    if Assigned(Tree) then
+    begin
+      Tree.FRebuildTask := nil;
+      if not Failed and (Tree.FVersion = Version) and (Tree.Count = Length(Leaves)) and not Tree.Selecting then
+        Tree.LinkLeaves(Leaves, Parents);
+    end;
+  finally
+    Free;
+  end;
+end;
+
 { TBlackSharkRtree }
 
 procedure TBlackSharkRTree.Add(Data: Pointer; const BB: TBox3d; out Node: PNodeSpaceTree);
@@ -1860,6 +2076,222 @@ begin
   if Box3Collision(FViewPort, BB) then
     ChangeVisibility(Node, true);
   inc(FCount);
+  inc(FVersion);
+end;
+
+procedure TBlackSharkRTree.BulkLoad(const AItems: array of TSpaceTreeItem; var ANodes: array of PNodeSpaceTree);
+var
+  leaves: TListNodes;
+  builder: TRTreeBuilder;
+  i, first: int32;
+  node: PNodeSpaceTree;
+begin
+  if FSelecting then
+    raise Exception.Create('You can not add data because at the time are selecting data by the Viewport method');
+  if Length(ANodes) < Length(AItems) then
+    raise Exception.Create('TBlackSharkRTree.BulkLoad: ANodes is less than AItems');
+
+  leaves := TListNodes.Create;
+  builder := TRTreeBuilder.Create(FDimensions);
+  try
+    CollectLeaves(leaves);
+    first := leaves.Count;
+    for i := 0 to Length(AItems) - 1 do
+    begin
+      node := DoCreateNode;
+      node.BB := AItems[i].BB;
+      node.BB.TagPtr := AItems[i].Data;
+      node.Volume := Box3Volume(node.BB);
+      ANodes[i] := node;
+      leaves.Add(node);
+    end;
+
+    SetLength(builder.Leaves, leaves.Count);
+    SetLength(builder.Boxes, leaves.Count);
+    for i := 0 to leaves.Count - 1 do
+    begin
+      builder.Leaves[i] := leaves.Items[i];
+      builder.Boxes[i] := leaves.Items[i].BB;
+    end;
+    builder.Build;
+    LinkLeaves(builder.Leaves, builder.Parents);
+
+    inc(FCount, Length(AItems));
+    inc(FVersion);
+    for i := first to leaves.Count - 1 do
+      if Box3Collision(FViewPort, leaves.Items[i].BB) then
+        ChangeVisibility(leaves.Items[i], true);
+  finally
+    builder.Free;
+    leaves.Free;
+  end;
+end;
+
+procedure TBlackSharkRTree.CollectLeaves(var ALeaves: TListNodes);
+var
+  n: PNodeSpaceTree;
+begin
+  if FRoot.Childs = nil then
+    exit;
+  Stack.Count := 0;
+  Stack.Add(FRoot.Childs);
+  while Stack.Count > 0 do
+  begin
+    n := Stack.Pop;
+    while n <> nil do
+    begin
+      if n.Childs <> nil then
+        Stack.Add(n.Childs)
+      else
+        ALeaves.Add(n);
+      n := n.Next;
+    end;
+  end;
+end;
+
+procedure TBlackSharkRTree.LinkLeaves(const ALeaves: array of PNodeSpaceTree; const AParents: array of int32);
+var
+  nodes: array of PNodeSpaceTree;
+  n, p: PNodeSpaceTree;
+  i: int32;
+begin
+  { frees the current no leaf nodes }
+  if FRoot.Childs <> nil then
+  begin
+    Stack.Count := 0;
+    Stack.Add(FRoot.Childs);
+    while Stack.Count > 0 do
+    begin
+      n := Stack.Pop;
+      while n <> nil do
+      begin
+        p := n;
+        n := n.Next;
+        if p.Childs = nil then
+          continue;
+        Stack.Add(p.Childs);
+        {$ifdef DEBUG_ST}
+        if p.__PosInList <> nil then
+        begin
+          FVisibleNoLeafNodes.Remove(p.__PosInList);
+          if Assigned(FOnHideNoLeafNode) then
+            FOnHideNoLeafNode(p);
+        end;
+        {$endif}
+        ToCashNode(p);
+      end;
+    end;
+  end;
+  FRoot.Childs := nil;
+  FRoot.CountChilds := 0;
+
+  SetLength(nodes, Length(AParents));
+  for i := 0 to Length(ALeaves) - 1 do
+    nodes[i] := ALeaves[i];
+  for i := Length(ALeaves) to Length(AParents) - 1 do
+    nodes[i] := DoCreateNode;
+
+  { a parent always has an index greater than its children, so boxes of
+    children are ready when their parent is reached }
+  for i := 0 to Length(AParents) - 1 do
+  begin
+    n := nodes[i];
+    if i >= Length(ALeaves) then
+    begin
+      n.BB.TagPtr := nil;
+      OnChangeSizeNoLeafNodeDo(n);
+    end;
+    if AParents[i] < 0 then
+      p := FRoot
+    else
+      p := nodes[AParents[i]];
+    if p.Childs = nil then
+      p.BB := n.BB
+    else
+      Box3CheckBB(p.BB, n.BB);
+    DoInsertToTree(p, n);
+  end;
+
+  if FRoot.Childs <> nil then
+  begin
+    FRoot.BB.TagPtr := nil;
+    OnChangeSizeNoLeafNodeDo(FRoot);
+  end;
+  FCountRefits := 0;
+end;
+
+procedure TBlackSharkRTree.Rebuild;
+var
+  leaves: TListNodes;
+  builder: TRTreeBuilder;
+  i: int32;
+begin
+  if FSelecting then
+    raise Exception.Create('You can not rebuild the tree because at the time are selecting data by the Viewport method');
+  leaves := TListNodes.Create;
+  builder := TRTreeBuilder.Create(FDimensions);
+  try
+    CollectLeaves(leaves);
+    SetLength(builder.Leaves, leaves.Count);
+    SetLength(builder.Boxes, leaves.Count);
+    for i := 0 to leaves.Count - 1 do
+    begin
+      builder.Leaves[i] := leaves.Items[i];
+      builder.Boxes[i] := leaves.Items[i].BB;
+    end;
+    builder.Build;
+    LinkLeaves(builder.Leaves, builder.Parents);
+  finally
+    builder.Free;
+    leaves.Free;
+  end;
+end;
+
+procedure TBlackSharkRTree.RebuildAsync;
+var
+  leaves: TListNodes;
+  builder: TRTreeBuilder;
+  i: int32;
+begin
+  { only one rebuild at a time }
+  if Assigned(FRebuildTask) then
+    exit;
+  leaves := TListNodes.Create;
+  try
+    CollectLeaves(leaves);
+    builder := TRTreeBuilder.Create(FDimensions);
+    builder.Tree := Self;
+    builder.Version := FVersion;
+    SetLength(builder.Leaves, leaves.Count);
+    SetLength(builder.Boxes, leaves.Count);
+    for i := 0 to leaves.Count - 1 do
+    begin
+      builder.Leaves[i] := leaves.Items[i];
+      builder.Boxes[i] := leaves.Items[i].BB;
+    end;
+  finally
+    leaves.Free;
+  end;
+  FRebuildTask := builder;
+  BSJobs.Run(builder.OnExecute, nil, builder.OnDone);
+end;
+
+procedure TBlackSharkRTree.Remove(Position: PNodeSpaceTree);
+begin
+  inherited;
+  inc(FVersion);
+end;
+
+procedure TBlackSharkRTree.CheckRefits;
+begin
+  inc(FCountRefits);
+  if FCountRefits < Max(MAX_COUNT_AABB, Round(FCount * FRefitRebuildFactor)) then
+    exit;
+  FCountRefits := 0;
+  if FBackgroundRebuild then
+    RebuildAsync
+  else
+    Rebuild;
 end;
 
 function TBlackSharkRTree.ChooseNode(const BB: TBox3d): PNodeSpaceTree;
@@ -1980,6 +2412,8 @@ begin
   inherited;
   //FIs2D := AIs2D;
   TmpNodes := TListVec<PNodeSpaceTree>.Create;
+  FRefitRebuildFactor := 1.0;
+  FBackgroundRebuild := true;
   for a := Low(TAxis3d) to High(TAxis3d) do
   begin
     //for l := Low(TLimit) to High(TLimit) do
@@ -1997,6 +2431,9 @@ begin
     for s := Low(TSide) to High(TSide) do
       TmpLists[a, s].Free;
   TmpNodes.Free;
+  { the result of a background rebuild will be dropped }
+  if Assigned(FRebuildTask) then
+    TRTreeBuilder(FRebuildTask).Tree := nil;
   inherited;
 end;
 
@@ -2114,13 +2551,21 @@ begin
   Result.BB := NewBB;
   Result.BB.TagPtr := data;
   parent := Result.Parent;
-  DoRemoveFromTree(OldPosition);
-  RecalcBB(parent);
-  new_pos := ChooseNode(NewBB);
-  DoInsertToTree(new_pos, OldPosition);
-  RecalcBB(new_pos);
-  if new_pos.CountChilds > MAX_COUNT_AABB then
-    SplitNode(new_pos);
+  if FUpdateMode = umRefit then
+  begin
+    { the leaf stays in place, only the boxes of parents are fitted }
+    RecalcBB(parent);
+    CheckRefits;
+  end else
+  begin
+    DoRemoveFromTree(OldPosition);
+    RecalcBB(parent);
+    new_pos := ChooseNode(NewBB);
+    DoInsertToTree(new_pos, OldPosition);
+    RecalcBB(new_pos);
+    if new_pos.CountChilds > MAX_COUNT_AABB then
+      SplitNode(new_pos);
+  end;
 
   if Box3Collision(FViewPort, NewBB) then
   begin
@@ -81,6 +81,10 @@ type
     FBlueBits: Cardinal;}
     FContextCreated: boolean;
     FOnCreateContextEvent: IBEmptyEvent;
+    FBufferAgeChecked: boolean;
+    FBufferAgeSupported: boolean;
+    FBufferPreserved: boolean;
+    function GetBufferAge: int32;
   public
     constructor Create(AWindowHandle: EGLNativeWindowType; AWindowDeviceContext: EGLNativeDisplayType);
     destructor Destroy; override;
@@ -98,6 +102,11 @@ type
     property ContextCreated: boolean read FContextCreated;
     property ContextIsLost: boolean read FContextIsLost;
     property OnCreateContextEvent: IBEmptyEvent read FOnCreateContextEvent;
+    { how many frames ago the current back buffer was drawn: 0 - content of the
+      buffer is undefined; it is taken from EGL_EXT_buffer_age, otherwise 1 if
+      the surface allows to preserve the buffer after a swap; the first read
+      of the property switches on the preserving }
+    property BufferAge: int32 read GetBufferAge;
   end;
 
   TContextAttributes = array of EGLint;
@@ -133,6 +142,10 @@ uses
   {$endif}
   ;
 
+const
+  { eglQuerySurface attribute of EGL_EXT_buffer_age }
+  EGL_BUFFER_AGE_EXT = $313D;
+
 procedure DeleteEglAttribute(AAttribute: GLInt; var AAttribs: TContextAttributes);
 var
   i, j: int32;
@@ -469,6 +482,36 @@ begin
   inherited;
 end;
 
+function TBlackSharkContext.GetBufferAge: int32;
+var
+  age: EGLint;
+begin
+  if not FContextCreated then
+    exit(0);
+
+  if not FBufferAgeChecked then
+  begin
+    FBufferAgeChecked := true;
+    FBufferAgeSupported := Pos('EGL_EXT_buffer_age', string(AnsiString(PAnsiChar(eglQueryString(eglDisplay, EGL_EXTENSIONS))))) > 0;
+    { the preserving is possible only if a config has EGL_SWAP_BEHAVIOR_PRESERVED_BIT,
+      otherwise eglSurfaceAttrib fails }
+    if not FBufferAgeSupported then
+      FBufferPreserved := eglSurfaceAttrib(eglDisplay, eglSurface, EGL_SWAP_BEHAVIOR, EGL_BUFFER_PRESERVED) = EGL_TRUE;
+  end;
+
+  if FBufferAgeSupported then
+  begin
+    if eglQuerySurface(eglDisplay, eglSurface, EGL_BUFFER_AGE_EXT, @age) = EGL_TRUE then
+      Result := age
+    else
+      Result := 0;
+  end else
+  if FBufferPreserved then
+    Result := 1
+  else
+    Result := 0;
+end;
+
 function TBlackSharkContext.MakeCurrent: boolean;
 begin
   if not FContextCreated and not CreateContext then
@@ -494,6 +537,9 @@ end;
 procedure TBlackSharkContext.UnInitGLContext;
 begin
   FContextCreated := false;
+  FBufferAgeChecked := false;
+  FBufferAgeSupported := false;
+  FBufferPreserved := false;
   eglMakeCurrent(eglDisplay, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
   if Assigned(eglContext) then
   begin
@@ -46,6 +46,10 @@ uses
       dynlibs,
     {$endif}
     bs.linux,
+  {$else}
+    {$if defined(FPC) and defined(LINUX)}
+      dynlibs,
+    {$endif}
   {$endif}
     SysUtils
   ;
@@ -57,6 +61,10 @@ const
   GL_COMPRESSED_RGBA_S3TC_DXT3_EXT = $83F2;
   GL_COMPRESSED_RGBA_S3TC_DXT5_EXT = $83F3;
 
+  GL_COMPRESSED_RGB8_ETC2 = $9274;
+  GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = $9276;
+  GL_COMPRESSED_RGBA8_ETC2_EAC = $9278;
+
   // error code
   //GL_INVALID_FRAMEBUFFER_OPERATION = $0506; // Invalid Framebuffer Operation
 
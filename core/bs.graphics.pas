@@ -58,6 +58,10 @@ type
 
   TBSPixelFormat = (pfDevice, pf1bit, pf4bit, pf8bit, pf15bit, pf16bit, pf24bit, pf32bit, pfCustom);
 
+  { formats of pictures compressed for GPU (see TBlackSharkCompressedPicture);
+    all of them consist of blocks 4x4 pixels }
+  TBSCompressedFormat = (cfDXT1, cfDXT3, cfDXT5, cfETC1, cfETC2RGB, cfETC2RGBA1, cfETC2RGBA);
+
   TGradientType = (
     gtNone,
     gtHorizontal,
@@ -291,8 +295,9 @@ type
     procedure SetHeight(const Value: int32);
     procedure SetWidth(const Value: int32);
     procedure SetPixelFormat(const Value: TBSPixelFormat);
-    function GetHeight: int32;
-    function GetWidth: int32;
+  protected
+    function GetHeight: int32; virtual;
+    function GetWidth: int32; virtual;
   protected
     FCaption: string;
     FPixelFormat: TBSPixelFormat;
@@ -366,11 +371,65 @@ type
     function Save(Stream: TStream): boolean; override;
   end;
 
-  { TBlackSharkDDS }
+  TCompressedLevel = record
+    Width: int32;
+    Height: int32;
+    { an offset in TBlackSharkCompressedPicture.Data }
+    Offset: int32;
+    Size: int32;
+  end;
+
+  { TBlackSharkCompressedPicture
+
+    the base class of containers of pictures compressed for GPU; the mip levels
+    are kept as is one after another in Data; Canvas is absent (nil) and
+    PixelFormat is pfCustom }
+
+  TBlackSharkCompressedPicture = class(TBlackSharkPicture)
+  private
+    FFormat: TBSCompressedFormat;
+    FData: array of byte;
+    FDataSize: int32;
+    FLevels: array of TCompressedLevel;
+    function GetCountLevels: int32;
+    function GetLevel(Index: int32): TCompressedLevel;
+    function GetLevelData(Index: int32): PByte;
+  protected
+    function GetHeight: int32; override;
+    function GetWidth: int32; override;
+    procedure Clear;
+    { reads ASize bytes of the next level from Stream; returns false if the
+      stream is too short }
+    function ReadLevel(Stream: TStream; AWidth, AHeight, ASize: int32): boolean;
+  public
+    procedure Assign(Picture: TBlackSharkPicture); override;
+    { size of a level in bytes computed by the size of a block of Format }
+    class function LevelSize(AFormat: TBSCompressedFormat; AWidth, AHeight: int32): int32;
+    property Format: TBSCompressedFormat read FFormat;
+    property CountLevels: int32 read GetCountLevels;
+    property Levels[Index: int32]: TCompressedLevel read GetLevel;
+    property LevelData[Index: int32]: PByte read GetLevelData;
+    { bytes of all levels }
+    property DataSize: int32 read FDataSize;
+  end;
+
+  { TBlackSharkDDS
+
+    DirectDraw Surface with DXT1, DXT3 or DXT5 compression }
+
+  TBlackSharkDDS = class(TBlackSharkCompressedPicture)
+  public
+    function Open(Stream: TStream): boolean; override;
+    function Save(Stream: TStream): boolean; override;
+  end;
+
+  { TBlackSharkKTX
+
+    Khronos texture (KTX 1.1) with ETC1 or ETC2 compression }
 
-  TBlackSharkDDS = class(TBlackSharkPicture)
+  TBlackSharkKTX = class(TBlackSharkCompressedPicture)
   public
-    function Open({%H-}Stream: TStream): boolean; override;
+    function Open(Stream: TStream): boolean; override;
     function Save(Stream: TStream): boolean; override;
   end;
 
@@ -513,6 +572,7 @@ uses
   , bs.zlib
   , bs.strings
   , bs.exceptions
+  , bs.vfs
   ;
 
 const
@@ -1242,12 +1302,15 @@ begin
 end;
 
 { flipped picture (RGB or RGBA only!) by read from down to up lines and write as RGBA colors;
-  !!! Always exchange red and blue colors }
+  !!! Always exchange red and blue colors;
+  the row is read into an own buffer, because pictures can be decoded by several
+  workers at once (see BSTextureManager.LoadTextureAsync) }
 procedure CopyBmp(DataOffset: int32; Source: TStream; Dest: pByte; Width, Height: int32;
   Boundary, Step: int8; Flipped: boolean = true);
 var
   i, j, pos_r, pos_w, w: int32;
   ord: byte;
+  row: array of byte;
   S: pByte;
 begin
   if (Width*Step) mod Boundary > 0 then
@@ -1256,12 +1319,13 @@ begin
     ord := 0;
   w := Width * Step + ord;
   pos_w := 0;
-  TPicCodecManager.WidenBuf.Position := 0;
-  TPicCodecManager.WidenBuf.Size := w;
+  SetLength(row, w);
+  if w = 0 then
+    exit;
+  s := @row[0];
   for i := 0 to Height - 1 do
   begin
     pos_r := 0;
-    s := TPicCodecManager.WidenBuf.Memory;
     if Flipped then
       Source.Position := int64(DataOffset + (Height - 1 - i) * w) {%H-}
     else
@@ -1288,11 +1352,10 @@ end;
 class function TPicCodecManager.Open(const FileName: string): TBlackSharkPicture;
 var
   ext: string;
-  f: TMemoryStream;
+  f: TCustomMemoryStream;
 begin
   ext := ExtractFileExt(FileName);
-  f := TMemoryStream.Create;
-  f.LoadFromFile(FileName);
+  f := OpenFileMemoryVFS(FileName);
   try
     Result := Open(f, StringToAnsi(ext));
   finally
@@ -1451,10 +1514,10 @@ end;
 
 function TBlackSharkPicture.Open(const FileName: string): boolean;
 var
-  f: TFileStream;
+  f: TStream;
 begin
   FCaption := ExtractFileName(FCaption);
-  f := TFileStream.Create(FileName, fmOpenRead);
+  f := OpenFileVFS(FileName);
   try
     Result := Open(f);
   finally
@@ -1708,6 +1771,7 @@ var
   widthBytesDest: int32;
   rowPosition: int32;
   decompressor: ZLibDecompressor;
+  ownBuffer: boolean;
   chank_buf: array of byte;
   prevRow: array of byte;
   outStream: TWidenBuffer;
@@ -1863,10 +1927,18 @@ begin
   rowPosition := FCanvas.Raw.Size - widthBytesDest - FCanvas.Padding;
   notFirstRow := false;
 
-  decompressor := ZLibDecompressor.Create;
+  { the output of inflate is not greater than the whole image }
+  decompressor := ZLibDecompressor.Create(Max(64*1024, Min(ZLIB_OUT_BUFFER_SIZE, (widthBytes + 1) * hdr.Height)));
 
   SetLength(prevRow, widthBytes);
-  outStream := TPicCodecManager.WidenBuf; // TWidenBuffer.Create;
+  { the shared buffer is used only by the main thread; pictures can be decoded
+    by workers (see BSTextureManager.LoadTextureAsync) }
+  ownBuffer := TThread.CurrentThread.ThreadID <> MainThreadID;
+  if ownBuffer then
+    outStream := TWidenBuffer.Create
+  else
+    outStream := TPicCodecManager.WidenBuf;
+  outStream.Position := 0;
 
   while (sizeSource > Stream.Position) and (rowPosition >= 0) do
   begin
@@ -1913,6 +1985,8 @@ begin
   SetLength(chank_buf, 0);
   SetLength(prevRow, 0);
   decompressor.Free;
+  if ownBuffer then
+    outStream.Free;
 
   Result := true;
 end;
@@ -2183,11 +2257,130 @@ begin
   end;
 end;  *)
 
+{ TBlackSharkCompressedPicture }
+
+procedure TBlackSharkCompressedPicture.Assign(Picture: TBlackSharkPicture);
+begin
+  FCaption := Picture.FCaption;
+  FPixelFormat := TBSPixelFormat.pfCustom;
+  if not (Picture is TBlackSharkCompressedPicture) then
+    raise Exception.Create('TBlackSharkCompressedPicture.Assign: the source is not compressed!');
+  FFormat := TBlackSharkCompressedPicture(Picture).FFormat;
+  FData := Copy(TBlackSharkCompressedPicture(Picture).FData);
+  FDataSize := TBlackSharkCompressedPicture(Picture).FDataSize;
+  FLevels := Copy(TBlackSharkCompressedPicture(Picture).FLevels);
+end;
+
+procedure TBlackSharkCompressedPicture.Clear;
+begin
+  { the canvas is not created for compressed data }
+  FPixelFormat := TBSPixelFormat.pfCustom;
+  FData := nil;
+  FDataSize := 0;
+  FLevels := nil;
+end;
+
+function TBlackSharkCompressedPicture.GetCountLevels: int32;
+begin
+  Result := length(FLevels);
+end;
+
+function TBlackSharkCompressedPicture.GetHeight: int32;
+begin
+  if length(FLevels) > 0 then
+    Result := FLevels[0].Height
+  else
+    Result := 0;
+end;
+
+function TBlackSharkCompressedPicture.GetWidth: int32;
+begin
+  if length(FLevels) > 0 then
+    Result := FLevels[0].Width
+  else
+    Result := 0;
+end;
+
+function TBlackSharkCompressedPicture.GetLevel(Index: int32): TCompressedLevel;
+begin
+  Result := FLevels[Index];
+end;
+
+function TBlackSharkCompressedPicture.GetLevelData(Index: int32): PByte;
+begin
+  Result := @FData[FLevels[Index].Offset];
+end;
+
+class function TBlackSharkCompressedPicture.LevelSize(AFormat: TBSCompressedFormat; AWidth, AHeight: int32): int32;
+const
+  BLOCK_SIZE: array[TBSCompressedFormat] of int32 = (8, 16, 16, 8, 8, 8, 16);
+begin
+  Result := ((AWidth + 3) div 4) * ((AHeight + 3) div 4) * BLOCK_SIZE[AFormat];
+end;
+
+function TBlackSharkCompressedPicture.ReadLevel(Stream: TStream; AWidth, AHeight, ASize: int32): boolean;
+var
+  level: int32;
+begin
+  if (ASize <= 0) or (Stream.Position + ASize > Stream.Size) then
+    exit(false);
+  if FDataSize + ASize > length(FData) then
+    SetLength(FData, (FDataSize + ASize) * 2);
+  Stream.ReadBuffer(FData[FDataSize], ASize);
+  level := length(FLevels);
+  SetLength(FLevels, level + 1);
+  FLevels[level].Width := AWidth;
+  FLevels[level].Height := AHeight;
+  FLevels[level].Offset := FDataSize;
+  FLevels[level].Size := ASize;
+  inc(FDataSize, ASize);
+  Result := true;
+end;
+
 { TBlackSharkDDS }
 
 function TBlackSharkDDS.Open(Stream: TStream): boolean;
+const
+  DDS_HEADER_SIZE = 128;
+  FOURCC_DXT1 = $31545844; // "DXT1"
+  FOURCC_DXT3 = $33545844; // "DXT3"
+  FOURCC_DXT5 = $35545844; // "DXT5"
+var
+  header: array[0..DDS_HEADER_SIZE div 4 - 1] of uint32;
+  w, h, i, mipMapCount: int32;
 begin
   Result := false;
+  Clear;
+  if Stream.Size - Stream.Position < DDS_HEADER_SIZE then
+    exit;
+  Stream.ReadBuffer(header{%H-}, DDS_HEADER_SIZE);
+  if header[0] <> $20534444 then // "DDS "
+    exit;
+
+  h := header[3];
+  w := header[4];
+  mipMapCount := header[7];
+  case header[21] of
+    FOURCC_DXT1: FFormat := cfDXT1;
+    FOURCC_DXT3: FFormat := cfDXT3;
+    FOURCC_DXT5: FFormat := cfDXT5
+  else
+    exit;
+  end;
+
+  if mipMapCount < 1 then
+    mipMapCount := 1;
+  for i := 0 to mipMapCount - 1 do
+  begin
+    if not ReadLevel(Stream, w, h, LevelSize(FFormat, w, h)) then
+      break;
+    if (w = 1) and (h = 1) then
+      break;
+    w := Max(1, w div 2);
+    h := Max(1, h div 2);
+  end;
+
+  Result := CountLevels > 0;
 end;
 
 function TBlackSharkDDS.Save(Stream: TStream): boolean;
@@ -2198,6 +2391,89 @@ begin
   raise Exception.Create('TBlackSharkDDS.Save is not implemeted!');
 end;
 
+{ TBlackSharkKTX }
+
+function TBlackSharkKTX.Open(Stream: TStream): boolean;
+type
+  TKTXHeader = packed record
+    Identifier: array[0..11] of byte;
+    Endianness: uint32;
+    GlType: uint32;
+    GlTypeSize: uint32;
+    GlFormat: uint32;
+    GlInternalFormat: uint32;
+    GlBaseInternalFormat: uint32;
+    PixelWidth: uint32;
+    PixelHeight: uint32;
+    PixelDepth: uint32;
+    NumberOfArrayElements: uint32;
+    NumberOfFaces: uint32;
+    NumberOfMipmapLevels: uint32;
+    BytesOfKeyValueData: uint32;
+  end;
+const
+  KTX_IDENTIFIER: array[0..11] of byte = ($AB, $4B, $54, $58, $20, $31, $31, $BB, $0D, $0A, $1A, $0A);
+  KTX_ENDIAN_REF = $04030201;
+  { values of GlInternalFormat }
+  KTX_ETC1_RGB8 = $8D64;
+  KTX_COMPRESSED_RGB8_ETC2 = $9274;
+  KTX_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = $9276;
+  KTX_COMPRESSED_RGBA8_ETC2_EAC = $9278;
+var
+  header: TKTXHeader;
+  w, h, i, levels: int32;
+  imageSize: uint32;
+begin
+  Result := false;
+  Clear;
+  if Stream.Size - Stream.Position < SizeOf(TKTXHeader) then
+    exit;
+  Stream.ReadBuffer(header{%H-}, SizeOf(TKTXHeader));
+  if not CompareMem(@header.Identifier[0], @KTX_IDENTIFIER[0], SizeOf(KTX_IDENTIFIER)) or
+    (header.Endianness <> KTX_ENDIAN_REF) then
+    exit;
+
+  { only single 2d compressed pictures }
+  if (header.GlType <> 0) or (header.PixelDepth > 1) or (header.NumberOfArrayElements > 1) or
+    (header.NumberOfFaces <> 1) then
+    exit;
+
+  case header.GlInternalFormat of
+    KTX_ETC1_RGB8: FFormat := cfETC1;
+    KTX_COMPRESSED_RGB8_ETC2: FFormat := cfETC2RGB;
+    KTX_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2: FFormat := cfETC2RGBA1;
+    KTX_COMPRESSED_RGBA8_ETC2_EAC: FFormat := cfETC2RGBA
+  else
+    exit;
+  end;
+
+  Stream.Position := Stream.Position + header.BytesOfKeyValueData;
+  w := header.PixelWidth;
+  h := Max(1, header.PixelHeight);
+  levels := Max(1, header.NumberOfMipmapLevels);
+  for i := 0 to levels - 1 do
+  begin
+    if Stream.Read(imageSize{%H-}, SizeOf(imageSize)) <> SizeOf(imageSize) then
+      break;
+    if not ReadLevel(Stream, w, h, imageSize) then
+      break;
+    { mipPadding }
+    Stream.Position := Stream.Position + (3 - (imageSize + 3) mod 4);
+    w := Max(1, w div 2);
+    h := Max(1, h div 2);
+  end;
+
+  Result := CountLevels > 0;
+end;
+
+function TBlackSharkKTX.Save(Stream: TStream): boolean;
+begin
+  {$ifdef FPC}
+  Result := false;
+  {$endif}
+  raise Exception.Create('TBlackSharkKTX.Save is not implemeted!');
+end;
+
 { TBlackSharkTGA }
 
 function TBlackSharkTGA.Open(Stream: TStream): boolean;
@@ -2283,6 +2559,7 @@ begin
   TPicCodecManager.RegisterCodec(TBlackSharkPng, ['.PNG'], [$89, $50, $4E, $47]);
   TPicCodecManager.RegisterCodec(TBlackSharkTGA, ['.TGA'], []);
   TPicCodecManager.RegisterCodec(TBlackSharkDDS, ['.DDS'], [$44, $44, $53]);
+  TPicCodecManager.RegisterCodec(TBlackSharkKTX, ['.KTX'], [$AB, $4B, $54, $58]);
 end;
 
 procedure InitColorMap;
@@ -40,6 +40,7 @@ uses
   , bs.gl.es
   {$endif}
   , bs.collections
+  , bs.events
   , bs.renderer
   , bs.scene
   , bs.scene.objects
@@ -50,6 +51,10 @@ uses
   , bs.canvas
   ;
 
+const
+  { amount of GL buffers rotated by TInstanceBuffer }
+  INSTANCE_BUFFER_COUNT = 3;
+
 type
 
   TInstance = record
@@ -215,6 +220,49 @@ type
     property Color: PShaderParametr read FColor;
   end;
 
+  { TInstanceBuffer
+    A dynamic GL buffer for data of instances changed by the CPU; the owner marks
+    changed bytes by Invalidate, and Bind uploads by glBufferSubData only the
+    marked range instead of the whole data; buffers are rotated every Bind, so
+    a buffer the GPU can still read for the previous frames is not written; the
+    every buffer accumulates own dirty range, because it has missed the changes
+    uploaded to the others }
+
+  TInstanceBuffer = class
+  private
+    type
+      TDirtyRange = record
+        First: int32;
+        { exclusive }
+        Last: int32;
+      end;
+  private
+    FTarget: GLenum;
+    FBuffers: array[0..INSTANCE_BUFFER_COUNT - 1] of GLuint;
+    FSizes: array[0..INSTANCE_BUFFER_COUNT - 1] of int32;
+    FDirty: array[0..INSTANCE_BUFFER_COUNT - 1] of TDirtyRange;
+    FCurrent: int32;
+    FUploadedBytes: uint64;
+    FUploads: int32;
+  public
+    constructor Create(ATarget: GLenum);
+    destructor Destroy; override;
+    { marks ASize bytes from AOffset as changed }
+    procedure Invalidate(AOffset, ASize: int32);
+    procedure InvalidateAll;
+    { forgets the buffers of a lost GL context without deleting them and marks
+      all data for upload to the new ones }
+    procedure Restore;
+    { switches to the next buffer, binds it and uploads to it the changed part
+      of AData; must be invoked from the thread owning GL context }
+    procedure Bind(AData: Pointer; ASize: int32);
+    procedure ResetStatistics;
+    { amount of bytes uploaded to GPU }
+    property UploadedBytes: uint64 read FUploadedBytes;
+    { amount of glBufferData/glBufferSubData calls }
+    property Uploads: int32 read FUploads;
+  end;
+
   { TODO: GLES 3.0 - Particle System using Transform Feedback }
 
 
@@ -268,6 +316,10 @@ type
     ParticlesData: TListParticles.PArrayOfT;
     FTexture: PTextureArea;
     FTextureHolder: IBlackSharkTexture;
+    FVertexBuffer: TInstanceBuffer;
+    FIndexBuffer: TInstanceBuffer;
+    ObsrvRestore: IBEmptyEventObserver;
+    procedure OnRestore({%H-}const Data: BEmpty);
     procedure SetCapacity(const Value: int32);
     function GetCapacity: int32;
     procedure DoSort(L, R: int32);
@@ -280,6 +332,16 @@ type
     FParticlePrototype: TGraphicObject;
     Shader: TBlackSharkParticleShader;
     Indexes: TListVec1s;
+    { offset of TParticle.Data in a vertex }
+    DataOffset: int32;
+    { marks ACount particles from AFirst for upload to GPU; must be invoked
+      after every change of FParticles }
+    procedure ParticlesChanged(AFirst: int32; ACount: int32 = 1);
+    { uploads the changed data and binds the vertex and index buffers; offsets
+      in them are passed to glVertexAttribPointer and glDrawElements instead of
+      pointers }
+    procedure BindBuffers;
+    procedure UnbindBuffers;
     procedure SetCountParticle(const Value: int32); virtual;
     procedure SetParticlePrototype(const Value: TGraphicObject); virtual;
     procedure SetPosition(index: int32; const Value: TVec3f); virtual;
@@ -302,6 +364,8 @@ type
     property Texture: PTextureArea read FTexture write SetTexture;
     { properties every a particle }
     property Position[index: int32]: TVec3f read GetPosition write SetPosition;
+    property VertexBuffer: TInstanceBuffer read FVertexBuffer;
+    property IndexBuffer: TInstanceBuffer read FIndexBuffer;
   end;
 
 
@@ -581,6 +645,108 @@ type
   end;
 
 
+  TParticleSpawn = record
+    { xyz - a start velocity (units per second), w - time of life in seconds }
+    Velocity: TVec4f;
+    Color: TColor4f;
+  end;
+
+  { TParticlesGPU
+    Particles animated by the vertex shader; a vertex keeps only parameters of
+    a spawn: the start position, time of the birth (in Position.w), velocity,
+    time of life and color; the current position and the opacity are computed
+    from them and the time uniform, and a particle is born again at the start
+    position when its life is over; thus a steady particle system requires
+    neither updates on the CPU nor uploads to GPU every frame; particles are
+    drawn as round points }
+
+  TParticlesGPU = class(TBlackSharkParticles<TParticleSpawn>)
+  private
+    const
+      VSH = 'uniform mat4 MVP;' + #$0d + #$0a +
+            'uniform float u_time;' + #$0d + #$0a +
+            'uniform vec3 u_gravity;' + #$0d + #$0a +
+            'uniform float u_point_size;' + #$0d + #$0a +
+            '// input attributes' + #$0d + #$0a +
+            '// xyz - start position, w - time of the birth' + #$0d + #$0a +
+            'attribute vec4 a_position;' + #$0d + #$0a +
+            '// xyz - velocity, w - time of life' + #$0d + #$0a +
+            'attribute vec4 a_velocity;' + #$0d + #$0a +
+            'attribute vec4 a_color;' + #$0d + #$0a +
+            '// out parameters' + #$0d + #$0a +
+            'varying vec4 v_color;' + #$0d + #$0a +
+
+            'void main()' + #$0d + #$0a +
+            '{' + #$0d + #$0a +
+              'float age = u_time - a_position.w;' + #$0d + #$0a +
+              'float t = mod(max(age, 0.0), a_velocity.w);' + #$0d + #$0a +
+              'vec3 pos = a_position.xyz + a_velocity.xyz*t + 0.5*u_gravity*t*t;' + #$0d + #$0a +
+	            'gl_Position = MVP*vec4(pos, 1.0);' + #$0d + #$0a +
+	            'gl_PointSize = u_point_size;' + #$0d + #$0a +
+              '// not born particles are invisible' + #$0d + #$0a +
+	            'v_color = vec4(a_color.rgb, a_color.a*(1.0 - t/a_velocity.w)*step(0.0, age));' + #$0d + #$0a +
+            '}';
+
+      FSH = 'precision mediump float;' + #$0d + #$0a +
+            'varying vec4 v_color;' + #$0d + #$0a +
+
+            'void main()' + #$0d + #$0a +
+            '{' + #$0d + #$0a +
+              'vec2 d = gl_PointCoord - vec2(0.5, 0.5);' + #$0d + #$0a +
+              'if (dot(d, d) > 0.25)' + #$0d + #$0a +
+              '  discard;' + #$0d + #$0a +
+	            'gl_FragColor = v_color;' + #$0d + #$0a +
+            '}';
+
+    type
+
+      { TParticlesShader }
+
+      TParticlesShader = class(TBlackSharkParticleShader)
+      private
+        { input uniforms }
+        FTime: PShaderParametr;
+        FGravity: PShaderParametr;
+        FPointSize: PShaderParametr;
+        { input variables }
+        FVelocity: PShaderParametr;
+        FColor: PShaderParametr;
+      public
+        constructor Create(const AName: string; const DataVertex, DataFragment: PAnsiChar); override;
+        { input uniforms }
+        property Time: PShaderParametr read FTime;
+        property Gravity: PShaderParametr read FGravity;
+        property PointSize: PShaderParametr read FPointSize;
+        { input variables }
+        property Velocity: PShaderParametr read FVelocity;
+        property Color: PShaderParametr read FColor;
+      end;
+
+  strict private
+    procedure DrawProto(Instance: PRendererGraphicInstance);
+  private
+    FStartTime: uint32;
+    FGravity: TVec3f;
+    FPointSize: BSFloat;
+    function GetTime: BSFloat;
+  protected
+    procedure SetPosition(index: int32; const Value: TVec3f); override;
+    function CreateShader: TBlackSharkParticleShader; override;
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer; AParticleBox: TGraphicObject); override;
+    { sets parameters of a spawn of the particle AIndex; the particle is born
+      after ADelay seconds; ALife must be greater than zero }
+    procedure Spawn(AIndex: int32; const APosition, AVelocity: TVec3f; ALife: BSFloat;
+      const AColor: TColor4f; ADelay: BSFloat = 0.0);
+    { seconds from the creation; the value passed to the shader }
+    property Time: BSFloat read GetTime;
+    { acceleration of all particles (units per second squared) }
+    property Gravity: TVec3f read FGravity write FGravity;
+    { size of a point in pixels }
+    property PointSize: BSFloat read FPointSize write FPointSize;
+  end;
+
+
 implementation
 
 uses
@@ -588,6 +754,8 @@ uses
   , bs.utils
   , bs.math
   , bs.config
+  , bs.thread
+  , bs.log
   ;
 
 { TBlackSharkInstansing }
@@ -927,11 +1095,16 @@ end;
 constructor TBlackSharkParticles<T>.Create(ARenderer: TBlackSharkRenderer; AParticleBox: TGraphicObject);
 var
   proto: TGraphicObject;
+  part: TParticle;
 begin
   FRenderer := ARenderer;
   FParticles := TListParticles.Create;
   Distances := TListDistances.Create;
   Indexes := TListVec1s.Create;
+  FVertexBuffer := TInstanceBuffer.Create(GL_ARRAY_BUFFER);
+  FIndexBuffer := TInstanceBuffer.Create(GL_ELEMENT_ARRAY_BUFFER);
+  ObsrvRestore := CreateEmptyObserver(FRenderer.EventRestore, OnRestore);
+  DataOffset := int32(NativeInt(@part.Data) - NativeInt(@part));
   if AParticleBox <> nil then
   begin
     OwnProto := false;
@@ -957,6 +1130,9 @@ end;
 destructor TBlackSharkParticles<T>.Destroy;
 begin
   FTextureHolder := nil;
+  ObsrvRestore := nil;
+  FVertexBuffer.Free;
+  FIndexBuffer.Free;
   Indexes.Free;
   Distances.Free;
   if OwnProto then
@@ -1064,35 +1240,23 @@ end;}
 procedure TBlackSharkParticles<T>.Remove(AIndex: int32);
 var
   off_end: int32;
-  off_start: int32;
 begin
   off_end := FCountParticle - 1;
-  if (FCountParticle = 0) or (AIndex > off_end) then
+  if (AIndex < 0) or (AIndex > off_end) then
     exit;
-  if (FCountParticle > 1) and (AIndex < off_end) then
+  if AIndex < off_end then
   begin
-    FParticles.Items[AIndex] := FParticles.Items[off_end];
-    off_end := (off_end) * 6;
-    off_start := AIndex * 6;
-    Indexes.Items[off_start    ] := Indexes.Items[off_end];
-    Indexes.Items[off_start + 1] := Indexes.Items[off_end + 1];
-    Indexes.Items[off_start + 2] := Indexes.Items[off_end + 2];
-    Indexes.Items[off_start + 3] := Indexes.Items[off_end + 3];
-    Indexes.Items[off_start + 4] := Indexes.Items[off_end + 4];
-    Indexes.Items[off_start + 5] := Indexes.Items[off_end + 5];
+    { the last particle takes the place of the removed one; indexes of quads
+      depend only on a place, so they stay the same }
+    Distances.Items[AIndex] := Distances.Items[off_end];
     if FIsPoints then
-    begin
-      //FColors.Items[index] := FColors.Items[off_end];
-      //FColors.Count := off_end;
-    end else
-    begin
-      move(PByte(FParticles.ShiftData[off_end])^, pByte(FParticles.ShiftData[off_end])^, SizeOf(TParticle)*6);
-    end;
+      FParticles.Items[AIndex] := FParticles.Items[off_end]
+    else
+      move(PByte(FParticles.ShiftData[off_end shl 2])^, PByte(FParticles.ShiftData[AIndex shl 2])^, SizeOf(TParticle) shl 2);
+    ParticlesChanged(AIndex);
   end;
 
-  FParticles.Count := off_end;
-
-  dec(FCountParticle);
+  CountParticle := off_end;
 end;
 
 (*procedure TBlackSharkParticles<T>.SelectShader;
@@ -1179,6 +1343,7 @@ begin
   begin
     FParticles.Capacity := Value shl 2;
     Indexes.Count := Value*6;
+    FIndexBuffer.InvalidateAll;
     //FUVAreas.Capacity := FParticles.Capacity;
     //FAreas.Capacity := FParticles.Capacity;
   end;
@@ -1218,6 +1383,8 @@ begin
     FUVAreas.Clear;
     FAreas.Clear;  }
     Indexes.Count := FCountParticle;
+    if FCountParticle > was_part then
+      ParticlesChanged(was_part, FCountParticle - was_part);
   end else
   begin
     FParticles.Count := FCountParticle shl 2;// * 6; // evry particle is a quad texture
@@ -1245,6 +1412,8 @@ begin
         inc(j, 6);
       end;
 
+      ParticlesChanged(was_part, FCountParticle - was_part);
+      FIndexBuffer.Invalidate(was_part * 6 * SizeOf(Smallint), (FCountParticle - was_part) * 6 * SizeOf(Smallint));
     end;
   end;
 end;
@@ -1313,6 +1482,7 @@ begin
     ptr_part[2].Position := vec4(Value.x + Quad[2].x, Value.y + Quad[2].y, Value.z, 2);
     ptr_part[3].Position := vec4(Value.x + Quad[3].x, Value.y + Quad[3].y, Value.z, 3);
   end;
+  ParticlesChanged(index);
 end;
 
 {procedure TBlackSharkParticles<T>.SetScale(index: int32; const Value: BSFloat);
@@ -1520,6 +1690,137 @@ begin
   DistancesData := Distances.Data;
   ParticlesData := FParticles.Data;
   DoSort(0, Distances.Count - 1);
+  FVertexBuffer.InvalidateAll;
+end;
+
+procedure TBlackSharkParticles<T>.ParticlesChanged(AFirst: int32; ACount: int32);
+begin
+  if FIsPoints then
+    FVertexBuffer.Invalidate(AFirst * SizeOf(TParticle), ACount * SizeOf(TParticle))
+  else
+    FVertexBuffer.Invalidate(AFirst * (SizeOf(TParticle) shl 2), ACount * (SizeOf(TParticle) shl 2));
+end;
+
+procedure TBlackSharkParticles<T>.BindBuffers;
+begin
+  FVertexBuffer.Bind(FParticles.ShiftData[0], FParticles.Count * SizeOf(TParticle));
+  if FIsPoints then
+    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0)
+  else
+    FIndexBuffer.Bind(Indexes.ShiftData[0], Indexes.Count * SizeOf(Smallint));
+end;
+
+procedure TBlackSharkParticles<T>.UnbindBuffers;
+begin
+  glBindBuffer(GL_ARRAY_BUFFER, 0);
+  glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+end;
+
+procedure TBlackSharkParticles<T>.OnRestore(const Data: BEmpty);
+begin
+  FVertexBuffer.Restore;
+  FIndexBuffer.Restore;
+end;
+
+{ TInstanceBuffer }
+
+constructor TInstanceBuffer.Create(ATarget: GLenum);
+var
+  i: int32;
+begin
+  FTarget := ATarget;
+  for i := 0 to INSTANCE_BUFFER_COUNT - 1 do
+  begin
+    FDirty[i].First := MaxInt;
+    FDirty[i].Last := 0;
+  end;
+end;
+
+destructor TInstanceBuffer.Destroy;
+var
+  i: int32;
+begin
+  for i := 0 to INSTANCE_BUFFER_COUNT - 1 do
+    if FBuffers[i] > 0 then
+      glDeleteBuffers(1, @FBuffers[i]);
+  inherited;
+end;
+
+procedure TInstanceBuffer.Invalidate(AOffset, ASize: int32);
+var
+  i: int32;
+begin
+  if ASize <= 0 then
+    exit;
+  for i := 0 to INSTANCE_BUFFER_COUNT - 1 do
+  begin
+    if AOffset < FDirty[i].First then
+      FDirty[i].First := AOffset;
+    if AOffset + ASize > FDirty[i].Last then
+      FDirty[i].Last := AOffset + ASize;
+  end;
+end;
+
+procedure TInstanceBuffer.InvalidateAll;
+begin
+  Invalidate(0, MaxInt);
+end;
+
+procedure TInstanceBuffer.Restore;
+var
+  i: int32;
+begin
+  for i := 0 to INSTANCE_BUFFER_COUNT - 1 do
+  begin
+    FBuffers[i] := 0;
+    FSizes[i] := 0;
+  end;
+  InvalidateAll;
+end;
+
+procedure TInstanceBuffer.Bind(AData: Pointer; ASize: int32);
+var
+  first, last: int32;
+begin
+  FCurrent := (FCurrent + 1) mod INSTANCE_BUFFER_COUNT;
+  if FBuffers[FCurrent] = 0 then
+  begin
+    glGenBuffers(1, @FBuffers[FCurrent]);
+    if FBuffers[FCurrent] = 0 then
+    begin
+      BSWriteMsg('TInstanceBuffer.Bind', 'Cannot create VBO!');
+      exit;
+    end;
+  end;
+  glBindBuffer(FTarget, FBuffers[FCurrent]);
+  if ASize > FSizes[FCurrent] then
+  begin
+    { reserve for growth, otherwise every new instance reallocates the buffer }
+    FSizes[FCurrent] := ASize + ASize shr 1;
+    glBufferData(FTarget, FSizes[FCurrent], nil, GL_DYNAMIC_DRAW);
+    first := 0;
+    last := ASize;
+  end else
+  begin
+    first := FDirty[FCurrent].First;
+    last := FDirty[FCurrent].Last;
+    if last > ASize then
+      last := ASize;
+  end;
+  if last > first then
+  begin
+    glBufferSubData(FTarget, first, last - first, PByte(AData) + first);
+    inc(FUploadedBytes, last - first);
+    inc(FUploads);
+  end;
+  FDirty[FCurrent].First := MaxInt;
+  FDirty[FCurrent].Last := 0;
+end;
+
+procedure TInstanceBuffer.ResetStatistics;
+begin
+  FUploadedBytes := 0;
+  FUploads := 0;
 end;
 
 { TBlackSharkParticleShader }
@@ -1631,8 +1932,7 @@ var
 begin
   if FCountParticle = 0 then
     exit;
-  //glBindBuffer ( GL_ARRAY_BUFFER, 0 );
-  glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0); // define draw method by indexes
+  BindBuffers;
   glUniformMatrix4fv( Shader.MVP^.Location, 1, GL_FALSE, @Instance.LastMVP );
   { show bitmap from texture areas }
   BSTextureManager.UseTexture(FTexture^.Texture);
@@ -1648,7 +1948,7 @@ begin
       step := FCountParticle - i
     else
       step := TParticlesSingleUV.MAX_COUNT_PARTICLE_ONE_OF_FOUR;
-    glVertexAttribPointer(Shader.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), FParticles.ShiftData[pos_ar]);
+    glVertexAttribPointer(Shader.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(pos_ar) * SizeOf(TParticle)));
     if FIsPoints then
     begin
       { show bitmap by points; very slowly glDrawArrays for GL_POINTS, look for
@@ -1659,12 +1959,13 @@ begin
       glDrawArrays(GL_POINTS, 0, FParticles.Count);
     end else
     begin
-      glDrawElements (GL_TRIANGLES, step*6, GL_UNSIGNED_SHORT, Indexes.ShiftData[pos_ind]);
+      glDrawElements (GL_TRIANGLES, step*6, GL_UNSIGNED_SHORT, Pointer(NativeInt(pos_ind) * SizeOf(Smallint)));
     end;
     inc(pos_ind, step * 6);
     inc(pos_ar, step shl 2);
     inc(i, step);
   end;
+  UnbindBuffers;
 end;
 
 { TParticlesMultiUVConstSize.TParticlesShader }
@@ -1704,9 +2005,7 @@ var
 begin
   if FCountParticle = 0 then
     exit;
-  // define draw method by indexes
-  glBindBuffer(GL_ARRAY_BUFFER, 0);
-  glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+  BindBuffers;
   glUniformMatrix4fv( Shader.MVP^.Location, 1, GL_FALSE, @Instance.LastMVP );
   { show bitmap from texture areas }
   BSTextureManager.UseTexture(FTexture^.Texture);
@@ -1720,9 +2019,9 @@ begin
       step := FCountParticle - i
     else
       step := MAX_COUNT_PARTICLE_ONE_OF_FOUR;
-    glVertexAttribPointer(Shader.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), FParticles.ShiftData[pos_ar]);
+    glVertexAttribPointer(Shader.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(pos_ar) * SizeOf(TParticle)));
     glVertexAttribPointer(TParticlesMultiUV.TParticlesShader(Shader).FUVPosition.Location, 2,
-      GL_FLOAT, GL_FALSE, SizeOf(TParticle), @(PParticle(FParticles.ShiftData[pos_ar])^.Data));
+      GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(pos_ar) * SizeOf(TParticle) + DataOffset));
 
     if FIsPoints then
     begin
@@ -1735,12 +2034,13 @@ begin
       //glDrawArrays(GL_POINTS, 0, FParticles.Count);
     end else
     begin
-      glDrawElements (GL_TRIANGLES, step*6, GL_UNSIGNED_SHORT, Indexes.ShiftData[pos_ind]);
+      glDrawElements (GL_TRIANGLES, step*6, GL_UNSIGNED_SHORT, Pointer(NativeInt(pos_ind) * SizeOf(Smallint)));
     end;
     inc(pos_ind, step*6);
     inc(pos_ar, step shl 2);
     inc(i, step);
   end;
+  UnbindBuffers;
 end;
 
 {function TParticlesMultiUV.GetSizeUV: TVec2f;
@@ -1778,6 +2078,7 @@ begin
   ptr_part[1].Position := vec4(Value.x + h.x, Value.y + h.y, Value.z, 1);
   ptr_part[2].Position := vec4(Value.x - h.x, Value.y + h.y, Value.z, 2);
   ptr_part[3].Position := vec4(Value.x + h.x, Value.y - h.y, Value.z, 3);
+  ParticlesChanged(index);
 end;
 
 procedure TParticlesMultiUV.SetPositionUV(index: int32; const Value: TVec2f);
@@ -1793,6 +2094,7 @@ begin
   ptr_part[1].Data := Value + size;
   ptr_part[2].Data := vec2(Value.x + size.x, Value.y);
   ptr_part[3].Data := vec2(Value.x, Value.y + size.y);
+  ParticlesChanged(index);
 end;
 
 procedure TParticlesMultiUV.Change(Index: int32; const Postion: TVec3f;
@@ -1816,6 +2118,7 @@ begin
   ptr_part[1].Data := vec2(Rect.UV.U + Rect.UV.Width, Rect.UV.V);
   ptr_part[2].Data := Rect.UV.Position;
   ptr_part[3].Data := Rect.UV.Position + Rect.UV.Size;
+  ParticlesChanged(index);
 end;
 
 procedure TParticlesMultiUV.SetRect(index: int32; const Value: TRectBSF);
@@ -1835,6 +2138,7 @@ begin
   ptr_part[1].Data := vec2(Value.Position.x + Value.x, Value.Position.y);
   ptr_part[2].Data := Value.Position;
   ptr_part[3].Data := Value.Position + Value.Size;
+  ParticlesChanged(index);
       {
       FUVAreas.Items[off + 0] := vec2(Rect.UV.U, Rect.UV.V + Rect.UV.Height);
       FUVAreas.Items[off + 1] := vec2(Rect.UV.U + Rect.UV.Width, Rect.UV.V);
@@ -1878,9 +2182,7 @@ begin
   if FCountParticle = 0 then
     exit;
 
-  // define draw method by indexes
-  glBindBuffer(GL_ARRAY_BUFFER, 0);
-  glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+  BindBuffers;
 
   glUniformMatrix4fv( Shader.MVP^.Location, 1, GL_FALSE, @Instance.LastMVP );
   if TranslateColorAsHLS then
@@ -1898,9 +2200,9 @@ begin
       step := FCountParticle - i
     else
       step := MAX_COUNT_PARTICLE_ONE_OF_FOUR;
-    glVertexAttribPointer(Shader.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), FParticles.ShiftData[pos_ar]);
+    glVertexAttribPointer(Shader.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(pos_ar) * SizeOf(TParticle)));
     glVertexAttribPointer(TParticlesMultiUVSingleColor.TParticlesShader(Shader).FUVPosition.Location, 2,
-      GL_FLOAT, GL_FALSE, SizeOf(TParticle), @(PParticle(FParticles.ShiftData[pos_ar])^.Data));
+      GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(pos_ar) * SizeOf(TParticle) + DataOffset));
 
 
     if FIsPoints then
@@ -1912,12 +2214,13 @@ begin
       glDrawArrays(GL_POINTS, 0, FParticles.Count);
     end else
     begin
-      glDrawElements (GL_TRIANGLES, step * 6, GL_UNSIGNED_SHORT, Indexes.ShiftData[pos_ind]);
+      glDrawElements (GL_TRIANGLES, step * 6, GL_UNSIGNED_SHORT, Pointer(NativeInt(pos_ind) * SizeOf(Smallint)));
     end;
     inc(pos_ar, step shl 2);
     inc(pos_ind, step * 6);
     inc(i, step);
   end;
+  UnbindBuffers;
 end;
 
 procedure TParticlesMultiUVSingleColor.SetColor(const Value: TVec4f);
@@ -1955,6 +2258,86 @@ begin
       TParticlesMultiUVSingleColor.TParticlesShader));
 end;
 
+{ TParticlesGPU.TParticlesShader }
+
+constructor TParticlesGPU.TParticlesShader.Create(const AName: string; const DataVertex, DataFragment: PAnsiChar);
+begin
+  inherited;
+  FTime := AddUniform('u_time', stFloat, tsVertex);
+  FGravity := AddUniform('u_gravity', stVec3, tsVertex);
+  FPointSize := AddUniform('u_point_size', stFloat, tsVertex);
+  FVelocity := AddAttribute('a_velocity', stVec4, tsVertex);
+  FColor := AddAttribute('a_color', stVec4, tsVertex);
+end;
+
+{ TParticlesGPU }
+
+constructor TParticlesGPU.Create(ARenderer: TBlackSharkRenderer; AParticleBox: TGraphicObject);
+begin
+  inherited;
+  FIsPoints := true;
+  FPointSize := 4.0;
+  FStartTime := TBTimer.CurrentTime.Low;
+  FParticlePrototype.DrawInstance := DrawProto;
+end;
+
+function TParticlesGPU.CreateShader: TBlackSharkParticleShader;
+begin
+  Result := TParticlesGPU.TParticlesShader(BSShaderManager.Load(ClassName,
+      AnsiString(VSH), AnsiString(FSH), TParticlesGPU.TParticlesShader));
+end;
+
+procedure TParticlesGPU.DrawProto(Instance: PRendererGraphicInstance);
+var
+  sh: TParticlesShader;
+begin
+  if FCountParticle = 0 then
+    exit;
+  sh := TParticlesShader(Shader);
+  { after the spawn the buffer doesn't change, so nothing is uploaded }
+  BindBuffers;
+  glUniformMatrix4fv( sh.MVP^.Location, 1, GL_FALSE, @Instance.LastMVP );
+  glUniform1f( sh.FTime^.Location, GetTime );
+  glUniform3fv( sh.FGravity^.Location, 1, @FGravity );
+  glUniform1f( sh.FPointSize^.Location, FPointSize );
+  glVertexAttribPointer(sh.FPosition.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), nil);
+  glVertexAttribPointer(sh.FVelocity.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(DataOffset)));
+  glVertexAttribPointer(sh.FColor.Location, 4, GL_FLOAT, GL_FALSE, SizeOf(TParticle), Pointer(NativeInt(DataOffset) + SizeOf(TVec4f)));
+  glDrawArrays(GL_POINTS, 0, FCountParticle);
+  UnbindBuffers;
+end;
+
+function TParticlesGPU.GetTime: BSFloat;
+begin
+  Result := (TBTimer.CurrentTime.Low - FStartTime) * 0.001;
+end;
+
+procedure TParticlesGPU.SetPosition(index: int32; const Value: TVec3f);
+var
+  ptr_part: PParticle;
+begin
+  if index >= FCountParticle then
+    CountParticle := index + 1;
+  ptr_part := FParticles.ShiftData[index];
+  { keeps time of the birth }
+  ptr_part.Position := vec4(Value.x, Value.y, Value.z, ptr_part.Position.w);
+  ParticlesChanged(index);
+end;
+
+procedure TParticlesGPU.Spawn(AIndex: int32; const APosition, AVelocity: TVec3f; ALife: BSFloat;
+  const AColor: TColor4f; ADelay: BSFloat);
+var
+  ptr_part: PParticle;
+begin
+  if AIndex >= FCountParticle then
+    CountParticle := AIndex + 1;
+  ptr_part := FParticles.ShiftData[AIndex];
+  ptr_part.Position := vec4(APosition.x, APosition.y, APosition.z, GetTime + ADelay);
+  ptr_part.Data.Velocity := vec4(AVelocity.x, AVelocity.y, AVelocity.z, ALife);
+  ptr_part.Data.Color := AColor;
+  ParticlesChanged(AIndex);
+end;
+
 { TBlackSharkInstancing2d }
 
 constructor TBlackSharkInstancing2d.Create(ARenderer: TBlackSharkRenderer; APrototype: TCanvasObject);
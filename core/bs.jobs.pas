@@ -0,0 +1,920 @@
+{
+-- Begin License block --
+
+  Copyright (C) 2019-2022 Pavlov V.V. (PVV)
+
+  "Black Shark Graphics Engine" for Delphi and Lazarus (named
+"Library" in the file "License(LGPL).txt" included in this distribution).
+The Library is free software.
+
+  Last revised June, 2022
+
+  This file is part of "Black Shark Graphics Engine", and may only be
+used, modified, and distributed under the terms of the project license
+"License(LGPL).txt". By continuing to use, modify, or distribute this
+file you indicate that you have read the license and understand and
+accept it fully.
+
+  "Black Shark Graphics Engine" is distributed in the hope that it will be
+useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+-- End License block --
+}
+
+{
+  The pool of worker threads with stealing of jobs. A job is not pinned to a
+  thread: every worker has own deque, takes jobs from its bottom and, when the
+  deque is empty, steals from the top of deques of other workers; a worker
+  without work sleeps until a new job is pushed or a delayed job is due.
+
+  A result of BSJobs.Run is delivered to the TBThread context passed to it
+  (GUIThread by default); BSJobs.ParallelFor splits a range to parts and
+  returns when all of them are done, the calling thread executes parts too.
+
+  The executors returned by NextExecutor (besides GUIThread) are TJobContext:
+  they have no own threads and are processed by jobs of the pool. A context is
+  woken up by a write to its queues; while it has running tasks
+  (TTemplateBTask<T>, animations) it is processed again after its PeriodUpdate
+  by a delayed job, otherwise it does not take CPU at all. Tasks of one context
+  declared as thread safe (TTemplateBTask<T>.ThreadSafe) are updated by
+  ParallelFor if there are many of them (see TTaskExecutor).
+}
+
+unit bs.jobs;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+uses
+    Classes
+  , syncobjs
+  , bs.collections
+  , bs.thread
+  ;
+
+const
+  { default minimal size of a part of a range of BSJobs.ParallelFor }
+  JOBS_PARALLEL_FOR_BATCH = 64;
+  { the longest sleep of a worker without jobs, ms }
+  JOBS_IDLE_TIMEOUT = 100;
+
+type
+
+  TJobProc = procedure(AData: Pointer) of object;
+  TParallelForProc = procedure(AFrom, ATo: int32; AData: Pointer) of object;
+
+  { the shared state of one call of BSJobs.ParallelFor; parts are taken by
+    increment of NextPart, so any job of the loop can do any part or none }
+  PParallelFor = ^TParallelFor;
+  TParallelFor = record
+    Proc: TParallelForProc;
+    Data: Pointer;
+    Count: int32;
+    Size: int32;
+    Parts: int32;
+    NextPart: int32;
+    { parts which are not done yet }
+    Remaining: int32;
+    { the calling thread and the jobs which have not yet finished with the state }
+    References: int32;
+    { 1 after a part has raised an exception; the rest of parts are skipped }
+    Failed: int32;
+    { the exception of the first failed part; it is raised again in the
+      calling thread }
+    Error: Pointer;
+    { set by the part done the last; the calling thread sleeps on it }
+    Done: TEvent;
+  end;
+
+  PJob = ^TJob;
+  TJob = record
+    Proc: TJobProc;
+    Data: Pointer;
+    { the job takes parts of the loop instead of invoke Proc }
+    ParallelFor: PParallelFor;
+    { the result is delivered to the context by invoke OnDone }
+    Context: TBThread;
+    OnDone: TJobProc;
+    { TBTimer.MicroSeconds when a delayed job is pushed to workers }
+    Due: uint64;
+  end;
+
+  { TJobDeque
+    the owner pushes and pops from the bottom, other workers steal from the
+    top; critical sections are short, only for move of an item }
+
+  TJobDeque = class
+  private
+    FItems: array of TJob;
+    FTop: int32;
+    FBottom: int32;
+    FMask: int32;
+    CS: TCriticalSection;
+    procedure Grow;
+    function GetCount: int32;
+  public
+    constructor Create;
+    destructor Destroy; override;
+    procedure Push(const AJob: TJob);
+    function Pop(out AJob: TJob): boolean;
+    function Steal(out AJob: TJob): boolean;
+    property Count: int32 read GetCount;
+  end;
+
+  TJobWorker = class(TThread)
+  private
+    FIndex: int32;
+    FDeque: TJobDeque;
+    FWakeUp: TEvent;
+    FSleeping: int32;
+  protected
+    procedure Execute; override;
+  public
+    constructor Create(AIndex: int32);
+    destructor Destroy; override;
+    procedure WakeUp;
+    property Deque: TJobDeque read FDeque;
+  end;
+
+  { TJobContext
+
+    an executor without own thread; it is processed by jobs of the pool, but
+    only by one job at a time, so its queues and tasks are never touched by two
+    threads at once }
+
+  TJobContext = class(TBThread)
+  private
+    const
+      STATE_IDLE = 0;
+      { a job of processing is pushed or is executed now }
+      STATE_RUNNING = 1;
+      { the same, and the context has been woken up meanwhile }
+      STATE_AGAIN = 2;
+      { the next processing waits for PeriodUpdate }
+      STATE_DELAYED = 3;
+  private
+    FState: int32;
+    procedure Process({%H-}AData: Pointer);
+    procedure OnDelay({%H-}AData: Pointer);
+  protected
+    function IsCurrent: boolean; override;
+  public
+    constructor Create;
+    procedure ResetWaiting; override;
+  end;
+
+  { BSJobs }
+
+  BSJobs = class
+  private
+    type
+      { the receiver of results in a TBThread context }
+      TJobCompletions = class
+      private
+        FContext: TBThread;
+        FQueue: TQueueMPSC<TJob>;
+        FBatch: array[0..MPSC_QUEUE_BATCH - 1] of TJob;
+        function ProcessEvents: boolean;
+      public
+        constructor Create(AContext: TBThread);
+        destructor Destroy; override;
+        procedure Deliver(const AJob: TJob);
+      end;
+  private
+    class var FWorkers: array of TJobWorker;
+    class var FCountWorkers: int32;
+    class var FNextWorker: int32;
+    class var FCompletions: TListVec<TJobCompletions>;
+    class var CS: TCriticalSection;
+    { delayed jobs; they are pushed by workers when they are due }
+    class var FTimers: TListVec<TJob>;
+    class var FTimersCS: TCriticalSection;
+    class var FNextDue: uint64;
+    { the workers are being stopped; jobs are executed in the calling thread }
+    class var FStopping: boolean;
+    class constructor Create;
+    class destructor Destroy;
+    class procedure CreateWorkers;
+    class procedure Push(const AJob: TJob);
+    class procedure Execute(var AJob: TJob);
+    { executes parts of the loop while they are not taken by others }
+    class procedure ExecuteParts(AParallelFor: PParallelFor);
+    class procedure ReleaseParallelFor(AParallelFor: PParallelFor);
+    { pushes the delayed jobs which are due; returns the time until the next
+      one in ms, but not more than JOBS_IDLE_TIMEOUT }
+    class function PushDueJobs: int32;
+    class function GetCompletions(AContext: TBThread): TJobCompletions;
+    class function GetCountWorkers: int32; static;
+  public
+    { takes a job from the deque of AWorker, or steals from others; AWorker can
+      be nil }
+    class function TryGetJob(AWorker: TJobWorker; out AJob: TJob): boolean;
+    { executes AProc(AData) on any worker; if AOnDone is assigned, then
+      AOnDone(AData) is invoked in the AContext thread (GUIThread if nil); if
+      AProc raises an exception, it is written to the log, and AOnDone is
+      invoked anyway, so the owner of AData can free it }
+    class procedure Run(AProc: TJobProc; AData: Pointer; AOnDone: TJobProc = nil; AContext: TBThread = nil);
+    { the same as Run without AOnDone, but the job is pushed to workers not
+      earlier than ADelay ms later }
+    class procedure RunDelayed(ADelay: int32; AProc: TJobProc; AData: Pointer);
+    { invokes AProc for parts of the range [0..ACount - 1] on all workers and
+      the calling thread; returns when the whole range is done; while waiting
+      the calling thread executes only parts of this range, never other jobs;
+      if a part raises an exception, the rest of parts are skipped, and the
+      exception is raised again here }
+    class procedure ParallelFor(ACount: int32; AProc: TParallelForProc; AData: Pointer;
+      AMinBatch: int32 = JOBS_PARALLEL_FOR_BATCH);
+    { stops and frees the workers; jobs which are not done yet are executed in
+      the calling thread, and results not delivered yet are delivered there too;
+      the workers will be created again by the next job }
+    class procedure Shutdown;
+    class property CountWorkers: int32 read GetCountWorkers;
+  end;
+
+implementation
+
+uses
+    SysUtils
+  , bs.log
+  ;
+
+threadvar
+  { the worker in which context the code is executed now }
+  g_CurrentWorker: TJobWorker;
+  { the context processed by the current thread now }
+  g_CurrentContext: TJobContext;
+
+{ TJobDeque }
+
+constructor TJobDeque.Create;
+begin
+  CS := TCriticalSection.Create;
+  SetLength(FItems, 64);
+  FMask := Length(FItems) - 1;
+end;
+
+destructor TJobDeque.Destroy;
+begin
+  CS.Free;
+  inherited;
+end;
+
+function TJobDeque.GetCount: int32;
+begin
+  Result := FBottom - FTop;
+end;
+
+procedure TJobDeque.Grow;
+var
+  items: array of TJob;
+  i: int32;
+begin
+  SetLength(items, Length(FItems) * 2);
+  for i := FTop to FBottom - 1 do
+    items[i and (Length(items) - 1)] := FItems[i and FMask];
+  FItems := items;
+  FMask := Length(FItems) - 1;
+end;
+
+procedure TJobDeque.Push(const AJob: TJob);
+begin
+  CS.Enter;
+  try
+    if FBottom - FTop = Length(FItems) then
+      Grow;
+    FItems[FBottom and FMask] := AJob;
+    inc(FBottom);
+  finally
+    CS.Leave;
+  end;
+end;
+
+function TJobDeque.Pop(out AJob: TJob): boolean;
+begin
+  CS.Enter;
+  try
+    Result := FBottom > FTop;
+    if Result then
+    begin
+      dec(FBottom);
+      AJob := FItems[FBottom and FMask];
+    end;
+  finally
+    CS.Leave;
+  end;
+end;
+
+function TJobDeque.Steal(out AJob: TJob): boolean;
+begin
+  { do not wait if the owner works with the deque now }
+  if (FBottom = FTop) or not CS.TryEnter then
+    exit(false);
+  try
+    Result := FBottom > FTop;
+    if Result then
+    begin
+      AJob := FItems[FTop and FMask];
+      inc(FTop);
+    end;
+  finally
+    CS.Leave;
+  end;
+end;
+
+{ TJobWorker }
+
+constructor TJobWorker.Create(AIndex: int32);
+begin
+  FIndex := AIndex;
+  FDeque := TJobDeque.Create;
+  FWakeUp := TEvent.Create(nil, false, false, '');
+  inherited Create(false);
+end;
+
+destructor TJobWorker.Destroy;
+begin
+  inherited;
+  FWakeUp.Free;
+  FDeque.Free;
+end;
+
+procedure TJobWorker.Execute;
+var
+  job: TJob;
+  timeout: int32;
+begin
+  g_CurrentWorker := Self;
+  while not Terminated do
+  begin
+    BSJobs.PushDueJobs;
+    if BSJobs.TryGetJob(Self, job) then
+    begin
+      BSJobs.Execute(job);
+      continue;
+    end;
+    TAtomic.Store(FSleeping, 1);
+    { the first worker sleeps only until the nearest delayed job; it is woken
+      if a nearer one appears }
+    if FIndex = 0 then
+      timeout := BSJobs.PushDueJobs
+    else
+      timeout := JOBS_IDLE_TIMEOUT;
+    { a job could be pushed after the last attempt }
+    if BSJobs.TryGetJob(Self, job) then
+    begin
+      TAtomic.Store(FSleeping, 0);
+      BSJobs.Execute(job);
+      continue;
+    end;
+    { the timeout of other workers only for insurance, usually a worker is
+      woken by WakeUp }
+    FWakeUp.WaitFor(timeout);
+    TAtomic.Store(FSleeping, 0);
+  end;
+end;
+
+procedure TJobWorker.WakeUp;
+begin
+  if TAtomic.CompareExchange(FSleeping, 0, 1) = 1 then
+    FWakeUp.SetEvent;
+end;
+
+{ TJobContext }
+
+constructor TJobContext.Create;
+begin
+  { without own thread }
+  inherited Create(true);
+  { the first write to the queues wakes the context up }
+  FWaiting := 1;
+end;
+
+function TJobContext.IsCurrent: boolean;
+begin
+  Result := g_CurrentContext = Self;
+end;
+
+procedure TJobContext.ResetWaiting;
+var
+  state: int32;
+begin
+  while true do
+  begin
+    state := TAtomic.Load(FState);
+    case state of
+      STATE_IDLE, STATE_DELAYED:
+        if TAtomic.CompareExchange(FState, STATE_RUNNING, state) = state then
+        begin
+          BSJobs.Run(Process, nil);
+          exit;
+        end;
+      STATE_RUNNING:
+        { the running job will process the context once more }
+        if TAtomic.CompareExchange(FState, STATE_AGAIN, STATE_RUNNING) = STATE_RUNNING then
+          exit;
+    else
+      exit;
+    end;
+  end;
+end;
+
+procedure TJobContext.OnDelay(AData: Pointer);
+begin
+  { the context could have been woken up before the period has expired }
+  if TAtomic.CompareExchange(FState, STATE_RUNNING, STATE_DELAYED) = STATE_DELAYED then
+    Process(nil);
+end;
+
+procedure TJobContext.Process(AData: Pointer);
+var
+  busy: boolean;
+  next: int32;
+  prev: TJobContext;
+begin
+  { writes from now on wake the context up again }
+  TAtomic.Store(FWaiting, 1);
+  prev := g_CurrentContext;
+  g_CurrentContext := Self;
+  { if processing fails, it is repeated after the period }
+  busy := true;
+  try
+    busy := DoExecute;
+  finally
+    g_CurrentContext := prev;
+    { running tasks are updated again after the period }
+    if busy then
+      next := STATE_DELAYED
+    else
+      next := STATE_IDLE;
+    if TAtomic.CompareExchange(FState, next, STATE_RUNNING) = STATE_RUNNING then
+    begin
+      if busy then
+        BSJobs.RunDelayed(PeriodUpdate, OnDelay, nil);
+    end else
+    begin
+      { STATE_AGAIN: something has been written during the processing }
+      TAtomic.Store(FState, STATE_RUNNING);
+      BSJobs.Run(Process, nil);
+    end;
+  end;
+end;
+
+{ BSJobs.TJobCompletions }
+
+constructor BSJobs.TJobCompletions.Create(AContext: TBThread);
+begin
+  FContext := AContext;
+  { the result must not be lost, and a writer must not wait for the reader: it
+    can be the context itself }
+  FQueue := TQueueMPSC<TJob>.Create(MPSC_QUEUE_CAPACITY, true);
+  FContext.AddUpdateMethod(ProcessEvents);
+end;
+
+destructor BSJobs.TJobCompletions.Destroy;
+begin
+  FContext.RemoveUpdateMethod(ProcessEvents);
+  FQueue.Free;
+  inherited;
+end;
+
+procedure BSJobs.TJobCompletions.Deliver(const AJob: TJob);
+begin
+  { never fails, the full ring is continued by the overflow list }
+  FQueue.Push(AJob);
+  FContext.ResetWaiting;
+end;
+
+function BSJobs.TJobCompletions.ProcessEvents: boolean;
+var
+  i, count: int32;
+begin
+  Result := false;
+  repeat
+    count := FQueue.Drain(FBatch);
+    for i := 0 to count - 1 do
+      FBatch[i].OnDone(FBatch[i].Data);
+    if count > 0 then
+      Result := true;
+  until count < MPSC_QUEUE_BATCH;
+end;
+
+{ BSJobs }
+
+class constructor BSJobs.Create;
+begin
+  CS := TCriticalSection.Create;
+  FCompletions := TListVec<TJobCompletions>.Create;
+  FTimersCS := TCriticalSection.Create;
+  FTimers := TListVec<TJob>.Create;
+end;
+
+class destructor BSJobs.Destroy;
+begin
+  Shutdown;
+  { executors of the pool can be woken up while they are freed after }
+  FStopping := true;
+  FCompletions.Free;
+  FTimers.Free;
+  FTimersCS.Free;
+  CS.Free;
+end;
+
+class procedure BSJobs.CreateWorkers;
+var
+  i: int32;
+begin
+  CS.Enter;
+  try
+    if FCountWorkers > 0 then
+      exit;
+    { the calling thread (usually GUIThread) takes part in ParallelFor itself }
+    i := TBThread.GetCPUCount - 1;
+    if i < 1 then
+      i := 1;
+    SetLength(FWorkers, i);
+    for i := 0 to Length(FWorkers) - 1 do
+      FWorkers[i] := TJobWorker.Create(i);
+    TAtomic.Store(FCountWorkers, Length(FWorkers));
+  finally
+    CS.Leave;
+  end;
+end;
+
+class procedure BSJobs.Shutdown;
+var
+  i: int32;
+  job: TJob;
+begin
+  CS.Enter;
+  try
+    FStopping := true;
+    for i := 0 to FCountWorkers - 1 do
+    begin
+      FWorkers[i].Terminate;
+      FWorkers[i].FWakeUp.SetEvent;
+    end;
+    for i := 0 to FCountWorkers - 1 do
+      FWorkers[i].WaitFor;
+
+    { the rest of jobs; while FStopping new jobs are executed at once by Push }
+    while TryGetJob(nil, job) do
+      Execute(job);
+
+    for i := 0 to FCountWorkers - 1 do
+      FWorkers[i].Free;
+    TAtomic.Store(FCountWorkers, 0);
+    SetLength(FWorkers, 0);
+
+    { delayed jobs are dropped: TJobContext waiting for a period is processed
+      by the next wake-up }
+    FTimersCS.Enter;
+    try
+      FTimers.Count := 0;
+      FNextDue := 0;
+    finally
+      FTimersCS.Leave;
+    end;
+
+    for i := 0 to FCompletions.Count - 1 do
+      if Assigned(FCompletions.Items[i]) then
+      begin
+        { owners of results free them in OnDone }
+        FCompletions.Items[i].ProcessEvents;
+        FCompletions.Items[i].Free;
+        FCompletions.Items[i] := nil;
+      end;
+    FCompletions.Count := 0;
+    FStopping := false;
+  finally
+    CS.Leave;
+  end;
+end;
+
+class function BSJobs.GetCountWorkers: int32;
+begin
+  Result := FCountWorkers;
+end;
+
+class function BSJobs.GetCompletions(AContext: TBThread): TJobCompletions;
+var
+  created: TJobCompletions;
+begin
+  CS.Enter;
+  try
+    if FCompletions.Count > AContext.Index then
+      Result := FCompletions.Items[AContext.Index]
+    else
+      Result := nil;
+  finally
+    CS.Leave;
+  end;
+
+  if Assigned(Result) then
+    exit;
+
+  { it is created out of the lock, because AddUpdateMethod waits the context }
+  created := TJobCompletions.Create(AContext);
+  CS.Enter;
+  try
+    if FCompletions.Count <= AContext.Index then
+      FCompletions.Count := AContext.Index + 1;
+    Result := FCompletions.Items[AContext.Index];
+    if not Assigned(Result) then
+    begin
+      Result := created;
+      FCompletions.Items[AContext.Index] := Result;
+      created := nil;
+    end;
+  finally
+    CS.Leave;
+  end;
+  created.Free;
+end;
+
+class procedure BSJobs.Push(const AJob: TJob);
+var
+  worker: TJobWorker;
+  job: TJob;
+  i: int32;
+begin
+  if FStopping then
+  begin
+    job := AJob;
+    Execute(job);
+    exit;
+  end;
+  if FCountWorkers = 0 then
+    CreateWorkers;
+  worker := g_CurrentWorker;
+  if worker = nil then
+  begin
+    { a job from outside goes round-robin, the rest is done by stealing }
+    i := TAtomic.Increment(FNextWorker);
+    worker := FWorkers[(i and MaxInt) mod FCountWorkers];
+  end;
+  worker.Deque.Push(AJob);
+  worker.WakeUp;
+  { gives the chance to steal to one more worker }
+  if worker.Deque.Count > 1 then
+    FWorkers[(worker.FIndex + 1) mod FCountWorkers].WakeUp;
+end;
+
+class function BSJobs.PushDueJobs: int32;
+var
+  now, next: uint64;
+  due: array of TJob;
+  i, count: int32;
+begin
+  Result := JOBS_IDLE_TIMEOUT;
+  { a quick check without the lock; a torn read only moves the check }
+  next := FNextDue;
+  if next = 0 then
+    exit;
+  now := TBTimer.MicroSeconds;
+  if now < next then
+  begin
+    if (next - now) div 1000 < JOBS_IDLE_TIMEOUT then
+      Result := int32((next - now) div 1000) + 1;
+    exit;
+  end;
+
+  count := 0;
+  due := nil;
+  FTimersCS.Enter;
+  try
+    next := 0;
+    i := 0;
+    while i < FTimers.Count do
+    begin
+      if FTimers.Items[i].Due <= now then
+      begin
+        if count = Length(due) then
+          SetLength(due, count * 2 + 4);
+        due[count] := FTimers.Items[i];
+        inc(count);
+        FTimers.Items[i] := FTimers.Items[FTimers.Count - 1];
+        FTimers.Count := FTimers.Count - 1;
+      end else
+      begin
+        if (next = 0) or (FTimers.Items[i].Due < next) then
+          next := FTimers.Items[i].Due;
+        inc(i);
+      end;
+    end;
+    FNextDue := next;
+  finally
+    FTimersCS.Leave;
+  end;
+
+  { out of the lock, the jobs can add delayed jobs again }
+  for i := 0 to count - 1 do
+    Push(due[i]);
+
+  if (next > 0) and ((next - now) div 1000 < JOBS_IDLE_TIMEOUT) then
+    Result := int32((next - now) div 1000) + 1;
+end;
+
+class function BSJobs.TryGetJob(AWorker: TJobWorker; out AJob: TJob): boolean;
+var
+  i, start: int32;
+begin
+  if Assigned(AWorker) then
+  begin
+    if AWorker.Deque.Pop(AJob) then
+      exit(true);
+    start := AWorker.FIndex + 1;
+  end else
+    start := 0;
+
+  for i := 0 to FCountWorkers - 1 do
+    if FWorkers[(start + i) mod FCountWorkers].Deque.Steal(AJob) then
+      exit(true);
+
+  Result := false;
+end;
+
+class procedure BSJobs.Execute(var AJob: TJob);
+begin
+  if Assigned(AJob.ParallelFor) then
+  begin
+    { exceptions of parts are kept for the calling thread of the loop }
+    ExecuteParts(AJob.ParallelFor);
+    ReleaseParallelFor(AJob.ParallelFor);
+  end else
+  try
+    AJob.Proc(AJob.Data);
+  except
+    { the worker must survive, and OnDone must be delivered }
+    on e: Exception do
+      BSWriteMsg('BSJobs.Execute', e.ClassName + ': ' + e.Message);
+  end;
+
+  if not Assigned(AJob.OnDone) then
+    exit;
+  if FStopping then
+    AJob.OnDone(AJob.Data)
+  else
+    GetCompletions(AJob.Context).Deliver(AJob);
+end;
+
+class procedure BSJobs.ExecuteParts(AParallelFor: PParallelFor);
+var
+  part, from, till: int32;
+begin
+  while true do
+  begin
+    part := TAtomic.Increment(AParallelFor.NextPart) - 1;
+    if part >= AParallelFor.Parts then
+      break;
+    { after a failure the rest of parts are only counted off }
+    if TAtomic.Load(AParallelFor.Failed) = 0 then
+    begin
+      from := part * AParallelFor.Size;
+      if part = AParallelFor.Parts - 1 then
+        till := AParallelFor.Count - 1
+      else
+        till := from + AParallelFor.Size - 1;
+      try
+        AParallelFor.Proc(from, till, AParallelFor.Data);
+      except
+        { the first exception is kept to raise it in the calling thread,
+          others are freed }
+        if TAtomic.CompareExchange(AParallelFor.Failed, 1, 0) = 0 then
+          AParallelFor.Error := AcquireExceptionObject;
+      end;
+    end;
+    if TAtomic.Decrement(AParallelFor.Remaining) = 0 then
+      AParallelFor.Done.SetEvent;
+  end;
+end;
+
+class procedure BSJobs.ReleaseParallelFor(AParallelFor: PParallelFor);
+begin
+  { a job can be taken by a worker after the loop has already been done }
+  if TAtomic.Decrement(AParallelFor.References) = 0 then
+  begin
+    AParallelFor.Done.Free;
+    dispose(AParallelFor);
+  end;
+end;
+
+class procedure BSJobs.Run(AProc: TJobProc; AData: Pointer; AOnDone: TJobProc; AContext: TBThread);
+var
+  job: TJob;
+begin
+  FillChar(job{%H-}, SizeOf(job), 0);
+  job.Proc := AProc;
+  job.Data := AData;
+  job.OnDone := AOnDone;
+  if Assigned(AContext) then
+    job.Context := AContext
+  else
+    job.Context := GUIThread;
+  { the receiver is registered in the context before the job begins }
+  if Assigned(AOnDone) and not FStopping then
+    GetCompletions(job.Context);
+  Push(job);
+end;
+
+class procedure BSJobs.RunDelayed(ADelay: int32; AProc: TJobProc; AData: Pointer);
+var
+  job: TJob;
+  nearest: boolean;
+begin
+  if FStopping then
+    exit;
+  FillChar(job{%H-}, SizeOf(job), 0);
+  job.Proc := AProc;
+  job.Data := AData;
+  job.Due := TBTimer.MicroSeconds + uint64(ADelay) * 1000;
+  FTimersCS.Enter;
+  try
+    FTimers.Add(job);
+    nearest := (FNextDue = 0) or (job.Due < FNextDue);
+    if nearest then
+      FNextDue := job.Due;
+  finally
+    FTimersCS.Leave;
+  end;
+  if FCountWorkers = 0 then
+    CreateWorkers;
+  { the first worker recalculates its sleep }
+  if nearest then
+    FWorkers[0].WakeUp;
+end;
+
+class procedure BSJobs.ParallelFor(ACount: int32; AProc: TParallelForProc; AData: Pointer; AMinBatch: int32);
+var
+  job: TJob;
+  state: PParallelFor;
+  parts, i: int32;
+  error: Pointer;
+begin
+  if ACount <= 0 then
+    exit;
+
+  if FStopping then
+  begin
+    AProc(0, ACount - 1, AData);
+    exit;
+  end;
+
+  if FCountWorkers = 0 then
+    CreateWorkers;
+
+  if AMinBatch < 1 then
+    AMinBatch := 1;
+  parts := ACount div AMinBatch;
+  { several parts on every thread for balance }
+  if parts > (FCountWorkers + 1) * 4 then
+    parts := (FCountWorkers + 1) * 4;
+
+  if parts < 2 then
+  begin
+    AProc(0, ACount - 1, AData);
+    exit;
+  end;
+
+  new(state);
+  state.Proc := AProc;
+  state.Data := AData;
+  state.Count := ACount;
+  state.Size := ACount div parts;
+  state.Parts := parts;
+  state.NextPart := 0;
+  state.Remaining := parts;
+  state.References := parts;
+  state.Failed := 0;
+  state.Error := nil;
+  state.Done := TEvent.Create(nil, true, false, '');
+
+  FillChar(job{%H-}, SizeOf(job), 0);
+  job.ParallelFor := state;
+  for i := 1 to parts - 1 do
+    Push(job);
+
+  { the calling thread takes parts as a worker }
+  ExecuteParts(state);
+
+  { all parts are taken; waits only for those which are being done by workers,
+    other jobs are not executed here, they could take a long time }
+  if TAtomic.Load(state.Remaining) > 0 then
+    state.Done.WaitFor(INFINITE);
+
+  error := state.Error;
+  ReleaseParallelFor(state);
+  if Assigned(error) then
+    raise TObject(error);
+end;
+
+function CreateJobContext({%H-}AIndex: int32): TBThread;
+begin
+  Result := TJobContext.Create;
+end;
+
+initialization
+  SetExecutorFactory(CreateJobContext);
+
+end.
@@ -30,6 +30,7 @@ interface
 
 uses
     SysUtils
+  , Classes
   , XmlWriter
   , bs.basetypes
   , bs.mesh
@@ -49,11 +50,38 @@ type
   // retuns one of loaded skeleton
   function MeshLoadCollada(const FileName: string; ARenderer: TBlackSharkRenderer; AEventLoadGraphicObjectProc: TEventLoadGraphicObjectProc = nil; AEventLoadSkeleton: TEventLoadSkeleton = nil): TSkeleton;
 
+  { writes vertexes and indexes of AMesh in the binary form of the mesh cache;
+    buffers are written as they are laid out in TMesh (16 or 32-bit indexes) }
+  procedure MeshWriteBinary(AMesh: TMesh; AStream: TStream);
+  { reads the mesh written by MeshWriteBinary straight into buffers of AMesh;
+    returns false and leaves AMesh untouched if the layout of vertexes of AMesh
+    differs from the written one or the data is truncated }
+  function MeshReadBinary(AMesh: TMesh; AStream: TStream): boolean; overload;
+  { the same for the stream in memory (for example, mapped by MapFileVFS);
+    AVertexes and AIndexes point to the read buffers inside AStream, so GL can
+    fill VBOs straight from them }
+  function MeshReadBinary(AMesh: TMesh; AStream: TCustomMemoryStream; out AVertexes, AIndexes: Pointer): boolean; overload;
+
+  { streaming parsers of numbers for text formats of models; they skip separators
+    (all chars <= ' '), read a number beginning from APos and move APos behind it;
+    memory is not allocated; return false if APos does not point to a number }
+  function ParseInt(var APos: PChar; AEnd: PChar; out AValue: int32): boolean;
+  function ParseFloat(var APos: PChar; AEnd: PChar; out AValue: BSFloat): boolean;
+
+const
+  { the binary cache of a model is written next to the model on first import
+    (see BSConfig.MeshCache) and is loaded instead of parsing the model while
+    size and hash of the model are the same; for COLLADA the cache holds the
+    whole scene: objects with final meshes and textures, skeletons, influences
+    of bones and key frames of animations, so the XML is not read at all }
+  MESH_CACHE_EXT = '.bsmc';
+
 implementation
 
   uses
-      Classes
-    , bs.utils
+      bs.utils
+    , bs.vfs
+    , bs.config
     , bs.strings
     , bs.exceptions
     , bs.scene.objects
@@ -99,68 +127,398 @@ begin
     AValues[c] := val;
 end;
 
-function ReadIntValues(const ASource: string; ACount: int32; AOffset: int32; var AValues: TIntArray): int32; inline;
+const
+  MAX_MANTISSA = 1000000000000000000;
+  POWERS_OF_10: array[0..22] of double = (
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  );
+  { the float has not more than 19 digits, so beyond it is zero or overflow of BSFloat anyway }
+  MAX_EXPONENT = 64;
+
+function Pow10(AExp: int32): double;
+begin
+  Result := 1.0;
+  while AExp > High(POWERS_OF_10) do
+  begin
+    Result := Result * POWERS_OF_10[High(POWERS_OF_10)];
+    dec(AExp, High(POWERS_OF_10));
+  end;
+  Result := Result * POWERS_OF_10[AExp];
+end;
+
+function ParseInt(var APos: PChar; AEnd: PChar; out AValue: int32): boolean;
 var
-  i, c: int32;
-  val: string;
+  p: PChar;
+  negative: boolean;
 begin
-  val := '';
-  c := 0;
-  Result := AOffset;
-  SetLength(AValues, ACount);
-  for i := AOffset to Length(ASource) do
+  p := APos;
+  while (p < AEnd) and (p^ <= ' ') do
+    inc(p);
+  APos := p;
+  AValue := 0;
+  if p >= AEnd then
+    exit(false);
+
+  negative := p^ = '-';
+  if negative or (p^ = '+') then
+    inc(p);
+
+  if (p >= AEnd) or (p^ < '0') or (p^ > '9') then
+    exit(false);
+
+  while (p < AEnd) and (p^ >= '0') and (p^ <= '9') do
   begin
-    Result := i;
-    if (ASource[i] = ' ') or (ASource[i] = Char($0d)) or (ASource[i] = Char($0a)) then
+    AValue := AValue * 10 + (Ord(p^) - Ord('0'));
+    inc(p);
+  end;
+
+  if negative then
+    AValue := -AValue;
+  APos := p;
+  Result := true;
+end;
+
+function ParseFloat(var APos: PChar; AEnd: PChar; out AValue: BSFloat): boolean;
+var
+  p: PChar;
+  negative, negative_exp: boolean;
+  mantissa: uint64;
+  exp, exp_value, digits: int32;
+  v: double;
+begin
+  p := APos;
+  while (p < AEnd) and (p^ <= ' ') do
+    inc(p);
+  APos := p;
+  AValue := 0.0;
+  if p >= AEnd then
+    exit(false);
+
+  negative := p^ = '-';
+  if negative or (p^ = '+') then
+    inc(p);
+
+  mantissa := 0;
+  exp := 0;
+  digits := 0;
+  while (p < AEnd) and (p^ >= '0') and (p^ <= '9') do
+  begin
+    if mantissa < MAX_MANTISSA then
+      mantissa := mantissa * 10 + uint64(Ord(p^) - Ord('0'))
+    else
+      inc(exp);
+    inc(digits);
+    inc(p);
+  end;
+
+  if (p < AEnd) and ((p^ = '.') or (p^ = ',')) then
+  begin
+    inc(p);
+    while (p < AEnd) and (p^ >= '0') and (p^ <= '9') do
     begin
-      if val <> '' then
+      if mantissa < MAX_MANTISSA then
       begin
-        AValues[c] := StrToInt(val);
-        val := '';
-        inc(c);
-        if c = ACount then
-          exit;
+        mantissa := mantissa * 10 + uint64(Ord(p^) - Ord('0'));
+        dec(exp);
       end;
-    end else
-      val := val + ASource[i];
+      inc(digits);
+      inc(p);
+    end;
   end;
-  if (val <> '') then
-    TryStrToInt(val, AValues[c]);
+
+  if digits = 0 then
+    exit(false);
+
+  if (p < AEnd) and ((p^ = 'e') or (p^ = 'E')) then
+  begin
+    inc(p);
+    negative_exp := (p < AEnd) and (p^ = '-');
+    if (p < AEnd) and ((p^ = '-') or (p^ = '+')) then
+      inc(p);
+    exp_value := 0;
+    while (p < AEnd) and (p^ >= '0') and (p^ <= '9') do
+    begin
+      if exp_value < 10000 then
+        exp_value := exp_value * 10 + (Ord(p^) - Ord('0'));
+      inc(p);
+    end;
+    if negative_exp then
+      dec(exp, exp_value)
+    else
+      inc(exp, exp_value);
+  end;
+
+  if exp > MAX_EXPONENT then
+    exit(false);
+
+  v := mantissa;
+  if exp < -MAX_EXPONENT then
+    v := 0.0
+  else
+  if exp < 0 then
+    v := v / Pow10(-exp)
+  else
+  if exp > 0 then
+    v := v * Pow10(exp);
+
+  if negative then
+    AValue := -v
+  else
+    AValue := v;
+  APos := p;
+  Result := true;
 end;
 
-function ReadFloatValues(const ASource: string; ACount: int32; AOffset: int32; var AValues: TFloatArray): int32; inline;
+function ReadIntValues(const ASource: string; ACount: int32; AOffset: int32; var AValues: TIntArray): int32;
 var
-  i, c: int32;
-  val: string;
+  c: int32;
+  p, p_begin, p_end: PChar;
 begin
-  val := '';
+  SetLength(AValues, ACount);
+  if AOffset > length(ASource) then
+    exit(AOffset);
+  p_begin := PChar(ASource);
+  p_end := p_begin + length(ASource);
+  p := p_begin + AOffset - 1;
   c := 0;
-  Result := AOffset;
+  while (c < ACount) and ParseInt(p, p_end, AValues[c]) do
+    inc(c);
+  if (c < ACount) and (p < p_end) then
+    raise EConvertError.CreateFmt('ReadIntValues: wrong value at position %d', [p - p_begin + 1]);
+  Result := p - p_begin + 1;
+end;
+
+function ReadFloatValues(const ASource: string; ACount: int32; AOffset: int32; var AValues: TFloatArray): int32;
+var
+  c: int32;
+  p, p_begin, p_end: PChar;
+begin
   SetLength(AValues, ACount);
-  for i := AOffset to Length(ASource) do
+  if AOffset > length(ASource) then
+    exit(AOffset);
+  p_begin := PChar(ASource);
+  p_end := p_begin + length(ASource);
+  p := p_begin + AOffset - 1;
+  c := 0;
+  while (c < ACount) and ParseFloat(p, p_end, AValues[c]) do
+    inc(c);
+  if (c < ACount) and (p < p_end) then
+    raise EConvertError.CreateFmt('ReadFloatValues: wrong value at position %d', [p - p_begin + 1]);
+  Result := p - p_begin + 1;
+end;
+
+{ the binary cache of models }
+
+const
+  MESH_CACHE_SIGNATURE = $434D5342; // BSMC
+  MESH_CACHE_VERSION = 2;
+
+  { operations of a COLLADA scene in the cache; every one begins from the code
+    and an index of an object, a skeleton or a bone it changes }
+  COP_END            = 0;
+  COP_POSITION       = 1;
+  COP_SKELETON       = 2;
+  COP_BONE           = 3;
+  COP_BONE_TRANSFORM = 4;
+  COP_BONE_TIP       = 5;
+  COP_BONE_CONNECT   = 6;
+  COP_SKIN           = 7;
+  COP_ANIMATION      = 8;
+  COP_KEYFRAME       = 9;
+  COP_BIND           = 10;
+
+type
+
+  TMeshCacheHeader = packed record
+    Signature: uint32;
+    Version: uint32;
+    { the cache is valid while size and hash of the source model are the same }
+    SourceSize: int64;
+    SourceHash: uint64;
+    Scale: BSFloat;
+    CountMeshes: int32;
+  end;
+
+  TMeshBinaryHeader = packed record
+    CountVertex: int32;
+    SizeOfVertex: int32;
+    CountComponents: int32;
+    IndexSizeOf: int32;
+    CountIndexes: int32;
+  end;
+
+  TMeshBinaryComponent = packed record
+    Component: uint8;
+    Size: int8;
+    CountVar: int8;
+    Reserved: uint8;
+  end;
+
+procedure MeshWriteBinary(AMesh: TMesh; AStream: TStream);
+var
+  header: TMeshBinaryHeader;
+  comp: TMeshBinaryComponent;
+  i: int32;
+begin
+  header.CountVertex := AMesh.CountVertex;
+  header.SizeOfVertex := AMesh.SizeOfVertex;
+  header.CountComponents := AMesh.ComponentsCount;
+  header.IndexSizeOf := AMesh.Indexes.IndexSizeOf;
+  header.CountIndexes := AMesh.Indexes.Count;
+  AStream.WriteBuffer(header, SizeOf(header));
+  comp.Reserved := 0;
+  for i := 0 to AMesh.ComponentsCount - 1 do
   begin
-    Result := i;
-    if (ASource[i] = ' ') or (ASource[i] = Char($0d)) or (ASource[i] = Char($0a)) then
-    begin
+    comp.Component := Ord(AMesh.Components[i]);
+    comp.Size := AMesh.SizeOfComponent[AMesh.Components[i]];
+    comp.CountVar := AMesh.CountVarComponent[AMesh.Components[i]];
+    AStream.WriteBuffer(comp, SizeOf(comp));
+  end;
+  if header.CountVertex > 0 then
+    AStream.WriteBuffer(AMesh.VertexesData^, header.CountVertex * header.SizeOfVertex);
+  if header.CountIndexes > 0 then
+    AStream.WriteBuffer(AMesh.Indexes.ShiftData[0]^, header.CountIndexes * header.IndexSizeOf);
+end;
 
-      if val <> '' then
-      begin
-        AValues[c] := StrToFloat(val, COLLADA_FORMAT_SETTINGS);
-        val := '';
-        inc(c);
-        if c = ACount then
-          exit;
-      end;
+function MeshReadBinary(AMesh: TMesh; AStream: TStream): boolean;
+var
+  header: TMeshBinaryHeader;
+  comp: TMeshBinaryComponent;
+  i: int32;
+  size_vertexes, size_indexes: int64;
+begin
+  Result := false;
+  if AStream.Read(header{%H-}, SizeOf(header)) <> SizeOf(header) then
+    exit;
 
-    end else
-    {if (ASource[i] = '.') or (ASource[i] = ',') then
-      val := val + FormatSettings.DecimalSeparator
-    else   }
-      val := val + ASource[i];
+  if (header.CountVertex < 0) or (header.CountIndexes < 0) or (header.SizeOfVertex <> AMesh.SizeOfVertex) or
+    (header.CountComponents <> AMesh.ComponentsCount) or ((header.IndexSizeOf <> 2) and (header.IndexSizeOf <> 4)) then
+    exit;
+
+  for i := 0 to header.CountComponents - 1 do
+  begin
+    if (AStream.Read(comp{%H-}, SizeOf(comp)) <> SizeOf(comp)) or (comp.Component <> Ord(AMesh.Components[i])) or
+      (comp.Size <> AMesh.SizeOfComponent[AMesh.Components[i]]) then
+      exit;
   end;
 
-  if (val <> '') then
-    TryStrToFloat(val, AValues[c], COLLADA_FORMAT_SETTINGS);
+  size_vertexes := int64(header.CountVertex) * header.SizeOfVertex;
+  size_indexes := int64(header.CountIndexes) * header.IndexSizeOf;
+  if AStream.Size - AStream.Position < size_vertexes + size_indexes then
+    exit;
+
+  AMesh.Clear;
+  AMesh.CountVertex := header.CountVertex;
+  if size_vertexes > 0 then
+    AStream.ReadBuffer(AMesh.VertexesData^, size_vertexes);
+  AMesh.Indexes.KindUnsignedInt := header.IndexSizeOf = 4;
+  AMesh.Indexes.Count := header.CountIndexes;
+  if size_indexes > 0 then
+    AStream.ReadBuffer(AMesh.Indexes.ShiftData[0]^, size_indexes);
+  Result := true;
+end;
+
+function MeshReadBinary(AMesh: TMesh; AStream: TCustomMemoryStream; out AVertexes, AIndexes: Pointer): boolean;
+begin
+  AVertexes := nil;
+  AIndexes := nil;
+  Result := MeshReadBinary(AMesh, AStream);
+  if not Result then
+    exit;
+  AIndexes := PByte(AStream.Memory) + AStream.Position - AMesh.Indexes.Count * AMesh.Indexes.IndexSizeOf;
+  AVertexes := PByte(AIndexes) - AMesh.CountVertex * AMesh.SizeOfVertex;
+end;
+
+procedure MeshCacheInitHeader(ASource: TCustomMemoryStream; AScale: BSFloat; out AHeader: TMeshCacheHeader);
+begin
+  AHeader.Signature := MESH_CACHE_SIGNATURE;
+  AHeader.Version := MESH_CACHE_VERSION;
+  AHeader.SourceSize := ASource.Size;
+  AHeader.SourceHash := GetHashFNV64(ASource.Memory, ASource.Size);
+  AHeader.Scale := AScale;
+  AHeader.CountMeshes := 0;
+end;
+
+{ returns the memory-mapped cache positioned behind its header if the cache was
+  written for the same content of the source; otherwise returns nil }
+function MeshCacheOpen(const ASourceFile: string; const AHeader: TMeshCacheHeader; out ACountMeshes: int32): TCustomMemoryStream;
+var
+  header: TMeshCacheHeader;
+  fn: string;
+begin
+  Result := nil;
+  ACountMeshes := 0;
+  fn := ASourceFile + MESH_CACHE_EXT;
+  if not FileExistsVFS(fn) then
+    exit;
+  try
+    Result := MapFileVFS(fn);
+  except
+    exit;
+  end;
+  if (Result.Read(header{%H-}, SizeOf(header)) <> SizeOf(header)) or (header.Signature <> AHeader.Signature) or
+    (header.Version <> AHeader.Version) or (header.SourceSize <> AHeader.SourceSize) or
+    (header.SourceHash <> AHeader.SourceHash) or (header.Scale <> AHeader.Scale) then
+  begin
+    FreeAndNil(Result);
+    exit;
+  end;
+  ACountMeshes := header.CountMeshes;
+end;
+
+procedure MeshCacheSave(const ASourceFile: string; const AHeader: TMeshCacheHeader; AData: TMemoryStream);
+var
+  f: TFileStream;
+begin
+  { resources of the virtual file system are read-only }
+  if BSVirtualFS.Exists(ASourceFile) then
+    exit;
+  try
+    f := TFileStream.Create(ASourceFile + MESH_CACHE_EXT, fmCreate);
+    try
+      f.WriteBuffer(AHeader, SizeOf(AHeader));
+      f.WriteBuffer(AData.Memory^, AData.Size);
+    finally
+      f.Free;
+    end;
+  except
+    { the directory of the model can be read-only; then the model is simply parsed
+      every time; a partially written cache is removed }
+    on e: Exception do
+    begin
+      SysUtils.DeleteFile(ASourceFile + MESH_CACHE_EXT);
+      {$ifdef DEBUG_BS}
+      BSWriteMsg('MeshCacheSave', ASourceFile + ': ' + e.Message);
+      {$endif}
+    end;
+  end;
+end;
+
+procedure MeshCacheWriteStr(AStream: TStream; const AValue: string);
+var
+  s: UTF8String;
+  len: int32;
+begin
+  s := UTF8String(AValue);
+  len := length(s);
+  AStream.WriteBuffer(len, SizeOf(len));
+  if len > 0 then
+    AStream.WriteBuffer(s[1], len);
+end;
+
+function MeshCacheReadStr(AStream: TStream): string;
+var
+  s: UTF8String;
+  len: int32;
+begin
+  AStream.ReadBuffer(len{%H-}, SizeOf(len));
+  if (len < 0) or (len > AStream.Size - AStream.Position) then
+    raise EReadError.Create('MeshCacheReadStr: the cache is truncated');
+  SetLength(s, len);
+  if len > 0 then
+    AStream.ReadBuffer(s[1], len);
+  Result := string(s);
 end;
 
 function MeshLoadCollada(const FileName: string; ARenderer: TBlackSharkRenderer; AEventLoadGraphicObjectProc: TEventLoadGraphicObjectProc = nil; AEventLoadSkeleton: TEventLoadSkeleton = nil): TSkeleton;
@@ -214,6 +572,19 @@ var
   controllers: THashTable<string, string>;
   upCorrection: TMatrix4f;
   upCorrectionInv: TMatrix4f;
+  // loaded objects, skeletons and bones in the order of creation; the cache refers to them by indexes in these lists
+  objects_list: TListVec<TGraphicObject>;
+  objects_ids: TStringArray;
+  objects_textures: TStringArray;
+  skeletons_list: TListVec<TSkeleton>;
+  bones_list: TListVec<TBone>;
+  // the binary cache of the scene
+  cache: TCustomMemoryStream;
+  cache_ops: TMemoryStream;
+  cache_header: TMeshCacheHeader;
+  // buffers of meshes inside the mapped cache, by index of an object
+  cache_vertexes: array of Pointer;
+  cache_indexes: array of Pointer;
 
   function DecodeChars(const Src: string): string;
   var
@@ -373,6 +744,154 @@ var
     end;
   end;
 
+  {
+    changes of the scene; the XML loader makes them only by these methods, which
+    record them into cache_ops (if the cache is written), and the load from the
+    cache replays them in the same order, so the XML is not parsed at all
+  }
+
+  procedure RecordOp(AOp: uint8; AIndex: int32);
+  begin
+    cache_ops.WriteBuffer(AOp, SizeOf(AOp));
+    cache_ops.WriteBuffer(AIndex, SizeOf(AIndex));
+  end;
+
+  function IndexOfBone(ABone: TBone): int32;
+  begin
+    if Assigned(ABone) then
+      Result := bones_list.IndexOf(ABone)
+    else
+      Result := -1;
+  end;
+
+  { objects are not recorded: they are written by SaveCache with their final meshes }
+  function NewObject(AParent: TGraphicObject; const AID, ACaption, ATexture: string): TGraphicObject;
+  begin
+    if ATexture <> '' then
+    begin
+      Result := TTexturedVertexes.Create(nil, AParent, ARenderer.Scene);
+      TTexturedVertexes(Result).Texture := BSTextureManager.LoadTexture(ATexture);
+    end else
+      Result := TColoredVertexes.Create(nil, AParent, ARenderer.Scene);
+
+    Result.Caption := ACaption;
+    graphicObjects.Items[AID] := Result;
+    objects_list.Add(Result);
+    SetLength(objects_ids, objects_list.Count);
+    SetLength(objects_textures, objects_list.Count);
+    objects_ids[objects_list.Count - 1] := AID;
+    objects_textures[objects_list.Count - 1] := ATexture;
+  end;
+
+  procedure SetObjectPosition(AObject: TGraphicObject; const APosition: TVec3f);
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_POSITION, objects_list.IndexOf(AObject));
+      cache_ops.WriteBuffer(APosition, SizeOf(APosition));
+    end;
+    AObject.Position := APosition;
+  end;
+
+  function NewSkeleton(const ACaption: string; const AParentTransforms: TMatrix4f): TSkeleton;
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_SKELETON, skeletons_list.Count);
+      MeshCacheWriteStr(cache_ops, ACaption);
+      cache_ops.WriteBuffer(AParentTransforms, SizeOf(AParentTransforms));
+    end;
+    Result := TSkeleton.Create(nil, ARenderer);
+    Result.Caption := ACaption;
+    skeletons.Items[ACaption] := Result;
+    skeletons_list.Add(Result);
+    Result.ParentTransforms := AParentTransforms;
+  end;
+
+  function NewBone(ASkeleton: TSkeleton; const AName, ASID: string; AParent: TBone): TBone;
+  var
+    parent: int32;
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_BONE, skeletons_list.IndexOf(ASkeleton));
+      MeshCacheWriteStr(cache_ops, AName);
+      MeshCacheWriteStr(cache_ops, ASID);
+      parent := IndexOfBone(AParent);
+      cache_ops.WriteBuffer(parent, SizeOf(parent));
+    end;
+    Result := ASkeleton.CreateBone(AName, ASID, AParent);
+    bones_list.Add(Result);
+  end;
+
+  procedure SetBoneTransform(ABone: TBone; const ATransform: TMatrix4f);
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_BONE_TRANSFORM, bones_list.IndexOf(ABone));
+      cache_ops.WriteBuffer(ATransform, SizeOf(ATransform));
+    end;
+    ABone.Transform := ATransform;
+  end;
+
+  procedure SetBoneTip(ABone: TBone; const ATip: TVec3f);
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_BONE_TIP, bones_list.IndexOf(ABone));
+      cache_ops.WriteBuffer(ATip, SizeOf(ATip));
+    end;
+    ABone.Tip := ATip;
+  end;
+
+  procedure ConnectBone(ABone, AChild: TBone);
+  var
+    child: int32;
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_BONE_CONNECT, bones_list.IndexOf(ABone));
+      child := bones_list.IndexOf(AChild);
+      cache_ops.WriteBuffer(child, SizeOf(child));
+    end;
+    ABone.ChildConnected := AChild;
+  end;
+
+  procedure SetSkin(ASkeleton: TSkeleton; AObject: TGraphicObject);
+  var
+    index: int32;
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_SKIN, skeletons_list.IndexOf(ASkeleton));
+      index := objects_list.IndexOf(AObject);
+      cache_ops.WriteBuffer(index, SizeOf(index));
+    end;
+    ASkeleton.Skin := AObject;
+  end;
+
+  { key frames recorded after it belong to the animation }
+  function NewAnimation(ASkeleton: TSkeleton; const AName: string): TSkeletonAnimation;
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_ANIMATION, skeletons_list.IndexOf(ASkeleton));
+      MeshCacheWriteStr(cache_ops, AName);
+    end;
+    Result := ASkeleton.CreateAnimation(AName);
+  end;
+
+  procedure AddKeyFrame(AAnimation: TSkeletonAnimation; ABone: TBone; ATime: uint32; const AMatrix: TMatrix4f);
+  begin
+    if Assigned(cache_ops) then
+    begin
+      RecordOp(COP_KEYFRAME, bones_list.IndexOf(ABone));
+      cache_ops.WriteBuffer(ATime, SizeOf(ATime));
+      cache_ops.WriteBuffer(AMatrix, SizeOf(AMatrix));
+    end;
+    AAnimation.CreateKeyFrame(ABone, ATime, AMatrix, TInterpolateSpline.isNone);
+  end;
+
   function LoadMesh(AParent: TGraphicObject; ANode: TheXmlNode; const AGeometryID, AGeometryName: string): TGraphicObject;
   var
     i, j, k, l: int32;
@@ -424,26 +943,21 @@ var
       end;
     end;
 
-    if (val = '') or not FileExists(val) then
+    if (val = '') or not FileExistsVFS(val) then
     begin
       val := ChangeFileExt(xml.URL, '.png');
-      if not FileExists(val) then
+      if not FileExistsVFS(val) then
       begin
         val := ChangeFileExt(xml.URL, '.jpg');
-        if not FileExists(val) then
+        if not FileExistsVFS(val) then
           val := ChangeFileExt(xml.URL, '.bmp');
       end;
     end;
 
-    if FileExists(val) then
-    begin
-      Result := TTexturedVertexes.Create(nil, AParent, ARenderer.Scene);
-      TTexturedVertexes(Result).Texture := BSTextureManager.LoadTexture(val);
-    end else
-      Result := TColoredVertexes.Create(nil, AParent, ARenderer.Scene);
+    if not FileExistsVFS(val) then
+      val := '';
 
-    Result.Caption := AGeometryName;
-    graphicObjects.Items[AGeometryID] := Result;
+    Result := NewObject(AParent, AGeometryID, AGeometryName, val);
     vertexes.Count := 0;
     uv.Count := 0;
     normals.Count := 0;
@@ -678,7 +1192,7 @@ var
 
 
     end;
-    Result.Position := upCorrection*Result.Mesh.CalcBoundingBox(true);
+    SetObjectPosition(Result, upCorrection*Result.Mesh.CalcBoundingBox(true));
     Result.ChangedMesh;
   end;
 
@@ -700,9 +1214,7 @@ var
 
       if not Assigned(skeleton) then
       begin
-        skeleton := TSkeleton.Create(nil, ARenderer);
-        skeleton.Caption := ANode.GetAttribute('id', '');
-        skeletons.Items[skeleton.Caption] := skeleton;
+        skeleton := NewSkeleton(ANode.GetAttribute('id', ''), ARootTransformationUp);
         // root node for skeleton; need for a bind of animations to skeleton and its bones
         s := ANode.Parent.GetAttribute('id', '');
         {%H-}skeletons_root_node.TryAdd(s, skeleton);
@@ -710,20 +1222,19 @@ var
         // double registration the same skeleton, because of some models links by id, another by name
         if (s <> '') and (s <> skeleton.Caption) then
           {%H-}skeletons_root_node.TryAdd(s, skeleton);
-        skeleton.ParentTransforms := ARootTransformationUp;
       end;
 
-      Result := skeleton.CreateBone(ANode.GetAttribute('name', ''), ANode.GetAttribute('sid', ''), AParent);
+      Result := NewBone(skeleton, ANode.GetAttribute('name', ''), ANode.GetAttribute('sid', ''), AParent);
 
       // transformations relatively center of the skeleton
       if GetMatrix(ANode.FindChildNode('matrix'), m) then
       begin
         if Assigned(AParent) then
         begin
-          Result.Transform := m
+          SetBoneTransform(Result, m);
         end else
         begin
-          Result.Transform := m*ARootTransformationUp;
+          SetBoneTransform(Result, m*ARootTransformationUp);
         end;
       end;
 
@@ -753,12 +1264,12 @@ var
           sn := n.FindChildNode('connect');
           if Assigned(sn) and (sn.StrData = '1') then
           begin
-            Result.Parent.Tip := TVec3f(Result.Transform.M3);
-            Result.Parent.ChildConnected := Result;
+            SetBoneTip(Result.Parent, TVec3f(Result.Transform.M3));
+            ConnectBone(Result.Parent, Result);
           end;
 
           tip := upCorrection*tip;
-          Result.Tip := tip;
+          SetBoneTip(Result, tip);
         end;
       end;
 
@@ -811,9 +1322,9 @@ var
                     // because of the matrix can occur the object distortions,
                     // therefore takes into account offset of its center (local postion)
                     offset := go.Mesh.Transform(TMatrix3f(m), true);
-                    go.Position := upCorrection*(offset + m*(upCorrectionInv*go.Position));
+                    SetObjectPosition(go, upCorrection*(offset + m*(upCorrectionInv*go.Position)));
                     if Assigned(skeleton) then
-                      skeleton.Skin := go;
+                      SetSkin(skeleton, go);
                   end;
                 end;
             end;
@@ -943,8 +1454,8 @@ var
 
     offset := go.Mesh.Transform(TMatrix3f(m), true);
     //go.Position := upCorrection*TVec3f(m.M3) + TMatrix3f(m)*go.Position;
-    go.Position := upCorrection*(offset + m*(upCorrectionInv*go.Position));
-    sk.Skin := go;
+    SetObjectPosition(go, upCorrection*(offset + m*(upCorrectionInv*go.Position)));
+    SetSkin(sk, go);
 
     for i := 0 to n_skin.CountChilds - 1 do
       LoadSource(n_skin.Childs[i]);
@@ -1085,45 +1596,34 @@ var
       LoadSource(ANode.Childs[i]);
 
     if ASingleName and hasNotName then
-      sa := sk.CreateAnimation(name_name)
+      sa := NewAnimation(sk, name_name)
     else
-      sa := sk.CreateAnimation(name);
+      sa := NewAnimation(sk, name);
 
     for i := 0 to length({%H-}t)-1 do
     begin
       move(values_f[i*16], m{%H-}, SizeOf(m));
       MatrixTranspose(m);
       if Assigned(bone.Parent) then
-        sa.CreateKeyFrame(bone, round(t[i]*1000), m, TInterpolateSpline.isNone)
+        AddKeyFrame(sa, bone, round(t[i]*1000), m)
       else
-        sa.CreateKeyFrame(bone, round(t[i]*1000), m*upCorrection, TInterpolateSpline.isNone)
+        AddKeyFrame(sa, bone, round(t[i]*1000), m*upCorrection);
     end;
   end;
 
-var
-  i, j: int32;
-  node: TheXmlNode;
-  geometry: TheXmlNode;
-  mesh: TheXmlNode;
-  bucket: THashTable<string, TSkeleton>.TBucket;
-  bucket_go: THashTable<string, TGraphicObject>.TBucket;
-  bucket_eff: THashTable<string, PEffect>.TBucket;
-  filePath: string;
-begin
-  Result := nil;
-  filePath := GetFilePath(FileName);
-  if not FileExists(filePath) then
+  function LoadFromXml(ASource: TCustomMemoryStream; const AFilePath: string): boolean;
+  var
+    i, j: int32;
+    node: TheXmlNode;
+    geometry: TheXmlNode;
+    mesh: TheXmlNode;
+    bucket_go: THashTable<string, TGraphicObject>.TBucket;
+    bucket_eff: THashTable<string, PEffect>.TBucket;
   begin
-    {$ifdef DEBUG_BS}
-    BSWriteMsg('MeshLoadCollada', 'File "' + FileName + '" doesn''''t exists!');
-    {$endif}
-    exit;
-  end;
-  {$ifdef DEBUG_BS}
-  BSWriteMsg('MeshLoadCollada', '...loading collada model: ' + filePath);
-  {$endif}
-  xml := TheXmlWriter.Create(filePath, true);
-  try
+    Result := false;
+    xml := TheXmlWriter.Create(AFilePath);
+    xml.LoadFromBuf(ASource.Memory, ASource.Size);
+
     if not Assigned(xml.Root) then
     begin
       {$ifdef DEBUG_BS}
@@ -1152,7 +1652,6 @@ begin
     images := THashTable<string, string>.Create(@GetHashBlackSharkS, @StrCmpBool);
     effects := THashTable<string, PEffect>.Create(@GetHashBlackSharkS, @StrCmpBool);
     materials := THashTable<string, string>.Create(@GetHashBlackSharkS, @StrCmpBool);
-    graphicObjects := THashTable<string, TGraphicObject>.Create(@GetHashBlackSharkS, @StrCmpBool);
     map_vertex_points := TListVec<TIntArray>.Create;
     vertexes := TListVec3f.Create;
     try
@@ -1207,241 +1706,505 @@ begin
         exit;
 
       controllers := THashTable<string, string>.Create(@GetHashBlackSharkS, @StrCmpBool);
+      skeletons_root_node := THashTable<string, TSkeleton>.Create(@GetHashBlackSharkS, @StrCmpBool);
       try
-        skeletons := THashTable<string, TSkeleton>.Create(@GetHashBlackSharkS, @StrCmpBool);
-        skeletons_root_node := THashTable<string, TSkeleton>.Create(@GetHashBlackSharkS, @StrCmpBool);
-        try
-          SetLength(values_f, 16);
-          for i := 0 to node.CountChilds - 1 do
-          begin
-            geometry := node.Childs[i];
-            if geometry.Name <> 'visual_scene' then
-              continue;
-
-            for j := 0 to geometry.CountChilds - 1 do
-            begin
-              skeleton := nil;
-              LoadNode(nil, geometry.Childs[j], IDENTITY_MAT, upCorrection);
-            end;
-          end;
+        SetLength(values_f, 16);
+        for i := 0 to node.CountChilds - 1 do
+        begin
+          geometry := node.Childs[i];
+          if geometry.Name <> 'visual_scene' then
+            continue;
 
-          node := xml.Root.FindChildNode('library_controllers');
-          if Assigned(node) then
+          for j := 0 to geometry.CountChilds - 1 do
           begin
-            for i := 0 to node.CountChilds - 1 do
-            begin
-              LoadController(node.Childs[i]);
-            end;
+            skeleton := nil;
+            LoadNode(nil, geometry.Childs[j], IDENTITY_MAT, upCorrection);
           end;
+        end;
 
-          node := xml.Root.FindChildNode('library_animations');
-          if Assigned(node) then
+        node := xml.Root.FindChildNode('library_controllers');
+        if Assigned(node) then
+        begin
+          for i := 0 to node.CountChilds - 1 do
           begin
-            for i := 0 to node.CountChilds - 1 do
-            begin
-              LoadAnimation(node.Childs[i], true);
-            end;
+            LoadController(node.Childs[i]);
           end;
+        end;
 
-          if skeletons.GetFirst(bucket) then
+        node := xml.Root.FindChildNode('library_animations');
+        if Assigned(node) then
+        begin
+          for i := 0 to node.CountChilds - 1 do
           begin
-            Result := bucket.Value;
-            if Assigned(AEventLoadSkeleton) then
-            repeat
-              AEventLoadSkeleton(bucket.Value);
-            until not skeletons.GetNext(bucket);
+            LoadAnimation(node.Childs[i], true);
           end;
-
-        finally
-          skeletons.Free;
-          skeletons_root_node.Free;
         end;
 
       finally
+        skeletons_root_node.Free;
         controllers.Free;
       end;
 
       if graphicObjects.GetFirst(bucket_go) then
       repeat
         bucket_go.Value.Mesh.Transform(upCorrection, true);
-        bucket_go.Value.ChangedMesh;
-        if Assigned(AEventLoadGraphicObjectProc) then
-          AEventLoadGraphicObjectProc(bucket_go.Value);
       until not graphicObjects.GetNext(bucket_go);
 
+      Result := true;
+
+    finally
       if effects.GetFirst(bucket_eff) then
       repeat
         dispose(bucket_eff.Value);
       until not effects.GetNext(bucket_eff);
 
-    finally
       vertexes.Free;
       map_vertex_points.Free;
-      graphicObjects.Free;
       materials.Free;
       effects.Free;
       images.Free;
     end;
-
-  finally
-    xml.Free;
   end;
-end;
 
-function MeshLoadObj(const FileName: string; Scale: BSFloat): TMesh;
-begin
-  Result := TMeshPTN.Create;
-  if MeshLoadObj(FileName, Result, Scale) = nil then
-    FreeAndNil(Result);
-end;
+  { writes the objects with their final meshes, then the recorded changes of the
+    scene and influences of bones }
+  procedure SaveCache(const AFilePath: string);
+  var
+    data: TMemoryStream;
+    i, count: int32;
+    bone: TBone;
+    op: uint8;
+  begin
+    data := TMemoryStream.Create;
+    try
+      for i := 0 to objects_list.Count - 1 do
+      begin
+        MeshCacheWriteStr(data, objects_ids[i]);
+        MeshCacheWriteStr(data, objects_list.Items[i].Caption);
+        MeshCacheWriteStr(data, objects_textures[i]);
+        MeshWriteBinary(objects_list.Items[i].Mesh, data);
+      end;
 
-function MeshLoadObj(const FileName: string; LoadTo: TMesh; Scale: BSFloat = 1.0): TMesh;
+      if cache_ops.Size > 0 then
+        data.WriteBuffer(cache_ops.Memory^, cache_ops.Size);
 
-var
-  s: string;
-  dec_cep: Char;
-  values: array of string;
+      op := COP_BIND;
+      for i := 0 to bones_list.Count - 1 do
+      begin
+        bone := bones_list.Items[i];
+        count := bone.BoundVertexes.Count;
+        if count = 0 then
+          continue;
+        data.WriteBuffer(op, SizeOf(op));
+        data.WriteBuffer(i, SizeOf(i));
+        data.WriteBuffer(count, SizeOf(count));
+        data.WriteBuffer(bone.BoundVertexes.ShiftData[0]^, count * SizeOf(TVertexBind));
+      end;
 
+      op := COP_END;
+      data.WriteBuffer(op, SizeOf(op));
+      cache_header.CountMeshes := objects_list.Count;
+      MeshCacheSave(AFilePath, cache_header, data);
+    finally
+      data.Free;
+    end;
+  end;
 
-  function ReadValues(Separator1, Separator2: Char; out CountGroups: int8): int8;
+  procedure FreeLoaded;
   var
-    k, c: int32;
-    ch: Char;
+    i: int32;
   begin
-    if length(s) = 0 then
-      exit(0);
-    Result := 1;
-    for k := 0 to length(values)-1 do
-      values[k] := '';
-
-    CountGroups := 0;
-    c := 0;
-    for k := 3 to length(s) do
-    begin
-      if (s[k] = Separator1) or (s[k] = Separator2) then
+    for i := 0 to skeletons_list.Count - 1 do
+      skeletons_list.Items[i].Free;
+    for i := 0 to objects_list.Count - 1 do
+      objects_list.Items[i].Free;
+    skeletons_list.Clear;
+    objects_list.Clear;
+    bones_list.Clear;
+    objects_ids := nil;
+    objects_textures := nil;
+    skeletons.Clear;
+    graphicObjects.Clear;
+  end;
+
+  function CheckIndex(AIndex, ACount: int32): int32;
+  begin
+    if (AIndex < 0) or (AIndex >= ACount) then
+      raise EReadError.Create('MeshLoadCollada: wrong index in the cache');
+    Result := AIndex;
+  end;
+
+  { replays the cache written by SaveCache; on failure nothing loaded is left }
+  function LoadFromCache(ACountObjects: int32): boolean;
+  var
+    i, index, count: int32;
+    op: uint8;
+    id, caption, texture: string;
+    go: TGraphicObject;
+    sk: TSkeleton;
+    bone: TBone;
+    animation: TSkeletonAnimation;
+    m: TMatrix4f;
+    v: TVec3f;
+    frame_time: uint32;
+  begin
+    animation := nil;
+    try
+      SetLength(cache_vertexes, ACountObjects);
+      SetLength(cache_indexes, ACountObjects);
+      for i := 0 to ACountObjects - 1 do
       begin
-        if (values[c] <> '') then
-        begin
-          inc(c);
-          if c = length(values) then
-            SetLength(values, c+4);
-        end;
-        if (s[k] = '/') then
-          inc(Result)
+        id := MeshCacheReadStr(cache);
+        caption := MeshCacheReadStr(cache);
+        texture := MeshCacheReadStr(cache);
+        if (texture <> '') and not FileExistsVFS(texture) then
+          raise EReadError.Create('MeshLoadCollada: the texture "' + texture + '" is not found');
+        go := NewObject(nil, id, caption, texture);
+        if not MeshReadBinary(go.Mesh, cache, cache_vertexes[i], cache_indexes[i]) then
+          raise EReadError.Create('MeshLoadCollada: the mesh "' + caption + '" does not fit');
+        go.Mesh.CalcBoundingBox;
+      end;
+
+      repeat
+        cache.ReadBuffer(op{%H-}, SizeOf(op));
+        if op = COP_END then
+          break;
+        cache.ReadBuffer(index{%H-}, SizeOf(index));
+        case op of
+          COP_POSITION:
+          begin
+            go := objects_list.Items[CheckIndex(index, objects_list.Count)];
+            cache.ReadBuffer(v{%H-}, SizeOf(v));
+            SetObjectPosition(go, v);
+          end;
+          COP_SKELETON:
+          begin
+            if index <> skeletons_list.Count then
+              raise EReadError.Create('MeshLoadCollada: wrong index in the cache');
+            caption := MeshCacheReadStr(cache);
+            cache.ReadBuffer(m{%H-}, SizeOf(m));
+            NewSkeleton(caption, m);
+          end;
+          COP_BONE:
+          begin
+            sk := skeletons_list.Items[CheckIndex(index, skeletons_list.Count)];
+            caption := MeshCacheReadStr(cache);
+            id := MeshCacheReadStr(cache);
+            cache.ReadBuffer(index, SizeOf(index));
+            if index < 0 then
+              bone := nil
+            else
+              bone := bones_list.Items[CheckIndex(index, bones_list.Count)];
+            NewBone(sk, caption, id, bone);
+          end;
+          COP_BONE_TRANSFORM:
+          begin
+            bone := bones_list.Items[CheckIndex(index, bones_list.Count)];
+            cache.ReadBuffer(m, SizeOf(m));
+            SetBoneTransform(bone, m);
+          end;
+          COP_BONE_TIP:
+          begin
+            bone := bones_list.Items[CheckIndex(index, bones_list.Count)];
+            cache.ReadBuffer(v, SizeOf(v));
+            SetBoneTip(bone, v);
+          end;
+          COP_BONE_CONNECT:
+          begin
+            bone := bones_list.Items[CheckIndex(index, bones_list.Count)];
+            cache.ReadBuffer(index, SizeOf(index));
+            ConnectBone(bone, bones_list.Items[CheckIndex(index, bones_list.Count)]);
+          end;
+          COP_SKIN:
+          begin
+            sk := skeletons_list.Items[CheckIndex(index, skeletons_list.Count)];
+            cache.ReadBuffer(index, SizeOf(index));
+            SetSkin(sk, objects_list.Items[CheckIndex(index, objects_list.Count)]);
+          end;
+          COP_ANIMATION:
+          begin
+            sk := skeletons_list.Items[CheckIndex(index, skeletons_list.Count)];
+            animation := NewAnimation(sk, MeshCacheReadStr(cache));
+          end;
+          COP_KEYFRAME:
+          begin
+            bone := bones_list.Items[CheckIndex(index, bones_list.Count)];
+            if not Assigned(animation) then
+              raise EReadError.Create('MeshLoadCollada: a key frame without an animation in the cache');
+            cache.ReadBuffer(frame_time{%H-}, SizeOf(frame_time));
+            cache.ReadBuffer(m, SizeOf(m));
+            AddKeyFrame(animation, bone, frame_time, m);
+          end;
+          COP_BIND:
+          begin
+            bone := bones_list.Items[CheckIndex(index, bones_list.Count)];
+            cache.ReadBuffer(count{%H-}, SizeOf(count));
+            if (count < 0) or (int64(count) * SizeOf(TVertexBind) > cache.Size - cache.Position) then
+              raise EReadError.Create('MeshLoadCollada: the cache is truncated');
+            // the influences are moved straight from the mapped cache
+            index := bone.BoundVertexes.Count;
+            bone.BoundVertexes.Count := index + count;
+            if count > 0 then
+              cache.ReadBuffer(bone.BoundVertexes.ShiftData[index]^, count * SizeOf(TVertexBind));
+          end;
         else
-        if (s[k] = ' ') then
-        begin
-          inc(CountGroups);
-          Result := 1;
+          raise EReadError.CreateFmt('MeshLoadCollada: unknown operation %d in the cache', [op]);
         end;
-        continue;
+      until false;
+      Result := true;
+    except
+      on e: Exception do
+      begin
+        {$ifdef DEBUG_BS}
+        BSWriteMsg('MeshLoadCollada', 'the cache is not loaded: ' + e.Message);
+        {$endif}
+        Result := false;
       end;
-      ch := s[k];
-      if not (CharInSet(ch, ['0'..'9', '.', ',', '-'])) then
-        continue;
-      if CharInSet(ch, ['.', ',']) and (dec_cep <> ch) then
-        ch := dec_cep;
-      values[c] := values[c] + ch;
     end;
-    if (Result > 0) and (s[length(s)] <> ' ') then
-      inc(CountGroups);
+
+    if not Result then
+      FreeLoaded;
+  end;
+
+var
+  bucket: THashTable<string, TSkeleton>.TBucket;
+  bucket_go: THashTable<string, TGraphicObject>.TBucket;
+  filePath: string;
+  source: TCustomMemoryStream;
+  count_meshes: int32;
+  index: int32;
+begin
+  Result := nil;
+  filePath := GetFilePath(FileName);
+  if not FileExistsVFS(filePath) then
+  begin
+    {$ifdef DEBUG_BS}
+    BSWriteMsg('MeshLoadCollada', 'File "' + FileName + '" doesn''''t exists!');
+    {$endif}
+    exit;
+  end;
+  {$ifdef DEBUG_BS}
+  BSWriteMsg('MeshLoadCollada', '...loading collada model: ' + filePath);
+  {$endif}
+  xml := nil;
+  cache := nil;
+  cache_ops := nil;
+  source := nil;
+  skeleton := nil;
+  graphicObjects := THashTable<string, TGraphicObject>.Create(@GetHashBlackSharkS, @StrCmpBool);
+  skeletons := THashTable<string, TSkeleton>.Create(@GetHashBlackSharkS, @StrCmpBool);
+  objects_list := TListVec<TGraphicObject>.Create(@PtrCmp);
+  skeletons_list := TListVec<TSkeleton>.Create(@PtrCmp);
+  bones_list := TListVec<TBone>.Create(@PtrCmp);
+  try
+    source := MapFileVFS(filePath);
+    if BSConfig.MeshCache then
+    begin
+      MeshCacheInitHeader(source, 1.0, cache_header);
+      cache := MeshCacheOpen(filePath, cache_header, count_meshes);
+      if Assigned(cache) and not LoadFromCache(count_meshes) then
+        FreeAndNil(cache);
+      // the cache is absent or stale, so the changes are recorded while the XML is parsed
+      if not Assigned(cache) then
+        cache_ops := TMemoryStream.Create;
+    end;
+
+    if not Assigned(cache) then
+    begin
+      if not LoadFromXml(source, filePath) then
+        exit;
+      if Assigned(cache_ops) then
+        SaveCache(filePath);
+    end;
+
+    if skeletons.GetFirst(bucket) then
+    begin
+      Result := bucket.Value;
+      if Assigned(AEventLoadSkeleton) then
+      repeat
+        AEventLoadSkeleton(bucket.Value);
+      until not skeletons.GetNext(bucket);
+    end;
+
+    if graphicObjects.GetFirst(bucket_go) then
+    repeat
+      if Assigned(cache) then
+      begin
+        // VBOs are filled straight from the mapped cache
+        index := objects_list.IndexOf(bucket_go.Value);
+        TObjectVertexes(bucket_go.Value).UploadMesh(cache_vertexes[index], cache_indexes[index]);
+      end else
+        bucket_go.Value.ChangedMesh;
+      if Assigned(AEventLoadGraphicObjectProc) then
+        AEventLoadGraphicObjectProc(bucket_go.Value);
+    until not graphicObjects.GetNext(bucket_go);
+
+  finally
+    bones_list.Free;
+    skeletons_list.Free;
+    objects_list.Free;
+    skeletons.Free;
+    graphicObjects.Free;
+    cache_ops.Free;
+    cache.Free;
+    source.Free;
+    xml.Free;
   end;
+end;
 
+function MeshLoadObj(const FileName: string; Scale: BSFloat): TMesh;
+begin
+  Result := TMeshPTN.Create;
+  if MeshLoadObj(FileName, Result, Scale) = nil then
+    FreeAndNil(Result);
+end;
+
+function MeshLoadObj(const FileName: string; LoadTo: TMesh; Scale: BSFloat = 1.0): TMesh;
 var
-  count_groups: int8;
-  sl: TStringList;
-  fild: string;
+  source: TCustomMemoryStream;
+  cache: TCustomMemoryStream;
+  cache_data: TMemoryStream;
+  cache_header: TMeshCacheHeader;
+  use_cache: boolean;
+  count_meshes: int32;
+  {$ifdef UNICODE}
+  text: string;
+  i: int32;
+  {$endif}
+  p, p_end, line_end: PChar;
   fn: string;
   v3: TVec3f;
   v2: TVec2f;
   Vertexes: TListVec3f;
   UV: TListVec2f;
   Normals: TListVec3f;
-  i, j, index, index_vert: int32;
+  j, index, index_uv, index_normal, index_vert: int32;
   ind_before1, ind_before2: int32;
-  groupe_size: int8;
+  has_uv, has_normal: boolean;
   normal_load: boolean;
   uv_load: boolean;
 
 begin
   fn := GetFilePath(FileName);
-  if not FileExists(fn) then
+  if not FileExistsVFS(fn) then
     exit(nil);
   Result := LoadTo;
   normal_load := LoadTo.HasComponent(vcNormal);
   uv_load := LoadTo.HasComponent(vcTexture1);
-  dec_cep := FormatSettings.DecimalSeparator;
-  Vertexes := TListVec3f.Create;
-  UV := TListVec2f.Create;
-  Normals := TListVec3f.Create;
-  sl := TStringList.Create;
-  fild := '';
-  SetLength(fild, 2);
-  SetLength(values, 9);
+  // the cache contains the whole mesh, therefore it is used only for an empty one
+  use_cache := BSConfig.MeshCache and (LoadTo.CountVertex = 0);
+  source := MapFileVFS(fn);
+  Vertexes := nil;
+  UV := nil;
+  Normals := nil;
   try
-    sl.LoadFromFile(fn);
-    for i := 0 to sl.Count - 1 do
+    if use_cache then
     begin
-      s := sl.Strings[i];
-      if length(s) < 5 then
-        continue;
-      fild := Copy(s, 0, 2);
-      if (fild = '# ') then
+      MeshCacheInitHeader(source, Scale, cache_header);
+      cache := MeshCacheOpen(fn, cache_header, count_meshes);
+      if Assigned(cache) then
+      try
+        if (count_meshes = 1) and MeshReadBinary(Result, cache) then
+        begin
+          Result.CalcBoundingBox(true);
+          exit;
+        end;
+      finally
+        cache.Free;
+      end;
+    end;
+
+    {$ifdef UNICODE}
+    // the format is ASCII, so chars are only widened, by one pass
+    SetLength(text, source.Size);
+    for i := 0 to source.Size - 1 do
+      text[i + 1] := Char(PByte(source.Memory)[i]);
+    p := PChar(text);
+    p_end := p + length(text);
+    {$else}
+    // the model is parsed straight from the mapped file
+    p := PChar(source.Memory);
+    p_end := p + source.Size;
+    {$endif}
+
+    Vertexes := TListVec3f.Create;
+    UV := TListVec2f.Create;
+    Normals := TListVec3f.Create;
+    while p < p_end do
+    begin
+      line_end := p;
+      while (line_end < p_end) and (line_end^ <> #10) do
+        inc(line_end);
+
+      if line_end - p < 5 then
+      begin
+        p := line_end + 1;
         continue;
+      end;
 
-      if (fild = 'v ') then
+      if (p[0] = 'v') and (p[1] = ' ') then
       begin
-        ReadValues(' ', ' ', count_groups);
-        v3.x := StrToFloat(values[0]) * Scale;
-        v3.y := StrToFloat(values[1]) * Scale;
-        v3.z := StrToFloat(values[2]) * Scale;
-        Vertexes.Add(v3);
+        inc(p, 2);
+        v3 := vec3(0.0, 0.0, 0.0);
+        ParseFloat(p, line_end, v3.x);
+        ParseFloat(p, line_end, v3.y);
+        ParseFloat(p, line_end, v3.z);
+        Vertexes.Add(v3 * Scale);
       end else
-      if (fild = 'vt') then
+      if (p[0] = 'v') and (p[1] = 't') then
       begin
         if uv_load then
         begin
-          ReadValues(' ', ' ', count_groups);
-          v2.x := StrToFloat(values[0]);
-          v2.y := StrToFloat(values[1]);
+          inc(p, 2);
+          v2 := vec2(0.0, 0.0);
+          ParseFloat(p, line_end, v2.x);
+          ParseFloat(p, line_end, v2.y);
           UV.Add(v2);
         end;
       end else
-      if (fild = 'vn') then
+      if (p[0] = 'v') and (p[1] = 'n') then
       begin
         if normal_load then
         begin
-          ReadValues(' ', ' ', count_groups);
-          v3.x := StrToFloat(values[0]);
-          v3.y := StrToFloat(values[1]);
-          v3.z := StrToFloat(values[2]);
+          inc(p, 2);
+          v3 := vec3(0.0, 0.0, 0.0);
+          ParseFloat(p, line_end, v3.x);
+          ParseFloat(p, line_end, v3.y);
+          ParseFloat(p, line_end, v3.z);
           Normals.Add(v3);
         end;
       end else
-      if (fild = 'f ') then
+      if (p[0] = 'f') and (p[1] = ' ') then
       begin
-        //continue;
-        groupe_size := ReadValues('/', ' ', count_groups);
+        inc(p, 2);
         ind_before1 := -1;
         ind_before2 := -1;
-        for j := 0 to count_groups - 1 do
+        j := 0;
+        // groups: v, v/vt, v//vn, v/vt/vn
+        while ParseInt(p, line_end, index) do
         begin
-          // index vertex
-          index := StrToInt(values[j*groupe_size])-1;
+          has_uv := false;
+          has_normal := false;
+          if (p < line_end) and (p^ = '/') then
           begin
-            index_vert := Result.AddVertex(Vertexes.Items[index]);
-            if (uv_load) and (values[j*groupe_size+1] <> '') then
-            begin
-              // index UV
-              Result.Write(index_vert, vcTexture1, UV.Items[StrToInt(values[j*groupe_size+1]) - 1]);
-            end;
-
-            if (normal_load) and (values[j*groupe_size+2] <> '') then
+            inc(p);
+            if (p < line_end) and (p^ > ' ') and (p^ <> '/') then
+              has_uv := ParseInt(p, line_end, index_uv);
+            if (p < line_end) and (p^ = '/') then
             begin
-              // index Normal
-              Result.Write(index_vert, vcNormal, Normals.Items[StrToInt(values[j*groupe_size+2]) - 1]);
+              inc(p);
+              if (p < line_end) and (p^ > ' ') then
+                has_normal := ParseInt(p, line_end, index_normal);
             end;
           end;
+
+          // index vertex
+          index_vert := Result.AddVertex(Vertexes.Items[index - 1]);
+          if uv_load and has_uv then
+            Result.Write(index_vert, vcTexture1, UV.Items[index_uv - 1]);
+          if normal_load and has_normal then
+            Result.Write(index_vert, vcNormal, Normals.Items[index_normal - 1]);
+
           Result.Indexes.Add(index_vert);
           // contains of geometry, not triangles; you need to triangulate a model, because it can loaded wrong;
           if j > 2 then
@@ -1451,16 +2214,31 @@ begin
           end;
           ind_before2 := ind_before1;
           ind_before1 := index_vert;
+          inc(j);
         end;
       end;
+
+      p := line_end + 1;
     end;
   finally
-    sl.Free;
     Vertexes.Free;
     Normals.Free;
     UV.Free;
-    fild := '';
+    source.Free;
+  end;
+
+  if use_cache then
+  begin
+    cache_data := TMemoryStream.Create;
+    try
+      MeshWriteBinary(Result, cache_data);
+      cache_header.CountMeshes := 1;
+      MeshCacheSave(fn, cache_header, cache_data);
+    finally
+      cache_data.Free;
+    end;
   end;
+
   Result.CalcBoundingBox(true);
 end;
 
@@ -145,7 +145,7 @@ type
       public
         type
           TItemQ = TItemQueue<T>;
-          TQueue = TQueueTemplate<TItemQ>;
+          TQueue = TQueueMPSCTemplate<TItemQ>;
       private
         Observer: BObserver<T>;
         Owner: TListConnections;
@@ -0,0 +1,563 @@
+{
+-- Begin License block --
+
+  Copyright (C) 2019-2022 Pavlov V.V. (PVV)
+
+  "Black Shark Graphics Engine" for Delphi and Lazarus (named
+"Library" in the file "License(LGPL).txt" included in this distribution).
+The Library is free software.
+
+  Last revised June, 2022
+
+  This file is part of "Black Shark Graphics Engine", and may only be
+used, modified, and distributed under the terms of the project license
+"License(LGPL).txt". By continuing to use, modify, or distribute this
+file you indicate that you have read the license and understand and
+accept it fully.
+
+  "Black Shark Graphics Engine" is distributed in the hope that it will be
+useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+-- End License block --
+}
+
+{
+  A per-frame draw list of TBlackSharkRenderer (it is used if BSConfig.DrawBatching
+  is switched on).
+
+  The renderer adds instances in the order of its B-trees; instances with an equal
+  key of sorting (see TKeySortInstance) belong to one segment, and the order of
+  drawing inside of a segment is not defined, therefore the list is sorted by
+  (segment, stencil, shader, texture, cull face, depth test) by a radix sort;
+  segments keep own order.
+
+  Consecutive small instances of TColoredVertexes and TTexturedVertexes with the
+  same shader, texture (atlas) and states are merged: their vertexes are
+  transformed on CPU by MVP of an instance and written to the shared dynamic
+  buffer in clip space (vec4, without the division by w, therefore clipping and
+  interpolation of varyings are the same as for a single draw), then the whole
+  run is drawn by one call with BatchColored/BatchTextured shaders.
+
+  Only objects with the flag TGraphicObject.Batchable are merged.
+}
+
+unit bs.renderer.batch;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+uses
+    bs.basetypes
+  , bs.scene
+  , bs.shader
+  , bs.texture
+  , bs.collections
+  {$ifdef ultibo}
+  , gles20
+  {$else}
+  , bs.gl.es
+  {$endif}
+  ;
+
+const
+  { instances with more vertexes are drawn as usual }
+  BATCH_MAX_INSTANCE_VERTEXES = 64;
+
+type
+
+  TBatchKind = (bkNone, bkColored, bkTextured);
+
+  TDrawItem = record
+    Key: uint64;
+    Instance: PRendererGraphicInstance;
+  end;
+  TDrawItems = array of TDrawItem;
+
+  TDrawBatch = record
+    Kind: TBatchKind;
+    { range in the sorted list }
+    First: int32;
+    Count: int32;
+    { offset in bytes in the shared vertex buffer }
+    VertexOffset: int32;
+    { offset in bytes in the shared index buffer }
+    IndexOffset: int32;
+    CountIndexes: int32;
+  end;
+  PDrawBatch = ^TDrawBatch;
+
+  { a command of drawing: either a single instance, or a batch }
+  TDrawCommand = record
+    Instance: PRendererGraphicInstance;
+    Batch: int32;
+  end;
+
+  { TBlackSharkBatcher }
+
+  TBlackSharkBatcher = class
+  private
+    FItems: TDrawItems;
+    FSortBuffer: TDrawItems;
+    FCount: int32;
+    FSegment: uint32;
+    FBatches: TListVec<TDrawBatch>;
+    FCommands: TListVec<TDrawCommand>;
+    FVertexes: array of byte;
+    FVertexesSize: int32;
+    FIndexes: array of uint16;
+    FIndexesCount: int32;
+    FVBO: GLUint;
+    FIBO: GLUint;
+    FColoredShader: TBlackSharkColoredRGBAVertexesShader;
+    FTexturedShader: TBlackSharkTextureOutShader;
+    procedure RadixSort;
+    procedure BuildBatches;
+    procedure CloseBatch(AFirst, ACount: int32; AKind: TBatchKind);
+    procedure WriteBatch(var ABatch: TDrawBatch);
+    procedure WriteInstance(AInstance: PRendererGraphicInstance; AKind: TBatchKind; ABaseVertex: int32);
+    procedure AddIndex(AIndex: int32); inline;
+    function GetCommand(Index: int32): TDrawCommand; inline;
+    function GetCountCommands: int32; inline;
+    class function StateKey(AObject: TGraphicObject): uint32; static;
+    class function BatchKind(AInstance: PRendererGraphicInstance): TBatchKind; static;
+    class function TextureOf(AObject: TGraphicObject): IBlackSharkTexture; static; inline;
+  public
+    constructor Create;
+    destructor Destroy; override;
+    procedure BeginFrame;
+    { begins a new segment; the order of segments is kept }
+    procedure NextSegment; inline;
+    procedure Add(AInstance: PRendererGraphicInstance);
+    { sorts the list, merges batches and uploads their data to GPU }
+    procedure Build;
+    { draws the batch; states of the first instance (cull face, depth, stencil)
+      must be applied by the renderer before }
+    procedure DrawBatch(ABatch: int32);
+    function FirstInstance(ABatch: int32): PRendererGraphicInstance; inline;
+    { it must be invoked after a lost of GL context }
+    procedure Restore;
+    property CountCommands: int32 read GetCountCommands;
+    property Commands[Index: int32]: TDrawCommand read GetCommand;
+  end;
+
+implementation
+
+uses
+    SysUtils
+  , bs.scene.objects
+  , bs.mesh
+  , bs.frame.stats
+  , bs.utils
+  ;
+
+const
+  { a position in clip space + a color or uv }
+  COLORED_VERTEX_SIZE = SizeOf(TVec4f) + SizeOf(TVec4f);
+  TEXTURED_VERTEX_SIZE = SizeOf(TVec4f) + SizeOf(TVec2f);
+
+{ TBlackSharkBatcher }
+
+constructor TBlackSharkBatcher.Create;
+begin
+  FBatches := TListVec<TDrawBatch>.Create;
+  FCommands := TListVec<TDrawCommand>.Create;
+end;
+
+destructor TBlackSharkBatcher.Destroy;
+begin
+  if FVBO > 0 then
+    glDeleteBuffers(1, @FVBO);
+  if FIBO > 0 then
+    glDeleteBuffers(1, @FIBO);
+  FBatches.Free;
+  FCommands.Free;
+  inherited;
+end;
+
+procedure TBlackSharkBatcher.BeginFrame;
+begin
+  FCount := 0;
+  FSegment := 0;
+  FBatches.Count := 0;
+  FCommands.Count := 0;
+  FVertexesSize := 0;
+  FIndexesCount := 0;
+end;
+
+procedure TBlackSharkBatcher.NextSegment;
+begin
+  inc(FSegment);
+end;
+
+procedure TBlackSharkBatcher.Add(AInstance: PRendererGraphicInstance);
+begin
+  if FCount = Length(FItems) then
+    SetLength(FItems, FCount * 2 + 64);
+  FItems[FCount].Key := (uint64(FSegment) shl 32) or StateKey(AInstance.Instance.Owner);
+  FItems[FCount].Instance := AInstance;
+  inc(FCount);
+end;
+
+class function TBlackSharkBatcher.TextureOf(AObject: TGraphicObject): IBlackSharkTexture;
+begin
+  if (AObject is TTexturedVertexes) and Assigned(TTexturedVertexes(AObject).Texture) then
+    Result := TTexturedVertexes(AObject).Texture.Texture
+  else
+    Result := nil;
+end;
+
+class function TBlackSharkBatcher.StateKey(AObject: TGraphicObject): uint32;
+begin
+  { from the most expensive change of a state to the cheapest one:
+    31..30 - stencil; 29..20 - shader; 19..8 - texture; 7..6 - cull face;
+    5 - depth test; 4..2 - depth function }
+  Result := 0;
+  if AObject.AsStencil then
+    Result := Result or (uint32(2) shl 30)
+  else
+  if AObject.StencilTest then
+    Result := Result or (uint32(1) shl 30);
+  if Assigned(AObject.Shader) then
+    Result := Result or ((uint32(AObject.Shader.ProgramID) and $3FF) shl 20);
+  Result := Result or (uint32(NativeUInt(Pointer(TextureOf(AObject))) shr 4) and $FFF) shl 8;
+  Result := Result or (uint32(Ord(AObject.DrawSides)) shl 6);
+  if AObject.DepthTest then
+    Result := Result or (1 shl 5) or ((uint32(AObject.DepthTestFunc) and 7) shl 2);
+end;
+
+class function TBlackSharkBatcher.BatchKind(AInstance: PRendererGraphicInstance): TBatchKind;
+var
+  obj: TGraphicObject;
+begin
+  Result := bkNone;
+  obj := AInstance.Instance.Owner;
+  if obj.BanDraw or obj.AsStencil or obj.StencilTest or (obj.Mesh = nil) or (obj.Shader = nil) then
+    exit;
+  if (obj.Mesh.CountVertex > BATCH_MAX_INSTANCE_VERTEXES) or (obj.Mesh.Indexes.Count = 0) then
+    exit;
+  if (obj.Mesh.DrawingPrimitive <> GL_TRIANGLES) and (obj.Mesh.DrawingPrimitive <> GL_TRIANGLE_FAN) and
+    (obj.Mesh.DrawingPrimitive <> GL_TRIANGLE_STRIP) then
+      exit;
+  { only objects drawn by the default way, without own additional data }
+  if not obj.Batchable or not Assigned(obj.DrawInstance) or
+    (TMethod(obj.DrawInstance).Code <> @TObjectVertexes.DrawVertexs) then
+      exit;
+  if (obj.ClassType = TColoredVertexes) and (obj.Shader.ClassType = TBlackSharkVectorToSingleColorShader) then
+    Result := bkColored
+  else
+  if (obj.ClassType = TTexturedVertexes) and (obj.Shader.ClassType = TBlackSharkTextureOutShader) and
+    not TTexturedVertexes(obj).ReplaceColor and Assigned(TTexturedVertexes(obj).Texture) and
+    obj.Mesh.HasComponent(vcTexture1) then
+      Result := bkTextured;
+end;
+
+procedure TBlackSharkBatcher.RadixSort;
+var
+  counts: array[byte] of int32;
+  shift, i: int32;
+  b: byte;
+  sum, c: int32;
+  src, dst, tmp: TDrawItems;
+begin
+  if FCount < 2 then
+    exit;
+  if Length(FSortBuffer) < FCount then
+    SetLength(FSortBuffer, Length(FItems));
+  src := FItems;
+  dst := FSortBuffer;
+  shift := 0;
+  while shift < 64 do
+  begin
+    FillChar(counts{%H-}, SizeOf(counts), 0);
+    for i := 0 to FCount - 1 do
+      inc(counts[byte(src[i].Key shr shift)]);
+    { skips the digit if it is the same for all items }
+    if counts[byte(src[0].Key shr shift)] < FCount then
+    begin
+      sum := 0;
+      for i := 0 to 255 do
+      begin
+        c := counts[i];
+        counts[i] := sum;
+        inc(sum, c);
+      end;
+      { stable - the order of equal keys is kept }
+      for i := 0 to FCount - 1 do
+      begin
+        b := byte(src[i].Key shr shift);
+        dst[counts[b]] := src[i];
+        inc(counts[b]);
+      end;
+      tmp := src;
+      src := dst;
+      dst := tmp;
+    end;
+    inc(shift, 8);
+  end;
+  if Pointer(src) <> Pointer(FItems) then
+    move(src[0], FItems[0], FCount * SizeOf(TDrawItem));
+end;
+
+procedure TBlackSharkBatcher.CloseBatch(AFirst, ACount: int32; AKind: TBatchKind);
+var
+  b: TDrawBatch;
+  cmd: TDrawCommand;
+  i: int32;
+begin
+  if ACount = 0 then
+    exit;
+  if (ACount = 1) or (AKind = bkNone) then
+  begin
+    cmd.Batch := -1;
+    for i := AFirst to AFirst + ACount - 1 do
+    begin
+      cmd.Instance := FItems[i].Instance;
+      FCommands.Add(cmd);
+    end;
+    exit;
+  end;
+  b.Kind := AKind;
+  b.First := AFirst;
+  b.Count := ACount;
+  WriteBatch(b);
+  cmd.Instance := nil;
+  cmd.Batch := FBatches.Count;
+  FBatches.Add(b);
+  FCommands.Add(cmd);
+end;
+
+procedure TBlackSharkBatcher.BuildBatches;
+var
+  i, first, vertexes: int32;
+  kind, k: TBatchKind;
+  obj, first_obj: TGraphicObject;
+  compatible: boolean;
+begin
+  first := 0;
+  kind := bkNone;
+  vertexes := 0;
+  first_obj := nil;
+  for i := 0 to FCount - 1 do
+  begin
+    k := BatchKind(FItems[i].Instance);
+    obj := FItems[i].Instance.Instance.Owner;
+    if (k <> bkNone) and (k = kind) then
+    begin
+      { the same shader, texture and states; the segment is not important,
+        because the order of drawing inside of a batch is kept }
+      compatible := (obj.Shader = first_obj.Shader) and (uint32(FItems[i].Key) = uint32(FItems[first].Key)) and
+        (vertexes + obj.Mesh.CountVertex <= High(uint16));
+      if compatible and (k = bkTextured) then
+        compatible := (TextureOf(obj) = TextureOf(first_obj)) and (obj.Opacity = first_obj.Opacity);
+      if compatible then
+      begin
+        inc(vertexes, obj.Mesh.CountVertex);
+        continue;
+      end;
+    end;
+    CloseBatch(first, i - first, kind);
+    first := i;
+    kind := k;
+    first_obj := obj;
+    vertexes := obj.Mesh.CountVertex;
+  end;
+  CloseBatch(first, FCount - first, kind);
+end;
+
+procedure TBlackSharkBatcher.AddIndex(AIndex: int32);
+begin
+  if FIndexesCount = Length(FIndexes) then
+    SetLength(FIndexes, FIndexesCount * 2 + 1024);
+  FIndexes[FIndexesCount] := AIndex;
+  inc(FIndexesCount);
+end;
+
+procedure TBlackSharkBatcher.WriteInstance(AInstance: PRendererGraphicInstance; AKind: TBatchKind; ABaseVertex: int32);
+var
+  mesh: TMesh;
+  mvp: PMatrix4f;
+  i, size: int32;
+  p: TVec3f;
+  clip: TVec4f;
+  uv: TVec2f;
+  color: TColor4f;
+  area: PTextureArea;
+  dst: PByte;
+  inds: TListIndexes;
+begin
+  mesh := AInstance.Instance.Owner.Mesh;
+  mvp := @AInstance.LastMVP;
+  if AKind = bkColored then
+  begin
+    size := COLORED_VERTEX_SIZE;
+    color := AInstance.Instance.Owner.Color;
+    color.a := color.a * AInstance.Instance.Owner.Opacity;
+    area := nil;
+  end else
+  begin
+    size := TEXTURED_VERTEX_SIZE;
+    area := TTexturedVertexes(AInstance.Instance.Owner).Texture;
+  end;
+
+  if FVertexesSize + mesh.CountVertex * size > Length(FVertexes) then
+    SetLength(FVertexes, (FVertexesSize + mesh.CountVertex * size) * 2);
+
+  dst := @FVertexes[FVertexesSize];
+  for i := 0 to mesh.CountVertex - 1 do
+  begin
+    { the same as gl_Position = MVP * vec4(a_position, 1.0); the matrix is column-major }
+    p := mesh.ReadPoint(i);
+    clip.x := mvp.V[0]*p.x + mvp.V[4]*p.y + mvp.V[8] *p.z + mvp.V[12];
+    clip.y := mvp.V[1]*p.x + mvp.V[5]*p.y + mvp.V[9] *p.z + mvp.V[13];
+    clip.z := mvp.V[2]*p.x + mvp.V[6]*p.y + mvp.V[10]*p.z + mvp.V[14];
+    clip.w := mvp.V[3]*p.x + mvp.V[7]*p.y + mvp.V[11]*p.z + mvp.V[15];
+    { w is kept: GPU clips and divides itself }
+    PVec4f(dst)^ := clip;
+    inc(dst, SizeOf(TVec4f));
+    if AKind = bkColored then
+    begin
+      PVec4f(dst)^ := color;
+      inc(dst, SizeOf(TVec4f));
+    end else
+    begin
+      { AreaUV of the atlas is applied here, the shader gets AreaUV = (0, 0, 1, 1) }
+      mesh.Read(i, vcTexture1, uv);
+      uv.x := area.UV.X + uv.x * area.UV.Width;
+      uv.y := area.UV.Y + uv.y * area.UV.Height;
+      PVec2f(dst)^ := uv;
+      inc(dst, SizeOf(TVec2f));
+    end;
+  end;
+  inc(FVertexesSize, mesh.CountVertex * size);
+
+  inds := mesh.Indexes;
+  case mesh.DrawingPrimitive of
+    GL_TRIANGLE_FAN:
+      for i := 1 to inds.Count - 2 do
+      begin
+        AddIndex(ABaseVertex + int32(inds.Items[0]));
+        AddIndex(ABaseVertex + int32(inds.Items[i]));
+        AddIndex(ABaseVertex + int32(inds.Items[i + 1]));
+      end;
+    GL_TRIANGLE_STRIP:
+      for i := 0 to inds.Count - 3 do
+      begin
+        { keep the winding of odd triangles }
+        if i and 1 = 0 then
+        begin
+          AddIndex(ABaseVertex + int32(inds.Items[i]));
+          AddIndex(ABaseVertex + int32(inds.Items[i + 1]));
+        end else
+        begin
+          AddIndex(ABaseVertex + int32(inds.Items[i + 1]));
+          AddIndex(ABaseVertex + int32(inds.Items[i]));
+        end;
+        AddIndex(ABaseVertex + int32(inds.Items[i + 2]));
+      end
+  else
+    for i := 0 to inds.Count - 1 do
+      AddIndex(ABaseVertex + int32(inds.Items[i]));
+  end;
+end;
+
+procedure TBlackSharkBatcher.WriteBatch(var ABatch: TDrawBatch);
+var
+  i, base: int32;
+begin
+  ABatch.VertexOffset := FVertexesSize;
+  ABatch.IndexOffset := FIndexesCount * SizeOf(uint16);
+  base := 0;
+  for i := ABatch.First to ABatch.First + ABatch.Count - 1 do
+  begin
+    WriteInstance(FItems[i].Instance, ABatch.Kind, base);
+    inc(base, FItems[i].Instance.Instance.Owner.Mesh.CountVertex);
+  end;
+  ABatch.CountIndexes := FIndexesCount - ABatch.IndexOffset div SizeOf(uint16);
+end;
+
+procedure TBlackSharkBatcher.Build;
+begin
+  RadixSort;
+  BuildBatches;
+  if FBatches.Count = 0 then
+    exit;
+  CreateVBO(FVBO, GL_ARRAY_BUFFER, @FVertexes[0], FVertexesSize, GL_STREAM_DRAW);
+  CreateVBO(FIBO, GL_ELEMENT_ARRAY_BUFFER, @FIndexes[0], FIndexesCount * SizeOf(uint16), GL_STREAM_DRAW);
+end;
+
+function TBlackSharkBatcher.FirstInstance(ABatch: int32): PRendererGraphicInstance;
+begin
+  Result := FItems[FBatches.Items[ABatch].First].Instance;
+end;
+
+procedure TBlackSharkBatcher.DrawBatch(ABatch: int32);
+var
+  b: PDrawBatch;
+  obj: TGraphicObject;
+  shader: TBlackSharkVertexOutShader;
+begin
+  b := FBatches.ShiftData[ABatch];
+  obj := FItems[b.First].Instance.Instance.Owner;
+  if b.Kind = bkColored then
+  begin
+    if FColoredShader = nil then
+      FColoredShader := TBlackSharkColoredRGBAVertexesShader(BSShaderManager.Load(
+        AppPath + 'Shaders' + PathDelim + 'BatchColored.vsh',
+        AppPath + 'Shaders' + PathDelim + TBlackSharkColoredRGBAVertexesShader.DefaultName + '.fsh',
+        TBlackSharkColoredRGBAVertexesShader));
+    shader := FColoredShader;
+  end else
+  begin
+    if FTexturedShader = nil then
+      FTexturedShader := TBlackSharkTextureOutShader(BSShaderManager.Load(
+        AppPath + 'Shaders' + PathDelim + 'BatchTextured.vsh',
+        AppPath + 'Shaders' + PathDelim + TBlackSharkTextureOutShader.DefaultName + '.fsh',
+        TBlackSharkTextureOutShader));
+    shader := FTexturedShader;
+  end;
+
+  BSShaderManager.UseShader(shader);
+  glBindBuffer(GL_ARRAY_BUFFER, FVBO);
+  glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, FIBO);
+  { the vertexes are already transformed to clip space }
+  glUniformMatrix4fv(shader.MVP.Location, 1, GL_FALSE, @IDENTITY_MAT);
+  if b.Kind = bkColored then
+  begin
+    glUniform1f(shader.Opacity.Location, 1.0);
+    glVertexAttribPointer(shader.PosCoord.Location, 4, GL_FLOAT, GL_FALSE, COLORED_VERTEX_SIZE, {%H-}Pointer(b.VertexOffset));
+    glVertexAttribPointer(FColoredShader.Colors.Location, 4, GL_FLOAT, GL_FALSE, COLORED_VERTEX_SIZE,
+      {%H-}Pointer(b.VertexOffset + SizeOf(TVec4f)));
+  end else
+  begin
+    BSTextureManager.UseTexture(TextureOf(obj));
+    glUniform1f(shader.Opacity.Location, obj.Opacity);
+    glUniform4f(TBlackSharkTextureOutShader(shader).AreaUV.Location, 0.0, 0.0, 1.0, 1.0);
+    glVertexAttribPointer(shader.PosCoord.Location, 4, GL_FLOAT, GL_FALSE, TEXTURED_VERTEX_SIZE, {%H-}Pointer(b.VertexOffset));
+    glVertexAttribPointer(FTexturedShader.TexCoord.Location, 2, GL_FLOAT, GL_FALSE, TEXTURED_VERTEX_SIZE,
+      {%H-}Pointer(b.VertexOffset + SizeOf(TVec4f)));
+  end;
+  glDrawElements(GL_TRIANGLES, b.CountIndexes, GL_UNSIGNED_SHORT, {%H-}Pointer(b.IndexOffset));
+  BSFrameStats.AddBatch(b.Count);
+end;
+
+function TBlackSharkBatcher.GetCommand(Index: int32): TDrawCommand;
+begin
+  Result := FCommands.Items[Index];
+end;
+
+function TBlackSharkBatcher.GetCountCommands: int32;
+begin
+  Result := FCommands.Count;
+end;
+
+procedure TBlackSharkBatcher.Restore;
+begin
+  FVBO := 0;
+  FIBO := 0;
+  FColoredShader := nil;
+  FTexturedShader := nil;
+end;
+
+end.
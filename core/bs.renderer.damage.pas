@@ -0,0 +1,274 @@
+{
+-- Begin License block --
+
+  Copyright (C) 2019-2022 Pavlov V.V. (PVV)
+
+  "Black Shark Graphics Engine" for Delphi and Lazarus (named
+"Library" in the file "License(LGPL).txt" included in this distribution).
+The Library is free software.
+
+  Last revised June, 2022
+
+  This file is part of "Black Shark Graphics Engine", and may only be
+used, modified, and distributed under the terms of the project license
+"License(LGPL).txt". By continuing to use, modify, or distribute this
+file you indicate that you have read the license and understand and
+accept it fully.
+
+  "Black Shark Graphics Engine" is distributed in the hope that it will be
+useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+-- End License block --
+}
+
+{
+  Damaged regions of the screen for a partial redraw of TBlackSharkRenderer (it is
+  used if TBlackSharkRenderer.PartialRedraw is switched on).
+
+  The renderer adds a rectangle covering an instance on the screen before and after
+  every change of the instance (transformation, visibility, color, texture); a frame
+  clears and redraws only the union of the rectangles with the scissor test, the
+  separate rectangles are kept for the debug overlay. The rectangles are
+  kept in pixels of the viewport with the origin in the left bottom corner, as
+  glScissor takes them.
+
+  A back buffer returned by a swap contains the picture of some previous frame
+  (EGL_EXT_buffer_age), therefore the union of the last DAMAGE_HISTORY frames is
+  remembered: a buffer of the age N is repaired by the damage of the current frame
+  and of N - 1 previous ones.
+}
+
+unit bs.renderer.damage;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+uses
+    bs.basetypes
+  ;
+
+const
+  { rectangles of one frame; if there are more of them then the new one is merged
+    with the rectangle which grows the least }
+  DAMAGE_MAX_RECTS = 16;
+  { frames which damage is remembered for buffers of an age > 1 }
+  DAMAGE_HISTORY = 4;
+
+type
+
+  { TDamageTracker }
+
+  TDamageTracker = class
+  private
+    FRects: array[0..DAMAGE_MAX_RECTS - 1] of TRectBSi;
+    FCount: int32;
+    FBounds: TRectBSi;
+    FFull: boolean;
+    FWidth: int32;
+    FHeight: int32;
+    { unions of previous frames, the last frame is the first }
+    FHistory: array[0..DAMAGE_HISTORY - 1] of TRectBSi;
+    FHistoryFull: array[0..DAMAGE_HISTORY - 1] of boolean;
+    FCountHistory: int32;
+    FCountFrames: int32;
+    FCountPartialFrames: int32;
+    function GetRect(Index: int32): TRectBSi;
+    function GetScreen: TRectBSi; inline;
+    function Clip(const ARect: TRectBSi): TRectBSi; inline;
+  public
+    constructor Create;
+    { the whole screen will be drawn in the next frame, and the history is lost
+      because content of back buffers does not correspond to the new size }
+    procedure Resize(AWidth, AHeight: int32);
+    procedure Add(const ARect: TRectBSi);
+    { adds a region spoiled by a drawing over the frame (for example, the debug
+      overlay); it is repaired as a damage, but is not listed in Rects }
+    procedure AddOverlay(const ARect: TRectBSi);
+    { the whole screen will be drawn in the next frame }
+    procedure Invalidate;
+    { forgets the history; the next frame is drawn fully }
+    procedure Reset;
+    { the region for a repair of a buffer of the age AAge: 1 - the buffer contains
+      the previous frame, 0 - content is unknown; if the region is the whole screen
+      then AFull is true }
+    function GetDamage(AAge: int32; out AFull: boolean): TRectBSi;
+    { moves the current frame to the history and clears it }
+    procedure EndFrame;
+    property Count: int32 read FCount;
+    property Rects[Index: int32]: TRectBSi read GetRect;
+    { the union of the current frame }
+    property Bounds: TRectBSi read FBounds;
+    property Full: boolean read FFull;
+    property Width: int32 read FWidth;
+    property Height: int32 read FHeight;
+    { statistics: all frames and frames which were drawn partially }
+    property CountFrames: int32 read FCountFrames;
+    property CountPartialFrames: int32 read FCountPartialFrames;
+  end;
+
+  function RectUnion(const Rect1, Rect2: TRectBSi): TRectBSi; overload; inline;
+  function RectArea(const Rect: TRectBSi): int64; inline;
+
+implementation
+
+uses
+    bs.math
+  ;
+
+function RectUnion(const Rect1, Rect2: TRectBSi): TRectBSi;
+begin
+  if (Rect1.Width <= 0) or (Rect1.Height <= 0) then
+    exit(Rect2);
+  if (Rect2.Width <= 0) or (Rect2.Height <= 0) then
+    exit(Rect1);
+  Result.X := bs.math.Min(Rect1.X, Rect2.X);
+  Result.Y := bs.math.Min(Rect1.Y, Rect2.Y);
+  Result.Width := bs.math.Max(int32(Rect1.X + Rect1.Width), Rect2.X + Rect2.Width) - Result.X;
+  Result.Height := bs.math.Max(int32(Rect1.Y + Rect1.Height), Rect2.Y + Rect2.Height) - Result.Y;
+end;
+
+function RectArea(const Rect: TRectBSi): int64;
+begin
+  if (Rect.Width <= 0) or (Rect.Height <= 0) then
+    Result := 0
+  else
+    Result := int64(Rect.Width) * Rect.Height;
+end;
+
+{ TDamageTracker }
+
+constructor TDamageTracker.Create;
+begin
+  FFull := true;
+end;
+
+function TDamageTracker.GetRect(Index: int32): TRectBSi;
+begin
+  Result := FRects[Index];
+end;
+
+function TDamageTracker.GetScreen: TRectBSi;
+begin
+  Result := RectBS(0, 0, FWidth, FHeight);
+end;
+
+function TDamageTracker.Clip(const ARect: TRectBSi): TRectBSi;
+begin
+  Result := RectOverlap(ARect, GetScreen);
+end;
+
+procedure TDamageTracker.Resize(AWidth, AHeight: int32);
+begin
+  if (FWidth = AWidth) and (FHeight = AHeight) then
+    exit;
+  FWidth := AWidth;
+  FHeight := AHeight;
+  Reset;
+end;
+
+procedure TDamageTracker.Add(const ARect: TRectBSi);
+var
+  r: TRectBSi;
+  i, best: int32;
+  grow, best_grow: int64;
+begin
+  if FFull then
+    exit;
+  r := Clip(ARect);
+  if RectArea(r) = 0 then
+    exit;
+
+  FBounds := RectUnion(FBounds, r);
+  if RectArea(FBounds) = RectArea(GetScreen) then
+  begin
+    Invalidate;
+    exit;
+  end;
+
+  for i := 0 to FCount - 1 do
+    if RectContains(FRects[i], r) then
+      exit;
+
+  if FCount < DAMAGE_MAX_RECTS then
+  begin
+    FRects[FCount] := r;
+    inc(FCount);
+    exit;
+  end;
+
+  best := 0;
+  best_grow := high(int64);
+  for i := 0 to FCount - 1 do
+  begin
+    grow := RectArea(RectUnion(FRects[i], r)) - RectArea(FRects[i]);
+    if grow < best_grow then
+    begin
+      best_grow := grow;
+      best := i;
+    end;
+  end;
+  FRects[best] := RectUnion(FRects[best], r);
+end;
+
+procedure TDamageTracker.AddOverlay(const ARect: TRectBSi);
+begin
+  if not FFull then
+    FBounds := RectUnion(FBounds, Clip(ARect));
+end;
+
+procedure TDamageTracker.Invalidate;
+begin
+  FFull := true;
+  FCount := 0;
+  FBounds := GetScreen;
+end;
+
+procedure TDamageTracker.Reset;
+begin
+  FCountHistory := 0;
+  Invalidate;
+end;
+
+function TDamageTracker.GetDamage(AAge: int32; out AFull: boolean): TRectBSi;
+var
+  i: int32;
+begin
+  AFull := FFull or (AAge <= 0) or (AAge - 1 > FCountHistory);
+  if AFull then
+    exit(GetScreen);
+  Result := FBounds;
+  for i := 0 to AAge - 2 do
+  begin
+    if FHistoryFull[i] then
+    begin
+      AFull := true;
+      exit(GetScreen);
+    end;
+    Result := RectUnion(Result, FHistory[i]);
+  end;
+end;
+
+procedure TDamageTracker.EndFrame;
+var
+  i: int32;
+begin
+  inc(FCountFrames);
+  if not FFull then
+    inc(FCountPartialFrames);
+  for i := DAMAGE_HISTORY - 1 downto 1 do
+  begin
+    FHistory[i] := FHistory[i - 1];
+    FHistoryFull[i] := FHistoryFull[i - 1];
+  end;
+  FHistory[0] := FBounds;
+  FHistoryFull[0] := FFull;
+  if FCountHistory < DAMAGE_HISTORY then
+    inc(FCountHistory);
+  FFull := false;
+  FCount := 0;
+  FBounds := Default(TRectBSi);
+end;
+
+end.
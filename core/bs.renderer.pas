@@ -46,6 +46,8 @@ uses
   , bs.shader
   , bs.texture
   , bs.graphics
+  , bs.renderer.batch
+  , bs.renderer.damage
   ;
 
 type
@@ -162,6 +164,25 @@ type
     FColor: TColor4f;
     FExactSelectObjects: boolean;
     FInstances: TListVec<PRendererGraphicInstance>;
+    { the list of drawing sorted by states (see BSConfig.DrawBatching) }
+    FBatcher: TBlackSharkBatcher;
+    { partial redraw (see bs.renderer.damage) }
+    FPartialRedraw: boolean;
+    FShowDamage: boolean;
+    FBufferAge: int32;
+    FDamage: TDamageTracker;
+    { the region redrawn in the current frame; instances out of it are skipped
+      while FDamageCulling }
+    FDamageRect: TRectBSi;
+    FDamageCulling: boolean;
+    { BSTextureManager.Frame of the last redraw of the whole window; the
+      textures of instances skipped since then are still on the screen }
+    FLastFullFrame: uint32;
+    { the picture of the scene kept between frames if the window buffer is not
+      preserved; FRetainedPass copies it to the window }
+    FRetainedFBO: TBlackSharkFBO;
+    FRetainedValid: boolean;
+    FRetainedPass: TRenderPass;
     { for FPS count }
     FFPS: uint16;
     FLastUpdate: uint32;
@@ -178,12 +199,14 @@ type
     ObsrvObjectIncStencilUse: IBEmptyEventObserver;
     ObsrvObjectDecStencilUse: IBEmptyEventObserver;
     ObsrvInstanceSceneSpaceTreeClientChanged: IBEmptyEventObserver;
+    ObsrvInstanceChanged: TEventInstanceChangedObserver;
     {$endregion}
   private
     { self events }
     FEventEventFocus: IBEmptyEvent;
     FEventResize: IBResizeWindowEvent;
     FEventMoveFrustum: IBEmptyEvent;
+    FEventRestore: IBEmptyEvent;
     { this mouse events to happen when the mouse cursor not hit to any of
     	PGraphicInstance, else call event for item under cursor }
     FEventMouseDown: IBMouseDownEvent;
@@ -236,6 +259,7 @@ type
     procedure EventInstanceCreate(const AData: BData);
     procedure EventInstanceDelete(const AData: BData);
     procedure EventInstanceSceneSpaceTreeClientChanged(const AData: BData);
+    procedure EventInstanceChanged(const AData: BData);
     procedure EventObjectChangeOrderDraw(const AData: BData);
     procedure EventObjectIncStencilUse(const AData: BData);
     procedure EventObjectDecStencilUse(const AData: BData);
@@ -243,6 +267,11 @@ type
     {$endregion scene events}
     procedure UpdateLastMVP(AInstance: PRendererGraphicInstance); inline;
     procedure UpdateAllLastMVP;
+    { projects the bounding box of the mesh of AInstance by LastMVP to the screen }
+    function GetInstanceScreenRect(AInstance: PRendererGraphicInstance): TRectBSi;
+    { adds to the damage the rectangle of a visible AInstance }
+    procedure DamageInstance(AInstance: PRendererGraphicInstance); inline;
+    function InDamage(AInstance: PRendererGraphicInstance): boolean; inline;
     procedure CalcFPS; inline;
     procedure CheckUnderMouseInstance(ANewInstance: PRendererGraphicInstance; X, Y: int32; Shift: TBSShiftState; Buttons: TBSMouseButtons);
   private
@@ -257,8 +286,16 @@ type
 //    procedure DrawPassSSAA(Pass: PRenderPass; AClearBuffers: boolean); {$ifndef DEBUG_BS} inline; {$endif}
     { draw a geometry single an instance TGraphicObject }
     procedure DrawInstance(Instance: PRendererGraphicInstance); {$ifndef DEBUG_BS} inline; {$endif}
+    { switches cull face, stencil and depth tests to AObject's options }
+    procedure ApplyObjectState(AObject: TGraphicObject);
+    { DrawAllInstances with sorting by states and merging small 2d instances }
+    procedure DrawAllInstancesBatched;
     procedure DoBlendMode;
     procedure RecreateFrameBuffers;
+    { draws the single pass only in the damaged region }
+    procedure DrawPartial(APass: PRenderPass);
+    procedure DrawDamageOverlay;
+    procedure FreeRetainedBuffer;
   private
     FCaption: string;
     function GetSelectedItemsCount: uint32;
@@ -272,6 +309,8 @@ type
     procedure SetVisibleInstance(Instance: PRendererGraphicInstance; AValue: boolean); {$ifndef DEBUG_BS} inline; {$endif}
     procedure OnChangeFrustum;
     procedure SetBlendMode(AValue: TBlendMode); // inline;
+    procedure SetColor(const AValue: TColor4f);
+    procedure SetPartialRedraw(AValue: boolean);
 //    procedure CreateFBOSharkSSAA;
     //function GetNextFBO(Width, Height: int32; Attachments: TAttachmentsFBO; ColorFormat: int32): TBlackSharkFBO;
     procedure DoMouseMove(X, Y: int32; Shift: TBSShiftState; SendEvent: boolean);
@@ -420,7 +459,7 @@ type
     //property DrawToColorBuffer: boolean read FDrawToColorBuffer write SetDrawToColorBuffer;
 
     { background color }
-    property Color: TColor4f read FColor write FColor;
+    property Color: TColor4f read FColor write SetColor;
     property CurrentUnderMouseInstance: PRendererGraphicInstance read FCurrentUnderMouseInstance;
 
     { Automatical select and drag/drop graphic object }
@@ -436,6 +475,9 @@ type
     property EventEventFocus: IBEmptyEvent read FEventEventFocus;
     property EventResize: IBResizeWindowEvent read FEventResize;
     property EventMoveFrustum: IBEmptyEvent read FEventMoveFrustum;
+    { happens in Restore after the managers and the scene objects have been
+      restored; owners of own GL objects drop their names from the lost context }
+    property EventRestore: IBEmptyEvent read FEventRestore;
     { this mouse events to happen when the mouse cursor no hit to any of
     	PGraphicInstance, else call event for item under cursor }
     property EventMouseDblClick: IBMouseDblClickEvent read FEventMouseDblClick;
@@ -453,6 +495,18 @@ type
     property EventEndDrag: IBDragDropEvent read FEventEndDrag;
     property FPS: uint16 read FFPS;
     property Caption: string read FCaption write FCaption;
+    { redraws only regions of the screen changed since the previous frame, for
+      mostly static scenes; it works while the renderer has the single pass (without
+      SmoothMSAA and custom passes), otherwise the whole screen is drawn; by
+      default it is BSConfig.PartialRedraw }
+    property PartialRedraw: boolean read FPartialRedraw write SetPartialRedraw;
+    { draws borders of the regions redrawn in a frame }
+    property ShowDamage: boolean read FShowDamage write FShowDamage;
+    { the age of the back buffer of the window (see TBlackSharkContext.BufferAge),
+      it is set by the window before every frame; if it is 0 then the scene is kept
+      in an own frame buffer and is copied to the window }
+    property BufferAge: int32 read FBufferAge write FBufferAge;
+    property Damage: TDamageTracker read FDamage;
 
   end;
 
@@ -470,6 +524,7 @@ uses
   , bs.config
   , bs.geometry
   , bs.mesh
+  , bs.frame.stats
   ;
 
 function InstanceKey(Instance: PRendererGraphicInstance): TKeySortInstance; inline;
@@ -585,11 +640,15 @@ begin
   FDragInstances           := TListDual<PDragInstanceData>.Create;
   FVisibleGI               := TListRendererInstances.Create;
   FFrustum                 := TBlackSharkFrustum.Create;
+  FBatcher                 := TBlackSharkBatcher.Create;
+  FDamage                  := TDamageTracker.Create;
+  FPartialRedraw           := BSConfig.PartialRedraw;
   FFrustum.OnChangeFrustum := OnChangeFrustum;
 
   FEventEventFocus    := CreateEmptyEvent;
 
   FEventMoveFrustum   := CreateEmptyEvent;
+  FEventRestore       := CreateEmptyEvent;
   FEventResize        := CreateResizeWindowEvent;
 
   FEventMouseDblClick := CreateMouseEvent;
@@ -614,6 +673,8 @@ begin
   FScene := TBScene.Create;
   FOwnScene := True;
   LinkSceneEvents;
+  if FPartialRedraw then
+    FScene.IncDamageTrackers;
   RendererInit;
   {$ifdef DEBUG_BS}
   BSWriteMsg('OnCreateGlContextEvent', '');
@@ -643,6 +704,7 @@ begin
   FEventEventFocus := nil;
 
   FEventMoveFrustum := nil;
+  FEventRestore := nil;
   FEventResize := nil;
 
   FEventMouseDblClick := nil;
@@ -659,7 +721,9 @@ begin
   //FSmoothSharkSSAA := false;
 
   if FOwnScene then
-    FScene.Free;
+    FScene.Free
+  else if Assigned(FScene) and FPartialRedraw then
+    FScene.DecDamageTrackers;
 
   while (FPasses.Count > 0) do
     DeletePass(FPasses.Items[FPasses.Count - 1]);
@@ -670,6 +734,9 @@ begin
   BBSelectList.Free;
   FListGIinFrustum[false].Free;
   FListGIinFrustum[true].Free;
+  FBatcher.Free;
+  FreeRetainedBuffer;
+  FDamage.Free;
   FVisibleGI.Free;
   FSelectedInstances.Free;
   while FDragInstances.Count > 0 do
@@ -814,9 +881,15 @@ begin
 
   AData.ChangeLastMVP := AData.Instance.ChangeModelMatrix;
 
+  { the old place of the instance }
+  DamageInstance(AData);
+
   UpdateLastMVP(AData);
 
   CheckInstanceHitIntoFrustum(AData);
+
+  { the new one }
+  DamageInstance(AData);
 end;
 
 procedure TBlackSharkRenderer.DoMouseMove(X, Y: int32; Shift: TBSShiftState; SendEvent: boolean);
@@ -960,11 +1033,15 @@ var
 begin
   if FScene = AScene then
     exit;
+  if Assigned(FScene) and FPartialRedraw then
+    FScene.DecDamageTrackers;
   if Assigned(FScene) and FOwnScene then
     FScene.Free;
 
   FOwnScene := false;
   FScene := AScene;
+  if Assigned(FScene) and FPartialRedraw then
+    FScene.IncDamageTrackers;
 
   if Assigned(FScene) then
     LinkSceneEvents;
@@ -988,6 +1065,41 @@ begin
   Result := FInstances.Items[Instance.Index];
 end;
 
+procedure TBlackSharkRenderer.SetColor(const AValue: TColor4f);
+begin
+  FColor := AValue;
+  FDamage.Invalidate;
+end;
+
+procedure TBlackSharkRenderer.SetPartialRedraw(AValue: boolean);
+var
+  i: int32;
+  inst: PRendererGraphicInstance;
+begin
+  if FPartialRedraw = AValue then
+    exit;
+  FPartialRedraw := AValue;
+  if Assigned(FScene) then
+  begin
+    if FPartialRedraw then
+      FScene.IncDamageTrackers
+    else
+      FScene.DecDamageTrackers;
+  end;
+  if FPartialRedraw then
+  begin
+    { rectangles were not updated while the mode was off }
+    for i := 0 to FInstances.Count - 1 do
+    begin
+      inst := FInstances.Items[i];
+      if Assigned(inst) then
+        inst.ScreenRect := GetInstanceScreenRect(inst);
+    end;
+    FDamage.Reset;
+  end else
+    FreeRetainedBuffer;
+end;
+
 procedure TBlackSharkRenderer.SetBlendMode(AValue: TBlendMode);
 begin
   //if FBlendMode = AValue then Exit;
@@ -1100,6 +1212,21 @@ procedure TBlackSharkRenderer.EventInstanceSceneSpaceTreeClientChanged(const ADa
 begin
 end;
 
+procedure TBlackSharkRenderer.EventInstanceChanged(const AData: BData);
+var
+  data: PRendererGraphicInstance;
+begin
+  if not FPartialRedraw then
+    exit;
+  data := FInstances.Items[PGraphicInstance(AData.Instance).Index];
+  if not Assigned(data) then
+    exit;
+  DamageInstance(data);
+  { the mesh could be changed as well }
+  data.ScreenRect := GetInstanceScreenRect(data);
+  DamageInstance(data);
+end;
+
 procedure TBlackSharkRenderer.EventInstanceSelect(const AData: BData);
 begin
   SetSelectedInstance(FInstances.Items[PGraphicInstance(AData.Instance).Index], PGraphicInstance(AData.Instance).IsSelected);
@@ -1118,6 +1245,8 @@ end;
 procedure TBlackSharkRenderer.EventInstanceAfterChangeKey(const AData: BData);
 begin
   DoEventInstanceAfterKeyChange(FInstances.Items[PGraphicInstance(AData.Instance).Index]);
+  { the order of drawing has changed }
+  DamageInstance(FInstances.Items[PGraphicInstance(AData.Instance).Index]);
 end;
 
 procedure TBlackSharkRenderer.EventInstanceDelete(const AData: BData);
@@ -1140,7 +1269,10 @@ begin
     DropDragInstance(data);
 
   if data.Visible then
+  begin
+    DamageInstance(data);
     SetVisibleInstance(data, false);
+  end;
 
   FInstances.Items[PGraphicInstance(AData.Instance).Index] := nil;
   dispose(data);
@@ -1155,6 +1287,7 @@ var
   data: PRendererGraphicInstance;
 begin
   GraphicObject := AData.Instance;
+  FDamage.Invalidate;
   if Assigned(GraphicObject.Instances) then
   begin
     it := GraphicObject.Instances.ItemListFirst;
@@ -1184,9 +1317,13 @@ begin
   BSShaderManager.UseShader(nil);
   BSTextureManager.UseTexture(nil);
   LastDrawGI := nil;
+  if FPartialRedraw and (FPasses.Count = 1) then
+    DrawPartial(FPasses.Items[0])
+  else
   for i := 0 to FPasses.Count - 1 do
     DrawAnyPass(FPasses.Items[i]);
 
+  BSFrameStats.SetVisibleInstances(FCountVisibleInstancesInSpaceTree);
 end;
 
 procedure TBlackSharkRenderer.Render(APass: PRenderPass);
@@ -1292,6 +1429,12 @@ begin
       pass.FrameBuffer.ReCreate(pass.Width, pass.Height, pass.FrameBuffer.Attachments);
     end;
   end;
+
+  { content of the window buffers and of the retained picture is lost }
+  if Assigned(FRetainedFBO) then
+    FRetainedFBO.ReCreate(FWindowWidth, FWindowHeight, FRetainedFBO.Attachments);
+  FRetainedValid := false;
+  FDamage.Reset;
 end;
 
 procedure TBlackSharkRenderer.CalcFPS;
@@ -1614,6 +1757,7 @@ begin
   ObsrvInstanceCreate := FScene.EventInstanceCreate.CreateObserver(GuiThread, EventInstanceCreate);
   ObsrvInstanceDelete := FScene.EventInstanceDelete.CreateObserver(GuiThread, EventInstanceDelete);
   ObsrvInstanceSceneSpaceTreeClientChanged := FScene.EventInstanceSceneSpaceTreeClientChanged.CreateObserver(GuiThread, EventInstanceSceneSpaceTreeClientChanged);
+  ObsrvInstanceChanged := FScene.EventInstanceChanged.CreateObserver(GuiThread, EventInstanceChanged);
 
   ObsrvObjectChangeOrderDraw := FScene.EventObjectChangeOrderDraw.CreateObserver(GuiThread, EventObjectChangeOrderDraw);
   ObsrvObjectIncStencilUse := FScene.EventObjectIncStencilUse.CreateObserver(GuiThread, EventObjectIncStencilUse);
@@ -1816,6 +1960,7 @@ begin
   {$endif}
   BSShaderManager.Restore;
   BSTextureManager.Restore;
+  FBatcher.Restore;
   if FScene.GraphicObjects.GetFirst(bucket) then
   begin
     it := bucket.Value;
@@ -1828,6 +1973,7 @@ begin
         break;
     end;
   end;
+  FEventRestore.Send(Self);
   RendererInit;
 end;
 
@@ -2007,6 +2153,66 @@ begin
     AInstance.LastMVP := mvp * FFrustum.LastViewProjMat;
   end else  }
     AInstance.LastMVP := AInstance.Instance.ProdStackModelMatrix * FFrustum.LastViewProjMat;
+  if FPartialRedraw then
+    AInstance.ScreenRect := GetInstanceScreenRect(AInstance);
+end;
+
+function TBlackSharkRenderer.GetInstanceScreenRect(AInstance: PRendererGraphicInstance): TRectBSi;
+var
+  bb: PBox3f;
+  mvp: PMatrix4f;
+  p: TBBPoints;
+  v: TVec3f;
+  x, y, w, x_min, y_min, x_max, y_max: BSFloat;
+begin
+  if not Assigned(AInstance.Instance.Owner.Mesh) then
+    exit(Default(TRectBSi));
+  bb := @AInstance.Instance.Owner.Mesh.FBoundingBox;
+  mvp := @AInstance.LastMVP;
+  x_min := MaxSingle;
+  y_min := MaxSingle;
+  x_max := -MaxSingle;
+  y_max := -MaxSingle;
+  for p := Low(TBBPoints) to High(TBBPoints) do
+  begin
+    v := vec3(bb.Named[APROPRIATE_BB_POINTS[p, 0]], bb.Named[APROPRIATE_BB_POINTS[p, 1]], bb.Named[APROPRIATE_BB_POINTS[p, 2]]);
+    { the same as gl_Position = MVP * vec4(a_position, 1.0); the matrix is column-major }
+    w := mvp.V[3]*v.x + mvp.V[7]*v.y + mvp.V[11]*v.z + mvp.V[15];
+    { the point is behind of the eye, so the projection is unbounded }
+    if w <= 0.0 then
+      exit(RectBS(0, 0, FWindowWidth, FWindowHeight));
+    x := (mvp.V[0]*v.x + mvp.V[4]*v.y + mvp.V[8]*v.z + mvp.V[12]) / w;
+    y := (mvp.V[1]*v.x + mvp.V[5]*v.y + mvp.V[9]*v.z + mvp.V[13]) / w;
+    if x < x_min then
+      x_min := x;
+    if x > x_max then
+      x_max := x;
+    if y < y_min then
+      y_min := y;
+    if y > y_max then
+      y_max := y;
+  end;
+  { out of the viewport nothing is drawn }
+  x_min := bs.math.Clamp(1.0, -1.0, x_min);
+  x_max := bs.math.Clamp(1.0, -1.0, x_max);
+  y_min := bs.math.Clamp(1.0, -1.0, y_min);
+  y_max := bs.math.Clamp(1.0, -1.0, y_max);
+  { a margin for smoothing of edges and a width of lines }
+  Result.X := floor((x_min + 1.0) * 0.5 * FWindowWidth) - 2;
+  Result.Y := floor((y_min + 1.0) * 0.5 * FWindowHeight) - 2;
+  Result.Width := ceil((x_max + 1.0) * 0.5 * FWindowWidth) + 2 - Result.X;
+  Result.Height := ceil((y_max + 1.0) * 0.5 * FWindowHeight) + 2 - Result.Y;
+end;
+
+procedure TBlackSharkRenderer.DamageInstance(AInstance: PRendererGraphicInstance);
+begin
+  if FPartialRedraw and AInstance.Visible then
+    FDamage.Add(AInstance.ScreenRect);
+end;
+
+function TBlackSharkRenderer.InDamage(AInstance: PRendererGraphicInstance): boolean;
+begin
+  Result := not FDamageCulling or RectIntersect(AInstance.ScreenRect, FDamageRect);
 end;
 
 function TBlackSharkRenderer.Intersects(Instance: PGraphicInstance; const ScreenRect: TRectBSf; Exact: boolean): boolean;
@@ -2259,7 +2465,14 @@ var
   it: TMultiTreeGI.TMultiValue;
   z, ok: boolean;
   i: int32;
+  t: uint64;
 begin
+  if BSConfig.DrawBatching then
+  begin
+    DrawAllInstancesBatched;
+    exit;
+  end;
+  t := BSFrameStats.StageBegin;
   for z := High(boolean) downto Low(boolean) do
   begin
     ok := FListGIinFrustum[z].MultiTree.Iterator.SetToBegin(it);
@@ -2270,6 +2483,136 @@ begin
       ok := FListGIinFrustum[z].MultiTree.Iterator.Next(it);
     end;
   end;
+  BSFrameStats.StageEnd(fsDraw, t);
+end;
+
+procedure TBlackSharkRenderer.ApplyObjectState(AObject: TGraphicObject);
+begin
+  if LastCullFaceOption <> AObject.DrawSides then
+  begin
+    BSFrameStats.IncStateChanges;
+    LastCullFaceOption := AObject.DrawSides;
+    case AObject.DrawSides of
+      dsAll: begin
+        glDisable(GL_CULL_FACE);
+      end;
+
+      dsFront: begin
+        //glDisable(GL_DEPTH_TEST);
+        glEnable(GL_CULL_FACE);
+        glCullFace(GL_BACK);
+        {if Instance^.Owner.FClockWiseCullFace then
+          glFrontFace(GL_CW) else
+          glFrontFace(GL_CCW);}
+        //glCullFace(GL_FRONT_AND_BACK);
+      end;
+
+      dsBack: begin
+        //glDisable(GL_DEPTH_TEST);
+        glEnable(GL_CULL_FACE);
+        glCullFace(GL_FRONT);
+        {if Instance^.Owner.FClockWiseCullFace then
+          glFrontFace(GL_CW) else
+          glFrontFace(GL_CCW);}
+        //glFrontFace(GL_CW);
+        //glCullFace(GL_FRONT_AND_BACK);
+      end;
+    end;
+  end;
+
+  if AObject.AsStencil or AObject.StencilTest then
+  begin
+    // Enable the stencil tests
+    if not StensilTestOn then
+    begin
+      BSFrameStats.IncStateChanges;
+      glEnable( GL_STENCIL_TEST );
+      //glClearStencil ( 0 );
+      StensilTestOn := true;
+    end;
+  end else
+  if StensilTestOn then
+  begin
+    BSFrameStats.IncStateChanges;
+    StensilTestOn := false;
+    glDisable( GL_STENCIL_TEST );
+  end;
+
+  if AObject.DepthTest then
+  begin
+    if not DepthTestOn then
+    begin
+      BSFrameStats.IncStateChanges;
+      DepthTestOn := true;
+      // On depth test
+      glEnable(GL_DEPTH_TEST);
+    end;
+
+    if AObject.DepthTestFunc <> DepthTestFunc then
+    begin
+      BSFrameStats.IncStateChanges;
+      glDepthFunc(AObject.DepthTestFunc);
+      DepthTestFunc := AObject.DepthTestFunc;
+    end;
+  end else
+  if DepthTestOn then
+  begin
+    BSFrameStats.IncStateChanges;
+    DepthTestOn := false;
+    // Off depth test
+    glDisable(GL_DEPTH_TEST);
+  end;
+end;
+
+procedure TBlackSharkRenderer.DrawAllInstancesBatched;
+var
+  it: TMultiTreeGI.TMultiValue;
+  z, ok: boolean;
+  i: int32;
+  t: uint64;
+  inst: PRendererGraphicInstance;
+  cmd: TDrawCommand;
+begin
+  t := BSFrameStats.StageBegin;
+  FBatcher.BeginFrame;
+  for z := High(boolean) downto Low(boolean) do
+  begin
+    ok := FListGIinFrustum[z].MultiTree.Iterator.SetToBegin(it);
+    while ok do
+    begin
+      { instances with the equal key may be reordered only among themselves }
+      FBatcher.NextSegment;
+      for i := 0 to Length(it.Values) - 1 do
+      begin
+        inst := it.Values[i];
+        if (inst.Instance.Owner.Mesh = nil) or not Assigned(inst.Instance.Owner.DrawInstance)
+          or (inst.Instance.Owner.Mesh.Indexes.Count = 0) or (inst.Instance.Owner.Shader = nil) then
+            continue;
+        if not Assigned(inst^._VisibleNode) then
+          inst^._VisibleNode := FVisibleGI.PushToEnd(inst);
+        if not inst.Instance.Owner.BanDraw and InDamage(inst) then
+          FBatcher.Add(inst);
+      end;
+      ok := FListGIinFrustum[z].MultiTree.Iterator.Next(it);
+    end;
+  end;
+
+  FBatcher.Build;
+
+  for i := 0 to FBatcher.CountCommands - 1 do
+  begin
+    cmd := FBatcher.Commands[i];
+    if cmd.Batch < 0 then
+      DrawInstance(cmd.Instance)
+    else
+    begin
+      ApplyObjectState(FBatcher.FirstInstance(cmd.Batch).Instance.Owner);
+      FBatcher.DrawBatch(cmd.Batch);
+      { the shared buffers are bound now, so the next instance must bind own data }
+      LastDrawGI := nil;
+    end;
+  end;
+  BSFrameStats.StageEnd(fsDraw, t);
 end;
 
 procedure TBlackSharkRenderer.DrawInstance(Instance: PRendererGraphicInstance);
@@ -2284,7 +2627,7 @@ begin
   if not Assigned(Instance^._VisibleNode) then
     Instance^._VisibleNode := FVisibleGI.PushToEnd(Instance);
 
-  if Instance.Instance.Owner.BanDraw then
+  if Instance.Instance.Owner.BanDraw or not InDamage(Instance) then
     exit;
 
   { doesn't draw a transparent object }
@@ -2294,75 +2637,8 @@ begin
   BSShaderManager.UseShader(Instance.Instance.Owner.Shader);
   if LastDrawGI <> Instance.Instance.Owner then
   begin
-    if LastCullFaceOption <> Instance.Instance.Owner.DrawSides then
-    begin
-      LastCullFaceOption := Instance.Instance.Owner.DrawSides;
-      case Instance.Instance.Owner.DrawSides of
-        dsAll: begin
-          glDisable(GL_CULL_FACE);
-        end;
-
-        dsFront: begin
-          //glDisable(GL_DEPTH_TEST);
-          glEnable(GL_CULL_FACE);
-          glCullFace(GL_BACK);
-          {if Instance^.Owner.FClockWiseCullFace then
-            glFrontFace(GL_CW) else
-            glFrontFace(GL_CCW);}
-          //glCullFace(GL_FRONT_AND_BACK);
-        end;
-
-        dsBack: begin
-          //glDisable(GL_DEPTH_TEST);
-          glEnable(GL_CULL_FACE);
-          glCullFace(GL_FRONT);
-          {if Instance^.Owner.FClockWiseCullFace then
-            glFrontFace(GL_CW) else
-            glFrontFace(GL_CCW);}
-          //glFrontFace(GL_CW);
-          //glCullFace(GL_FRONT_AND_BACK);
-        end;
-      end;
-    end;
-
     LastDrawGI := Instance.Instance.Owner;
-    if LastDrawGI.AsStencil or LastDrawGI.StencilTest then
-    begin
-      // Enable the stencil tests
-      if not StensilTestOn then
-      begin
-        glEnable( GL_STENCIL_TEST );
-        //glClearStencil ( 0 );
-        StensilTestOn := true;
-      end;
-    end else
-    if StensilTestOn then
-    begin
-      StensilTestOn := false;
-      glDisable( GL_STENCIL_TEST );
-    end;
-
-    if LastDrawGI.DepthTest then
-    begin
-      if not DepthTestOn then
-      begin
-        DepthTestOn := true;
-        // On depth test
-        glEnable(GL_DEPTH_TEST);
-      end;
-
-      if LastDrawGI.DepthTestFunc <> DepthTestFunc then
-      begin
-        glDepthFunc(LastDrawGI.DepthTestFunc);
-        DepthTestFunc := LastDrawGI.DepthTestFunc;
-      end;
-    end else
-    if DepthTestOn then
-    begin
-      DepthTestOn := false;
-      // Off depth test
-      glDisable(GL_DEPTH_TEST);
-    end;
+    ApplyObjectState(LastDrawGI);
 
     for i := Length(LastDrawGI.BeforeDrawMethods) - 1 downto 0 do
       LastDrawGI.BeforeDrawMethods[i](LastDrawGI);
@@ -2370,6 +2646,7 @@ begin
   end;
 
   LastDrawGI.DrawInstance(Instance);
+  BSFrameStats.IncDrawCalls;
 
   {$ifdef DEBUG_BS}
     CheckErrorGL('TBlackSharkRenderer.DrawInstance - Programm.UseProgram', TTypeCheckError.tcProgramm,
@@ -2419,6 +2696,133 @@ begin
   DrawAllInstances;
 end;
 
+procedure TBlackSharkRenderer.DrawPartial(APass: PRenderPass);
+var
+  direct, full: boolean;
+  att: TAttachmentsFBO;
+  overlay: TRectBSi;
+begin
+  FDamage.Resize(FWindowWidth, FWindowHeight);
+  { the back buffer of the window keeps a picture of one of the previous frames,
+    so it is repaired in place; otherwise the scene is redrawn in the retained
+    buffer and is copied to the window }
+  direct := FBufferAge > 0;
+  if direct then
+  begin
+    FDamageRect := FDamage.GetDamage(FBufferAge, full);
+    FRetainedValid := false;
+    glBindFramebuffer(GL_FRAMEBUFFER, 0);
+  end else
+  begin
+    att := [atColor, atDepth];
+    if FCountStencilUse > 0 then
+      Include(att, atStencil);
+    if FRetainedFBO = nil then
+    begin
+      FRetainedFBO := TBlackSharkFBO.Create(FWindowWidth, FWindowHeight, att);
+      FRetainedPass.Shader := BSShaderManager.Load('QUAD', TBlackSharkQUADShader);
+      FRetainedPass.Shader._AddRef;
+      FRetainedValid := false;
+    end else
+    if (FRetainedFBO.Width <> FWindowWidth) or (FRetainedFBO.Height <> FWindowHeight) or (FRetainedFBO.Attachments <> att) then
+    begin
+      FRetainedFBO.ReCreate(FWindowWidth, FWindowHeight, att);
+      FRetainedValid := false;
+    end;
+    if not FRetainedValid then
+      FDamage.Invalidate;
+    FRetainedValid := true;
+    FDamageRect := FDamage.GetDamage(1, full);
+    FRetainedFBO.Bind;
+  end;
+
+  glBindBuffer(GL_ARRAY_BUFFER, 0);
+  glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+  if StensilTestOn then
+  begin
+    glDisable( GL_STENCIL_TEST );
+    StensilTestOn := false;
+  end;
+  glViewport(APass.Left, APass.Top, APass.Width, APass.Height);
+
+  if full then
+    FLastFullFrame := BSTextureManager.Frame;
+  BSTextureManager.KeepVisibleSince(FLastFullFrame);
+
+  if RectArea(FDamageRect) > 0 then
+  begin
+    if not full then
+    begin
+      glEnable(GL_SCISSOR_TEST);
+      glScissor(FDamageRect.X, FDamageRect.Y, FDamageRect.Width, FDamageRect.Height);
+      FDamageCulling := true;
+    end;
+    APass^.Renderer(APass);
+    if not full then
+    begin
+      glDisable(GL_SCISSOR_TEST);
+      FDamageCulling := false;
+    end;
+  end;
+
+  if not direct then
+  begin
+    glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    glActiveTexture(GL_TEXTURE0);
+    glBindTexture(GL_TEXTURE_2D, FRetainedFBO.Texture);
+    DrawQUAD(@FRetainedPass);
+  end;
+
+  overlay := Default(TRectBSi);
+  if FShowDamage and not full then
+  begin
+    DrawDamageOverlay;
+    overlay := FDamage.Bounds;
+  end;
+
+  FDamage.EndFrame;
+
+  { the overlay is drawn in the window buffer, therefore it has to be erased by
+    next frames }
+  if direct then
+    FDamage.AddOverlay(overlay);
+end;
+
+procedure TBlackSharkRenderer.DrawDamageOverlay;
+const
+  BORDER = 2;
+var
+  i: int32;
+  r: TRectBSi;
+begin
+  glEnable(GL_SCISSOR_TEST);
+  glClearColor(1.0, 0.0, 0.0, 1.0);
+  for i := 0 to FDamage.Count - 1 do
+  begin
+    r := FDamage.Rects[i];
+    glScissor(r.X, r.Y, r.Width, BORDER);
+    glClear(GL_COLOR_BUFFER_BIT);
+    glScissor(r.X, r.Y + r.Height - BORDER, r.Width, BORDER);
+    glClear(GL_COLOR_BUFFER_BIT);
+    glScissor(r.X, r.Y, BORDER, r.Height);
+    glClear(GL_COLOR_BUFFER_BIT);
+    glScissor(r.X + r.Width - BORDER, r.Y, BORDER, r.Height);
+    glClear(GL_COLOR_BUFFER_BIT);
+  end;
+  glDisable(GL_SCISSOR_TEST);
+end;
+
+procedure TBlackSharkRenderer.FreeRetainedBuffer;
+begin
+  FreeAndNil(FRetainedFBO);
+  FRetainedValid := false;
+  if Assigned(FRetainedPass.Shader) then
+  begin
+    BSShaderManager.FreeShader(FRetainedPass.Shader);
+    FRetainedPass.Shader := nil;
+  end;
+end;
+
 (*procedure TBlackSharkRenderer.DrawToColorBufferDo;
 {var
   inst: PGraphicInstance;
@@ -2530,6 +2934,7 @@ begin
     @QUAD_VERTEXES[0]
   );
   glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+  BSFrameStats.IncDrawCalls;
   glDisableVertexAttribArray(0);
   if bm <> TBlendMode.bmNone then
     SetBlendMode(bm);
@@ -2603,7 +3008,9 @@ var
   i: Integer;
   inst: PGraphicInstance;
   d: BSFloat;
+  t: uint64;
 begin
+  t := BSFrameStats.StageBegin;
   //if Drawing then
   //  raise Exception.Create('Call OnChangeFrustum and Draw simultaneously');
 
@@ -2640,6 +3047,10 @@ begin
     end;
   end;
 
+  { all instances have moved on the screen }
+  FDamage.Invalidate;
+
+  BSFrameStats.StageEnd(fsCulling, t);
   FEventMoveFrustum.Send(Self);
 end;
 
@@ -76,6 +76,10 @@ type
   public
     constructor Create(AOwner: TObject; AParent: TGraphicObject; AScene: TBScene); override;
     procedure ChangedMesh; override;
+    { the same as ChangedMesh, but VBOs of the static object are filled from
+      AVertexes and AIndexes laid out as Mesh (for example, buffers of the
+      memory-mapped cache of a model) }
+    procedure UploadMesh(AVertexes, AIndexes: Pointer);
     procedure DrawVertexs(Instance: PRendererGraphicInstance);
     procedure Clear; override;
     procedure Restore; override;
@@ -353,6 +357,10 @@ type
     procedure Build;
     procedure BeginChangeProp;
     procedure EndChangeProp;
+    { the owner of TextData changed it in place: ACountDeleted chars from APosition
+      were replaced by ACountInserted chars; unlike an assignment of Text, nothing
+      is compared or copied, and only the changed paragraphs are laid out }
+    procedure TextEdited(APosition, ACountDeleted, ACountInserted: int32);
     property Text: string read GetText write SetText;
     property TextData: bs.strings.PString read FText write SetTextData;
     { calculator properties of lines and required size of space }
@@ -525,6 +533,22 @@ end;
 
 { TObjectVertexes }
 
+procedure TObjectVertexes.UploadMesh(AVertexes, AIndexes: Pointer);
+begin
+  if not StaticObject or not Assigned(FMesh) then
+  begin
+    ChangedMesh;
+    exit;
+  end;
+  inherited ChangedMesh;
+  if (FMesh.CountVertex > 0) then
+    CreateVBO(FVBO_Vertexes, GL_ARRAY_BUFFER, AVertexes, FMesh.CountVertex * FMesh.SizeOfVertex);
+  if (FMesh.Indexes.Count > 0) then
+    CreateVBO(FVBO_Indexes, GL_ELEMENT_ARRAY_BUFFER, AIndexes, FMesh.Indexes.Count * FMesh.Indexes.IndexSizeOf);
+  if UpdateCount <= 0 then
+    FScene.InstanceTransform(BaseInstance, true);
+end;
+
 procedure TObjectVertexes.ChangedMesh;
 begin
   inherited ChangedMesh;
@@ -706,6 +730,7 @@ begin
   inherited;
   AddBeforeDrawMethod(BeforeDrawSetData);
   Shader := BSShaderManager.Load('', TBlackSharkTextureOutShader);
+  Batchable := ClassType = TTexturedVertexes;
 end;
 
 class function TTexturedVertexes.CreateMesh: TMesh;
@@ -774,6 +799,8 @@ begin
   else
     RefTexture := nil;
 
+  Invalidate;
+
   {for i := 0 to ChildrenCount - 1 do
   begin
     ch := Child[i];
@@ -808,6 +835,7 @@ begin
   Shader := BSShaderManager.Load(TBlackSharkVectorToSingleColorShader.DefaultName, TBlackSharkVectorToSingleColorShader);
   AddBeforeDrawMethod(BeforeDrawSetData);
   FColor := BS_CL_RED;
+  Batchable := ClassType = TColoredVertexes;
 end;
 
 function TColoredVertexes.GetColor: TColor4f;
@@ -818,6 +846,7 @@ end;
 procedure TColoredVertexes.SetColor(const Value: TColor4f);
 begin
   FColor := Value;
+  Invalidate;
 end;
 
 { TColoredVertexesOrTextured }
@@ -851,6 +880,7 @@ begin
     Shader := BSShaderManager.Load(FShaderNameTextured, TBlackSharkVectorToSingleColorShader)
   else
     Shader := BSShaderManager.Load(FShaderNameSingleColor, TBlackSharkVectorToSingleColorShader);
+  Invalidate;
 end;
 
 { TGraphicObjectLines }
@@ -946,6 +976,8 @@ begin
   begin
     BSTextureManager.UseTexture( FontText );
     glUniform4fv( TTextFromTextureShader(Shader).Color^.Location, 1, @FColor );
+    if FFont.IsDistanceField then
+      glUniform1f( TTextFromSDFShader(Shader).Smoothing^.Location, TTrueTypeSDFFont.Smoothing(FFont.SizeInPixels) );
   end;
 end;
 
@@ -1111,6 +1143,17 @@ begin
       Shader := BSShaderManager.Load(TBlackSharkVectorToSingleColorShader.DefaultName, TBlackSharkVectorToSingleColorShader);
     end;
   end else
+  if FFont.IsDistanceField then
+  begin
+    if Shader.Name <> TTextFromSDFShader.DefaultName then
+    begin
+      if Assigned(Mesh) then
+        Mesh.Free;
+      Mesh := TMeshPT.Create;
+      Mesh.TypePrimitive := tpTriangles;
+      Shader := BSShaderManager.Load(TTextFromSDFShader.DefaultName, TTextFromSDFShader);
+    end;
+  end else
   if Shader.Name <> TTextFromTextureShader.DefaultName then
   begin
     if Assigned(Mesh) then
@@ -1265,7 +1308,7 @@ begin
     else
       w_average := BlankWidth;
 
-    char_index := LineProp.IndexBegin;
+    char_index := FTxtProcessor.LineBegin[line];
     len_str := FText.Len - char_index + 1;
     chars := 0;
     { an adjusted empty shape for a right align on parent if will be not typed symbols }
@@ -1284,8 +1327,8 @@ begin
           break;
 
         LineProp := FTxtProcessor.Lines.ShiftData[line];
-        dec(len_str, LineProp.IndexBegin - char_index);
-        char_index := LineProp.IndexBegin;
+        dec(len_str, FTxtProcessor.LineBegin[line] - char_index);
+        char_index := FTxtProcessor.LineBegin[line];
         x := SelectStartPos(LineProp);
         if FTxtProcessor.AlignText = oaClient then
           w_average := SelectBlankWidth(LineProp);
@@ -1335,6 +1378,10 @@ begin
 end;
 
 procedure TGraphicObjectText.SetText(const AValue: string);
+var
+  new_text: bs.strings.TString;
+  len_old, len_new: int32;
+  prefix, suffix: int32;
 begin
   if not Assigned(FText) then
   begin
@@ -1347,8 +1394,37 @@ begin
 
   CheckTextProcessor;
 
-  FText^ := AValue;
-  FTxtProcessor.CountChars := FText.Len;
+  new_text := AValue;
+  len_old := FText.Len;
+  len_new := new_text.Len;
+  if (FTxtProcessor.CountChars = len_old) and (FTxtProcessor.Lines.Count > 0) then
+  begin
+    { only the changed range is passed to the text processor, so it lays out
+      only paragraphs around it }
+    prefix := 0;
+    while (prefix < len_old) and (prefix < len_new) and
+      (FText.CharsUnsafeW(prefix + 1) = new_text.CharsUnsafeW(prefix + 1)) do
+        inc(prefix);
+    suffix := 0;
+    while (suffix < len_old - prefix) and (suffix < len_new - prefix) and
+      (FText.CharsUnsafeW(len_old - suffix) = new_text.CharsUnsafeW(len_new - suffix)) do
+        inc(suffix);
+    FText^ := new_text;
+    FTxtProcessor.TextChanged(prefix + 1, len_old - prefix - suffix, len_new - prefix - suffix);
+  end else
+  begin
+    FText^ := new_text;
+    FTxtProcessor.CountChars := FText.Len;
+  end;
+  Build;
+end;
+
+procedure TGraphicObjectText.TextEdited(APosition, ACountDeleted, ACountInserted: int32);
+begin
+  if FText = nil then
+    exit;
+  CheckTextProcessor;
+  FTxtProcessor.TextChanged(APosition, ACountDeleted, ACountInserted);
   Build;
 end;
 
@@ -151,6 +151,10 @@ type
     { a distance from instance to screen; if set accuracy calculate then
       select nearest point from BB, else from middle BB }
     DistanceToScreen: BSFloat;
+    { the rectangle covering the instance on the screen at the last LastMVP, in
+      pixels with the origin in the left bottom corner; it is updated only if
+      TBlackSharkRenderer.PartialRedraw is switched on }
+    ScreenRect: TRectBSi;
   end;
 
   TDragInstanceData = record
@@ -194,6 +198,7 @@ type
     FTagInt: NativeInt;
     FStencilTest: boolean;
     FDepthTest: boolean;
+    FBatchable: boolean;
     FDepthTestFunc: uint16;
     FOwner: TObject;
     FServiceScale: BSFloat;
@@ -334,6 +339,9 @@ type
       deletes old VBO, and creates new single VBO for all vertex components
       and one VBO for indexes }
     procedure ChangedMesh; virtual;
+    { notifies renderers that the look of all instances has changed without
+      a transformation, for example, a color or a texture }
+    procedure Invalidate;
     { Adds the same instance }
     function AddInstance(const Pos: TVec3f): PGraphicInstance;
     procedure ClearInstances(Recursive: boolean = false; OnlyChildren: boolean = false);
@@ -389,6 +397,12 @@ type
     { method/property is drawing one instance; you can to assign an any method
       of object }
     property DrawInstance: TDrawInstanceMethod read FDrawInstance write FDrawInstance;
+    { the object is drawn only by own DrawInstance and BeforeDrawMethods of its
+      class, so the draw list of the renderer (see bs.renderer.batch) can merge
+      it with others; the flag is set by a class, which the batcher knows, and
+      is reset by AddBeforeDrawMethod; reset it if you assign own DrawInstance
+      or pass own data to the shader }
+    property Batchable: boolean read FBatchable write FBatchable;
     property Shader: TBlackSharkShader read FShader write SetShader;
     property CountInstances: int32 read GetCountInstances;
     property Instances: TListInstances read FInstances;
@@ -521,6 +535,7 @@ type
   TEventInstanceTransform = IBEmptyEvent;
   TEventInstanceBeforeChangeKey = IBEmptyEvent;
   TEventInstanceAfterChangeKey = IBEmptyEvent;
+  TEventInstanceChanged = IBEmptyEvent;
   TEventInstanceBeginDrag = IBDragDropEvent;
 
   TEventInstanceSelectObserver = IBEmptyEventObserver;
@@ -529,6 +544,7 @@ type
   TEventInstanceTransformObserver = IBEmptyEventObserver;
   TEventInstanceBeforeChangeKeyObserver = IBEmptyEventObserver;
   TEventInstanceAfterChangeKeyObserver = IBEmptyEventObserver;
+  TEventInstanceChangedObserver = IBEmptyEventObserver;
   TEventInstanceBeginDragObserver = IBEmptyEventObserver;
 
   { TBScene }
@@ -550,7 +566,9 @@ type
     FEventInstanceSelect: TEventInstanceSelect;
     FEventInstanceBeforeChangeKey: IBEmptyEvent;
     FEventInstanceAfterChangeKey: IBEmptyEvent;
+    FEventInstanceChanged: IBEmptyEvent;
     FEventInstanceBeginDrag: IBDragDropEvent;
+    FDamageTrackers: int32;
   protected
     procedure ObjectAdd(AItem: TGraphicObject); overload;
     procedure ObjectDelete(AItem: TGraphicObject);
@@ -563,12 +581,16 @@ type
     procedure InstanceAfterChangeKey(Instance: PGraphicInstance); {$ifndef DEBUG_BS} inline; {$endif}
     procedure InstanceBeginDrag(Instance: PGraphicInstance; CheckDragParent: boolean);
     procedure InstanceSceneSpaceTreeClientChanged(Instance: PGraphicInstance);
+    procedure InstanceChanged(Instance: PGraphicInstance); inline;
   public
     constructor Create; virtual;
     destructor Destroy; override;
     procedure Clear; override;
     function ObjectAdd(AClassGraphicObject: TGraphicObjectClass; AParent: TGraphicObject; AOwner: TObject): TGraphicObject; overload;
     procedure InstanceSetSelected(Instance: PGraphicInstance; Selected: boolean);
+    { renderers of the scene with switched on PartialRedraw register here }
+    procedure IncDamageTrackers;
+    procedure DecDamageTrackers;
   public
     property GraphicObjects: THashTableGraphicObjects read FGraphicObjects;
 
@@ -581,6 +603,10 @@ type
     property EventInstanceSceneSpaceTreeClientChanged: IBEmptyEvent read FEventInstanceSceneSpaceTreeClientChanged;
     property EventInstanceBeforeChangeKey: IBEmptyEvent read FEventInstanceBeforeChangeKey;
     property EventInstanceAfterChangeKey: IBEmptyEvent read FEventInstanceAfterChangeKey;
+    { the look of an instance has changed without a transformation; it is sent
+      only while DamageTrackers > 0, nobody else needs it }
+    property EventInstanceChanged: IBEmptyEvent read FEventInstanceChanged;
+    property DamageTrackers: int32 read FDamageTrackers;
     property EventInstanceBeginDrag: IBDragDropEvent read FEventInstanceBeginDrag;
 
     property EventObjectChangeOrderDraw: IBEmptyEvent read FEventObjectChangeOrderDraw;
@@ -787,7 +813,7 @@ end;
 
 procedure TGraphicObject.SetColor(const Value: TColor4f);
 begin
-
+  Invalidate;
 end;
 
 function TGraphicObject.GetCountInstances: int32;
@@ -1380,13 +1406,34 @@ end;
 
 procedure TGraphicObject.ChangedMesh;
 begin
+  Invalidate;
+end;
 
+procedure TGraphicObject.Invalidate;
+var
+  it: TListInstances.PListItem;
+begin
+  { no renderer tracks damage, so nobody waits for the changes }
+  if (FBaseInstance = nil) or (FScene.DamageTrackers = 0) then
+    exit;
+  FScene.InstanceChanged(FBaseInstance);
+  if Assigned(FInstances) then
+  begin
+    it := FInstances.ItemListFirst;
+    while Assigned(it) do
+    begin
+      FScene.InstanceChanged(it.Item);
+      it := it.Next;
+    end;
+  end;
 end;
 
 procedure TGraphicObject.AddBeforeDrawMethod(const BeforeDrawMethod: TBeforeDrawMethod);
 begin
   SetLength(FBeforeDrawMethods, Length(FBeforeDrawMethods) + 1);
   FBeforeDrawMethods[Length(FBeforeDrawMethods) - 1] := BeforeDrawMethod;
+  { own data is passed to the shader }
+  FBatchable := false;
 end;
 
 constructor TGraphicObject.Create(AOwner: TObject; AParent: TGraphicObject; AScene: TBScene);
@@ -2172,6 +2219,7 @@ begin
   FEventInstanceDelete := CreateEmptyEvent;
   FEventInstanceBeforeChangeKey := CreateEmptyEvent;
   FEventInstanceAfterChangeKey := CreateEmptyEvent;
+  FEventInstanceChanged := CreateEmptyEvent;
   FEventInstanceBeginDrag := CreateDragDropEvent;
   FEventObjectChangeOrderDraw := CreateEmptyEvent;
   FEventObjectIncStencilUse := CreateEmptyEvent;
@@ -2190,6 +2238,21 @@ begin
   EventInstanceAfterChangeKey.Send(Instance);
 end;
 
+procedure TBScene.InstanceChanged(Instance: PGraphicInstance);
+begin
+  FEventInstanceChanged.Send(Instance);
+end;
+
+procedure TBScene.IncDamageTrackers;
+begin
+  inc(FDamageTrackers);
+end;
+
+procedure TBScene.DecDamageTrackers;
+begin
+  dec(FDamageTrackers);
+end;
+
 procedure TBScene.InstanceBeginDrag(Instance: PGraphicInstance; CheckDragParent: boolean);
 begin
   EventInstanceBeginDrag.Send(Instance, CheckDragParent);
@@ -71,6 +71,8 @@ type
     FChildren: TListBones;
     FBoundVertexes: TListBoundVertexes;
     FIndex: uint8;
+    { position in the flattened bones of TSkeleton }
+    FSlot: int32;
     FTransform: TMatrix4f;
     FStackTransform: TMatrix4f;
     FCurrentTransform: TMatrix4f;
@@ -151,9 +153,17 @@ type
     property Bones: TListBones read FBones;
   end;
 
+  TBoneMatrixArray = array of TMatrix4f;
+
   {
     TSkeleton
     Consists of bones and linked Skin;
+
+    While an animation runs the bones are flattened into a structure of
+    arrays: slots are ordered topologically (a parent always precedes its
+    children), so the palette of bones is calculated by one linear pass over
+    contiguous matrixes and keyframes; the skin is transformed either on GPU by
+    the palette (CurrentTransforms uniform) or by BSJobs.ParallelFor on CPU
   }
 
   TSkeleton = class
@@ -184,6 +194,26 @@ type
     FParentTransforms: TMatrix4f;
     FAniUpdater: IBAnimationLinearFloat;
     FAniUpdaterObserver: IBAnimationLinearFloatObsrv;
+    { the flattened bones; a slot is an index in these arrays }
+    FSlotBones: array of TBone;
+    FSlotParents: array of int32;
+    FSlotBindInv: TBoneMatrixArray;
+    FSlotLocal: TBoneMatrixArray;
+    FSlotWorld: TBoneMatrixArray;
+    FSlotPalette: TBoneMatrixArray;
+    { keyframes of the current animation: [frame * FCountKeyBones + bone of
+      the animation]; FKeySlots maps a bone of the animation to a slot }
+    FCountKeyBones: int32;
+    FKeySlots: array of int32;
+    FKeyPositions: array of TVec3f;
+    FKeyRotations: array of TVec4f;
+    FKeyAssigned: array of boolean;
+    { influences of bones on vertexes for CPU skinning; the influences of
+      vertex i are in [FSkinFirst[i]..FSkinFirst[i + 1] - 1] }
+    FSkinFirst: array of int32;
+    FSkinSlots: array of int32;
+    FSkinWeights: array of BSFloat;
+    FSkinOrigins: array of TVec3f;
     procedure SetAnimation(const Value: string);
     procedure FindRoots;
     procedure DoStartAnimation;
@@ -194,8 +224,10 @@ type
     procedure DoRecalcAnimation; inline;
     procedure RecalcAnimation; inline;
     procedure SetPauseAnimation(const Value: boolean);
-    procedure UpdateLinkedVertexes(ABone: TBone);
-    procedure UpdateBoneTransform(ABone: TBone);
+    procedure BuildSlots;
+    procedure BuildKeyFrames;
+    procedure BuildSkinInfluences;
+    procedure SkinVertexes(AFrom, ATo: int32; {%H-}AData: Pointer);
     procedure CheckAnimation;
     procedure SetShowBones(const Value: boolean);
     procedure DoShowBones;
@@ -247,6 +279,7 @@ uses
   {$endif}
   , bs.graphics
   , bs.obj
+  , bs.jobs
   , bs.mesh.primitives
   , bs.thread
   , bs.exceptions
@@ -477,6 +510,11 @@ begin
     FSkin.Mesh := FSkinMeshCopy;
   end;
 
+  BuildSlots;
+  BuildKeyFrames;
+  if not FCalculateOnGPU then
+    BuildSkinInfluences;
+
   FStartTime := TBTimer.CurrentTime.Low;
   if not BSConfig.MaxFps then
   begin
@@ -503,11 +541,11 @@ end;
 
 procedure TSkeleton.DoRecalcAnimation;
 var
-  i: int32;
+  i, slot, parent: int32;
+  key, key_next: int32;
+  next_frame: int32;
   frame: PSkeletonFrame;
   frame_next: PSkeletonFrame;
-  frameBone: PBoneKeyFrame;
-  frameBoneNext: PBoneKeyFrame;
   m: TMatrix4f;
   norm_time: BSFloat;
   delta_pos: TVec3f;
@@ -515,58 +553,73 @@ var
   duration: uint32;
   bone: TBone;
 begin
+  if (Length(FSlotBones) = 0) or (FCurrentAnimation.Frames.Count = 0) then
+    exit;
+
+  next_frame := FCurrentFrame + 1;
+  if next_frame = FCurrentAnimation.Frames.Count then
+    next_frame := FCurrentFrame;
+
   frame := FCurrentAnimation.Frames.Items[FCurrentFrame];
-  frame_next := FCurrentAnimation.Frames.Items[FCurrentFrame+1];
+  frame_next := FCurrentAnimation.Frames.Items[next_frame];
 
   duration := TBTimer.CurrentTime.Low - FStartTime;
   if duration < frame.Time then
     duration := frame.Time;
 
-  norm_time := bs.math.Clamp(1.0, 0.0, (duration - frame.Time) / (frame_next.Time - frame.Time));
-
-  if not FCalculateOnGPU then
-    FSkinMeshCopy.Fill(vec3(0.0, 0.0, 0.0));
+  if frame_next.Time > frame.Time then
+    norm_time := bs.math.Clamp(1.0, 0.0, (duration - frame.Time) / (frame_next.Time - frame.Time))
+  else
+    norm_time := 0.0;
 
-  for i := 0 to length(frame.FrameBones) - 1 do
+  key := FCurrentFrame * FCountKeyBones;
+  key_next := next_frame * FCountKeyBones;
+  for i := 0 to FCountKeyBones - 1 do
   begin
-    frameBone := frame.FrameBones[i];
-    frameBoneNext := frame_next.FrameBones[i];
-    if Assigned(frameBone) then
-    begin
-
-      if Assigned(frameBoneNext) then
-      begin
-        delta_pos := frameBone.Position + TVec3f(frameBoneNext.Position - frameBone.Position)*norm_time;
-        delta_rot := QuaternionNLERP(frameBone.Rotation, frameBoneNext.Rotation, norm_time);
-      end else
-      begin
-        delta_pos := TVec3f(frameBone.Position);
-        delta_rot := frameBone.Rotation;
-      end;
+    if not FKeyAssigned[key + i] then
+      continue;
 
-      bone := FCurrentAnimation.Bones.Items[i];
-      QuaternionToMatrix(m{%H-}, delta_rot);
-
-      if Assigned(bone.Parent) then
-      begin
-        m.M3 := vec4(delta_pos, 1.0);
-      end else
-      begin
-        m.M3 := vec4(delta_pos - SkinCenterOffset, 1.0);
-      end;
-
-      bone.CurrentTransform := m;
+    if FKeyAssigned[key_next + i] then
+    begin
+      delta_pos := FKeyPositions[key + i] + TVec3f(FKeyPositions[key_next + i] - FKeyPositions[key + i])*norm_time;
+      delta_rot := QuaternionNLERP(FKeyRotations[key + i], FKeyRotations[key_next + i], norm_time);
+    end else
+    begin
+      delta_pos := FKeyPositions[key + i];
+      delta_rot := FKeyRotations[key + i];
     end;
+
+    QuaternionToMatrix(m{%H-}, delta_rot);
+    m.M3 := vec4(delta_pos, 1.0);
+    FSlotLocal[FKeySlots[i]] := m;
   end;
 
-  for i := 0 to Roots.Count - 1 do
+  { a parent precedes its children, so its stack transform is ready }
+  for slot := 0 to Length(FSlotBones) - 1 do
   begin
-    if FCalculateOnGPU then
-      UpdateBoneTransform(Roots.Items[i])
+    parent := FSlotParents[slot];
+    if parent < 0 then
+      FSlotWorld[slot] := FSlotLocal[slot]
     else
-      UpdateLinkedVertexes(Roots.Items[i]);
+      FSlotWorld[slot] := FSlotLocal[slot]*FSlotWorld[parent];
+    FSlotPalette[slot] := FSlotBindInv[slot]*FSlotWorld[slot];
   end;
 
+  if FCalculateOnGPU then
+  begin
+    for slot := 0 to Length(FSlotBones) - 1 do
+      FCurrentTrasforms.Items[FSlotBones[slot].Index] := FSlotPalette[slot];
+  end else
+    BSJobs.ParallelFor(Length(FSkinOrigins), SkinVertexes, nil);
+
+  for slot := 0 to Length(FSlotBones) - 1 do
+  begin
+    bone := FSlotBones[slot];
+    bone.FCurrentTransform := FSlotLocal[slot];
+    bone.FCurrentStackTransform := FSlotWorld[slot];
+    if FShowBones then
+      bone.UpdateViewPosition;
+  end;
 end;
 
 procedure TSkeleton.DoShowBones;
@@ -606,6 +659,10 @@ begin
     if Assigned(FSkinMesh) then
       FSkin.Mesh := FSkinMesh;
     FreeAndNil(FSkinMeshCopy);
+    FSkinOrigins := nil;
+    FSkinFirst := nil;
+    FSkinSlots := nil;
+    FSkinWeights := nil;
   end;
 
   UpdateBonesTransform;
@@ -718,38 +775,147 @@ begin
   until not FBones.GetNext(bucket);
 end;
 
-procedure TSkeleton.UpdateBoneTransform(ABone: TBone);
+procedure TSkeleton.BuildSlots;
 var
-  j: int32;
+  i, first, last: int32;
+  bone: TBone;
 begin
-  FCurrentTrasforms.Items[ABone.Index] := ABone.StackTransformInv*ABone.CurrentStackTransform;
-  for j := 0 to ABone.ChildrenCount - 1 do
+  SetLength(FSlotBones, FBones.Count);
+  SetLength(FSlotParents, FBones.Count);
+  last := 0;
+  for i := 0 to Roots.Count - 1 do
+  begin
+    FSlotBones[last] := Roots.Items[i];
+    FSlotParents[last] := -1;
+    inc(last);
+  end;
+
+  { breadth-first order from the roots }
+  first := 0;
+  while first < last do
+  begin
+    bone := FSlotBones[first];
+    bone.FSlot := first;
+    for i := 0 to bone.ChildrenCount - 1 do
+    begin
+      FSlotBones[last] := bone.Children[i];
+      FSlotParents[last] := first;
+      inc(last);
+    end;
+    inc(first);
+  end;
+
+  SetLength(FSlotBones, last);
+  SetLength(FSlotParents, last);
+  SetLength(FSlotBindInv, last);
+  SetLength(FSlotLocal, last);
+  SetLength(FSlotWorld, last);
+  SetLength(FSlotPalette, last);
+  for i := 0 to last - 1 do
   begin
-    UpdateBoneTransform(ABone.Children[j]);
+    bone := FSlotBones[i];
+    FSlotBindInv[i] := bone.StackTransformInv;
+    FSlotLocal[i] := bone.CurrentTransform;
+    FSlotWorld[i] := bone.CurrentStackTransform;
+    FSlotPalette[i] := IDENTITY_MAT;
   end;
+
+  if FCurrentTrasforms.Count < FBones.Count then
+    FCurrentTrasforms.Count := FBones.Count;
 end;
 
-procedure TSkeleton.UpdateLinkedVertexes(ABone: TBone);
+procedure TSkeleton.BuildKeyFrames;
 var
-  j: int32;
-  v, v_orig: TVec3f;
-  bindedVertex: TVertexBind;
-  m: TMatrix4f;
+  i, j, key: int32;
+  frame: PSkeletonFrame;
+  frameBone: PBoneKeyFrame;
 begin
-  m := ABone.StackTransformInv*ABone.CurrentStackTransform;
-
-  for j := 0 to ABone.BoundVertexes.Count - 1 do
+  FCountKeyBones := FCurrentAnimation.Bones.Count;
+  SetLength(FKeySlots, FCountKeyBones);
+  for i := 0 to FCountKeyBones - 1 do
+    FKeySlots[i] := FCurrentAnimation.Bones.Items[i].FSlot;
+
+  SetLength(FKeyPositions, FCurrentAnimation.Frames.Count * FCountKeyBones);
+  SetLength(FKeyRotations, FCurrentAnimation.Frames.Count * FCountKeyBones);
+  SetLength(FKeyAssigned, FCurrentAnimation.Frames.Count * FCountKeyBones);
+  for j := 0 to FCurrentAnimation.Frames.Count - 1 do
   begin
-    bindedVertex := ABone.BoundVertexes.Items[j];
-    v_orig := FSkinMesh.ReadPoint(bindedVertex.VertexIndex);
-    v := FSkinMeshCopy.ReadPoint(bindedVertex.VertexIndex);
-    v := v + (m*v_orig)*bindedVertex.Weight;
-    FSkinMeshCopy.WritePoint(bindedVertex.VertexIndex, v);
+    frame := FCurrentAnimation.Frames.Items[j];
+    for i := 0 to FCountKeyBones - 1 do
+    begin
+      key := j * FCountKeyBones + i;
+      if i < Length(frame.FrameBones) then
+        frameBone := frame.FrameBones[i]
+      else
+        frameBone := nil;
+
+      FKeyAssigned[key] := Assigned(frameBone);
+      if not Assigned(frameBone) then
+        continue;
+
+      FKeyRotations[key] := frameBone.Rotation;
+      { the roots are shifted to the center of the skin }
+      if FSlotParents[FKeySlots[i]] < 0 then
+        FKeyPositions[key] := frameBone.Position - SkinCenterOffset
+      else
+        FKeyPositions[key] := frameBone.Position;
+    end;
   end;
+end;
+
+procedure TSkeleton.BuildSkinInfluences;
+var
+  i, j, slot: int32;
+  count: int32;
+  v_bind: TVertexBind;
+  fill: array of int32;
+begin
+  count := FSkinMesh.CountVertex;
+  SetLength(FSkinOrigins, count);
+  for i := 0 to count - 1 do
+    FSkinOrigins[i] := FSkinMesh.ReadPoint(i);
+
+  { groups the bindings of bones by vertexes (counting sort) }
+  SetLength(FSkinFirst, count + 1);
+  FillChar(FSkinFirst[0], (count + 1)*SizeOf(int32), 0);
+  for slot := 0 to Length(FSlotBones) - 1 do
+    for j := 0 to FSlotBones[slot].BoundVertexes.Count - 1 do
+    begin
+      v_bind := FSlotBones[slot].BoundVertexes.Items[j];
+      if v_bind.VertexIndex < count then
+        inc(FSkinFirst[v_bind.VertexIndex + 1]);
+    end;
+
+  for i := 1 to count do
+    inc(FSkinFirst[i], FSkinFirst[i - 1]);
 
-  for j := 0 to ABone.ChildrenCount - 1 do
+  SetLength(FSkinSlots, FSkinFirst[count]);
+  SetLength(FSkinWeights, FSkinFirst[count]);
+  fill := Copy(FSkinFirst, 0, count);
+  for slot := 0 to Length(FSlotBones) - 1 do
+    for j := 0 to FSlotBones[slot].BoundVertexes.Count - 1 do
+    begin
+      v_bind := FSlotBones[slot].BoundVertexes.Items[j];
+      if v_bind.VertexIndex >= count then
+        continue;
+      FSkinSlots[fill[v_bind.VertexIndex]] := slot;
+      FSkinWeights[fill[v_bind.VertexIndex]] := v_bind.Weight;
+      inc(fill[v_bind.VertexIndex]);
+    end;
+end;
+
+procedure TSkeleton.SkinVertexes(AFrom, ATo: int32; AData: Pointer);
+var
+  i, j: int32;
+  v: TVec3f;
+begin
+  { every part writes own vertexes only, so FSkinMeshCopy is shared safely }
+  for i := AFrom to ATo do
   begin
-    UpdateLinkedVertexes( ABone.Children[j]);
+    v := vec3(0.0, 0.0, 0.0);
+    for j := FSkinFirst[i] to FSkinFirst[i + 1] - 1 do
+      v := v + (FSlotPalette[FSkinSlots[j]]*FSkinOrigins[i])*FSkinWeights[j];
+    FSkinMeshCopy.WritePoint(i, v);
   end;
 end;
 
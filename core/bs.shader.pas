@@ -31,6 +31,7 @@ interface
 uses
     Classes
   , SysUtils
+  , syncobjs
   {$ifdef ultibo}
   , gles20
   {$else}
@@ -185,6 +186,7 @@ type
     FShader: array[TTypeShader] of AnsiString;
     FMVPasUniform: boolean;
     function GetShader(index: TTypeShader): AnsiString;
+    function Compile: boolean;
   protected
     FUniforms: array[TTypeShader] of TListShaderParametrs;
     FAttributes: array[TTypeShader] of TListShaderParametrs;
@@ -195,6 +197,8 @@ type
     constructor Create(const AName: string; const ADataVertex, ADataFragment: PAnsiChar); virtual;
     destructor Destroy; override;
     class function DefaultName: string; virtual;
+    { takes the linked program from BSShaderManager.ProgramCache, or compiles and
+      links the sources and puts the program to the cache }
     function LoadShader: boolean;
     procedure Unload;
     procedure Reset;
@@ -424,6 +428,20 @@ type
     property Color: PShaderParametr read FColor;
   end;
 
+  { The shader draws a text from a texture of signed distance fields
+    (see TTrueTypeSDFFont); the edge of glyphs is smoothed by the uniform
+    Smoothing, so the same texture serves any size of the text }
+
+  TTextFromSDFShader = class(TTextFromTextureShader)
+  private
+    { a half width of the smoothed edge in units of the distance field }
+    FSmoothing: PShaderParametr;
+  public
+    class function DefaultName: string; override;
+    function LinkLocations: boolean; override;
+    property Smoothing: PShaderParametr read FSmoothing;
+  end;
+
   { The shader fills all vertexes a single color }
 
   TBlackSharkVectorToSingleColorShader = class(TBlackSharkVertexOutShader)
@@ -613,12 +631,68 @@ type
 
   TShaderKind = (skSingleColor, skTextured, skSingleColorAndAnimated, skTexturedAndAnimated);
 
+  { TShaderProgramCache
+
+    keeps programs linked by the driver in files of Directory, one file per a
+    shader name, and loads them by glProgramBinaryOES instead of compile and
+    link of the sources; a file is valid while the sources of the shader and
+    the GL vendor, renderer and version are the same; does nothing if
+    GL_OES_get_program_binary is not supported or BSConfig.ShaderCache is off }
+
+  TShaderProgramCache = class
+  private
+    FDirectory: string;
+    { -1 - not checked yet for the current context }
+    FSupported: int8;
+    FDeviceHash: uint64;
+    { files read ahead by Prefetch }
+    FPrefetched: THashTable<string, TBytes>;
+    CS: TCriticalSection;
+    FHits: int32;
+    FMisses: int32;
+    FRejected: int32;
+    FStored: int32;
+    FLoadTime: uint64;
+    FCompileTime: uint64;
+    function CheckSupport: boolean;
+    function GetDirectory: string;
+    function GetFileName(const AName: string): string;
+    function ReadFile(const AName: string): TBytes;
+  public
+    constructor Create;
+    destructor Destroy; override;
+    { creates AShader.ProgramID from the cache; returns false if the program
+      is absent, out of date or rejected by the driver }
+    function Load(AShader: TBlackSharkShader): boolean;
+    procedure Save(AShader: TBlackSharkShader);
+    { reads the file of the program AName for the next Load; thread-safe, does
+      not need GL context }
+    procedure Prefetch(const AName: string);
+    { the GL context was recreated; the support and the device are checked again }
+    procedure ResetDevice;
+    procedure ResetStatistics;
+    { deletes all files of the cache }
+    procedure Clear;
+    function Report: string;
+    { AppPath\ShadersCache\ by default }
+    property Directory: string read GetDirectory write FDirectory;
+    property Hits: int32 read FHits;
+    property Misses: int32 read FMisses;
+    { the driver did not accept the binary, so the program was compiled again }
+    property Rejected: int32 read FRejected;
+    property Stored: int32 read FStored;
+    { microseconds spent on loading from the cache and on compilation }
+    property LoadTime: uint64 read FLoadTime;
+    property CompileTime: uint64 read FCompileTime;
+  end;
+
   { BSShaderManager }
 
   BSShaderManager = class
   private
     class var FShadersName: THashTable<string, TBlackSharkShader>;
     class var FLastUsedShader: TBlackSharkShader;
+    class var FProgramCache: TShaderProgramCache;
     class procedure Add(BSShader: TBlackSharkShader);
     class function GetShaderByName(const Name: string): TBlackSharkShader;
     class constructor Create;
@@ -632,10 +706,15 @@ type
       AShaderClass: TBlackSharkShaderClass; AMVPasUniform: boolean = true): TBlackSharkShader; overload;
     class function Load(const AName: string; AShaderClass: TBlackSharkShaderClass;
       AMVPasUniform: boolean = true): TBlackSharkShader; overload;
+    { loads the shaders by their DefaultName ahead of first use; the files of
+      the sources and of the program cache are read in parallel by BSJobs,
+      compilation is done in the calling thread, because it needs GL context }
+    class procedure Preload(const AShaderClasses: array of TBlackSharkShaderClass);
     class procedure Restore;
     class procedure UseShader(AShader: TBlackSharkShader);
     class procedure FreeShader(Shader: TBlackSharkShader);
     class var property ShaderByName[const Name: string]: TBlackSharkShader read GetShaderByName;
+    class var property ProgramCache: TShaderProgramCache read FProgramCache;
   end;
 
   procedure CreateVBO(var VBO: GlUInt; Taget { GL_ARRAY_BUFFER ...}: GLInt; Data: Pointer; SizeData: int32; ModeDraw: GLEnum = GL_STATIC_DRAW); //inline;
@@ -670,8 +749,364 @@ implementation
 
 uses
     bs.utils
+  , bs.vfs
+  , bs.frame.stats
+  , bs.config
+  , bs.thread
+  , bs.jobs
   ;
 
+{ the binary cache of programs }
+
+const
+  PROGRAM_CACHE_SIGNATURE = $50434253; // BSCP
+  PROGRAM_CACHE_VERSION = 1;
+  PROGRAM_CACHE_EXT = '.bsp';
+  PROGRAM_CACHE_DIR = 'ShadersCache';
+
+type
+
+  PProgramCacheHeader = ^TProgramCacheHeader;
+  TProgramCacheHeader = packed record
+    Signature: uint32;
+    Version: uint32;
+    SourceHash: uint64;
+    { vendor, renderer and version of the driver }
+    DeviceHash: uint64;
+    BinaryFormat: uint32;
+    Size: int32;
+  end;
+
+  { reads sources of shaders and their cached programs in workers of BSJobs }
+
+  TShaderPreloader = class
+  public
+    ShaderClasses: array of TBlackSharkShaderClass;
+    Names: array of string;
+    Vertexes: array of AnsiString;
+    Fragments: array of AnsiString;
+    Count: int32;
+    procedure Add(AShaderClass: TBlackSharkShaderClass);
+    procedure OnRead(AFrom, ATo: int32; AData: Pointer);
+  end;
+
+function GetStringGL(AName: GLenum): AnsiString;
+var
+  p: PAnsiChar;
+begin
+  p := PAnsiChar(glGetString(AName));
+  if p = nil then
+    Result := ''
+  else
+    Result := p;
+end;
+
+function GetShaderSourceHash(AShader: TBlackSharkShader): uint64;
+var
+  v, f: AnsiString;
+begin
+  v := AShader.Shader[tsVertex];
+  f := AShader.Shader[tsFragment];
+  Result := GetHashFNV64(PByte(PAnsiChar(v)), Length(v));
+  Result := GetHashFNV64(PByte(PAnsiChar(f)), Length(f), Result);
+end;
+
+function ReadSourceFile(const AFileName: string): AnsiString;
+var
+  ms: TMemoryStream;
+begin
+  ms := TMemoryStream.Create;
+  try
+    LoadFileVFS(AFileName, ms);
+    SetString(Result, PAnsiChar(ms.Memory), ms.Size);
+  finally
+    ms.Free;
+  end;
+end;
+
+{ TShaderPreloader }
+
+procedure TShaderPreloader.Add(AShaderClass: TBlackSharkShaderClass);
+begin
+  if Count = Length(ShaderClasses) then
+  begin
+    SetLength(ShaderClasses, Count * 2 + 8);
+    SetLength(Names, Length(ShaderClasses));
+    SetLength(Vertexes, Length(ShaderClasses));
+    SetLength(Fragments, Length(ShaderClasses));
+  end;
+  ShaderClasses[Count] := AShaderClass;
+  Names[Count] := AShaderClass.DefaultName;
+  inc(Count);
+end;
+
+procedure TShaderPreloader.OnRead(AFrom, ATo: int32; AData: Pointer);
+var
+  i: int32;
+  path: string;
+begin
+  for i := AFrom to ATo do
+  begin
+    path := AppPath + 'Shaders' + PathDelim + Names[i];
+    try
+      Vertexes[i] := ReadSourceFile(path + '.vsh');
+      Fragments[i] := ReadSourceFile(path + '.fsh');
+    except
+      { the shader is skipped and loaded as usual by the first use }
+      Vertexes[i] := '';
+      Fragments[i] := '';
+      continue;
+    end;
+    BSShaderManager.ProgramCache.Prefetch(Names[i]);
+  end;
+end;
+
+{ TShaderProgramCache }
+
+constructor TShaderProgramCache.Create;
+begin
+  inherited;
+  CS := TCriticalSection.Create;
+  FPrefetched := THashTable<string, TBytes>.Create(@GetHashBlackSharkS, @StrCmpBool);
+  FSupported := -1;
+end;
+
+destructor TShaderProgramCache.Destroy;
+begin
+  FPrefetched.Free;
+  CS.Free;
+  inherited;
+end;
+
+function TShaderProgramCache.CheckSupport: boolean;
+var
+  count: GLint;
+  device: AnsiString;
+begin
+  if FSupported < 0 then
+  begin
+    FSupported := 0;
+    if Assigned(glGetProgramBinaryOES) and Assigned(glProgramBinaryOES) and
+      (Pos(AnsiString('GL_OES_get_program_binary'), GetStringGL(GL_EXTENSIONS)) > 0) then
+    begin
+      count := 0;
+      glGetIntegerv(GL_NUM_PROGRAM_BINARY_FORMATS_OES, @count);
+      if count > 0 then
+      begin
+        device := GetStringGL(GL_VENDOR) + #0 + GetStringGL(GL_RENDERER) + #0 + GetStringGL(GL_VERSION);
+        FDeviceHash := GetHashFNV64(PByte(PAnsiChar(device)), Length(device));
+        FSupported := 1;
+      end;
+    end;
+    {$ifdef DEBUG_BS}
+    BSWriteMsg('TShaderProgramCache.CheckSupport', 'GL_OES_get_program_binary: ' + BoolToStr(FSupported = 1, true));
+    {$endif}
+  end;
+  Result := FSupported = 1;
+end;
+
+function TShaderProgramCache.GetDirectory: string;
+begin
+  { AppPath can be changed after initialization of the unit }
+  if FDirectory = '' then
+    Result := AppPath + PROGRAM_CACHE_DIR + PathDelim
+  else
+    Result := IncludeTrailingPathDelimiter(FDirectory);
+end;
+
+function TShaderProgramCache.GetFileName(const AName: string): string;
+begin
+  Result := GetDirectory + AName + PROGRAM_CACHE_EXT;
+end;
+
+function TShaderProgramCache.ReadFile(const AName: string): TBytes;
+var
+  f: TFileStream;
+  fn: string;
+begin
+  Result := nil;
+  fn := GetFileName(AName);
+  if not FileExists(fn) then
+    exit;
+  try
+    f := TFileStream.Create(fn, fmOpenRead or fmShareDenyWrite);
+    try
+      SetLength(Result, f.Size);
+      if Length(Result) > 0 then
+        f.ReadBuffer(Result[0], Length(Result));
+    finally
+      f.Free;
+    end;
+  except
+    Result := nil;
+  end;
+end;
+
+procedure TShaderProgramCache.Prefetch(const AName: string);
+var
+  data: TBytes;
+begin
+  if not BSConfig.ShaderCache then
+    exit;
+  data := ReadFile(AName);
+  if data = nil then
+    exit;
+  CS.Enter;
+  try
+    FPrefetched.TryAddOrReplace(AName, data);
+  finally
+    CS.Leave;
+  end;
+end;
+
+function TShaderProgramCache.Load(AShader: TBlackSharkShader): boolean;
+var
+  data: TBytes;
+  header: PProgramCacheHeader;
+  status: GLint;
+  t: uint64;
+begin
+  Result := false;
+  if not BSConfig.ShaderCache or not CheckSupport then
+    exit;
+  t := TBTimer.MicroSeconds;
+  CS.Enter;
+  try
+    if FPrefetched.Find(AShader.Name, data) then
+      FPrefetched.Delete(AShader.Name);
+  finally
+    CS.Leave;
+  end;
+  if data = nil then
+    data := ReadFile(AShader.Name);
+
+  if Length(data) < SizeOf(TProgramCacheHeader) then
+  begin
+    inc(FMisses);
+    exit;
+  end;
+
+  header := @data[0];
+  if (header.Signature <> PROGRAM_CACHE_SIGNATURE) or (header.Version <> PROGRAM_CACHE_VERSION) or
+    (header.DeviceHash <> FDeviceHash) or (header.Size <= 0) or
+    (header.Size <> Length(data) - SizeOf(TProgramCacheHeader)) or
+    (header.SourceHash <> GetShaderSourceHash(AShader)) then
+  begin
+    inc(FMisses);
+    exit;
+  end;
+
+  if AShader.FProgramID <> 0 then
+    glDeleteProgram(AShader.FProgramID);
+  AShader.FProgramID := glCreateProgram;
+  glProgramBinaryOES(AShader.FProgramID, header.BinaryFormat, @data[SizeOf(TProgramCacheHeader)], header.Size);
+  status := 0;
+  glGetProgramiv(AShader.FProgramID, GL_LINK_STATUS, @status);
+  if status = 0 then
+  begin
+    { the driver was updated without change of its version, or the format is not
+      supported any more; an error of glProgramBinaryOES is dropped for CheckErrorGL }
+    glGetError;
+    glDeleteProgram(AShader.FProgramID);
+    AShader.FProgramID := 0;
+    inc(FRejected);
+    exit;
+  end;
+
+  inc(FHits);
+  inc(FLoadTime, TBTimer.MicroSeconds - t);
+  Result := true;
+end;
+
+procedure TShaderProgramCache.Save(AShader: TBlackSharkShader);
+var
+  data: TBytes;
+  header: PProgramCacheHeader;
+  len, written: GLint;
+  binary_format: GLenum;
+  f: TFileStream;
+begin
+  if not BSConfig.ShaderCache or (AShader.FProgramID = 0) or not CheckSupport then
+    exit;
+  len := 0;
+  glGetProgramiv(AShader.FProgramID, GL_PROGRAM_BINARY_LENGTH_OES, @len);
+  if len <= 0 then
+    exit;
+  SetLength(data, SizeOf(TProgramCacheHeader) + len);
+  written := 0;
+  binary_format := 0;
+  glGetProgramBinaryOES(AShader.FProgramID, len, @written, @binary_format, @data[SizeOf(TProgramCacheHeader)]);
+  if (written <= 0) or (written > len) then
+    exit;
+
+  header := @data[0];
+  header.Signature := PROGRAM_CACHE_SIGNATURE;
+  header.Version := PROGRAM_CACHE_VERSION;
+  header.SourceHash := GetShaderSourceHash(AShader);
+  header.DeviceHash := FDeviceHash;
+  header.BinaryFormat := binary_format;
+  header.Size := written;
+  try
+    ForceDirectories(GetDirectory);
+    f := TFileStream.Create(GetFileName(AShader.Name), fmCreate);
+    try
+      f.WriteBuffer(data[0], SizeOf(TProgramCacheHeader) + written);
+    finally
+      f.Free;
+    end;
+    inc(FStored);
+  except
+    { the directory can be read-only; then the shaders are simply compiled every time }
+    {$ifdef DEBUG_BS}
+    on e: Exception do
+      BSWriteMsg('TShaderProgramCache.Save', AShader.Name + ': ' + e.Message);
+    {$endif}
+  end;
+end;
+
+procedure TShaderProgramCache.ResetDevice;
+begin
+  FSupported := -1;
+end;
+
+procedure TShaderProgramCache.ResetStatistics;
+begin
+  FHits := 0;
+  FMisses := 0;
+  FRejected := 0;
+  FStored := 0;
+  FLoadTime := 0;
+  FCompileTime := 0;
+end;
+
+procedure TShaderProgramCache.Clear;
+var
+  sr: TSearchRec;
+  dir: string;
+begin
+  CS.Enter;
+  try
+    FPrefetched.Clear;
+  finally
+    CS.Leave;
+  end;
+  dir := GetDirectory;
+  if FindFirst(dir + '*' + PROGRAM_CACHE_EXT, faAnyFile, sr) = 0 then
+  try
+    repeat
+      DeleteFile(dir + sr.Name);
+    until FindNext(sr) <> 0;
+  finally
+    FindClose(sr);
+  end;
+end;
+
+function TShaderProgramCache.Report: string;
+begin
+  Result := Format('programs from cache: %d (%d us), compiled: %d (%d us), rejected: %d, stored: %d',
+    [FHits, FLoadTime, FMisses + FRejected, FCompileTime, FRejected, FStored]);
+end;
+
 procedure CreateVBO(var VBO: GlUInt; Taget: GLInt; Data: Pointer; SizeData: int32; ModeDraw: GLEnum = GL_STATIC_DRAW);
 begin
   if VBO = 0 then
@@ -725,6 +1160,19 @@ begin
   Result := inherited;
 end;
 
+{ TTextFromSDFShader }
+
+class function TTextFromSDFShader.DefaultName: string;
+begin
+  Result := 'TextFromSDF';
+end;
+
+function TTextFromSDFShader.LinkLocations: boolean;
+begin
+  FSmoothing := AddUniform('Smoothing', stFloat, tsFragment);
+  Result := inherited;
+end;
+
 { BSShaderManager }
 
 class procedure BSShaderManager.Add(BSShader: TBlackSharkShader);
@@ -753,10 +1201,41 @@ begin
   Result := Load(AppPath + 'Shaders' + PathDelim + name + '.vsh', AppPath + 'Shaders' + PathDelim + name + '.fsh', AShaderClass, AMVPasUniform);
 end;
 
+class procedure BSShaderManager.Preload(const AShaderClasses: array of TBlackSharkShaderClass);
+var
+  loader: TShaderPreloader;
+  i: int32;
+begin
+  loader := TShaderPreloader.Create;
+  try
+    for i := 0 to High(AShaderClasses) do
+      if (AShaderClasses[i].DefaultName <> '') and not FShadersName.Exists(AShaderClasses[i].DefaultName) then
+        loader.Add(AShaderClasses[i]);
+    if loader.Count = 0 then
+      exit;
+    BSJobs.ParallelFor(loader.Count, loader.OnRead, nil, 1);
+    for i := 0 to loader.Count - 1 do
+    begin
+      if (loader.Vertexes[i] = '') or (loader.Fragments[i] = '') then
+      begin
+        BSWriteMsg('BSShaderManager.Preload', 'Sources of the shader "' + loader.Names[i] + '" are not found');
+        continue;
+      end;
+      Load(loader.Names[i], loader.Vertexes[i], loader.Fragments[i], loader.ShaderClasses[i]);
+    end;
+  finally
+    loader.Free;
+  end;
+  {$ifdef DEBUG_BS}
+  BSWriteMsg('BSShaderManager.Preload', FProgramCache.Report);
+  {$endif}
+end;
+
 class procedure BSShaderManager.Restore;
 var
   bucket: THashTable<string, TBlackSharkShader>.TBucket;
   begin
+  FProgramCache.ResetDevice;
   if FShadersName.GetFirst(bucket) then
   repeat
     bucket.Value.Reset;
@@ -768,6 +1247,7 @@ class procedure BSShaderManager.UseShader(AShader: TBlackSharkShader);
 begin
   if AShader <> FLastUsedShader then
   begin
+    BSFrameStats.IncStateChanges;
     FLastUsedShader := AShader;
     if Assigned(FLastUsedShader) then
       FLastUsedShader.UseProgram
@@ -779,6 +1259,7 @@ end;
 class constructor BSShaderManager.Create;
 begin
   FShadersName := THashTable<string, TBlackSharkShader>.Create(@GetHashBlackSharkS, @StrCmpBool);
+  FProgramCache := TShaderProgramCache.Create;
 end;
 
 class destructor BSShaderManager.Destroy;
@@ -791,6 +1272,7 @@ begin
   until not FShadersName.GetNext(bucket);
 
   FShadersName.Free;
+  FProgramCache.Free;
   inherited;
 end;
 
@@ -813,12 +1295,12 @@ begin
   {$endif}
 
   {$ifdef DEBUG_BS}
-  if not FileExists(AFileNameVertex) then
+  if not FileExistsVFS(AFileNameVertex) then
     BSWriteMsg('BSShaderManager.Load: ', 'A file does not exist: ' + AFileNameVertex);
   {$endif}
 
   {$ifdef DEBUG_BS}
-  if not FileExists(AFileNameFragment) then
+  if not FileExistsVFS(AFileNameFragment) then
     BSWriteMsg('BSShaderManager.Load: ', 'A file does not exist: ' + AFileNameFragment);
   {$endif}
 
@@ -826,10 +1308,10 @@ begin
   msvs := TMemoryStream.Create;
   try
     w := 0;
-    msvs.LoadFromFile(AFileNameVertex);
+    LoadFileVFS(AFileNameVertex, msvs);
     msvs.Position := msvs.Size;
     msvs.WriteBuffer(w, SizeOf(w));
-    msfs.LoadFromFile(AFileNameFragment);
+    LoadFileVFS(AFileNameFragment, msfs);
     msfs.Position := msfs.Size;
     msfs.WriteBuffer(w, SizeOf(w));
     Result := Load(nu8, PAnsiChar(msvs.Memory), PAnsiChar(msfs.Memory), AShaderClass, AMVPasUniform);
@@ -1236,6 +1718,19 @@ end;
   { TBlackSharkShader }
 
 function TBlackSharkShader.LoadShader: boolean;
+var
+  t: uint64;
+begin
+  if BSShaderManager.FProgramCache.Load(Self) then
+    exit(true);
+  t := TBTimer.MicroSeconds;
+  Result := Compile;
+  inc(BSShaderManager.FProgramCache.FCompileTime, TBTimer.MicroSeconds - t);
+  if Result then
+    BSShaderManager.FProgramCache.Save(Self);
+end;
+
+function TBlackSharkShader.Compile: boolean;
 //const
 //  VER_ODOA: AnsiString =
 {$ifdef GLES}
@@ -30,11 +30,16 @@ unit bs.tesselator;
 interface
 
 uses
-    bs.collections
+    syncobjs
+  , bs.collections
   , bs.basetypes
   , bs.geometry
   ;
 
+const
+  { the default size of TTesselationCache in bytes }
+  TESSELATION_CACHE_CAPACITY = 4*1024*1024;
+
 type
 
   TContour = record
@@ -134,7 +139,57 @@ type
       ErrorEdges: TListVec<TEdge> = nil): int32;
   end;
 
+  PTesselationCacheEntry = ^TTesselationCacheEntry;
+  TTesselationCacheEntry = record
+    Key: int64;
+    Indexes: array of BSShort;
+    Errors: int32;
+    LastUsed: int64;
+  end;
+
+  { TTesselationCache
+
+    keeps triangulated groups of contours (TContour.Group) by a hash of their
+    content; groups do not interact in TBlackSharkTesselator.Triangulate,
+    therefore they are triangulated separately, and a changed shape is
+    triangulated again only for its changed groups; the least recently used
+    results are evicted when the size exceeds Capacity; the methods are
+    thread-safe }
+
+  TTesselationCache = class
+  private
+    FItems: THashTable<int64, PTesselationCacheEntry>;
+    CS: TCriticalSection;
+    FTick: int64;
+    FSize: int64;
+    FCapacity: int64;
+    FHits: int64;
+    FMisses: int64;
+    function TryGet(AKey: int64; const AMap: array of int32;
+      var OutListIndexes: TBlackSharkTesselator.TListIndexes.TSingleListHead; out AErrors: int32): boolean;
+    procedure Add(AKey: int64; const AIndexes: TBlackSharkTesselator.TListIndexes.TSingleListHead; AErrors: int32);
+    procedure Evict(ASize: int64);
+    procedure SetCapacity(const Value: int64);
+  public
+    constructor Create(ACapacity: int64 = TESSELATION_CACHE_CAPACITY);
+    destructor Destroy; override;
+    { does the same as ATesselator.Triangulate, but the groups of contours found
+      in the cache are not triangulated; ATesselator must not be shared with
+      other threads }
+    function Triangulate(ATesselator: TBlackSharkTesselator;
+      const ListPoints: TBlackSharkTesselator.TListPoints.TSingleListHead;
+      const ListContours: TBlackSharkTesselator.TListContours.TSingleListHead;
+      var OutListIndexes: TBlackSharkTesselator.TListIndexes.TSingleListHead): int32;
+    procedure Clear;
+    { in bytes }
+    property Capacity: int64 read FCapacity write SetCapacity;
+    property Size: int64 read FSize;
+    property Hits: int64 read FHits;
+    property Misses: int64 read FMisses;
+  end;
+
 function Tesselator: TBlackSharkTesselator;
+function TesselationCache: TTesselationCache;
 
 implementation
 
@@ -142,6 +197,7 @@ implementation
 
 var
   BSTesselator: TBlackSharkTesselator = nil;
+  BSTesselationCache: TTesselationCache = nil;
 
 function Tesselator: TBlackSharkTesselator;
 begin
@@ -150,6 +206,11 @@ begin
   Result := BSTesselator;
 end;
 
+function TesselationCache: TTesselationCache;
+begin
+  Result := BSTesselationCache;
+end;
+
 ////////////////////////////////////////////////////////////////////////
 // CircumCircle() :
 //   Return true if a point (xp,yp) is inside the circumcircle made up
@@ -892,11 +953,226 @@ begin
   end;
 end;
 
+{ TTesselationCache }
+
+function LastUsedCmp(const Item1, Item2: Pointer): int8;
+begin
+  if PTesselationCacheEntry(Item1).LastUsed < PTesselationCacheEntry(Item2).LastUsed then
+    Result := -1
+  else
+  if PTesselationCacheEntry(Item1).LastUsed > PTesselationCacheEntry(Item2).LastUsed then
+    Result := 1
+  else
+    Result := 0;
+end;
+
+constructor TTesselationCache.Create(ACapacity: int64);
+begin
+  FCapacity := ACapacity;
+  FItems := THashTable<int64, PTesselationCacheEntry>.Create(@GetHashBlackSharkInt64, @Int64cmpEqual);
+  CS := TCriticalSection.Create;
+end;
+
+destructor TTesselationCache.Destroy;
+begin
+  Clear;
+  FItems.Free;
+  CS.Free;
+  inherited;
+end;
+
+procedure TTesselationCache.Clear;
+var
+  bucket: THashTable<int64, PTesselationCacheEntry>.TBucket;
+begin
+  CS.Enter;
+  try
+    if FItems.GetFirst(bucket) then
+    repeat
+      Dispose(bucket.Value);
+    until not FItems.GetNext(bucket);
+    FItems.Clear;
+    FSize := 0;
+  finally
+    CS.Leave;
+  end;
+end;
+
+procedure TTesselationCache.SetCapacity(const Value: int64);
+begin
+  CS.Enter;
+  try
+    FCapacity := Value;
+    if FSize > FCapacity then
+      Evict(FSize - FCapacity);
+  finally
+    CS.Leave;
+  end;
+end;
+
+function TTesselationCache.TryGet(AKey: int64; const AMap: array of int32;
+  var OutListIndexes: TBlackSharkTesselator.TListIndexes.TSingleListHead; out AErrors: int32): boolean;
+var
+  entry: PTesselationCacheEntry;
+  i: int32;
+begin
+  AErrors := 0;
+  CS.Enter;
+  try
+    Result := FItems.Find(AKey, entry);
+    if not Result then
+      exit;
+    inc(FHits);
+    inc(FTick);
+    entry.LastUsed := FTick;
+    AErrors := entry.Errors;
+    { the indexes are copied under the lock, because other thread can evict the entry }
+    TBlackSharkTesselator.TListIndexes.CheckCapacity(OutListIndexes, OutListIndexes.Count + Length(entry.Indexes));
+    for i := 0 to Length(entry.Indexes) - 1 do
+      TBlackSharkTesselator.TListIndexes.Add(OutListIndexes, BSShort(AMap[entry.Indexes[i]]));
+  finally
+    CS.Leave;
+  end;
+end;
+
+procedure TTesselationCache.Add(AKey: int64; const AIndexes: TBlackSharkTesselator.TListIndexes.TSingleListHead; AErrors: int32);
+var
+  entry: PTesselationCacheEntry;
+begin
+  New(entry);
+  entry.Key := AKey;
+  entry.Errors := AErrors;
+  SetLength(entry.Indexes, AIndexes.Count);
+  if AIndexes.Count > 0 then
+    move(AIndexes.Items[0], entry.Indexes[0], AIndexes.Count * SizeOf(BSShort));
+  CS.Enter;
+  try
+    inc(FMisses);
+    { the same group could be triangulated by other thread at the same time }
+    if not FItems.TryAdd(AKey, entry) then
+    begin
+      Dispose(entry);
+      exit;
+    end;
+    inc(FTick);
+    entry.LastUsed := FTick;
+    inc(FSize, SizeOf(TTesselationCacheEntry) + AIndexes.Count * SizeOf(BSShort));
+    if FSize > FCapacity then
+      { frees a quarter more than needed, so the next groups do not evict again }
+      Evict(FSize - FCapacity + FCapacity shr 2);
+  finally
+    CS.Leave;
+  end;
+end;
+
+procedure TTesselationCache.Evict(ASize: int64);
+var
+  candidates: TListVec<Pointer>;
+  bucket: THashTable<int64, PTesselationCacheEntry>.TBucket;
+  entry: PTesselationCacheEntry;
+  i: int32;
+  size: int64;
+begin
+  candidates := TListVec<Pointer>.Create(@LastUsedCmp);
+  try
+    if FItems.GetFirst(bucket) then
+    repeat
+      candidates.Add(bucket.Value);
+    until not FItems.GetNext(bucket);
+
+    candidates.Sort;
+    i := 0;
+    while (ASize > 0) and (i < candidates.Count) do
+    begin
+      entry := candidates.Items[i];
+      size := SizeOf(TTesselationCacheEntry) + Length(entry.Indexes) * SizeOf(BSShort);
+      dec(ASize, size);
+      dec(FSize, size);
+      FItems.Delete(entry.Key);
+      Dispose(entry);
+      inc(i);
+    end;
+  finally
+    candidates.Free;
+  end;
+end;
+
+function TTesselationCache.Triangulate(ATesselator: TBlackSharkTesselator;
+  const ListPoints: TBlackSharkTesselator.TListPoints.TSingleListHead;
+  const ListContours: TBlackSharkTesselator.TListContours.TSingleListHead;
+  var OutListIndexes: TBlackSharkTesselator.TListIndexes.TSingleListHead): int32;
+var
+  done: array[int8] of boolean;
+  group: int8;
+  i, j, k: int32;
+  points: TBlackSharkTesselator.TListPoints.TSingleListHead;
+  contours: TBlackSharkTesselator.TListContours.TSingleListHead;
+  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
+  { the index of a point of the group in ListPoints }
+  map: array of int32;
+  contour: TContour;
+  key: uint64;
+  errors: int32;
+begin
+  Result := 0;
+  if ListPoints.Count < 3 then
+    exit;
+  FillChar(done{%H-}, SizeOf(done), 0);
+  TBlackSharkTesselator.TListPoints.Create(points{%H-}, ListPoints.Count);
+  TBlackSharkTesselator.TListContours.Create(contours{%H-}, ListContours.Count);
+  TBlackSharkTesselator.TListIndexes.Create(indexes{%H-}, 64);
+  SetLength(map, ListPoints.Count);
+  for i := 0 to ListContours.Count - 1 do
+  begin
+    group := ListContours.Items[i].Group;
+    if done[group] then
+      continue;
+    done[group] := true;
+
+    points.Count := 0;
+    contours.Count := 0;
+    key := FNV64_OFFSET_BASIS;
+    for j := i to ListContours.Count - 1 do
+    begin
+      if ListContours.Items[j].Group <> group then
+        continue;
+      contour := ListContours.Items[j];
+      for k := 0 to contour.CountPoints - 1 do
+      begin
+        map[points.Count] := contour.PointIndexBegin + k;
+        TBlackSharkTesselator.TListPoints.Add(points, ListPoints.Items[contour.PointIndexBegin + k]);
+      end;
+      contour.PointIndexBegin := points.Count - contour.CountPoints;
+      TBlackSharkTesselator.TListContours.Add(contours, contour);
+      key := GetHashFNV64(@contour.CountPoints, SizeOf(contour.CountPoints), key);
+    end;
+
+    if points.Count < 3 then
+      continue;
+
+    key := GetHashFNV64(@points.Items[0], points.Count * SizeOf(TVec3f), key);
+    if TryGet(int64(key), map, OutListIndexes, errors) then
+    begin
+      inc(Result, errors);
+      continue;
+    end;
+
+    indexes.Count := 0;
+    errors := ATesselator.Triangulate(points, contours, indexes);
+    inc(Result, errors);
+    for k := 0 to indexes.Count - 1 do
+      TBlackSharkTesselator.TListIndexes.Add(OutListIndexes, BSShort(map[indexes.Items[k]]));
+    Add(int64(key), indexes, errors);
+  end;
+end;
+
 initialization
+  BSTesselationCache := TTesselationCache.Create;
 
 finalization
   if BSTesselator <> nil then
     BSTesselator.Free;
+  BSTesselationCache.Free;
 
 end.
 
@@ -49,12 +49,21 @@ type
     CountChars: int32;
     { blanks in lines b/w words }
     InsideBlanks: int32;
+    { the first char of the line; lines after an edit may keep it without the
+      pending shift of TTextProcessor, so read it through TTextProcessor.LineBegin }
     IndexBegin: int32;
   end;
 
   TSelectorKey = function (Index: int32; out Code: int32): PKeyInfo of object;
   TQueryAverageWidth = function (Index: int32): BSFloat of object;
 
+  { TTextProcessor
+    calculates lines of a text; the text itself belongs to an owner and is read
+    through OnQueryKey; a line broken by CR begins from the CR, so layout after it
+    doesn't depend on the previous text, therefore a change of the text relays out
+    only paragraphs from the paragraph containing the change until the first CR
+    which begins an old line }
+
   TTextProcessor = class
   private
     FDelta: int8;
@@ -65,6 +74,12 @@ type
     FillCount: int32;
     RectSize: TVec2f;
     FLines: TListVec<TLineProp>;
+    { lines of the last relayout; they replace a range of FLines }
+    FNewLines: TListVec<TLineProp>;
+    { IndexBegin of lines from FShiftLine is stored without FShiftDelta, so an edit
+      changes only the pending shift instead of every next line }
+    FShiftLine: int32;
+    FShiftDelta: int32;
     FAllowBrakeWords: boolean;
     FOnQueryKey: TSelectorKey;
     FCountChars: int32;
@@ -76,11 +91,30 @@ type
     procedure SetAllowBrakeWords(const Value: boolean);
     procedure SetCountChars(const Value: int32);
     procedure SetLineHeight(const Value: int32);
+    function GetLineBegin(Index: int32): int32; inline;
+    { adds the pending shift to lines [FShiftLine, ToLine) }
+    procedure ApplyShift(ToLine: int32);
+    { the first line of a paragraph containing the char before Position }
+    function GetParagraphLine(Position: int32): int32;
+    { a line from FromLine which begins from IndexBegin, or -1 }
+    function FindLine(FromLine, IndexBegin: int32): int32;
+    { lays out the text from the paragraph containing Position; if Resync then stops
+      on a paragraph which begins after Position + CountInserted and coincides with
+      an old one shifted on DeltaChars }
+    procedure Relayout(Position, CountInserted, DeltaChars: int32; Resync: boolean);
+    { replaces lines [FromLine, ToLine) by FNewLines and shifts the next lines;
+      the shift is pending, so only lines b/w the edit and the previous one are
+      touched }
+    procedure ReplaceLines(FromLine, ToLine, DeltaChars: int32);
   public
     constructor Create(AKeySelector: TSelectorKey; AQueryAverageWidth: TQueryAverageWidth);
     destructor Destroy; override;
+    { lays out lines from the paragraph containing PositionBegin to the end of the text }
     procedure Build(PositionBegin: int32 = 1);
     procedure Add;
+    { the text was changed: CountDeleted chars from Position were replaced by
+      CountInserted chars; only changed paragraphs are laid out again }
+    procedure TextChanged(Position, CountDeleted, CountInserted: int32);
     procedure BeginFill;
     procedure EndFill;
     function GetCharWidth(Key: PKeyInfo): int32;
@@ -101,6 +135,8 @@ type
     property OnQueryAverageWidthForCurrentPos: TQueryAverageWidth read FOnQueryAverageWidthForCurrentPos write FOnQueryAverageWidthForCurrentPos;
     property LineHeight: int32 read FLineHeight write SetLineHeight;
     property Lines: TListVec<TLineProp> read FLines;
+    { the first char of a line with the pending shift }
+    property LineBegin[Index: int32]: int32 read GetLineBegin;
   end;
 
 implementation
@@ -122,7 +158,18 @@ procedure TTextProcessor.Add;
 begin
   inc(FCountChars);
   if FillCount = 0 then
-    Build(FCountChars);
+    Relayout(FCountChars, 0, 0, false);
+end;
+
+procedure TTextProcessor.ApplyShift(ToLine: int32);
+var
+  i: int32;
+begin
+  for i := FShiftLine to ToLine - 1 do
+    inc(FLines.Data^[i].IndexBegin, FShiftDelta);
+  if ToLine >= FLines.Count then
+    FShiftDelta := 0;
+  FShiftLine := ToLine;
 end;
 
 procedure TTextProcessor.BeginFill;
@@ -131,6 +178,67 @@ begin
 end;
 
 procedure TTextProcessor.Build(PositionBegin: int32 = 1);
+begin
+  Relayout(PositionBegin, 0, 0, false);
+end;
+
+procedure TTextProcessor.TextChanged(Position, CountDeleted, CountInserted: int32);
+begin
+  inc(FCountChars, CountInserted - CountDeleted);
+  if FillCount = 0 then
+    Relayout(Position, CountInserted, CountInserted - CountDeleted, true);
+end;
+
+function TTextProcessor.GetParagraphLine(Position: int32): int32;
+var
+  l, r, m: int32;
+  code: int32;
+begin
+  { the last line beginning before Position; a line beginning from Position is
+    not suitable because the CR beginning it may be changed }
+  l := 0;
+  r := FLines.Count - 1;
+  Result := 0;
+  while l <= r do
+  begin
+    m := (l + r) shr 1;
+    if GetLineBegin(m) < Position then
+    begin
+      Result := m;
+      l := m + 1;
+    end else
+      r := m - 1;
+  end;
+  while Result > 0 do
+  begin
+    FOnQueryKey(GetLineBegin(Result), code);
+    if code = $0d then
+      break;
+    dec(Result);
+  end;
+end;
+
+function TTextProcessor.FindLine(FromLine, IndexBegin: int32): int32;
+var
+  l, r, m: int32;
+begin
+  l := FromLine;
+  r := FLines.Count - 1;
+  while l <= r do
+  begin
+    m := (l + r) shr 1;
+    if GetLineBegin(m) < IndexBegin then
+      l := m + 1
+    else
+    if GetLineBegin(m) > IndexBegin then
+      r := m - 1
+    else
+      exit(m);
+  end;
+  Result := -1;
+end;
+
+procedure TTextProcessor.Relayout(Position, CountInserted, DeltaChars: int32; Resync: boolean);
 var
   i: int32;
   { chars in current a word }
@@ -147,51 +255,51 @@ var
   word_reads: boolean;
   code: int32;
   avr_width_ch: BSFloat;
+  from_line: int32;
+  to_line: int32;
+  sync_from: int32;
+  sync_line: int32;
 begin
   if (FAlignText <> TObjectAlign.oaLeft) and (RectSize.x > 0) then
     out_width := RectSize.x
   else
     out_width := MaxSingle;
+
+  if (Position > 1) and (FLines.Count > 0) then
+    from_line := GetParagraphLine(Position)
+  else
+    from_line := 0;
+
   prop.Width := 0.0;
   prop.Height := 0.0;
-  prop.CountChars := 0;
   prop.CountBlanks := 0;
   prop.InsideBlanks := 0;
-  prop.IndexBegin := PositionBegin;
-  word_width := 0.0;
-  chars := 0;
-  blanks_befor_word := 0;
-  first_word := true;
-  word_reads := false;
-  FWidth := 0;
-  FHeight := 0;
-
-  if PositionBegin > 1 then
+  if from_line = 0 then
   begin
-    for i := 1 to FLines.Count - 1 do
-    begin
-      if PositionBegin <= FLines.Items[i].IndexBegin then
-      begin
-        FLines.Count := i - 1;
-        if FLines.Count > 0 then
-          PositionBegin := FLines.Items[FLines.Count - 1].IndexBegin
-        else
-          PositionBegin := 0;
-        break;
-      end;
-      if FLines.Items[i].Width > FWidth then
-        FWidth := FLines.Items[i].Width;
-    end;
+    { the whole text }
+    prop.CountChars := 0;
+    prop.IndexBegin := 1;
+    first_word := true;
   end else
   begin
-    FLines.Count := 0;
+    { continues just after a break by the CR beginning the paragraph }
+    prop.CountChars := 1;
+    prop.IndexBegin := GetLineBegin(from_line);
+    first_word := false;
   end;
-  prop.IndexBegin := PositionBegin;
+
+  to_line := FLines.Count;
+  sync_from := Position + CountInserted;
+  word_width := 0.0;
+  chars := 0;
+  blanks_befor_word := 0;
+  word_reads := false;
+  FNewLines.Count := 0;
   { it sets var "add" and "sum_width" to avoid warning }
   //add := 0.0;
   //sum_width := 0.0;
-  avr_width_ch := FOnQueryAverageWidthForCurrentPos(PositionBegin);
-  for i := PositionBegin to FCountChars do
+  avr_width_ch := FOnQueryAverageWidthForCurrentPos(prop.IndexBegin);
+  for i := prop.IndexBegin + prop.CountChars to FCountChars do
   begin
     inc(prop.CountChars);
     KeyInfo := FOnQueryKey(i, code); //FMap.Items[i];
@@ -251,12 +359,7 @@ begin
     begin
       if FAllowBrakeWords or (code = $0d) or (code = $20) or (code = $09) then
       begin
-        if prop.Width > FWidth then
-          FWidth := prop.Width;
-        if FLineHeight = 0 then
-          FHeight := FHeight + prop.Height + FInterligne;
-
-        FLines.Add(prop);
+        FNewLines.Add(prop);
         prop.Width := 0.0;
         prop.Height := 0.0;
         prop.CountChars := 1;
@@ -264,18 +367,24 @@ begin
         chars := 0;
         word_width := 0.0;
         word_reads := false;
+        { the rest of the text is laid out the same way as before the change }
+        if Resync and (code = $0d) and (i >= sync_from) then
+        begin
+          sync_line := FindLine(from_line, i - DeltaChars);
+          if sync_line >= 0 then
+          begin
+            to_line := sync_line;
+            break;
+          end;
+        end;
       end else
       //if word_width + add < out_width then
       begin // roll back on one word
         dec(prop.CountChars, chars);
         prop.Width := prop.Width - word_width;
-        if prop.Width > FWidth then
-          FWidth := prop.Width;
-        if FLineHeight = 0 then
-          FHeight := FHeight + prop.Height + FInterligne;
 
         if (prop.CountChars > 0) and (prop.Width > 0) then
-          FLines.Add(prop);
+          FNewLines.Add(prop);
 
         prop.IndexBegin := i - chars + 1;
         prop.Width := word_width;
@@ -289,18 +398,90 @@ begin
     end;
   end;
 
+  { after a break "prop" is empty }
   if prop.Width > 0 then
+    FNewLines.Add(prop);
+
+  ReplaceLines(from_line, to_line, DeltaChars);
+end;
+
+procedure TTextProcessor.ReplaceLines(FromLine, ToLine, DeltaChars: int32);
+var
+  i: int32;
+  count_new: int32;
+  count_tail: int32;
+  height_new: BSFloat;
+  width_new: BSFloat;
+  width_lost: boolean;
+begin
+  count_new := FNewLines.Count;
+  count_tail := FLines.Count - ToLine;
+  width_lost := false;
+
+  { the pending shift must not cover the replaced lines }
+  if (FShiftDelta <> 0) and (FShiftLine < ToLine) then
+    ApplyShift(ToLine);
+
+  if (FromLine = 0) and (count_tail = 0) then
+  begin
+    { the whole text }
+    FWidth := 0.0;
+    FHeight := 0.0;
+  end else
+    for i := FromLine to ToLine - 1 do
+    begin
+      FHeight := FHeight - FLines.Data^[i].Height - FInterligne;
+      if FLines.Data^[i].Width >= FWidth then
+        width_lost := true;
+    end;
+
+  if count_new > ToLine - FromLine then
+    FLines.Count := FromLine + count_new + count_tail;
+  if (count_tail > 0) and (count_new <> ToLine - FromLine) then
+    move(FLines.Data^[ToLine], FLines.Data^[FromLine + count_new], count_tail * SizeOf(TLineProp));
+  if count_new < ToLine - FromLine then
+    FLines.Count := FromLine + count_new + count_tail;
+  { the tail was moved together with the pending shift }
+  inc(FShiftLine, count_new - (ToLine - FromLine));
+
+  width_new := 0.0;
+  height_new := 0.0;
+  for i := 0 to count_new - 1 do
   begin
-    if prop.Width > FWidth then
-      FWidth := prop.Width;
-    if FLineHeight = 0 then
-      FHeight := FHeight + prop.Height + FInterligne;
-    FLines.Add(prop);
+    FLines.Data^[FromLine + i] := FNewLines.Data^[i];
+    height_new := height_new + FNewLines.Data^[i].Height + FInterligne;
+    if FNewLines.Data^[i].Width > width_new then
+      width_new := FNewLines.Data^[i].Width;
   end;
 
-  if FLineHeight > 0 then
-    FHeight := FLines.Count * (FLineHeight + FInterligne);
+  if DeltaChars <> 0 then
+  begin
+    if FShiftDelta = 0 then
+      FShiftLine := FromLine + count_new
+    else
+      { the lines b/w the edit and the pending shift get the delta at once, so
+        typing in one place doesn't touch other lines }
+      for i := FromLine + count_new to FShiftLine - 1 do
+        inc(FLines.Data^[i].IndexBegin, DeltaChars);
+    inc(FShiftDelta, DeltaChars);
+  end;
+
+  if width_new >= FWidth then
+    FWidth := width_new
+  else
+  if width_lost then
+  begin
+    { the widest line could be replaced, so looks for the new one }
+    FWidth := 0.0;
+    for i := 0 to FLines.Count - 1 do
+      if FLines.Data^[i].Width > FWidth then
+        FWidth := FLines.Data^[i].Width;
+  end;
 
+  if FLineHeight > 0 then
+    FHeight := FLines.Count * (FLineHeight + FInterligne)
+  else
+    FHeight := FHeight + height_new;
 end;
 
 constructor TTextProcessor.Create(AKeySelector: TSelectorKey; AQueryAverageWidth: TQueryAverageWidth);
@@ -312,10 +493,12 @@ begin
   FOnQueryKey := AKeySelector;
   FOnQueryAverageWidthForCurrentPos := AQueryAverageWidth;
   FLines := TListVec<TLineProp>.Create;
+  FNewLines := TListVec<TLineProp>.Create;
 end;
 
 destructor TTextProcessor.Destroy;
 begin
+  FNewLines.Free;
   FLines.Free;
   inherited;
 end;
@@ -340,17 +523,34 @@ begin
     Result := round(Key.Rect.Width) + Delta;
 end;
 
+function TTextProcessor.GetLineBegin(Index: int32): int32;
+begin
+  Result := FLines.Data^[Index].IndexBegin;
+  if Index >= FShiftLine then
+    inc(Result, FShiftDelta);
+end;
+
 function TTextProcessor.GetIndexLineFromIndexChar(IndexChar: int32): int32;
 var
-  l: PLineProp;
+  l, r, m: int32;
 begin
-
-  for Result := 0 to FLines.Count - 1 do
+  { ends of lines grow, so a binary search of the first line ending after IndexChar }
+  l := 0;
+  r := FLines.Count - 1;
+  Result := -1;
+  while l <= r do
+  begin
+    m := (l + r) shr 1;
+    if IndexChar < GetLineBegin(m) + FLines.Data^[m].CountChars then
     begin
-    l := FLines.ShiftData[Result];
-    if (IndexChar < l.IndexBegin + l.CountChars) then
-      exit;
-    end;
+      Result := m;
+      r := m - 1;
+    end else
+      l := m + 1;
+  end;
+
+  if Result >= 0 then
+    exit;
 
   if FLines.Count > 0 then
     Result := 0
@@ -371,6 +571,8 @@ end;
 
 procedure TTextProcessor.SetAlignText(const Value: TObjectAlign);
 begin
+  if FAlignText = Value then
+    exit;
   FAlignText := Value;
   if FillCount = 0 then
     Build(1);
@@ -378,6 +580,8 @@ end;
 
 procedure TTextProcessor.SetAllowBrakeWords(const Value: boolean);
 begin
+  if FAllowBrakeWords = Value then
+    exit;
   FAllowBrakeWords := Value;
   if FillCount = 0 then
     Build(1);
@@ -392,6 +596,8 @@ end;
 
 procedure TTextProcessor.SetDelta(const Value: int8);
 begin
+  if FDelta = Value then
+    exit;
   FDelta := Value;
   if FillCount = 0 then
     Build(1);
@@ -399,6 +605,8 @@ end;
 
 procedure TTextProcessor.SetInterligne(const Value: int16);
 begin
+  if FInterligne = Value then
+    exit;
   FInterligne := Value;
   if FillCount = 0 then
     Build(1);
@@ -413,8 +621,11 @@ end;
 
 procedure TTextProcessor.SetOutRect(Width, Height: BSFloat);
 begin
-  RectSize.x := Width;
   RectSize.y := Height;
+  { only the width limits lines }
+  if RectSize.x = Width then
+    exit;
+  RectSize.x := Width;
   if FillCount = 0 then
     Build(1);
 end;
@@ -41,6 +41,7 @@ uses
   , bs.basetypes
   , bs.geometry
   , bs.collections
+  , bs.events
   ;
 
 const
@@ -48,6 +49,12 @@ const
   (
     0, 0, 0, GL_ALPHA, 2, 2, GL_RGBA, GL_RGBA, 0
   );
+  COMPRESSED_FORMAT_TO_GL: array[TBSCompressedFormat] of GLenum =
+  (
+    GL_COMPRESSED_RGBA_S3TC_DXT1_EXT, GL_COMPRESSED_RGBA_S3TC_DXT3_EXT, GL_COMPRESSED_RGBA_S3TC_DXT5_EXT,
+    GL_ETC1_RGB8_OES, GL_COMPRESSED_RGB8_ETC2, GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2,
+    GL_COMPRESSED_RGBA8_ETC2_EAC
+  );
 type
 
   TTextureRect = record
@@ -136,8 +143,31 @@ type
     FPicture: TBlackSharkPicture;
     UpdateCount: int32;
     FTagPtr: Pointer;
+    FLoading: boolean;
+    { TTextureLoadTask while the texture is decoded and uploaded in background }
+    FLoadTask: TObject;
+    FEventLoaded: IBEmptyEvent;
+    { BSTextureManager.Frame when the texture was bound last time }
+    FLastUsedFrame: uint32;
+    { bytes occupied in GPU memory }
+    FResidentSize: int64;
+    { the texture has been deleted from GPU by BSTextureManager and will be
+      loaded again by UseTexture }
+    FEvicted: boolean;
+    { the source for reloading when the raw data have been freed }
+    FFileName: string;
     procedure SetMipMap(AValue: boolean);
     procedure CalcArea; inline;
+    procedure SetParametersGL;
+    procedure SetResidentSize(const AValue: int64);
+    function CalcResidentSize: int64;
+    function CanEvict: boolean;
+    procedure Evict;
+    procedure Reload;
+    function GetEventLoaded: IBEmptyEvent;
+    { replaces the placeholder by the picture and the texture uploaded by
+      TTextureLoadTask }
+    procedure DoLoaded(APicture: TBlackSharkPicture; AProgramID: GLuint);
   protected
     ListFrames: TListVec<PTextureArea>;
     {$ifdef FPC}
@@ -218,6 +248,15 @@ type
     property InternalFormat: GLint read GetInternalFormat;
     property TagPtr: Pointer read FTagPtr write FTagPtr;
     property References: int32 read FRefCounter;
+    { the texture was created by BSTextureManager.LoadTextureAsync and still
+      contains the placeholder }
+    property Loading: boolean read FLoading;
+    { it is sent with the texture as Instance when the picture has been decoded
+      and uploaded to GPU by BSTextureManager.LoadTextureAsync }
+    property EventLoaded: IBEmptyEvent read GetEventLoaded;
+    property LastUsedFrame: uint32 read FLastUsedFrame;
+    property ResidentSize: int64 read FResidentSize;
+    property Evicted: boolean read FEvicted;
   end;
 
   { TBlackSharkTextureGradient }
@@ -295,6 +334,22 @@ type
     Shininess: BSFloat; // Factor shine
   end;
 
+  { see BSTextureManager.ResidencyStats }
+
+  TTextureResidencyStats = record
+    Textures: int32;
+    { textures loaded to GPU }
+    Resident: int32;
+    { textures deleted from GPU and waiting for use }
+    Evicted: int32;
+    ResidentBytes: int64;
+    BudgetBytes: int64;
+    { since the start }
+    Evictions: int64;
+    EvictedBytes: int64;
+    Reloads: int64;
+  end;
+
   { BSTextureManager
 
     To outside gives only PTextureArea or IBlackSharkTexture with auto
@@ -330,6 +385,17 @@ type
 
     class var LastTexture: IBlackSharkTexture;
 
+    class var FFrame: uint32;
+    { textures used since the frame are visible and are not evicted }
+    class var FVisibleFrame: uint32;
+    class var FResidentSize: int64;
+    class var FEvictions: int64;
+    class var FEvictedSize: int64;
+    class var FReloads: int64;
+    class var FCompressedFormats: array of GLint;
+    class var FCompressedFormatsLoaded: boolean;
+    class procedure EvictTextures(ABytes: int64);
+
     class function CreatePictureMap(ATrilinearFilter: boolean): TBlackSharkTextureMap;
     class function CreateGragientMap(ATrilinearFilter: boolean): TBlackSharkTextureMap;
     //class function CreateColorMap: TBlackSharkTexturePalette;
@@ -410,6 +476,14 @@ type
       InsertTexToMap: boolean = false; ATrilinearFilter: boolean = true;
       LoadToGPU: boolean = true): PTextureArea; overload;
 
+    { returns at once the area of a single texture containing a placeholder 1x1;
+      the file is decoded on a worker of BSJobs and uploaded to GPU by slices
+      in GUIThread within BSConfig.TextureUploadBudget per frame; when the
+      texture is ready the size of the area changes and
+      TBlackSharkTexture.EventLoaded is sent (see also TBlackSharkTexture.Loading) }
+    class function LoadTextureAsync(const FileName: string;
+      ATrilinearFilter: boolean = true): PTextureArea;
+
     { TODO : Load Normal Map }
     class function LoadTexture(const {%H-}FileName, {%H-}FileNameNormals: string;
       {%H-}ATrilinearFilter: boolean = true): PTextureArea; overload;
@@ -420,6 +494,18 @@ type
 
     class procedure UseTexture(const ATexture: IBlackSharkTexture; ID: int32 = 0);
     class procedure AreaFree(var Area: PTextureArea);
+
+    { it must be invoked after every frame by the thread owning GL context;
+      deletes from GPU least recently used textures if BSConfig.TextureMemoryBudget
+      is exceeded }
+    class procedure EndFrame;
+    { a renderer drawing only damaged regions passes the frame of its last full
+      redraw: textures of instances not redrawn since then were not bound, but
+      they are still visible; it must be invoked every frame before EndFrame }
+    class procedure KeepVisibleSince(AFrame: uint32);
+    class function ResidencyStats: TTextureResidencyStats;
+    { the GL context reports AFormat in GL_COMPRESSED_TEXTURE_FORMATS }
+    class function CompressedFormatSupported(AFormat: TBSCompressedFormat): boolean;
     //procedure AreaExchange(const AreaNew: PTextureArea; var AreaOld: PTextureArea);
 
     class property UseTextureMaps: boolean read FUseTextureMaps write FUseTextureMaps;
@@ -428,6 +514,9 @@ type
     class property HeightTextuteMap: int32 read FHeightTextuteMap write FHeightTextuteMap;
     class property CountTextures: int32 read GetCountTextures;
     class property TexturesSize: int32 read GetTexturesSize;
+    { bytes of all textures in GPU memory }
+    class property ResidentSize: int64 read FResidentSize;
+    class property Frame: uint32 read FFrame;
   end;
 
 implementation
@@ -437,8 +526,263 @@ uses
   , bs.utils
   , bs.math
   , bs.strings
+  , bs.vfs
+  , bs.frame.stats
+  , bs.thread
+  , bs.jobs
+  , bs.config
   ;
 
+const
+  { amount of bytes uploaded by one glTexSubImage2D }
+  TEXTURE_UPLOAD_SLICE = 256*1024;
+
+type
+
+  { TTextureLoadTask
+
+    the state of a texture loaded by BSTextureManager.LoadTextureAsync: the
+    picture is decoded in OnDecode on a worker, then the task is uploaded by
+    slices of rows in GUIThread; if the texture is deleted before that, Texture
+    is set to nil and the task only frees own resources }
+
+  TTextureLoadTask = class
+  public
+    Texture: TBlackSharkTexture;
+    Stream: TStream;
+    Ext: AnsiString;
+    Picture: TBlackSharkPicture;
+    Error: string;
+    ProgramID: GLuint;
+    { the next row for upload }
+    Row: int32;
+    destructor Destroy; override;
+    { a worker context }
+    procedure OnDecode({%H-}AData: Pointer);
+    { GUIThread context }
+    procedure OnDecoded({%H-}AData: Pointer);
+    { uploads rows while TBTimer.MicroSeconds < ADeadline; returns true when
+      the whole picture has been uploaded }
+    function Upload(ADeadline: uint64): boolean;
+  end;
+
+  { TTextureUploader
+
+    the queue of decoded textures waiting for upload to GPU in GUIThread }
+
+  TTextureUploader = class
+  private
+    FTasks: TListVec<TTextureLoadTask>;
+    FRegistered: boolean;
+    function ProcessUploads: boolean;
+  public
+    constructor Create;
+    destructor Destroy; override;
+    procedure Add(ATask: TTextureLoadTask);
+    { a new context: names of textures uploaded partly belong to the lost one,
+      so the tasks begin the upload again }
+    procedure Restore;
+  end;
+
+var
+  TextureUploader: TTextureUploader;
+
+procedure UploadCompressed(APicture: TBlackSharkCompressedPicture);
+var
+  i: int32;
+  level: TCompressedLevel;
+begin
+  for i := 0 to APicture.CountLevels - 1 do
+  begin
+    level := APicture.Levels[i];
+    glCompressedTexImage2D(GL_TEXTURE_2D, i, COMPRESSED_FORMAT_TO_GL[APicture.Format], level.Width, level.Height,
+      0, level.Size, APicture.LevelData[i]);
+  end;
+end;
+
+function LastUsedCmp(const Item1, Item2: Pointer): int8;
+begin
+  if TBlackSharkTexture(Item1).FLastUsedFrame < TBlackSharkTexture(Item2).FLastUsedFrame then
+    Result := -1
+  else
+  if TBlackSharkTexture(Item1).FLastUsedFrame > TBlackSharkTexture(Item2).FLastUsedFrame then
+    Result := 1
+  else
+    Result := 0;
+end;
+
+{ TTextureLoadTask }
+
+destructor TTextureLoadTask.Destroy;
+begin
+  Stream.Free;
+  Picture.Free;
+  if ProgramID > 0 then
+    glDeleteTextures(1, @ProgramID);
+  inherited;
+end;
+
+procedure TTextureLoadTask.OnDecode(AData: Pointer);
+begin
+  try
+    Picture := TPicCodecManager.Open(Stream, Ext);
+    if Picture = nil then
+      Error := 'Unsupported format';
+  except
+    on e: Exception do
+      Error := e.Message;
+  end;
+  FreeAndNil(Stream);
+end;
+
+procedure TTextureLoadTask.OnDecoded(AData: Pointer);
+begin
+  if Texture = nil then
+  begin
+    Free;
+    exit;
+  end;
+
+  if Picture = nil then
+  begin
+    BSWriteMsg('BSTextureManager.LoadTextureAsync', 'Can not open texture: ' + Texture.Name + '; ' + Error);
+    Texture.FLoading := false;
+    Texture.FLoadTask := nil;
+    Free;
+    exit;
+  end;
+
+  if TextureUploader = nil then
+    TextureUploader := TTextureUploader.Create;
+  TextureUploader.Add(Self);
+end;
+
+function TTextureLoadTask.Upload(ADeadline: uint64): boolean;
+var
+  format: GLint;
+  stride, rows: int32;
+begin
+  if Picture is TBlackSharkCompressedPicture then
+  begin
+    { the levels are small, they are uploaded at once }
+    glGenTextures(1, @ProgramID);
+    if ProgramID = 0 then
+      raise Exception.Create('Can not load texture to GPU!');
+    glBindTexture(GL_TEXTURE_2D, ProgramID);
+    UploadCompressed(TBlackSharkCompressedPicture(Picture));
+    exit(true);
+  end;
+
+  format := PIXEL_FORMAT_TO_GL[Picture.PixelFormat];
+  if ProgramID = 0 then
+  begin
+    glGenTextures(1, @ProgramID);
+    if ProgramID = 0 then
+      raise Exception.Create('Can not load texture to GPU!');
+    glBindTexture(GL_TEXTURE_2D, ProgramID);
+    { only allocates the storage }
+    glTexImage2D(GL_TEXTURE_2D, 0, format, Picture.Width, Picture.Height, 0, format, GL_UNSIGNED_BYTE, nil);
+  end else
+    glBindTexture(GL_TEXTURE_2D, ProgramID);
+
+  stride := Picture.Width * Picture.Canvas.SizeColor + Picture.Canvas.Padding;
+  rows := TEXTURE_UPLOAD_SLICE div stride;
+  if rows < 1 then
+    rows := 1;
+
+  repeat
+    if Row + rows > Picture.Height then
+      rows := Picture.Height - Row;
+    glTexSubImage2D(GL_TEXTURE_2D, 0, 0, Row, Picture.Width, rows, format, GL_UNSIGNED_BYTE,
+      pByte(Picture.Canvas.Raw.Memory) + int64(Row) * stride);
+    inc(Row, rows);
+  until (Row >= Picture.Height) or (TBTimer.MicroSeconds >= ADeadline);
+
+  Result := Row >= Picture.Height;
+  {$ifdef DEBUG_BS}
+    CheckErrorGL('TTextureLoadTask.Upload', TTypeCheckError.tcNone, -1);
+  {$endif}
+end;
+
+{ TTextureUploader }
+
+constructor TTextureUploader.Create;
+begin
+  FTasks := TListVec<TTextureLoadTask>.Create;
+end;
+
+destructor TTextureUploader.Destroy;
+var
+  i: int32;
+begin
+  if FRegistered then
+    GUIThread.RemoveUpdateMethod(ProcessUploads);
+  for i := 0 to FTasks.Count - 1 do
+  begin
+    if Assigned(FTasks.Items[i].Texture) then
+      FTasks.Items[i].Texture.FLoadTask := nil;
+    FTasks.Items[i].Free;
+  end;
+  FTasks.Free;
+  inherited;
+end;
+
+procedure TTextureUploader.Add(ATask: TTextureLoadTask);
+begin
+  FTasks.Add(ATask);
+  if not FRegistered then
+  begin
+    FRegistered := true;
+    GUIThread.AddUpdateMethod(ProcessUploads);
+  end;
+end;
+
+procedure TTextureUploader.Restore;
+var
+  i: int32;
+begin
+  for i := 0 to FTasks.Count - 1 do
+  begin
+    { the name is not deleted, it is not valid in the new context }
+    FTasks.Items[i].ProgramID := 0;
+    FTasks.Items[i].Row := 0;
+  end;
+end;
+
+function TTextureUploader.ProcessUploads: boolean;
+var
+  deadline: uint64;
+  task: TTextureLoadTask;
+  done: int32;
+begin
+  if FTasks.Count = 0 then
+    exit(false);
+
+  Result := true;
+  deadline := TBTimer.MicroSeconds + uint64(BSConfig.TextureUploadBudget);
+  done := 0;
+  { FIFO; at least one slice per frame even if the budget is exhausted }
+  while done < FTasks.Count do
+  begin
+    task := FTasks.Items[done];
+    if Assigned(task.Texture) then
+    begin
+      if not task.Upload(deadline) then
+        break;
+      task.Texture.DoLoaded(task.Picture, task.ProgramID);
+      task.Picture := nil;
+      task.ProgramID := 0;
+    end;
+    task.Free;
+    inc(done);
+    if TBTimer.MicroSeconds >= deadline then
+      break;
+  end;
+
+  if done > 0 then
+    FTasks.Delete(0, done);
+end;
+
 procedure OverturnColor(data: pByte; Width, Height: int32; Boundary, Step: int8);
 var
   i, j, pos_r, pos_w: int32;
@@ -578,6 +922,7 @@ begin
   TextureArea.Texture := Self;
   // return counter to zero
   FRefCounter := 0;
+  FLastUsedFrame := BSTextureManager.FFrame;
   FInternalFormat := GL_RGBA;
   FName := AName;
   FTrilinearFilter := ATrilinearFilter;
@@ -594,6 +939,9 @@ end;
 destructor TBlackSharkTexture.Destroy;
 begin
   Pointer(TextureArea.Texture) := nil;
+  { the task frees own resources itself }
+  if Assigned(FLoadTask) then
+    TTextureLoadTask(FLoadTask).Texture := nil;
   if Assigned(OnFreeTexture) then
     OnFreeTexture(Self);
 
@@ -601,6 +949,7 @@ begin
 
   if FProgramID > 0 then
     glDeleteTextures(1, @FProgramID);
+  SetResidentSize(0);
 
   FreeRaw;
   BSTextureManager.OnDelTexture(Self);
@@ -617,7 +966,8 @@ begin
   dec(UpdateCount);
   if UpdateCount < 0 then
     UpdateCount := 0;
-  if ReloadIfNeed and ((FPicture <> nil) and (UpdateCount = 0) and ((FProgramID = 0) or (FPicture.Canvas.Changed))) then
+  if ReloadIfNeed and ((FPicture <> nil) and (UpdateCount = 0) and ((FProgramID = 0) or
+    ((FPicture.Canvas <> nil) and FPicture.Canvas.Changed))) then
     LoadToGPU;
 end;
 
@@ -632,6 +982,7 @@ begin
   begin
     glDeleteTextures(1, @FProgramID);
     FProgramID := 0;
+    SetResidentSize(0);
   end;
   { because count references reduce when delete area ClearAreas can invoke
     recurrently }
@@ -674,7 +1025,8 @@ begin
     exit;
   if TextureArea.Rect.Height = 0 then
     CalcArea;
-  FPicture.Canvas.Changed := false;
+  if FPicture.Canvas <> nil then
+    FPicture.Canvas.Changed := false;
   if FProgramID > 0 then
     glDeleteTextures(1, @FProgramID);
 	// request in OpenGL free rexture index
@@ -690,8 +1042,32 @@ begin
     glTexImage2D(GL_TEXTURE_2D, 0, GL_BGRA, FPicture.Width, FPicture.Height, 0, GL_BGRA,
 			GL_UNSIGNED_BYTE, FPicture.Canvas.Raw.Memory);
   	end else  }
-	glTexImage2D(GL_TEXTURE_2D, 0, PIXEL_FORMAT_TO_GL[FPicture.PixelFormat], FPicture.Width,
-    FPicture.Height, 0, PIXEL_FORMAT_TO_GL[FPicture.PixelFormat],	GL_UNSIGNED_BYTE, FPicture.Canvas.Raw.Memory);
+  if FPicture is TBlackSharkCompressedPicture then
+    UploadCompressed(TBlackSharkCompressedPicture(FPicture))
+  else
+	  glTexImage2D(GL_TEXTURE_2D, 0, PIXEL_FORMAT_TO_GL[FPicture.PixelFormat], FPicture.Width,
+      FPicture.Height, 0, PIXEL_FORMAT_TO_GL[FPicture.PixelFormat],	GL_UNSIGNED_BYTE, FPicture.Canvas.Raw.Memory);
+  SetParametersGL;
+  FEvicted := false;
+  FLastUsedFrame := BSTextureManager.FFrame;
+  SetResidentSize(CalcResidentSize);
+
+  if FreeRawData then
+    FreeRaw;
+  {$ifdef DEBUG_BS}
+    CheckErrorGL('TBlackSharkTexture.LoadToGPU', TTypeCheckError.tcNone, -1);
+  {$endif}
+end;
+
+procedure TBlackSharkTexture.SetParametersGL;
+var
+  mipmaps: boolean;
+begin
+  { compressed pictures contain own levels }
+  if FPicture is TBlackSharkCompressedPicture then
+    mipmaps := TBlackSharkCompressedPicture(FPicture).CountLevels > 1
+  else
+    mipmaps := FMipMap;
  	// set pаrametr wrap texture - absent wrap if WrapOptions = GL_CLAMP_TO_EDGE
   glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, FWrapOptions); // x // GL_CLAMP_TO_EDGE
   glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, FWrapOptions); // y   // GL_CLAMP_TO_EDGE
@@ -699,7 +1075,7 @@ begin
   begin
     // ... nice trilinear filtering.
     glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-    if FMipMap then
+    if mipmaps then
     	glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR)
     else
       glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR)
@@ -710,14 +1086,85 @@ begin
     glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
   end;
 
-  if FMipMap then
+  if FMipMap and not (FPicture is TBlackSharkCompressedPicture) then
   	glGenerateMipmap(GL_TEXTURE_2D);
+end;
 
-  if FreeRawData then
-    FreeRaw;
-  {$ifdef DEBUG_BS}
-    CheckErrorGL('TBlackSharkTexture.LoadToGPU', TTypeCheckError.tcNone, -1);
-  {$endif}
+procedure TBlackSharkTexture.SetResidentSize(const AValue: int64);
+begin
+  inc(BSTextureManager.FResidentSize, AValue - FResidentSize);
+  FResidentSize := AValue;
+end;
+
+function TBlackSharkTexture.CalcResidentSize: int64;
+begin
+  if FPicture = nil then
+    Result := 0
+  else
+  if FPicture is TBlackSharkCompressedPicture then
+    Result := TBlackSharkCompressedPicture(FPicture).DataSize
+  else
+  begin
+    Result := int64(FPicture.Width * FPicture.Canvas.SizeColor + FPicture.Canvas.Padding) * FPicture.Height;
+    if FMipMap then
+      inc(Result, Result div 3);
+  end;
+end;
+
+function TBlackSharkTexture.CanEvict: boolean;
+begin
+  Result := (FProgramID > 0) and not FLoading and (UpdateCount = 0) and
+    ((FPicture <> nil) or (FFileName <> ''));
+end;
+
+procedure TBlackSharkTexture.Evict;
+begin
+  glDeleteTextures(1, @FProgramID);
+  FProgramID := 0;
+  FEvicted := true;
+  SetResidentSize(0);
+end;
+
+procedure TBlackSharkTexture.Reload;
+begin
+  inc(BSTextureManager.FReloads);
+  if FPicture <> nil then
+    LoadToGPU
+  else
+  if Open(FFileName) then
+    LoadToGPU(true)
+  else
+  begin
+    BSWriteMsg('TBlackSharkTexture.Reload', 'Can not load texture again: ' + FFileName);
+    FEvicted := false;
+  end;
+end;
+
+procedure TBlackSharkTexture.DoLoaded(APicture: TBlackSharkPicture; AProgramID: GLuint);
+begin
+  FLoadTask := nil;
+  FLoading := false;
+  FreeRaw;
+  FPicture := APicture;
+  if FPicture.Canvas <> nil then
+    FPicture.Canvas.Changed := false;
+  if FProgramID > 0 then
+    glDeleteTextures(1, @FProgramID);
+  FProgramID := AProgramID;
+  FEvicted := false;
+  glBindTexture(GL_TEXTURE_2D, FProgramID);
+  SetParametersGL;
+  SetResidentSize(CalcResidentSize);
+  CalcArea;
+  if Assigned(FEventLoaded) then
+    FEventLoaded.Send(Self);
+end;
+
+function TBlackSharkTexture.GetEventLoaded: IBEmptyEvent;
+begin
+  if FEventLoaded = nil then
+    FEventLoaded := CreateEmptyEvent;
+  Result := FEventLoaded;
 end;
 
 function TBlackSharkTexture.Open(const Pict: TBlackSharkPicture): boolean;
@@ -744,13 +1191,13 @@ end;
 
 function TBlackSharkTexture.Open(const FileName: string): boolean;
 var
-  f: TFileStream;
+  f: TStream;
 begin
   Result := false;
-  if FileExists(FileName) then
+  if FileExistsVFS(FileName) then
     begin
     try
-      f := TFileStream.Create(FileName, fmOpenRead);
+      f := OpenFileVFS(FileName);
     except
       exit;
     end;
@@ -895,6 +1342,10 @@ end;
 procedure TBlackSharkTexture.Reset;
 begin
   FProgramID := 0;
+  { the texture without raw data is loaded again from the file on use, unless
+    the picture is being loaded now: then the task uploads it }
+  FEvicted := (FPicture = nil) and (FFileName <> '') and not FLoading;
+  SetResidentSize(0);
   //glDeleteTextures(1, @FProgramID);
 end;
 
@@ -948,7 +1399,7 @@ procedure TBlackSharkTexture.SetMipMap(AValue: boolean);
 begin
   if FMipMap = AValue then Exit;
   FMipMap := AValue;
-  if FMipMap and (FProgramID <> 0) and (UpdateCount = 0) then
+  if FMipMap and (FProgramID <> 0) and (UpdateCount = 0) and not (FPicture is TBlackSharkCompressedPicture) then
   begin
     glBindTexture(GL_TEXTURE_2D, FProgramID);
     glGenerateMipmap(GL_TEXTURE_2D);
@@ -957,6 +1408,9 @@ end;
 
 procedure TBlackSharkTexture.UseTexture(ID: int32);
 begin
+  FLastUsedFrame := BSTextureManager.FFrame;
+  if FEvicted then
+    Reload;
   // Bind the texture
   glActiveTexture ( GL_TEXTURE0 + ID );
   glBindTexture ( GL_TEXTURE_2D, FProgramID );
@@ -984,7 +1438,7 @@ end;
 
 function TBlackSharkTexture.Color(UV: PTextureArea): TVec4b;
 begin
-  if Assigned(FPicture.Canvas.Raw) then
+  if Assigned(FPicture.Canvas) and Assigned(FPicture.Canvas.Raw) then
     Result := PArrayVec4b(FPicture.Canvas.Raw.Memory)[round(UV^.Rect.Top * FPicture.Width + uv^.Rect.Left)]
   else
     Result := vec4(byte(0), byte(0), byte(0), byte(255));
@@ -1032,6 +1486,9 @@ begin
   if AllTextures.GetFirst(bucket) then
   repeat
     t := bucket.Key;
+    if t.Picture is TBlackSharkCompressedPicture then
+      inc(Result, TBlackSharkCompressedPicture(t.Picture).DataSize)
+    else
     if Assigned(t.Picture) then
       inc(Result, t.Picture.Canvas.Raw.CarrentCapacity);
   until not AllTextures.GetNext(bucket);
@@ -1046,6 +1503,14 @@ var
   tex: TBlackSharkTextureMap;
 begin
 
+  { compressed pictures are not inserted to maps }
+  if Source.Picture is TBlackSharkCompressedPicture then
+  begin
+    Result := Source.SelfArea;
+    AddSingleTexture(Source);
+    exit;
+  end;
+
   if (Source.InternalFormat <> GL_RGBA) then
     raise Exception.Create('Format raw data must be GL_RGBA!');
 
@@ -1053,7 +1518,7 @@ begin
     raise Exception.Create('Adding square more then square of texture map! Try to use a smaler size or texture, or reduce properties ' +
       ' BSTextureManager.HeightTextuteMap and BSTextureManager.WidthTextuteMap.');
 
-  if not FUseTextureMaps or (Source.Picture is TBlackSharkDDS) then
+  if not FUseTextureMaps then
   begin
     Result := Source.SelfArea;
     { when add to texture manager do not count references }
@@ -1221,6 +1686,7 @@ class procedure BSTextureManager.UseTexture(const ATexture: IBlackSharkTexture;
 begin
   if LastTexture <> ATexture then
   begin
+    BSFrameStats.IncStateChanges;
     LastTexture := ATexture;
     if Assigned(LastTexture) then
       LastTexture.UseTexture(ID);
@@ -1262,16 +1728,16 @@ class function BSTextureManager.LoadTexture(const FileName: string;
 var
   Name: string;
   fn: string;
-  f: TFileStream;
+  f: TStream;
 begin
   fn := GetFilePath(FileName);
-  if not FileExists(fn) then
+  if not FileExistsVFS(fn) then
     raise Exception.Create('BSTextureManager.LoadTexture: File not found: ' + FileName);
   Name := ExtractFileName(FileName);
   if FTexturesName.Find(Name, Result) then
     exit;
   try
-    f := TFileStream.Create(fn, fmOpenRead);
+    f := OpenFileVFS(fn);
   except
     raise Exception.Create('BSTextureManager.LoadTexture: Can not open file: ' + FileName);
   end;
@@ -1280,6 +1746,9 @@ begin
   finally
     f.Free;
   end;
+  { a single texture can be reloaded from the file after eviction }
+  if Result = Result^.Texture.SelfArea then
+    (Result^.Texture as TBlackSharkTexture).FFileName := fn;
 end;
 
 class function BSTextureManager.LoadTexture(const Stream: TStream; const Name: string;
@@ -1396,11 +1865,140 @@ begin
     FColors.Delete(AColor);
 end;    }
 
+class function BSTextureManager.LoadTextureAsync(const FileName: string;
+  ATrilinearFilter: boolean): PTextureArea;
+var
+  Name: string;
+  fn: string;
+  text: TBlackSharkTexture;
+  task: TTextureLoadTask;
+begin
+  fn := GetFilePath(FileName);
+  if not FileExistsVFS(fn) then
+    raise Exception.Create('BSTextureManager.LoadTextureAsync: File not found: ' + FileName);
+  Name := ExtractFileName(FileName);
+  if FTexturesName.Find(Name, Result) then
+    exit;
+
+  task := TTextureLoadTask.Create;
+  try
+    task.Stream := OpenFileVFS(fn);
+  except
+    task.Free;
+    raise Exception.Create('BSTextureManager.LoadTextureAsync: Can not open file: ' + FileName);
+  end;
+  task.Ext := StringToAnsi(ExtractFileExt(Name));
+
+  { the placeholder }
+  text := TBlackSharkTexture.Create(1, 1, Name, ATrilinearFilter);
+  text.FLoading := true;
+  text.FLoadTask := task;
+  text.FFileName := fn;
+  task.Texture := text;
+  AddSingleTexture(text, true);
+  Result := text.SelfArea;
+
+  BSJobs.Run(task.OnDecode, nil, task.OnDecoded);
+end;
+
+class procedure BSTextureManager.EndFrame;
+begin
+  if (BSConfig.TextureMemoryBudget > 0) and (FResidentSize > BSConfig.TextureMemoryBudget) then
+    EvictTextures(FResidentSize - BSConfig.TextureMemoryBudget);
+  inc(FFrame);
+  FVisibleFrame := FFrame;
+end;
+
+class procedure BSTextureManager.KeepVisibleSince(AFrame: uint32);
+begin
+  if AFrame < FVisibleFrame then
+    FVisibleFrame := AFrame;
+end;
+
+class procedure BSTextureManager.EvictTextures(ABytes: int64);
+var
+  candidates: TListVec<Pointer>;
+  bucket: THashTable<Pointer, Pointer>.TBucket;
+  text: TBlackSharkTexture;
+  i: int32;
+begin
+  candidates := TListVec<Pointer>.Create(@LastUsedCmp);
+  try
+    if AllTextures.GetFirst(bucket) then
+    repeat
+      text := bucket.Key;
+      { the textures drawn in the current frame (or since the last full redraw
+        of a window drawn partially) are visible }
+      if (text.FLastUsedFrame < FVisibleFrame) and text.CanEvict then
+        candidates.Add(text);
+    until not AllTextures.GetNext(bucket);
+
+    candidates.Sort;
+    i := 0;
+    while (ABytes > 0) and (i < candidates.Count) do
+    begin
+      text := candidates.Items[i];
+      dec(ABytes, text.FResidentSize);
+      inc(FEvictedSize, text.FResidentSize);
+      inc(FEvictions);
+      text.Evict;
+      inc(i);
+    end;
+  finally
+    candidates.Free;
+  end;
+end;
+
+class function BSTextureManager.ResidencyStats: TTextureResidencyStats;
+var
+  text: TBlackSharkTexture;
+  bucket: THashTable<Pointer, Pointer>.TBucket;
+begin
+  FillChar(Result{%H-}, SizeOf(Result), 0);
+  if AllTextures.GetFirst(bucket) then
+  repeat
+    text := bucket.Key;
+    inc(Result.Textures);
+    if text.FProgramID > 0 then
+      inc(Result.Resident);
+    if text.FEvicted then
+      inc(Result.Evicted);
+  until not AllTextures.GetNext(bucket);
+  Result.ResidentBytes := FResidentSize;
+  Result.BudgetBytes := BSConfig.TextureMemoryBudget;
+  Result.Evictions := FEvictions;
+  Result.EvictedBytes := FEvictedSize;
+  Result.Reloads := FReloads;
+end;
+
+class function BSTextureManager.CompressedFormatSupported(AFormat: TBSCompressedFormat): boolean;
+var
+  i, count: GLint;
+begin
+  if not FCompressedFormatsLoaded then
+  begin
+    FCompressedFormatsLoaded := true;
+    count := 0;
+    glGetIntegerv(GL_NUM_COMPRESSED_TEXTURE_FORMATS, @count);
+    SetLength(FCompressedFormats, count);
+    if count > 0 then
+      glGetIntegerv(GL_COMPRESSED_TEXTURE_FORMATS, @FCompressedFormats[0]);
+  end;
+  for i := 0 to length(FCompressedFormats) - 1 do
+    if GLenum(FCompressedFormats[i]) = COMPRESSED_FORMAT_TO_GL[AFormat] then
+      exit(true);
+  Result := false;
+end;
+
 class procedure BSTextureManager.Restore;
 var
   tex: Pointer;
   bucket: THashTable<Pointer, Pointer>.TBucket;
 begin
+  { a new context }
+  FCompressedFormatsLoaded := false;
+  if Assigned(TextureUploader) then
+    TextureUploader.Restore;
   if AllTextures.GetFirst(bucket) then
   repeat
     tex := bucket.Key;
@@ -1470,6 +2068,7 @@ var
   bucket: THashTable<Pointer, Pointer>.TBucket;
 begin
   LastTexture := nil;
+  FreeAndNil(TextureUploader);
 
   if AllTextures.GetFirst(bucket) then
   repeat
@@ -40,6 +40,11 @@ uses
   , bs.collections
   ;
 
+const
+  { the default capacity of TQueueMPSC<T>; power of two }
+  MPSC_QUEUE_CAPACITY = 4096;
+  { the max amount of items taken by TQueueMPSCTemplate<T> for one step of processing }
+  MPSC_QUEUE_BATCH = 64;
 
 type
 
@@ -75,6 +80,95 @@ type
     property NeedManage: boolean read FNeedManage;
   end;
 
+  { atomic operations over int32 with a full memory barrier; they are used by
+    the lock-free containers }
+  TAtomic = class
+  public
+    class function Load(var ATarget: int32): int32; overload; static; inline;
+    { a pointer published by CompareExchange; the data it points to is visible }
+    class function Load(var ATarget: pointer): pointer; overload; static; inline;
+    class procedure Store(var ATarget: int32; AValue: int32); static; inline;
+    { returns the previous value of ATarget; AValue is written only if the
+      previous value is equal AComparand }
+    class function CompareExchange(var ATarget: int32; AValue, AComparand: int32): int32; overload; static; inline;
+    class function CompareExchange(var ATarget: pointer; AValue, AComparand: pointer): pointer; overload; static; inline;
+    class function Increment(var ATarget: int32): int32; static; inline;
+    class function Decrement(var ATarget: int32): int32; static; inline;
+  end;
+
+  { TQueueMPSC
+
+    The bounded lock-free queue: any threads can write (Push) at the same time,
+    only one thread (an owner) can read (Pop, Drain); if the queue is full then
+    Push does not wait and returns false, the lost item is counted in Dropped;
+
+    a queue created with AOverflow = true never loses items: when the ring is
+    full they are placed to the overflow list under a lock, and writers go on
+    writing there until the reader takes the list away, so the order of items of
+    one writer is kept; it is used for events and results, which must not be
+    lost (input, final values of animations, completions of jobs) }
+
+  TQueueMPSC<T> = class
+  public
+    type
+      TQueueEventNotify = procedure(Queue: TQueueMPSC<T>) of object;
+  private
+    type
+      PCell = ^TCell;
+      TCell = record
+        { a position of writing for which the cell is free, or the position + 1
+          if the cell contains a value }
+        Sequence: int32;
+        Value: T;
+      end;
+  private
+    FCells: array of TCell;
+    FMask: int32;
+    FCapacity: int32;
+    { the next position of writing; is changed by writers }
+    FTail: int32;
+    { separates FTail and FHead into different cache lines }
+    FPad: array[0..15] of int32;
+    { the next position of reading; is changed only by the reader }
+    FHead: int32;
+    FDropped: int32;
+    FMaxDepth: int32;
+    FDefault: T;
+    FOnWrite: TQueueEventNotify;
+    { the overflow list; it exists only if the queue is created with AOverflow }
+    FOverflowCS: TCriticalSection;
+    FOverflow: array of T;
+    FOverflowHead: int32;
+    FOverflowCount: int32;
+    FOverflowed: int32;
+    procedure PushOverflow(const Item: T);
+    function PopOverflow(out Item: T): boolean;
+    function GetCount: int32; inline;
+  public
+    { ACapacity is rounded up to power of two }
+    constructor Create(ACapacity: int32 = MPSC_QUEUE_CAPACITY; AOverflow: boolean = false);
+    destructor Destroy; override;
+    { places into the end of the queue; invokes from any thread; returns false
+      if the queue is full and it has not the overflow list }
+    function Push(const Item: T): boolean;
+    { to invoke only from the reading thread }
+    function Pop(out Item: T): boolean;
+    { takes away up to Length(AItems) items into AItems; returns amount of the
+      taken items; to invoke only from the reading thread }
+    function Drain(var AItems: array of T): int32;
+    { count values in the queue; it is exact only for the reading thread }
+    property Count: int32 read GetCount;
+    property Capacity: int32 read FCapacity;
+    { amount of items lost because of the full queue }
+    property Dropped: int32 read FDropped;
+    { amount of items placed to the overflow list because of the full ring }
+    property Overflowed: int32 read FOverflowed;
+    { the max depth seen by the reading thread }
+    property MaxDepth: int32 read FMaxDepth;
+    { the event is invoked in a writing thread context after every Push }
+    property OnWrite: TQueueEventNotify read FOnWrite write FOnWrite;
+  end;
+
   TListDQueues = TListDual<TQueueWrapper>;
 
   TQueueFate = (qfNew, qfWorking, qfDeleting);
@@ -93,10 +187,16 @@ type
     procedure Process; virtual; abstract;
     function _Release: int32;
     procedure _AddRef;
+    function GetDepth: int32; virtual;
+    function GetDropped: int32; virtual;
   public
     constructor Create(AReciever: TUntypedRecieveProc; ADispatcher: TQueueDispatcher; ASrcThr: TBThread); virtual;
     property SrcThr: TBThread read FSrcThr;
     property Dispatcher: TQueueDispatcher read FDispatcher;
+    { amount of not processed items }
+    property Depth: int32 read GetDepth;
+    { amount of items lost because of the overflow }
+    property Dropped: int32 read GetDropped;
   end;
 
   TQueueTemplate<T> = class(TQueueWrapper)
@@ -108,12 +208,33 @@ type
   protected
     { the callback invoked by FSrcThr for ask all queues (a recieve of data) }
     procedure Process; override;
+    function GetDepth: int32; override;
   public
     constructor Create(AReciever: TUntypedRecieveProc; ADispatcher: TQueueDispatcher; ASrcThr: TBThread); override;
     destructor Destroy; override;
     property Queue: TQueueFIFO<T> read FQueue;
   end;
 
+  { TQueueMPSCTemplate
+
+    The same as TQueueTemplate<T>, but the queue is lock-free and safe for
+    several writing threads; the owner takes away the data by batches }
+
+  TQueueMPSCTemplate<T> = class(TQueueWrapper)
+  private
+    FQueue: TQueueMPSC<T>;
+    FBatch: array[0..MPSC_QUEUE_BATCH - 1] of T;
+    procedure OnWrite(Source: TQueueMPSC<T>);
+  protected
+    procedure Process; override;
+    function GetDepth: int32; override;
+    function GetDropped: int32; override;
+  public
+    constructor Create(AReciever: TUntypedRecieveProc; ADispatcher: TQueueDispatcher; ASrcThr: TBThread); override;
+    destructor Destroy; override;
+    property Queue: TQueueMPSC<T> read FQueue;
+  end;
+
   TQueueDispatcher = class
   private
     FThreadOwner: TBThread;
@@ -132,6 +253,9 @@ type
     function GetQueueForWrite(SrcThr: TBThread; QueueClass: TQueueWrapperClass;
       RecieveFunc: TUntypedRecieveProc): TQueueWrapper;
     procedure RemoveQueue(Queue: TQueueWrapper);
+    { sums depth and losses of all working queues; to invoke only from the
+      thread owner }
+    procedure GetStatistics(out ADepth, ADropped: int32);
     property CountQueues: int32 read GetCountQueues;
     property QueuesHaveData: boolean read FQueuesHaveData;
   end;
@@ -185,6 +309,8 @@ type
     CS: syncobjs.TCriticalSection;
     Event: TEvent;
     LastTimeSetEvent: uint64;
+    { the thread executing a fiction context }
+    FOwnerThreadID: TThreadID;
     procedure Execute;
     function ProcessEvents: boolean; //inline;
     procedure SetPeriodUpdate(const Value: int32);
@@ -192,8 +318,13 @@ type
     function TryLock: boolean;
     procedure DoWaiting(AValue: boolean); inline;
   protected
+    { 1 while the thread sleeps in DoWaiting; a writer to its queues wakes it
+      by ResetWaiting }
+    FWaiting: int32;
     function DoExecute: boolean; //inline;
     procedure Stop;
+    { the calling code is executed in the context now }
+    function IsCurrent: boolean; virtual;
   public
     constructor Create(AAsFiction: boolean = false; ACreateSuspended: Boolean = false);
     destructor Destroy; override;
@@ -205,7 +336,12 @@ type
     { returns true if one or more of queues is not empty yet }
     function Clear: boolean; virtual;
     procedure Terminate;
-    procedure ResetWaiting;
+    { wakes the context up for processing of its queues and update methods }
+    procedure ResetWaiting; virtual;
+    { a fiction context belongs to the main thread; if a host executes the
+      engine in other thread (for example, a render thread on Android), the
+      thread must pass the context to itself before the first call of the engine }
+    procedure AttachToCurrentThread;
 
     class function GetCPUCount: int32;
 
@@ -239,15 +375,29 @@ type
   TBTimer = class
   private
     class var FCurrentTime: TTimeCounter;
+    {$ifdef MSWindows}
+    class var FFrequency: int64;
+    {$endif}
     class function GetCurrentTime: TTimeCounter; static;
+    class function GetMicroSeconds: uint64; static;
   public
     class procedure UpdateTimer(var Timer: TTimeCounter); inline;
     class property CurrentTime: TTimeCounter read GetCurrentTime;
+    { a monotonic high resolution time in microseconds; it is only for measure
+      of intervals, the origin is undefined }
+    class property MicroSeconds: uint64 read GetMicroSeconds;
   end;
 
+  TExecutorFactory = function(AIndex: int32): TBThread;
+
+  { the executors (besides GUIThread, it is always the first) are created on
+    the first call of one of these functions }
   function NextExecutor: TBThread;
   function CountExecutors: int32;
   function GetExecutor(Index: int32): TBThread;
+  { replaces own threads of the executors by contexts created by AFactory (see
+    bs.jobs); must be invoked before the executors are created }
+  procedure SetExecutorFactory(AFactory: TExecutorFactory);
 
 var
   GUIThread: TGUIThread;
@@ -258,7 +408,14 @@ uses
   {$ifdef MSWindows}
     Windows,
   {$else}
-
+    {$ifdef FPC}
+      {$ifdef LINUX}
+    Linux,
+    UnixType,
+      {$endif}
+    {$else}
+    System.Diagnostics,
+    {$endif}
   {$endif}
     bs.config
   ;
@@ -267,14 +424,59 @@ var
   g_CurrentAnimatorIndex: int32 = 0;
   g_CountAnimators: int32 = 0;
   g_Animators: array of TBThread;
+  g_AnimatorsCS: syncobjs.TCriticalSection;
+  g_ExecutorFactory: TExecutorFactory = nil;
+
+procedure CreateExecutors;
+var
+  cpu_count: int32;
+  count: int32;
+  i: int32;
+begin
+  g_AnimatorsCS.Enter;
+  try
+    if g_CountAnimators > 0 then
+      exit;
+
+    if BSConfig.UseTaskExecutersSet then
+      cpu_count := TBThread.GetCPUCount
+    else
+      cpu_count := 1;
+
+    if cpu_count > 1 then
+      count := cpu_count - 1
+    else
+      count := 1;
+
+    g_CurrentAnimatorIndex := 0;
+    SetLength(g_Animators, count);
+
+    g_Animators[0] := GUIThread;
+    for i := 1 to count - 1 do
+    begin
+      if Assigned(g_ExecutorFactory) then
+        g_Animators[i] := g_ExecutorFactory(i)
+      else
+        g_Animators[i] := TBThread.Create;
+      g_Animators[i].Caption := string('Animator №') + IntToStr(i);
+    end;
+    TAtomic.Store(g_CountAnimators, count);
+  finally
+    g_AnimatorsCS.Leave;
+  end;
+end;
 
 function CountExecutors: int32;
 begin
+  if g_CountAnimators = 0 then
+    CreateExecutors;
   Result := g_CountAnimators;
 end;
 
 function GetExecutor(Index: int32): TBThread;
 begin
+  if g_CountAnimators = 0 then
+    CreateExecutors;
   if Index < g_CountAnimators then
     Result := g_Animators[Index]
   else
@@ -283,37 +485,23 @@ end;
 
 function NextExecutor: TBThread;
 begin
+  if g_CountAnimators = 0 then
+    CreateExecutors;
   Result := g_Animators[g_CurrentAnimatorIndex];
   inc(g_CurrentAnimatorIndex);
   g_CurrentAnimatorIndex := g_CurrentAnimatorIndex mod g_CountAnimators;
 end;
 
+procedure SetExecutorFactory(AFactory: TExecutorFactory);
+begin
+  Assert(g_CountAnimators = 0, 'SetExecutorFactory: the executors have already been created!');
+  g_ExecutorFactory := AFactory;
+end;
+
 procedure CreateThreads;
-var
-  cpu_count: int32;
-  i: int32;
 begin
+  g_AnimatorsCS := syncobjs.TCriticalSection.Create;
   GUIThread := TGUIThread.Create(true);
-
-  if BSConfig.UseTaskExecutersSet then
-    cpu_count := TBThread.GetCPUCount
-  else
-    cpu_count := 1;
-
-  if cpu_count > 1 then
-    g_CountAnimators := cpu_count - 1
-  else
-    g_CountAnimators := 1;
-
-  g_CurrentAnimatorIndex := 0;
-  SetLength(g_Animators, g_CountAnimators);
-
-  g_Animators[0] := GUIThread;
-  for i := 1 to g_CountAnimators - 1 do
-  begin
-    g_Animators[i] := TBThread.Create;
-    g_Animators[i].Caption := string('Animator №') + IntToStr(i);
-  end;
 end;
 
 procedure FreeThreads;
@@ -350,6 +538,7 @@ begin
   g_CountAnimators := 0;
 
   GUIThread.Free;
+  g_AnimatorsCS.Free;
 
 end;
 
@@ -370,6 +559,41 @@ begin
   Result := FCurrentTime;
 end;
 
+class function TBTimer.GetMicroSeconds: uint64;
+{$ifdef MSWindows}
+var
+  c: int64;
+begin
+  if FFrequency = 0 then
+    QueryPerformanceFrequency(FFrequency);
+  QueryPerformanceCounter(c);
+  { split to avoid an overflow on a long uptime }
+  Result := uint64(c div FFrequency) * 1000000 + uint64(c mod FFrequency) * 1000000 div uint64(FFrequency);
+end;
+{$else}
+  {$ifdef FPC}
+    {$ifdef LINUX}
+var
+  ts: TTimeSpec;
+begin
+  clock_gettime(CLOCK_MONOTONIC, @ts);
+  Result := uint64(ts.tv_sec) * 1000000 + uint64(ts.tv_nsec) div 1000;
+end;
+    {$else}
+begin
+  Result := TThread.GetTickCount64 * 1000;
+end;
+    {$endif}
+  {$else}
+var
+  c: int64;
+begin
+  c := TStopwatch.GetTimeStamp;
+  Result := uint64(c div TStopwatch.Frequency) * 1000000 + uint64(c mod TStopwatch.Frequency) * 1000000 div uint64(TStopwatch.Frequency);
+end;
+  {$endif}
+{$endif}
+
 class procedure TBTimer.UpdateTimer(var Timer: TTimeCounter);
 {$ifndef FPC}
 var
@@ -401,12 +625,15 @@ end;
 procedure TBThread.AddUpdateMethod(AProcessUpdate: TProcessUpdate);
 begin
   StackProcessUpdate.Add(AProcessUpdate);
-  if (not Assigned(Thread) and (MainThreadID = TThread.CurrentThread.ThreadID)) or (Assigned(Thread) and (Thread.ThreadID = TThread.CurrentThread.ThreadID)) then
+  if IsCurrent then
     StackProcessUpdate.Manage
   else
   begin
     while StackProcessUpdate.NeedManage do
+    begin
+      ResetWaiting;
       sleep(10);
+    end;
   end;
 end;
 
@@ -432,6 +659,17 @@ begin
 end;
 {$endif}
 
+function TBThread.IsCurrent: boolean;
+begin
+  Result := (not Assigned(Thread) and (FOwnerThreadID = TThread.CurrentThread.ThreadID)) or
+    (Assigned(Thread) and (Thread.ThreadID = TThread.CurrentThread.ThreadID));
+end;
+
+procedure TBThread.AttachToCurrentThread;
+begin
+  FOwnerThreadID := TThread.CurrentThread.ThreadID;
+end;
+
 function TBThread.GetTerminated: boolean;
 begin
   Result := ((Thread <> nil) and (Thread.Terminated));
@@ -458,7 +696,7 @@ end;
 procedure TBThread.RemoveUpdateMethod(AProcessUpdate: TProcessUpdate);
 begin
   StackProcessUpdate.Del(AProcessUpdate);
-  if (not Assigned(Thread) and (MainThreadID = TThread.CurrentThread.ThreadID)) or (Assigned(Thread) and (Thread.ThreadID = TThread.CurrentThread.ThreadID)) then
+  if IsCurrent then
     StackProcessUpdate.Manage
   else
     while StackProcessUpdate.NeedManage do
@@ -488,6 +726,7 @@ begin
   FQueueDispatcher := TQueueDispatcher.Create(Self);
   FPeriodUpdate := DEFAULT_PERIOD_UPDATE;
   FAsFiction := AAsFiction;
+  FOwnerThreadID := MainThreadID;
   Stoped := false;
   CS := syncobjs.TCriticalSection.Create;
   if not FAsFiction then
@@ -534,8 +773,17 @@ begin
     if (TBTimer.CurrentTime.Counter - LastTimeSetEvent < FPeriodUpdate) or not TryLock then
       exit;
     Event.ResetEvent;
+    TAtomic.Store(FWaiting, 1);
+    { data could be written before the flag was set }
+    if FQueueDispatcher.QueuesHaveData then
+    begin
+      TAtomic.Store(FWaiting, 0);
+      UnLock;
+      exit;
+    end;
     UnLock;
     Event.WaitFor(INFINITE);
+    TAtomic.Store(FWaiting, 0);
   end else
   begin
     Lock;
@@ -686,6 +934,9 @@ end;
 procedure TQueueDispatcher.OnWrite(Source: TQueueWrapper);
 begin
   FQueuesHaveData := true;
+  { wakes the owner at once instead of waiting for the next period }
+  if TAtomic.CompareExchange(FThreadOwner.FWaiting, 0, 1) = 1 then
+    FThreadOwner.ResetWaiting;
 end;
 
 function TQueueDispatcher.ProcessQueues: boolean;
@@ -743,6 +994,21 @@ begin
   end;
 end;
 
+procedure TQueueDispatcher.GetStatistics(out ADepth, ADropped: int32);
+var
+  it: TListDQueues.PListItem;
+begin
+  ADepth := 0;
+  ADropped := 0;
+  it := WorkingQueues.ItemListFirst;
+  while it <> nil do
+  begin
+    inc(ADepth, it.Item.Depth);
+    inc(ADropped, it.Item.Dropped);
+    it := it.Next;
+  end;
+end;
+
 { TQueueWrapper }
 
 constructor TQueueWrapper.Create(AReciever: TUntypedRecieveProc; ADispatcher: TQueueDispatcher; ASrcThr: TBThread);
@@ -764,6 +1030,16 @@ begin
   Result := _References;
 end;
 
+function TQueueWrapper.GetDepth: int32;
+begin
+  Result := 0;
+end;
+
+function TQueueWrapper.GetDropped: int32;
+begin
+  Result := 0;
+end;
+
 { TQueueTemplate<T> }
 
 constructor TQueueTemplate<T>.Create(AReciever: TUntypedRecieveProc; ADispatcher: TQueueDispatcher; ASrcThr: TBThread);
@@ -780,6 +1056,11 @@ begin
   inherited;
 end;
 
+function TQueueTemplate<T>.GetDepth: int32;
+begin
+  Result := FQueue.Count;
+end;
+
 procedure TQueueTemplate<T>.OnWrite(Source: TQueueFIFO<T>);
 begin
   FHasData := true;
@@ -798,6 +1079,289 @@ begin
   end;
 end;
 
+{ TQueueMPSCTemplate<T> }
+
+constructor TQueueMPSCTemplate<T>.Create(AReciever: TUntypedRecieveProc; ADispatcher: TQueueDispatcher; ASrcThr: TBThread);
+begin
+  inherited;
+  { events are not lost when the owner does not keep up with writers }
+  FQueue := TQueueMPSC<T>.Create(MPSC_QUEUE_CAPACITY, true);
+  FQueue.OnWrite := OnWrite;
+end;
+
+destructor TQueueMPSCTemplate<T>.Destroy;
+begin
+  FQueue.Free;
+  inherited;
+end;
+
+function TQueueMPSCTemplate<T>.GetDepth: int32;
+begin
+  Result := FQueue.Count;
+end;
+
+function TQueueMPSCTemplate<T>.GetDropped: int32;
+begin
+  Result := FQueue.Dropped;
+end;
+
+procedure TQueueMPSCTemplate<T>.OnWrite(Source: TQueueMPSC<T>);
+begin
+  FHasData := true;
+  FDispatcher.OnWrite(Self);
+end;
+
+procedure TQueueMPSCTemplate<T>.Process;
+var
+  i, count: int32;
+begin
+  FHasData := false;
+  repeat
+    count := FQueue.Drain(FBatch);
+    for i := 0 to count - 1 do
+    begin
+      FReciever(FBatch[i]);
+      { for managed types }
+      FBatch[i] := Default(T);
+    end;
+  until count < MPSC_QUEUE_BATCH;
+end;
+
+{ TQueueMPSC<T> }
+
+constructor TQueueMPSC<T>.Create(ACapacity: int32; AOverflow: boolean);
+var
+  i: int32;
+begin
+  FCapacity := 2;
+  while FCapacity < ACapacity do
+    FCapacity := FCapacity shl 1;
+  FMask := FCapacity - 1;
+  SetLength(FCells, FCapacity);
+  for i := 0 to FCapacity - 1 do
+    FCells[i].Sequence := i;
+  FillChar(FDefault, SizeOf(T), 0);
+  if AOverflow then
+    FOverflowCS := TCriticalSection.Create;
+end;
+
+destructor TQueueMPSC<T>.Destroy;
+begin
+  FOverflowCS.Free;
+  inherited;
+end;
+
+function TQueueMPSC<T>.GetCount: int32;
+begin
+  Result := TAtomic.Load(FTail) - FHead + TAtomic.Load(FOverflowCount);
+end;
+
+procedure TQueueMPSC<T>.PushOverflow(const Item: T);
+var
+  i: int32;
+begin
+  FOverflowCS.Enter;
+  try
+    if FOverflowHead + FOverflowCount = Length(FOverflow) then
+    begin
+      if FOverflowHead > FOverflowCount then
+      begin
+        { the read part is reused }
+        for i := 0 to FOverflowCount - 1 do
+          FOverflow[i] := FOverflow[FOverflowHead + i];
+        for i := FOverflowCount to FOverflowHead + FOverflowCount - 1 do
+          FOverflow[i] := FDefault;
+        FOverflowHead := 0;
+      end else
+        SetLength(FOverflow, Length(FOverflow) * 2 + FCapacity);
+    end;
+    FOverflow[FOverflowHead + FOverflowCount] := Item;
+    TAtomic.Store(FOverflowCount, FOverflowCount + 1);
+  finally
+    FOverflowCS.Leave;
+  end;
+  TAtomic.Increment(FOverflowed);
+  if Assigned(FOnWrite) then
+    FOnWrite(Self);
+end;
+
+function TQueueMPSC<T>.PopOverflow(out Item: T): boolean;
+begin
+  FOverflowCS.Enter;
+  try
+    Result := FOverflowCount > 0;
+    if not Result then
+    begin
+      Item := FDefault;
+      exit;
+    end;
+    Item := FOverflow[FOverflowHead];
+    { for managed types }
+    FOverflow[FOverflowHead] := FDefault;
+    inc(FOverflowHead);
+    if FOverflowCount = 1 then
+    begin
+      { writers return to the ring }
+      FOverflowHead := 0;
+      SetLength(FOverflow, 0);
+    end;
+    TAtomic.Store(FOverflowCount, FOverflowCount - 1);
+  finally
+    FOverflowCS.Leave;
+  end;
+end;
+
+function TQueueMPSC<T>.Push(const Item: T): boolean;
+var
+  cell: PCell;
+  pos, prev: int32;
+begin
+  { while the overflow list is not empty the ring is not used, otherwise the
+    next item of a writer could be read before the previous one }
+  if Assigned(FOverflowCS) and (TAtomic.Load(FOverflowCount) > 0) then
+  begin
+    PushOverflow(Item);
+    exit(true);
+  end;
+  pos := TAtomic.Load(FTail);
+  while true do
+  begin
+    cell := @FCells[pos and FMask];
+    { the cell is free for the position if its sequence is equal pos; if it is
+      less, then the reader has not yet taken away the previous lap }
+    prev := TAtomic.Load(cell.Sequence) - pos;
+    if prev = 0 then
+    begin
+      prev := TAtomic.CompareExchange(FTail, pos + 1, pos);
+      if prev = pos then
+        break;
+      { other writer has taken the position }
+      pos := prev;
+    end else
+    if prev < 0 then
+    begin
+      if Assigned(FOverflowCS) then
+      begin
+        PushOverflow(Item);
+        exit(true);
+      end;
+      TAtomic.Increment(FDropped);
+      exit(false);
+    end else
+      pos := TAtomic.Load(FTail);
+  end;
+  cell.Value := Item;
+  { publishes the value for the reader }
+  TAtomic.Store(cell.Sequence, pos + 1);
+  Result := true;
+  if Assigned(FOnWrite) then
+    FOnWrite(Self);
+end;
+
+function TQueueMPSC<T>.Pop(out Item: T): boolean;
+var
+  cell: PCell;
+begin
+  cell := @FCells[FHead and FMask];
+  if TAtomic.Load(cell.Sequence) - (FHead + 1) < 0 then
+  begin
+    { items written after the ring got full are in the list; it is read only when
+      the ring is really empty: if a writer has taken the cell but has not yet
+      published its value, then the item precedes all in the list and the
+      reader waits for it }
+    if Assigned(FOverflowCS) and (TAtomic.Load(FTail) = FHead) and (TAtomic.Load(FOverflowCount) > 0) then
+      exit(PopOverflow(Item));
+    Item := FDefault;
+    exit(false);
+  end;
+  Item := cell.Value;
+  { for managed types }
+  cell.Value := FDefault;
+  { frees the cell for the next lap }
+  TAtomic.Store(cell.Sequence, FHead + FCapacity);
+  inc(FHead);
+  Result := true;
+end;
+
+function TQueueMPSC<T>.Drain(var AItems: array of T): int32;
+var
+  depth: int32;
+begin
+  depth := GetCount;
+  if depth > FMaxDepth then
+    FMaxDepth := depth;
+  Result := 0;
+  while (Result < Length(AItems)) and Pop(AItems[Result]) do
+    inc(Result);
+end;
+
+{ TAtomic }
+
+class function TAtomic.Load(var ATarget: int32): int32;
+begin
+  {$ifdef FPC}
+  Result := ATarget;
+  ReadBarrier;
+  {$else}
+  Result := AtomicCmpExchange(ATarget, 0, 0);
+  {$endif}
+end;
+
+class function TAtomic.Load(var ATarget: pointer): pointer;
+begin
+  {$ifdef FPC}
+  Result := ATarget;
+  ReadBarrier;
+  {$else}
+  Result := AtomicCmpExchange(ATarget, nil, nil);
+  {$endif}
+end;
+
+class procedure TAtomic.Store(var ATarget: int32; AValue: int32);
+begin
+  {$ifdef FPC}
+  InterLockedExchange(ATarget, AValue);
+  {$else}
+  AtomicExchange(ATarget, AValue);
+  {$endif}
+end;
+
+class function TAtomic.CompareExchange(var ATarget: int32; AValue, AComparand: int32): int32;
+begin
+  {$ifdef FPC}
+  Result := InterLockedCompareExchange(ATarget, AValue, AComparand);
+  {$else}
+  Result := AtomicCmpExchange(ATarget, AValue, AComparand);
+  {$endif}
+end;
+
+class function TAtomic.CompareExchange(var ATarget: pointer; AValue, AComparand: pointer): pointer;
+begin
+  {$ifdef FPC}
+  Result := InterLockedCompareExchangePointer(ATarget, AValue, AComparand);
+  {$else}
+  Result := AtomicCmpExchange(ATarget, AValue, AComparand);
+  {$endif}
+end;
+
+class function TAtomic.Increment(var ATarget: int32): int32;
+begin
+  {$ifdef FPC}
+  Result := InterLockedIncrement(ATarget);
+  {$else}
+  Result := AtomicIncrement(ATarget);
+  {$endif}
+end;
+
+class function TAtomic.Decrement(var ATarget: int32): int32;
+begin
+  {$ifdef FPC}
+  Result := InterLockedDecrement(ATarget);
+  {$else}
+  Result := AtomicDecrement(ATarget);
+  {$endif}
+end;
+
 { TSafeNotLockedList<T> }
 
 procedure TSafeNotLockedList<T>.Add(const Item: T);
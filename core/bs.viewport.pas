@@ -82,6 +82,11 @@ type
       FRootWindow: TWindow;
 
   {$endif}
+  private
+    { the viewport drawn first; its next draw closes the frame of the
+      application, after all viewports have been drawn }
+    class var
+      FFrameOwner: TBlackSharkViewPort;
   private
   {$ifdef FMXX}
     FWindow: TWindow;
@@ -246,6 +251,8 @@ uses
   , bs.exceptions
   , bs.config
   , bs.utils
+  , bs.frame.stats
+  , bs.texture
   ;
 
 procedure Register;
@@ -609,8 +616,20 @@ begin
 end;
 
 procedure TBlackSharkViewPort.DoDraw;
+var
+  t: uint64;
 begin
+  if FFrameOwner = nil then
+    FFrameOwner := Self
+  else if FFrameOwner = Self then
+  begin
+    BSFrameStats.EndFrame;
+    BSTextureManager.EndFrame;
+  end;
+
+  t := BSFrameStats.StageBegin;
   GUIThread.OnIdleApplication;
+  BSFrameStats.StageEnd(fsEvents, t);
 
   if not Assigned(FContext) then
   begin
@@ -626,7 +645,9 @@ begin
     exit;
 
   FRenderer.Render;
+  t := BSFrameStats.StageBegin;
   FContext.Swap;
+  BSFrameStats.StageEnd(fsSwap, t);
   if Assigned(FOnPaint) then
     FOnPaint(Self);
 
@@ -833,6 +854,8 @@ end;
 
 destructor TBlackSharkViewPort.Destroy;
 begin
+  if FFrameOwner = Self then
+    FFrameOwner := nil;
   ObserverCreateContext := nil;
   FRenderer.Free;
   FContext.Free;
@@ -95,10 +95,22 @@ procedure bsNativeOnViewChanged(PEnv: PJNIEnv; this: JObject; Width, Height: JIn
 function bsNativeOnDraw(PEnv: PJNIEnv; this: JObject): JInt; cdecl;
 procedure bsNativeOnChangeFocus(PEnv: PJNIEnv; this: JObject; nativeHandle: JObject; IsFocused: JBoolean);  cdecl;
 function bsNativeOnTouch(PEnv: PJNIEnv; this: jobject; ActionID: int32; PointerID: jint; X, Y, Pressure: jfloat): JInt; cdecl;
+{ ABatch is a direct ByteBuffer with ACount samples of TTouchSample }
+function bsNativeOnTouchBatch(PEnv: PJNIEnv; this: jobject; ABatch: jobject; ACount: jint): JInt; cdecl;
 function bsNativeOnKeyDown(PEnv: PJNIEnv; this: JObject; keyChar: JChar; keyCode: JInt; shiftState: JInt): JInt; cdecl;
 function bsNativeOnKeyUp(PEnv: PJNIEnv; this: JObject; keyChar: JChar; keyCode: JInt; shiftState: JInt): JInt; cdecl;
 function bsNativeOnBackPressed(PEnv: PJNIEnv; this: JObject): JInt; cdecl;
 function bsNativeNextAction(PEnv: PJNIEnv; this: JObject): JInt; cdecl;
+{ ARing is a direct ByteBuffer for the ring of actions (see TActionsRingHeader) }
+procedure bsNativeMapActionsRing(PEnv: PJNIEnv; this: JObject; ARing: JObject); cdecl;
+{ writes to the ring actions deferred because it was full }
+procedure bsNativeFlushActions(PEnv: PJNIEnv; this: JObject); cdecl;
+{ fills the direct ByteBuffer AStats by the last frames (TFrameStatsSample) from
+  the oldest to the newest; returns amount of the written frames }
+function bsNativeGetFrameStats(PEnv: PJNIEnv; this: JObject; AStats: JObject): JInt; cdecl;
+procedure bsNativeDumpFrameStats(PEnv: PJNIEnv; this: JObject); cdecl;
+{ the calling thread executes the engine from now (see TBThread.AttachToCurrentThread) }
+procedure bsNativeAttachThread(PEnv: PJNIEnv; this: JObject); cdecl;
 function bsNativeGetIntAttribute(PEnv: PJNIEnv; this: jobject; AName: jstring; ADefault: JInt): JInt; cdecl;
 function bsNativeGetBoolAttribute(PEnv: PJNIEnv; this: jobject; AName: jstring; ADefault: jboolean): jboolean; cdecl;
 procedure bsNativeOnViewDestroy(PEnv: PJNIEnv; this: JObject); cdecl;
@@ -106,6 +118,8 @@ procedure bsNativeOnViewDestroy(PEnv: PJNIEnv; this: JObject); cdecl;
 var
   ApplicationAndroid: BSApplicationAndroid;
   g_NativeHandleView: JObject = nil;
+  g_ActionsRing: pointer = nil;
+  g_ActionsRingSize: int32 = 0;
 
 const
   ANDROID_CLASS_NAME: PAnsiChar = 'org/bshark/blackshark/BlackSharkApplication';
@@ -121,10 +135,12 @@ uses
   {$endif}
   , bs.gl.context
   , bs.utils
+  , bs.vfs
   , bs.thread
   , bs.config
   , bs.events.keyboard
   , bs.lang.dictionary
+  , bs.frame.stats
   {$ifndef FPC}
   , FMX.Platform.Android
   //,  fmx.Platform.Android
@@ -143,6 +159,8 @@ constructor BSApplicationAndroid.Create;
 begin
   inherited;
   ApplicationAndroid := Self;
+  if Assigned(g_ActionsRing) then
+    MapActionsRing(g_ActionsRing, g_ActionsRingSize);
 end;
 
 function BSApplicationAndroid.CreateWindow(AWindow: BSWindow): BSWindow;
@@ -318,13 +336,21 @@ const
   SCREEN_ORIENTATION_PORTRAIT = 1;
 var
   s: string;
+  apk: string;
 begin
+  g_CurrentEnv := PEnv;
   s := string(g_CurrentEnv^.GetStringUTFChars(g_CurrentEnv, AFilesDir, nil));
   if AnsiUpperCase(ExtractFileExt(s)) = '.APK' then
     s := ExtractFileDir(s);
 
   SetApplicationPath(IncludeTrailingPathDelimiter(s));
 
+  { assets stored in APK without compression are read directly from it; the host
+    unpacks only compressed ones to AFilesDir (see AssetsExtractor) }
+  apk := string(g_CurrentEnv^.GetStringUTFChars(g_CurrentEnv, AAppDir, nil));
+  if AnsiUpperCase(ExtractFileExt(apk)) = '.APK' then
+    BSVirtualFS.Mount(apk, 'assets/', AppPath);
+
   BSConfig.Load;
   if IsDictionaryEmpty then
     LoadLang('lang.en');
@@ -336,6 +362,9 @@ procedure bsNativeOnViewCreated(PEnv: PJNIEnv; this: JObject; nativeHandle: JObj
 var
   oldNativeHandleView: JObject;
 begin
+  { the host can call the engine from a dedicated render thread (see RenderThread in
+    BlackSharkApplication.java), which has own JNIEnv; the thread owns EGL surface }
+  g_CurrentEnv := PEnv;
 
   oldNativeHandleView := g_NativeHandleView;
   g_NativeHandleView := ANativeWindow_fromSurface(g_CurrentEnv, nativeHandle);
@@ -412,6 +441,7 @@ var
 begin
   if IsFocused <> 0 then
   begin
+    g_CurrentEnv := PEnv;
     {$ifdef DEBUG_BS}
     old := g_NativeHandleView;
     BSWriteMsg('bsNativeOnChangeFocus', '');
@@ -435,15 +465,68 @@ begin
   Result := ApplicationAndroid.OnTouch(ActionID, PointerID, round(X), round(Y), Pressure);
 end;
 
+function bsNativeOnTouchBatch(PEnv: PJNIEnv; this: jobject; ABatch: jobject; ACount: jint): JInt; cdecl;
+var
+  samples: PTouchSample;
+begin
+  samples := PEnv^.GetDirectBufferAddress(PEnv, ABatch);
+  if not Assigned(samples) or (ACount <= 0) then
+    exit(-1);
+  Result := ApplicationAndroid.OnTouchBatch(samples, ACount);
+end;
+
 function bsNativeNextAction(PEnv: PJNIEnv; this: JObject): JInt; cdecl;
 begin
   Result := ApplicationAndroid.GetNextAction;
 end;
 
+procedure bsNativeMapActionsRing(PEnv: PJNIEnv; this: JObject; ARing: JObject); cdecl;
+begin
+  if Assigned(ARing) then
+  begin
+    g_ActionsRing := PEnv^.GetDirectBufferAddress(PEnv, ARing);
+    g_ActionsRingSize := int32(PEnv^.GetDirectBufferCapacity(PEnv, ARing));
+  end else
+  begin
+    g_ActionsRing := nil;
+    g_ActionsRingSize := 0;
+  end;
+  { the application is created later, on the view creation }
+  if Assigned(ApplicationAndroid) then
+    ApplicationAndroid.MapActionsRing(g_ActionsRing, g_ActionsRingSize);
+end;
+
+procedure bsNativeFlushActions(PEnv: PJNIEnv; this: JObject); cdecl;
+begin
+  if Assigned(ApplicationAndroid) then
+    ApplicationAndroid.FlushPendingActions;
+end;
+
+function bsNativeGetFrameStats(PEnv: PJNIEnv; this: JObject; AStats: JObject): JInt; cdecl;
+var
+  buf: PFrameStatsSample;
+begin
+  buf := PEnv^.GetDirectBufferAddress(PEnv, AStats);
+  if not Assigned(buf) then
+    exit(-1);
+  Result := BSFrameStats.Snapshot(buf, int32(PEnv^.GetDirectBufferCapacity(PEnv, AStats) div SizeOf(TFrameStatsSample)));
+end;
+
+procedure bsNativeDumpFrameStats(PEnv: PJNIEnv; this: JObject); cdecl;
+begin
+  BSFrameStats.Dump;
+end;
+
+procedure bsNativeAttachThread(PEnv: PJNIEnv; this: JObject); cdecl;
+begin
+  GUIThread.AttachToCurrentThread;
+end;
+
 function bsNativeGetIntAttribute(PEnv: PJNIEnv; this: jobject; AName: jstring; ADefault: JInt): JInt; cdecl;
 var
   s: string;
 begin
+  g_CurrentEnv := PEnv;
   s := string(g_CurrentEnv^.GetStringUTFChars(g_CurrentEnv, AName, nil));
   Result := BSConfig.GetProperty(s, ADefault); //SCREEN_ORIENTATION_PORTRAIT
   {$ifdef DEBUG_BS}
@@ -458,6 +541,7 @@ begin
   {$ifdef DEBUG_BS}
   BSWriteMsg('bsNativeGetIntAttribute', 'ADefault = ' + IntToStr(ADefault));
   {$endif}
+  g_CurrentEnv := PEnv;
   s := string(g_CurrentEnv^.GetStringUTFChars(g_CurrentEnv, AName, nil));
   if BSConfig.GetProperty(s, ADefault > 0) then
     Result := 1
@@ -61,6 +61,41 @@ type
   TWindowsList  = TListVec<BSWindow>;
   TMonitorsList = TListVec<TMonitor>;
 
+  { a sample of a batch of touch events; the layout is shared with a host (see
+    TouchBatch in BlackSharkApplication.java) }
+  TTouchSample = packed record
+    ActionID: int32;
+    { an identifier of a finger (not a mask of buttons as for OnTouch); moves
+      are coalesced per finger, and every finger acts as the left button }
+    PointerID: int32;
+    X: single;
+    Y: single;
+    Pressure: single;
+  end;
+  PTouchSample = ^TTouchSample;
+
+  { a header of the ring of actions placed in a memory shared with a host (see
+    ActionsRing in BlackSharkApplication.java); the engine is the single producer
+    and writes only Head, the host is the single consumer and writes only Tail;
+    Capacity slots of TActionSlot follow the header; the ring is empty when
+    Head = Tail, and full when (Head + 1) mod Capacity = Tail; actions which
+    do not fit wait in the engine, Deferred is their count; having drained the
+    ring the host calls FlushPendingActions while Deferred > 0, otherwise they
+    wait for a next call of the engine }
+  TActionsRingHeader = packed record
+    Head: int32;
+    Tail: int32;
+    Capacity: int32;
+    Deferred: int32;
+  end;
+  PActionsRingHeader = ^TActionsRingHeader;
+
+  TActionSlot = packed record
+    OpCode: int32;
+    Payload: int32;
+  end;
+  PActionSlot = ^TActionSlot;
+
   { TMonitor }
 
   TMonitor = class
@@ -80,11 +115,17 @@ type
     FIsDblClick: boolean;
     FLastOpCode: int32;
     GuiEvetnsObserver: IBOpCodeEventObserver;
-    FStackNeedActions: TListVec<int32>;
+    { a queue of actions for a host if it has not mapped a shared ring }
+    FNeedActions: TListVec<int32>;
+    FNextAction: int32;
+    FActionsRing: PActionsRingHeader;
+    { actions not fitted to the full ring, in FIFO order }
+    FPendingActions: TListVec<TActionSlot>;
+    function WriteAction(const AAction: TActionSlot): boolean;
     procedure SetPixelsPerInchX(AValue: int32);
     procedure SetPixelsPerInchY(AValue: int32);
     procedure OnGuiEvent(const AData: BOpCode);
-
+    procedure DoTouch(ActionID: int32; PointerID: int32; X, Y: int32; Pressure: single);
   protected
     const
       ACTION_DOWN  = 0;
@@ -151,13 +192,16 @@ type
     procedure UpdateActiveWindow(AWindow: BSWindow); virtual;
     procedure OnGLContextLost; virtual;
     function BuildCommonResult: int32; inline;
+    { adds an action for a host; the actions are delivered in FIFO order }
+    procedure PushAction(AOpCode: int32; APayload: int32 = 0);
     function GetNextAction: int32;
+    procedure ClearActions;
 
     property LastTimeMouseUp: uint32 read FLastTimeMouseUp write FLastTimeMouseUp;
     property TimeMouseDown: uint64 read FTimeMouseDown write FTimeMouseDown;
     property IsDblClick: boolean read FIsDblClick write FIsDblClick;
     property LastOpCode: int32 read FLastOpCode write FLastOpCode;
-    property StackNeedActions: TListVec<int32> read FStackNeedActions;
+    property NeedActions: TListVec<int32> read FNeedActions;
   public
     constructor Create;
     destructor Destroy; override;
@@ -169,6 +213,17 @@ type
     procedure UpdateWait; virtual; abstract;
 
     function OnTouch(ActionID: int32; PointerID: int32; X, Y: int32; Pressure: single): int32;
+    { processes ACount samples by one call; consecutive moves are coalesced: a move
+      hitting the same pixel is skipped, and from a run of moves only the last move
+      of every pointer is delivered; other actions are never skipped }
+    function OnTouchBatch(ASamples: PTouchSample; ACount: int32): int32;
+    { maps the ring of actions shared with a host; after that the host reads
+      actions from the ring without calls GetNextAction; ASize is the size of
+      the memory in bytes; pass nil to unmap }
+    procedure MapActionsRing(ARing: pointer; ASize: int32);
+    { writes to the ring the actions waiting for a place in it (see
+      TActionsRingHeader.Deferred) }
+    procedure FlushPendingActions;
 
     property Monitors: TMonitorsList read FMonitors;
     property MousePointPos: TVec2i read GetMousePointPos;
@@ -395,6 +450,8 @@ uses
   , bs.thread
   , bs.math
   , bs.graphics
+  , bs.frame.stats
+  , bs.texture
 {$ifdef DEBUG_BS}
   , bs.log
 {$endif}
@@ -418,7 +475,7 @@ type
   private
     type
       TWindowItemQ = TItemQueue<BWindowEventData>;
-      TWindowDataQ = TQueueTemplate<TWindowItemQ>;
+      TWindowDataQ = TQueueMPSCTemplate<TWindowItemQ>;
   protected
     class function GetQueueClass: TQueueWrapperClass; override;
     procedure Send(ASender: BSWindow);
@@ -582,6 +639,7 @@ end;
 procedure TBlackSharkApplication.ProcessMessages;
 var
   t, delta: uint32;
+  stage: uint64;
 begin
   t := TBTimer.CurrentTime.Low;
   if (BSConfig.MaxFps or (TTaskExecutor.CountTasks > 0)) or (t - TTaskExecutor.LastTimeRemoveTask < TIMEOUT_MAX_FPS) then
@@ -589,7 +647,14 @@ begin
   else
     FApplicationSystem.UpdateWait;
 
+  stage := BSFrameStats.StageBegin;
   GUIThread.OnIdleApplication;
+  BSFrameStats.StageEnd(fsEvents, stage);
+
+  { all windows have been drawn by the update, so the frame of the application
+    is closed here once, not by every window }
+  BSFrameStats.EndFrame;
+  BSTextureManager.EndFrame;
 
   delta := t - FLastUpdate;
   if (delta > 999) then
@@ -651,7 +716,10 @@ end;
 
 function BSApplicationSystem.BuildCommonResult: int32;
 begin
-  if FLastOpCode = 0 then
+  { the host has drained the ring since the last call, so the deferred actions
+    go first; while any of them waits the host is asked to read the ring again }
+  FlushPendingActions;
+  if (FLastOpCode = 0) and (FPendingActions.Count = 0) then
   begin
     if TTaskExecutor.CountTasks > 0 then
       Result := OPCODE_ANIMATION_RUN
@@ -659,17 +727,96 @@ begin
       Result := OPCODE_ANIMATION_STOP;
   end else
   begin
+    if FLastOpCode <> 0 then
+      PushAction(FLastOpCode);
+
     if TTaskExecutor.CountTasks > 0 then
-      FStackNeedActions.Add(OPCODE_ANIMATION_RUN)
+      PushAction(OPCODE_ANIMATION_RUN)
     else
-      FStackNeedActions.Add(OPCODE_ANIMATION_STOP);
-
-    FStackNeedActions.Add(FLastOpCode);
+      PushAction(OPCODE_ANIMATION_STOP);
 
     Result := OPCODE_LIST_ACTIONS;
   end;
 end;
 
+procedure BSApplicationSystem.PushAction(AOpCode: int32; APayload: int32);
+var
+  action: TActionSlot;
+begin
+  if not Assigned(FActionsRing) then
+  begin
+    FNeedActions.Add(AOpCode);
+    exit;
+  end;
+
+  action.OpCode := AOpCode;
+  action.Payload := APayload;
+  { keeps FIFO order: while deferred actions wait, the new one waits after them }
+  FlushPendingActions;
+  if (FPendingActions.Count > 0) or not WriteAction(action) then
+  begin
+    { the host does not read the ring }
+    FPendingActions.Add(action);
+    FActionsRing.Deferred := FPendingActions.Count;
+  end;
+end;
+
+function BSApplicationSystem.WriteAction(const AAction: TActionSlot): boolean;
+var
+  head: int32;
+  slot: PActionSlot;
+begin
+  head := FActionsRing.Head;
+  if (head + 1) mod FActionsRing.Capacity = FActionsRing.Tail then
+    exit(false);
+
+  slot := PActionSlot(PByte(FActionsRing) + SizeOf(TActionsRingHeader) + head * SizeOf(TActionSlot));
+  slot^ := AAction;
+  { the slot must be visible before the head }
+  {$ifdef FPC}
+  WriteBarrier;
+  {$else}
+  MemoryBarrier;
+  {$endif}
+  FActionsRing.Head := (head + 1) mod FActionsRing.Capacity;
+  Result := true;
+end;
+
+procedure BSApplicationSystem.FlushPendingActions;
+var
+  i: int32;
+begin
+  if not Assigned(FActionsRing) or (FPendingActions.Count = 0) then
+    exit;
+  i := 0;
+  while (i < FPendingActions.Count) and WriteAction(FPendingActions.Items[i]) do
+    inc(i);
+  if i > 0 then
+  begin
+    FPendingActions.Delete(0, i);
+    FActionsRing.Deferred := FPendingActions.Count;
+  end;
+end;
+
+procedure BSApplicationSystem.MapActionsRing(ARing: pointer; ASize: int32);
+var
+  capacity: int32;
+begin
+  FActionsRing := nil;
+  if not Assigned(ARing) then
+    exit;
+  capacity := (ASize - SizeOf(TActionsRingHeader)) div SizeOf(TActionSlot);
+  if capacity < 2 then
+    exit;
+  FActionsRing := ARing;
+  FActionsRing.Capacity := capacity;
+  FActionsRing.Head := 0;
+  FActionsRing.Tail := 0;
+  FActionsRing.Deferred := 0;
+  FPendingActions.Count := 0;
+  ClearActions;
+end;
+
 function BSApplicationSystem.CreateWindow(AOwner: TObject; AParent: BSWindow; APositionX, APositionY, AWidth, AHeight: int32): BSWindow;
 begin
   Result := CreateWindow(BSWindow, AOwner, AParent, APositionX, APositionY, AWidth, AHeight);
@@ -682,7 +829,8 @@ begin
   FOnRemoveWindowEvent := CreateEmptyEvent;
   FMonitors := TMonitorsList.Create;
   GuiEvetnsObserver := CreateOpCodeObserver(bs.gui.base.TBControl.ControlEvents, OnGuiEvent);
-  FStackNeedActions := TListVec<int32>.Create;
+  FNeedActions := TListVec<int32>.Create;
+  FPendingActions := TListVec<TActionSlot>.Create;
 end;
 
 destructor BSApplicationSystem.Destroy;
@@ -695,7 +843,8 @@ begin
   for i := 0 to FMonitors.Count - 1 do
     FMonitors.Items[i].Free;
   FMonitors.Free;
-  FStackNeedActions.Free;
+  FNeedActions.Free;
+  FPendingActions.Free;
   inherited;
 end;
 
@@ -792,12 +941,22 @@ end;
 
 function BSApplicationSystem.GetNextAction: int32;
 begin
-  if FStackNeedActions.Count > 0 then
-    Result := FStackNeedActions.Pop
-  else
+  if FNextAction < FNeedActions.Count then
+  begin
+    Result := FNeedActions.Items[FNextAction];
+    inc(FNextAction);
+    if FNextAction = FNeedActions.Count then
+      ClearActions;
+  end else
     Result := -1;
 end;
 
+procedure BSApplicationSystem.ClearActions;
+begin
+  FNeedActions.Count := 0;
+  FNextAction := 0;
+end;
+
 function BSApplicationSystem.GetShiftState(AShiftState: Int32): TBSShiftState;
 begin
   Result := [];
@@ -813,12 +972,69 @@ begin
 end;
 
 function BSApplicationSystem.OnTouch(ActionID: int32; PointerID: int32; X, Y: int32; Pressure: single): int32;
+begin
+  FLastOpCode := 0;
+  DoTouch(ActionID, PointerID, X, Y, Pressure);
+  Result := BuildCommonResult;
+end;
+
+function BSApplicationSystem.OnTouchBatch(ASamples: PTouchSample; ACount: int32): int32;
+
+  { whether a move of the same pointer follows ASample in the current run of moves }
+  function HasNextMove(ASample: PTouchSample; ALeft: int32): boolean;
+  var
+    next: PTouchSample;
+  begin
+    next := ASample;
+    while ALeft > 0 do
+    begin
+      inc(next);
+      if next.ActionID <> ACTION_MOVE then
+        exit(false);
+      if next.PointerID = ASample.PointerID then
+        exit(true);
+      dec(ALeft);
+    end;
+    Result := false;
+  end;
+
+var
+  i: int32;
+  x, y: int32;
+  sample: PTouchSample;
+begin
+  FLastOpCode := 0;
+  sample := ASamples;
+  for i := 0 to ACount - 1 do
+  begin
+    x := round(sample.X);
+    y := round(sample.Y);
+    if (sample.ActionID = ACTION_MOVE) and Assigned(ActiveWindow) then
+    begin
+      if (x = FMousePos.x) and (y = FMousePos.y) then
+      begin
+        inc(sample);
+        continue;
+      end;
+
+      if HasNextMove(sample, ACount - 1 - i) then
+      begin
+        inc(sample);
+        continue;
+      end;
+    end;
+    DoTouch(sample.ActionID, MOUSE_LEFT_BUTTON, x, y, sample.Pressure);
+    inc(sample);
+  end;
+  Result := BuildCommonResult;
+end;
+
+procedure BSApplicationSystem.DoTouch(ActionID: int32; PointerID: int32; X, Y: int32; Pressure: single);
 var
   window: BSWindow;
   ss: TBSShiftState;
   mb: TBSMouseButton;
 begin
-  FLastOpCode := 0;
   window := GetWindow(X, Y);
   if (window <> ActiveWindow) and (ActionID = ACTION_DOWN) and (ActiveWindow.WindowState <> wsShownModal) and (not ActiveWindow.MouseIsDown) then
     window.IsActive := true;
@@ -900,9 +1116,6 @@ begin
     end;
 
   end;
-
-  Result := BuildCommonResult;
-
 end;
 
 function BSApplicationSystem.GetWindow(AHandle: EGLNativeWindowType): BSWindow;
@@ -1093,6 +1306,8 @@ begin
 end;
 
 procedure BSWindow.DoRender;
+var
+  t: uint64;
 begin
   if not Assigned(FGlContext) or not IsVisible then
     exit;
@@ -1100,9 +1315,13 @@ begin
   if FGlContext.MakeCurrent then
   {$endif}
   begin
-  FRenderer.Render;
+    if FRenderer.PartialRedraw then
+      FRenderer.BufferAge := FGlContext.BufferAge;
+    FRenderer.Render;
+    t := BSFrameStats.StageBegin;
     if not FGlContext.Swap and FGlContext.ContextIsLost then
       Application.ApplicationSystem.OnGLContextLost;
+    BSFrameStats.StageEnd(fsSwap, t);
   end;
 end;
 
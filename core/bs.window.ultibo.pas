@@ -314,7 +314,7 @@ begin
   end;
   MouseButtonsBefore := AInput.Buttons;
   { it doesn't need to handle required actions, reset them }
-  StackNeedActions.Count := 0;
+  ClearActions;
 end;
 
 procedure BSApplicationUltibo.DoKeyboardInput(const AInput: TKeyboardData);
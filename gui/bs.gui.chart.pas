@@ -52,10 +52,22 @@ const
   LAYER_GRID = LAYER_RECT + 1;
   LAYER_AXIS = LAYER_GRID + 1;
   LAYER_CHART = LAYER_AXIS + 1;
+  { count of blocks of the level of detail pyramid for a search of limits of
+    a stream (see TDataContainer.Append) }
+  LOD_LIMITS_BLOCKS = 256;
 
 
 type
 
+  { a block of a level of detail pyramid; contains absolute indexes of points
+    with min and max TY among points of the block }
+  TChartLodBlock = record
+    IndexMin: int64;
+    IndexMax: int64;
+  end;
+
+  TChartLodLevel = array of TChartLodBlock;
+
   { the container a pair arguments }
   TDataContainer<TX, TY> = class
   public
@@ -115,6 +127,16 @@ type
     procedure SetColor(const Value: TColor4f);
     { method invoke befor draw in case UniteArgX set on;  }
     procedure CheckTYLimits;
+    { method invoke befor draw in the stream mode (Capacity > 0) if the oldest
+      points were overwritten }
+    procedure CheckStreamLimits;
+    function GetCountPoints: int64;
+    procedure SetCapacity(const Value: int32);
+    { returns a slot of ABlock in the level ALevel; allocates the level if need }
+    function LodSlot(ALevel: int32; ABlock: int64): int64;
+    { adds a point with the absolute index AIndex to the level of detail pyramid }
+    procedure LodAdd(AIndex: int64);
+    procedure LodScan(AFrom, ATo: int64; out AMin, AMax: int64);
   protected
     FIndex: int32;
     IntegralY: TY;
@@ -131,6 +153,29 @@ type
     FTreeValues: TTreeValues;
     { list grouped values by TY with save order add groups }
     FListValues: TListVec<PGroupValues>;
+    { the level of detail pyramid over points in order of addition; FLod[k - 1]
+      is a level k, every block of which covers 2^k points }
+    FLod: array of TChartLodLevel;
+    FCapacity: int32;
+    { the ring buffer of the stream mode }
+    FStreamX: array of TX;
+    FStreamY: array of TY;
+    { an absolute index of the oldest alive point of the stream and count of all
+      appended points, that is an absolute index of a next point }
+    FFirst: int64;
+    FCount: int64;
+    FLimitsDirty: boolean;
+    { data were changed after the last drawing }
+    FChanged: boolean;
+    { values by an absolute index of a point; in the usual mode it is an index
+      in FValues }
+    function GetPointX(AIndex: int64): TX;
+    function GetPointY(AIndex: int64): TY;
+    { fills AIndexes by absolute indexes of points for drawing; if the count
+      of points more AMaxBlocks, then the points are united to blocks and from
+      every block only points with min and max TY are taken; returns true if
+      the points were decimated }
+    function LodSelect(AMaxBlocks: int64; AIndexes: TListVec<int64>): boolean;
     { in result sort groups will reorderd from low to high TY }
     procedure SortByY;
     { in result sort groups will reorderd from high to low TY }
@@ -141,6 +186,11 @@ type
     procedure Clear;
     function AddPair(const X: TX; const Y: TY): PGroupValues; overload;
     function AddPair(const X: TX; const Y: TY; const Color: TColor4f): PGroupValues; overload;
+    { adds a point of a live data; in the stream mode (Capacity > 0) the point
+      is put into the ring buffer over the oldest one, groups of arguments are
+      not created, so the mode is intended for curves only; otherwise the
+      same as AddPair; TX of points must grow }
+    procedure Append(const X: TX; const Y: TY);
     property Values[index: int32]: TArgValue read GetValue;
     property Color: TColor4f read GetColor write SetColor;
     property MaxX: TX read FMaxX;
@@ -155,6 +205,11 @@ type
       TY to one point: summ if UniteArgYAsSum equal true, otherwise - average
        }
     property UniteArgYAsSum: boolean read FUniteArgYAsSum write FUniteArgYAsSum;
+    { a size of the ring buffer of the stream mode; 0 switches the stream mode
+      off; the change clears data }
+    property Capacity: int32 read FCapacity write SetCapacity;
+    { count of alive points }
+    property CountPoints: int64 read GetCountPoints;
   end;
 
   { the template for presentation a chart }
@@ -341,6 +396,9 @@ type
     function CreateChart: TDataContainer<TX, TY>; virtual;
     procedure DeleteChart(Chart: TDataContainer<TX, TY>); virtual;
     procedure DrawChart(Chart: TDataContainer<TX, TY>); virtual; abstract;
+    { redraws only changed curves if limits of data were not changed, otherwise
+      rebuilds the whole view; intended for a live data (see TDataContainer.Append) }
+    procedure Refresh;
     { remove curve without destroying  }
     procedure RemoveChart(Chart: TDataContainer<TX, TY>); virtual;
     procedure ClearTextAxis;
@@ -380,6 +438,8 @@ type
     PointHint: TRoundRectTextured;
     HintText: TCanvasText;
     FShowPoints: boolean;
+    FLevelOfDetail: boolean;
+    LodIndexes: TListVec<int64>;
     GroupMouseEnter: BObserversGroup<BMouseData>;
     GroupMouseLeave: BObserversGroup<BMouseData>;
     procedure SetShowPoints(const Value: boolean);
@@ -397,6 +457,9 @@ type
     procedure DrawChart(Chart: TDataContainer<TX, TY>); override;
     property InterpolateSpline: TInterpolateSpline read FInterpolateSpline write SetInterpolateSpline;
     property ShowPoints: boolean read FShowPoints write SetShowPoints;
+    { decimates curves to about two points on a pixel of the axis X; points
+      of curves must be added with growing TX }
+    property LevelOfDetail: boolean read FLevelOfDetail write FLevelOfDetail;
   end;
 
   { the template for presentation circular diagram, where x - legend, y - quantity;
@@ -705,12 +768,295 @@ begin
     par.ValueY := Y;
     par.GraphArg := nil;
     FValues.Add(par);
+    { united arguments are reordered befor drawing, so the pyramid is built only
+      for not united }
+    if not FUniteArgX then
+      LodAdd(FValues.Count - 1);
   end else
   begin
     FValues.Data^[Result^.IndexInList].ValueY := Result^.ValuesSum;
   end;
 
   IntegralY := OpY.Add(IntegralY, Y);
+  FChanged := true;
+end;
+
+procedure TDataContainer<TX, TY>.Append(const X: TX; const Y: TY);
+var
+  slot: int32;
+begin
+  if FCapacity = 0 then
+  begin
+    AddPair(X, Y);
+    exit;
+  end;
+
+  slot := FCount mod FCapacity;
+  FStreamX[slot] := X;
+  FStreamY[slot] := Y;
+  if FCount - FFirst = FCapacity then
+  begin
+    inc(FFirst);
+    { the overwritten point could be a limit }
+    FLimitsDirty := true;
+  end;
+  LodAdd(FCount);
+  inc(FCount);
+
+  if OpX.Comparator(X, FMaxX) > 0 then
+    FMaxX := X;
+  if OpX.Comparator(X, FMinX) < 0 then
+    FMinX := X;
+  if OpY.Comparator(Y, FMaxY) > 0 then
+    FMaxY := Y;
+  if OpY.Comparator(Y, FMinY) < 0 then
+    FMinY := Y;
+  FChanged := true;
+end;
+
+procedure TDataContainer<TX, TY>.CheckStreamLimits;
+var
+  indexes: TListVec<int64>;
+  i: int32;
+  index: int64;
+  x: TX;
+  y: TY;
+begin
+  if not FLimitsDirty then
+    exit;
+  FLimitsDirty := false;
+  FMaxX := OpX.Low;
+  FMaxY := OpY.Low;
+  FMinX := OpX.High;
+  FMinY := OpY.High;
+  indexes := TListVec<int64>.Create;
+  try
+    { min and max of blocks contain limits of TY exactly; TX grows, so its
+      limits are the oldest and the newest points }
+    LodSelect(LOD_LIMITS_BLOCKS, indexes);
+    if indexes.Count > 0 then
+    begin
+      indexes.Add(FFirst);
+      indexes.Add(FCount - 1);
+    end;
+    for i := 0 to indexes.Count - 1 do
+    begin
+      index := indexes.Items[i];
+      x := GetPointX(index);
+      y := GetPointY(index);
+      if OpX.Comparator(x, FMaxX) > 0 then
+        FMaxX := x;
+      if OpX.Comparator(x, FMinX) < 0 then
+        FMinX := x;
+      if OpY.Comparator(y, FMaxY) > 0 then
+        FMaxY := y;
+      if OpY.Comparator(y, FMinY) < 0 then
+        FMinY := y;
+    end;
+  finally
+    indexes.Free;
+  end;
+end;
+
+function TDataContainer<TX, TY>.GetCountPoints: int64;
+begin
+  if FCapacity > 0 then
+    Result := FCount - FFirst
+  else
+    Result := FValues.Count;
+end;
+
+function TDataContainer<TX, TY>.GetPointX(AIndex: int64): TX;
+begin
+  if FCapacity > 0 then
+    Result := FStreamX[AIndex mod FCapacity]
+  else
+    Result := FValues.ShiftData[int32(AIndex)]^.Group^.ValueX;
+end;
+
+function TDataContainer<TX, TY>.GetPointY(AIndex: int64): TY;
+begin
+  if FCapacity > 0 then
+    Result := FStreamY[AIndex mod FCapacity]
+  else
+    Result := FValues.ShiftData[int32(AIndex)]^.ValueY;
+end;
+
+procedure TDataContainer<TX, TY>.SetCapacity(const Value: int32);
+begin
+  if (FCapacity = Value) or (Value < 0) then
+    exit;
+  Clear;
+  FCapacity := Value;
+  SetLength(FStreamX, FCapacity);
+  SetLength(FStreamY, FCapacity);
+end;
+
+function TDataContainer<TX, TY>.LodSlot(ALevel: int32; ABlock: int64): int64;
+var
+  len: int64;
+begin
+  len := length(FLod[ALevel - 1]);
+  if FCapacity > 0 then
+  begin
+    { alive points occupy not more than (FCapacity shr ALevel) + 1 blocks }
+    if len = 0 then
+    begin
+      len := (FCapacity shr ALevel) + 2;
+      SetLength(FLod[ALevel - 1], len);
+    end;
+    Result := ABlock mod len;
+  end else
+  begin
+    if ABlock >= len then
+    begin
+      len := len * 2;
+      if len <= ABlock then
+        len := ABlock + 16;
+      SetLength(FLod[ALevel - 1], len);
+    end;
+    Result := ABlock;
+  end;
+end;
+
+procedure TDataContainer<TX, TY>.LodAdd(AIndex: int64);
+var
+  k, levels: int32;
+  slot, size: int64;
+  y: TY;
+  first, second: TChartLodBlock;
+begin
+  levels := length(FLod);
+  size := int64(1) shl (levels + 1);
+  { points have filled the top level, so a next level is added; its first
+    block unites two blocks of the previous level (or two first points);
+    a block of the stream mode is not bigger than the ring buffer }
+  if (AIndex = size) and ((FCapacity = 0) or (size <= FCapacity)) then
+  begin
+    SetLength(FLod, levels + 1);
+    if levels = 0 then
+      LodScan(0, 1, first.IndexMin, first.IndexMax)
+    else
+    begin
+      first := FLod[levels - 1][LodSlot(levels, 0)];
+      second := FLod[levels - 1][LodSlot(levels, 1)];
+      if OpY.Comparator(GetPointY(second.IndexMin), GetPointY(first.IndexMin)) < 0 then
+        first.IndexMin := second.IndexMin;
+      if OpY.Comparator(GetPointY(second.IndexMax), GetPointY(first.IndexMax)) > 0 then
+        first.IndexMax := second.IndexMax;
+    end;
+    inc(levels);
+    FLod[levels - 1][LodSlot(levels, 0)] := first;
+  end;
+
+  y := GetPointY(AIndex);
+  for k := 1 to levels do
+  begin
+    slot := LodSlot(k, AIndex shr k);
+    if AIndex and ((int64(1) shl k) - 1) = 0 then
+    begin
+      { the first point of a block }
+      FLod[k - 1][slot].IndexMin := AIndex;
+      FLod[k - 1][slot].IndexMax := AIndex;
+    end else
+    begin
+      if OpY.Comparator(y, GetPointY(FLod[k - 1][slot].IndexMin)) < 0 then
+        FLod[k - 1][slot].IndexMin := AIndex;
+      if OpY.Comparator(y, GetPointY(FLod[k - 1][slot].IndexMax)) > 0 then
+        FLod[k - 1][slot].IndexMax := AIndex;
+    end;
+  end;
+end;
+
+procedure TDataContainer<TX, TY>.LodScan(AFrom, ATo: int64; out AMin, AMax: int64);
+var
+  i: int64;
+  y, y_min, y_max: TY;
+begin
+  AMin := AFrom;
+  AMax := AFrom;
+  y_min := GetPointY(AFrom);
+  y_max := y_min;
+  i := AFrom + 1;
+  while i <= ATo do
+  begin
+    y := GetPointY(i);
+    if OpY.Comparator(y, y_min) < 0 then
+    begin
+      y_min := y;
+      AMin := i;
+    end;
+    if OpY.Comparator(y, y_max) > 0 then
+    begin
+      y_max := y;
+      AMax := i;
+    end;
+    inc(i);
+  end;
+end;
+
+function TDataContainer<TX, TY>.LodSelect(AMaxBlocks: int64; AIndexes: TListVec<int64>): boolean;
+var
+  k: int32;
+  count, last, block, lo, hi, size, i, i_min, i_max: int64;
+begin
+  AIndexes.Count := 0;
+  count := GetCountPoints;
+  if count = 0 then
+    exit(false);
+  last := FFirst + count - 1;
+  k := 0;
+  if not FUniteArgX or (FCapacity > 0) then
+    while (k < length(FLod)) and ((count shr k) > AMaxBlocks) do
+      inc(k);
+
+  if k = 0 then
+  begin
+    i := FFirst;
+    while i <= last do
+    begin
+      AIndexes.Add(i);
+      inc(i);
+    end;
+    exit(false);
+  end;
+
+  size := int64(1) shl k;
+  block := FFirst shr k;
+  lo := block * size;
+  while lo <= last do
+  begin
+    hi := lo + size - 1;
+    if (lo < FFirst) or (hi > last) then
+    begin
+      { only the oldest and the newest blocks are partly alive; they are
+        scanned, that costs not more than two blocks }
+      if lo < FFirst then
+        lo := FFirst;
+      if hi > last then
+        hi := last;
+      LodScan(lo, hi, i_min, i_max);
+    end else
+    begin
+      i_min := FLod[k - 1][LodSlot(k, block)].IndexMin;
+      i_max := FLod[k - 1][LodSlot(k, block)].IndexMax;
+    end;
+    { keeps order of points }
+    if i_min < i_max then
+    begin
+      AIndexes.Add(i_min);
+      AIndexes.Add(i_max);
+    end else
+    if i_min > i_max then
+    begin
+      AIndexes.Add(i_max);
+      AIndexes.Add(i_min);
+    end else
+      AIndexes.Add(i_min);
+    inc(block);
+    lo := block * size;
+  end;
+  Result := true;
 end;
 
 procedure TDataContainer<TX, TY>.CheckTYLimits;
@@ -823,6 +1169,11 @@ begin
   FValues.Count := 0;
   FTreeValues.Clear;
   FListValues.Count := 0;
+  FLod := nil;
+  FFirst := 0;
+  FCount := 0;
+  FLimitsDirty := false;
+  FChanged := true;
 end;
 
 class function TDataContainer<TX, TY>.CompGroupValues(const Value1,
@@ -1024,6 +1375,9 @@ begin
       also reordered on grow groups united arguments, and in fact, a count added
       values (contained in Chart.FValues) always equal count of groups values
       (contained in Chart.FListValues}
+    if Chart.FCapacity > 0 then
+      Chart.CheckStreamLimits
+    else
     if Chart.UniteArgX then
       Chart.CheckTYLimits;
     if OpX.Comparator(Chart.MaxX, FMaxX) > 0 then
@@ -1285,12 +1639,48 @@ begin
   DrawAxis;
 
   for i := 0 to FCurves.Count - 1 do
+  begin
     DrawChart(FCurves.Items[i]);
+    FCurves.Items[i].FChanged := false;
+  end;
 
   if FShowLegend then
     DrawLegends;
 end;
 
+procedure TBChart<TX, TY>.Refresh;
+var
+  i: int32;
+  min_x, max_x: TX;
+  min_y, max_y: TY;
+  curve: TDataContainerPairXY;
+begin
+  if (UpdateCounter > 0) or (FCurves.Count = 0) then
+    exit;
+  min_x := FMinX;
+  max_x := FMaxX;
+  min_y := FMinY;
+  max_y := FMaxY;
+  CalcLimits;
+  { the axes, the grid and the text depend on the limits only }
+  if (OpX.Comparator(min_x, FMinX) <> 0) or (OpX.Comparator(max_x, FMaxX) <> 0) or
+    (OpY.Comparator(min_y, FMinY) <> 0) or (OpY.Comparator(max_y, FMaxY) <> 0) then
+  begin
+    BuildView;
+    exit;
+  end;
+
+  for i := 0 to FCurves.Count - 1 do
+  begin
+    curve := FCurves.Items[i];
+    if curve.FChanged then
+    begin
+      DrawChart(curve);
+      curve.FChanged := false;
+    end;
+  end;
+end;
+
 function TBChart<TX, TY>.DefaultSize: TVec2f;
 begin
   Result := vec2(300 * ToHiDpiScale, 300 * ToHiDpiScale);
@@ -1774,6 +2164,8 @@ begin
   FShowAxisX := true;
   FShowGrid := true;
   FShowAxisName := true;
+  FLevelOfDetail := true;
+  LodIndexes := TListVec<int64>.Create;
 end;
 
 function TBChartCurves<TX, TY>.CreateChart: TDataContainer<TX, TY>;
@@ -1821,6 +2213,7 @@ end;
 
 destructor TBChartCurves<TX, TY>.Destroy;
 begin
+  LodIndexes.Free;
   GroupMouseEnter.Free;
   GroupMouseLeave.Free;
   if (HintText <> nil) then
@@ -2092,15 +2485,18 @@ procedure TBChartCurves<TX, TY>.DrawChart(Chart: TDataContainer<TX, TY>);
 //  POINT_RADIUS: int8 = 4;
 var
   i: int32;
+  index: int64;
+  max_blocks: int64;
   pair: TDataContainerPairXY.PArgValue;
   v2i: TVec2i;
   p: TCircle;
 
 begin
-  if (FAxisXSize = 0) or (FAxisYSize = 0) or (Chart.FValues.Count = 0) then
+  if (FAxisXSize = 0) or (FAxisYSize = 0) or (Chart.CountPoints = 0) then
     exit;
   Chart.FPath.Clear;
-  Chart.FPath.ShowPoints := FShowPoints;
+  { points of the stream have not pairs for the hint }
+  Chart.FPath.ShowPoints := FShowPoints and (Chart.FCapacity = 0);
   GroupMouseEnter.Clear;
   GroupMouseLeave.Clear;
 
@@ -2109,14 +2505,27 @@ begin
   else
     Chart.FPath.WidthLine := 2 * ToHiDpiScale;
 
-  for i := 0 to Chart.FValues.Count - 1 do
+  { not more than two points (min and max) on a pixel }
+  if FLevelOfDetail then
+    max_blocks := FAxisXSize
+  else
+    max_blocks := High(int64);
+
+  { a spline through min and max of blocks only distorts a curve }
+  if Chart.LodSelect(max_blocks, LodIndexes) then
+    Chart.FPath.InterpolateSpline := isNone
+  else
+    Chart.FPath.InterpolateSpline := FInterpolateSpline;
+
+  for i := 0 to LodIndexes.Count - 1 do
   begin
-    pair := Chart.FValues.ShiftData[i];
-    v2i.x := round(GetArgX[WidthXIsZero, MaxXIsZero](pair.Group.ValueX));
-    v2i.y := round(GetArgY[WidthYIsZero, MaxYIsZero](pair.ValueY));
+    index := LodIndexes.Items[i];
+    v2i.x := round(GetArgX[WidthXIsZero, MaxXIsZero](Chart.GetPointX(index)));
+    v2i.y := round(GetArgY[WidthYIsZero, MaxYIsZero](Chart.GetPointY(index)));
     p := Chart.FPath.AddPoint(vec2(int32(round(v2i.x)), v2i.y));
     if p <> nil then // FShowPoints
     begin
+      pair := Chart.FValues.ShiftData[int32(index)];
       p.Data.TagPtr := pair;
       GroupMouseEnter.CreateObserver(p.Data.EventMouseEnter);
       GroupMouseLeave.CreateObserver(p.Data.EventMouseLeave);
@@ -342,7 +342,9 @@ begin
   FTextView.Anchors[TAnchor.aLeft] := false;
   FTextView.Anchors[TAnchor.aBottom] := false;
   FTextView.Data.Interactive := false;
-  FTextView.Text := FText;
+  { the view shares the text, so an edit passes to it only the changed range }
+  FTextView.SceneTextData.TextData := @FText;
+  FTextView.Build;
   FTextView.Data.StencilTest := true;
   FTextView.Layer2d := 2;
   FTextView.Color := TColor4f(FColorText);
@@ -454,26 +456,32 @@ begin
 end;
 
 procedure TBCustomEdit.DeleteSymbol;
+var
+  start, count: int32;
 begin
   if Assigned(Selector) and (FCountSelected <> 0) then
   begin
     { if FCountSelected < 0 then the cursor remains in itself place }
     if FCountSelected < 0 then
-      FText.Delete(FStartSelected + FCountSelected, abs(FCountSelected))
-    else
+    begin
+      start := FStartSelected + FCountSelected;
+      count := abs(FCountSelected);
+    end else
     begin
       CursorPosition := FStartSelected;
-      FText.Delete(FStartSelected, FCountSelected);
+      start := FStartSelected;
+      count := FCountSelected;
     end;
+    FText.Delete(start, count);
     ClearSelection;
-    FTextView.Text := FText;
+    FTextView.TextEdited(start, count, 0);
     SetTextViewPosition;
   end else
   if FPosCursorSymbols > 1 then
   begin
     DecCursor;
     FText.Delete(FPosCursorSymbols);
-    FTextView.Text := FText;
+    FTextView.TextEdited(FPosCursorSymbols, 1, 0);
     SetTextViewPosition;
   end;
 end;
@@ -673,13 +681,15 @@ end;
 procedure TBCustomEdit.InsertSymbol(Symbol: WideChar);
 var
   pk: PKeyInfo;
+  len: int32;
 begin
   pk := FCanvas.Font.KeyByWideChar[Symbol];
   if pk <> nil then
   begin
+    len := FText.Len;
     FText.Insert(FPosCursorSymbols, WideToString(WideString(Symbol)));
     if Assigned(FTextView) then
-      FTextView.Text := FText;
+      FTextView.TextEdited(FPosCursorSymbols, 0, FText.Len - len);
     IncCursor;
     SetTextViewPosition;
   end;
@@ -980,7 +990,10 @@ begin
 end;
 
 procedure TBCustomEdit.SetText(const AValue: string);
+var
+  len: int32;
 begin
+  len := FText.Len;
   FText := AValue;
   FPosCursorSymbols := 1;
   PosCursorPixels := 0;
@@ -991,7 +1004,7 @@ begin
 
   if Assigned(FTextView) then
   begin
-    FTextView.Text := AValue;
+    FTextView.TextEdited(1, len, FText.Len);
     FTextView.SceneTextData.OffsetX := 0;
     SetTextViewPosition;
   end;
@@ -1086,12 +1099,15 @@ begin
 end;
 
 constructor TBCustomSpinEdit.Create(ACanvas: TBCanvas);
+var
+  len: int32;
 begin
   inherited;
   FMaxValue := high(Int64);
   FMinValue := low(Int64);
+  len := FText.Len;
   FText := '0';
-  FTextView.Text := FText;
+  FTextView.TextEdited(1, len, FText.Len);
   BtnUp := TRectangle.Create(FCanvas, FMainBody);
   BtnUp.Fill := true;
   BtnUp.Data.DragResolve := false;
@@ -56,6 +56,7 @@ uses
   , bs.font
   , bs.instancing
   , bs.geometry
+  , bs.vfs
   ;
 
 type
@@ -107,6 +108,55 @@ type
     property SizeReadedBytes: int32 read FSizeReadedBytes;
   end;
 
+  { TGridDataSource
+
+    a paged source of data for TBGrid; the grid requests only rows hitting into
+    the viewport, so a size of data is not limited by memory }
+
+  TGridDataSource = class
+  protected
+    function GetSize: int64; virtual; abstract;
+  public
+    { returns a pointer on ACount bytes from AOffset; the memory is valid until
+      a next call of Read or Prefetch; nil if the range goes out of the data }
+    function Read(AOffset: int64; ACount: int32): pByte; virtual; abstract;
+    { a hint about a range which will be requested soon (rows near the viewport) }
+    procedure Prefetch(AOffset: int64; ACount: int64); virtual;
+    { size of data, bytes }
+    property Size: int64 read GetSize;
+  end;
+
+  { TGridMemoryDataSource
+
+    a buffer in memory; the buffer is not owned }
+
+  TGridMemoryDataSource = class(TGridDataSource)
+  private
+    FData: pByte;
+    FSize: int64;
+  protected
+    function GetSize: int64; override;
+  public
+    constructor Create(AData: pByte; ASize: int64);
+    function Read(AOffset: int64; ACount: int32): pByte; override;
+  end;
+
+  { TGridFileDataSource
+
+    a file of any size is read through a few memory-mapped windows (see TMappedFile) }
+
+  TGridFileDataSource = class(TGridDataSource)
+  private
+    FFile: TMappedFile;
+  protected
+    function GetSize: int64; override;
+  public
+    constructor Create(const AFileName: string; ACountWindows: int32 = 4; AWindowSize: int32 = 1 shl 20);
+    destructor Destroy; override;
+    function Read(AOffset: int64; ACount: int32): pByte; override;
+    procedure Prefetch(AOffset: int64; ACount: int64); override;
+  end;
+
   TCommonGUIProperties = class(TGUIProperties)
   private
     function GetColorUnit: TGuiColor;
@@ -425,6 +475,9 @@ type
     Cursor: TRectangle;
     FCursorPosition: TPosition2d;
     FSizeGrid: TVec2i64;
+    FDataSource: TGridDataSource;
+    FBytesInRow: int32;
+    FPrefetchRows: int32;
     procedure SetPositionFirstCell(const Value: TVec2d);
     procedure SetCurrentPresent(const Value: TGridDataPresentation);
     function GetPositionFirstCell: TVec2d;
@@ -465,6 +518,10 @@ type
     function DataWidthToGUI(const Value, StartPos: double): double; inline;
     function DataHeightToGUI(const Value: double): double; inline;
     procedure UpdateCursor;
+    procedure SetDataSource(const Value: TGridDataSource);
+    procedure SetBytesInRow(const Value: int32);
+    { calculates FSizeGrid by DataSource }
+    procedure UpdateSizeByDataSource;
   protected
     //procedure SetFont(AValue: TBlackSharkCustomFont); override;
     procedure OnChangeCanvasFont(const AData: BData); override;
@@ -500,6 +557,9 @@ type
          }
     procedure Present(const Position: TVec2i64; pData: pByte; LenData: int32; BeginOffset: int8); virtual;
     procedure EndPresent; virtual;
+    { draws rows of DataSource hitting into the viewport; invoked automatically
+      on scroll and resize }
+    procedure PresentDataSource; virtual;
     procedure Clear;
 
     { methods selection of data }
@@ -562,6 +622,15 @@ type
     property PageSize: TVec2f read GetPageSize;
     { define if show cursor; depend on SelectMode cursor has an apropriate shape }
     property ShowCursor: boolean read FShowCursor write SetShowCursor;
+    { a source of data; if assigned the grid itself reads and presents only
+      visible rows, therefore BeginPresent/Present/EndPresent are not necessary;
+      the source is not owned by the grid }
+    property DataSource: TGridDataSource read FDataSource write SetDataSource;
+    { a length of a row of DataSource, bytes }
+    property BytesInRow: int32 read FBytesInRow write SetBytesInRow;
+    { count of rows around the viewport for which DataSource gets a hint
+      about reading in advance }
+    property PrefetchRows: int32 read FPrefetchRows write FPrefetchRows;
   end;
 
 const
@@ -701,6 +770,8 @@ constructor TBGrid.Create(ACanvas: TBCanvas);
 begin
   inherited;
   ListSelArea := TListVec<PSelArea>.Create;
+  FBytesInRow := 16;
+  FPrefetchRows := 64;
   FCanvas.Font.Size := 12;
   FCanvas.Font.CodePage := cpCyrillic;
   SpaceTreeForMarker := TBlackSharkRTree.Create;
@@ -952,6 +1023,7 @@ end;
 
 destructor TBGrid.Destroy;
 begin
+  FDataSource := nil;
   FCurrentPresent := nil;
   //FreeAndNil(Selector);
   FreeAndNil(FAreaMarker);
@@ -978,6 +1050,8 @@ begin
     AreaMarker.SpaceTree.ViewPort(p.x, p.y, ClipObject.Width / FCurrentPresent.FWidthCol,
       ClipObject.Height / FCurrentPresent.FHeightRow);
   end;
+  if FDataSource <> nil then
+    PresentDataSource;
 end;
 
 procedure TBGrid.EndPresent;
@@ -1330,6 +1404,71 @@ begin
     FCurrentPresent.FRect.Width := pos.x + w - FCurrentPresent.FRect.X;
 end;
 
+procedure TBGrid.PresentDataSource;
+var
+  page: TVec2f;
+  pos, cell: TVec2i64;
+  row, row_last, col_last: int64;
+  offset, size, bits_in_row, bit_first, bits: int64;
+  interval, begin_offset: int32;
+  data: pByte;
+begin
+  if (FDataSource = nil) or (FCurrentPresent = nil) or (FSizeGrid.x <= 0) or (FSizeGrid.y <= 0) then
+    exit;
+  interval := IntervalSize;
+  size := FDataSource.Size;
+  page := PageSize;
+  { a partly visible row and a column are added to the page }
+  pos.x := PositionX;
+  pos.y := PositionY;
+  col_last := pos.x + round(page.x) + 1;
+  if col_last >= FSizeGrid.x then
+    col_last := FSizeGrid.x - 1;
+  row_last := pos.y + round(page.y) + 1;
+  if row_last >= FSizeGrid.y then
+    row_last := FSizeGrid.y - 1;
+
+  if FPrefetchRows > 0 then
+  begin
+    row := pos.y - FPrefetchRows;
+    if row < 0 then
+      row := 0;
+    FDataSource.Prefetch(row * FBytesInRow, (pos.y - row) * FBytesInRow);
+    FDataSource.Prefetch((row_last + 1) * FBytesInRow, int64(FPrefetchRows) * FBytesInRow);
+  end;
+
+  BeginPresent;
+  try
+    bit_first := pos.x * interval;
+    begin_offset := bit_first mod 8;
+    row := pos.y;
+    while row <= row_last do
+    begin
+      offset := row * FBytesInRow;
+      bits_in_row := size - offset;
+      if bits_in_row > FBytesInRow then
+        bits_in_row := FBytesInRow;
+      bits_in_row := bits_in_row * 8;
+      if bit_first >= bits_in_row then
+        break;
+      { only visible columns are read; a begin of the first of them can be
+        not aligned on a byte }
+      bits := (col_last - pos.x + 1) * interval;
+      if bit_first + bits > bits_in_row then
+        bits := bits_in_row - bit_first;
+      data := FDataSource.Read(offset + bit_first shr 3, (begin_offset + bits + 7) shr 3);
+      if data = nil then
+        break;
+      cell.x := pos.x;
+      cell.y := row;
+      Present(cell, data, begin_offset + bits, begin_offset);
+      inc(row);
+    end;
+  finally
+    EndPresent;
+  end;
+end;
+
 procedure TBGrid.ProcessSelection(UnionAreas: boolean);
 begin
   FAreaMarker.StateRecovery;
@@ -1352,6 +1491,8 @@ begin
       -vec2(FCurrentPresent.CanvasObjectMap.Width*0.5, FCurrentPresent.CanvasObjectMap.Height*0.5);
   if FShowCursor then
     CursorReBuild;
+  if FDataSource <> nil then
+    PresentDataSource;
 end;
 
 procedure TBGrid.SetCurrentPresent(const Value: TGridDataPresentation);
@@ -1444,6 +1585,26 @@ begin
 end;
 
 
+procedure TBGrid.SetBytesInRow(const Value: int32);
+begin
+  if (Value <= 0) or (FBytesInRow = Value) then
+    exit;
+  FBytesInRow := Value;
+  if FDataSource <> nil then
+    UpdateScrollbarMetrics;
+end;
+
+procedure TBGrid.SetDataSource(const Value: TGridDataSource);
+begin
+  if FDataSource = Value then
+    exit;
+  FDataSource := Value;
+  if FCurrentPresent <> nil then
+    FCurrentPresent.Clear;
+  if FDataSource <> nil then
+    UpdateScrollbarMetrics;
+end;
+
 procedure TBGrid.SetIntervalSize(const Value: int32);
 begin
   if FCurrentPresent = nil then
@@ -1563,6 +1724,17 @@ begin
   SelectPosition;
 end;
 
+procedure TBGrid.UpdateSizeByDataSource;
+var
+  interval: int32;
+begin
+  interval := IntervalSize;
+  if (FDataSource = nil) or (interval <= 0) then
+    exit;
+  FSizeGrid.x := (int64(FBytesInRow) * 8 + interval - 1) div interval;
+  FSizeGrid.y := (FDataSource.Size + FBytesInRow - 1) div FBytesInRow;
+end;
+
 procedure TBGrid.UpdateScrollbarMetrics;
 var
   pos: TVec2d;
@@ -1571,6 +1743,7 @@ begin
     begin
     pos := Position;
     FCurrentPresent.SetDefaultSizeCell;
+    UpdateSizeByDataSource;
     BeginUpdate;
     try
       ScrollBarHor.Step := FCurrentPresent.WidthCol;
@@ -1581,9 +1754,78 @@ begin
       EndUpdate;
     end;
     Position := pos;
+    if FDataSource <> nil then
+      PresentDataSource;
     end;
 end;
 
+{ TGridDataSource }
+
+procedure TGridDataSource.Prefetch(AOffset: int64; ACount: int64);
+begin
+
+end;
+
+{ TGridMemoryDataSource }
+
+constructor TGridMemoryDataSource.Create(AData: pByte; ASize: int64);
+begin
+  inherited Create;
+  FData := AData;
+  FSize := ASize;
+end;
+
+function TGridMemoryDataSource.GetSize: int64;
+begin
+  Result := FSize;
+end;
+
+function TGridMemoryDataSource.Read(AOffset: int64; ACount: int32): pByte;
+begin
+  if (AOffset < 0) or (AOffset + ACount > FSize) then
+    exit(nil);
+  Result := FData + AOffset;
+end;
+
+{ TGridFileDataSource }
+
+constructor TGridFileDataSource.Create(const AFileName: string; ACountWindows: int32; AWindowSize: int32);
+begin
+  inherited Create;
+  FFile := TMappedFile.Create(AFileName, ACountWindows, AWindowSize);
+end;
+
+destructor TGridFileDataSource.Destroy;
+begin
+  FFile.Free;
+  inherited;
+end;
+
+function TGridFileDataSource.GetSize: int64;
+begin
+  Result := FFile.Size;
+end;
+
+procedure TGridFileDataSource.Prefetch(AOffset: int64; ACount: int64);
+begin
+  if AOffset >= FFile.Size then
+    exit;
+  if AOffset + ACount > FFile.Size then
+    ACount := FFile.Size - AOffset;
+  { maps windows of the range beforehand; the range of prefetch is less than
+    a window usually, so it is enough to touch its bounds }
+  if ACount > 0 then
+  begin
+    FFile.Read(AOffset, 1);
+    FFile.Read(AOffset + ACount - 1, 1);
+  end;
+end;
+
+function TGridFileDataSource.Read(AOffset: int64; ACount: int32): pByte;
+begin
+  Result := FFile.Read(AOffset, ACount);
+end;
+
 { TGridDataPresentation }
 
 procedure TGridDataPresentation.BeginPresent;
@@ -2212,7 +2454,7 @@ begin
   begin
     num := IntToStr(i);
     fn_on := GetFilePath(FDirPictures + 'bit_on' + num + 'x' + num +'.png');
-    if not FileExists(fn_on) then
+    if not FileExistsVFS(fn_on) then
       continue;
     pic_one := TPicCodecManager.Open(fn_on);
     pic_one.Canvas.ReplaceColor(cl1);
@@ -2499,7 +2741,7 @@ begin
   if FDirPictures = Value then
     exit;
   path := IncludeTrailingPathDelimiter(Value);
-  if not FileExists(AppPath + path + 'bit_off8x8.png') then
+  if not FileExistsVFS(AppPath + path + 'bit_off8x8.png') then
     exit;
   FDirPictures := path;
   LoadTextures;
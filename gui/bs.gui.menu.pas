@@ -117,6 +117,7 @@ uses
   , bs.utils
   , bs.thread
   , bs.graphics
+  , bs.vfs
   ;
 
 { TBRadialSlider }
@@ -206,7 +207,7 @@ begin
   Lines.Opacity := 0.1;
   { for avoid exeption first check exists whether a file for texture }
   f_tex := GetFilePath('Pictures/rot_point.png');
-  if FileExists(f_tex) then
+  if FileExistsVFS(f_tex) then
     texture := BSTextureManager.LoadTexture(f_tex, true, true)
   else
     texture := nil;
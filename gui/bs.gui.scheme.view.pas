@@ -541,6 +541,7 @@ uses
   , bs.font
   , bs.thread
   , bs.align
+  , bs.vfs
   ;
 
 function CmpLinksX(const Item1, Item2: TLinkVisual): int8;
@@ -1139,7 +1140,7 @@ var
 begin
   TxtInt := nil;
   full_path := GetFullFromRelativePath(AppPath, FFileTexture);
-  if FileExists(full_path) then
+  if FileExistsVFS(full_path) then
   begin
     FTextureGL := BSTextureManager.LoadTexture(full_path);
     NowBlockTextureIsSimple := false;
@@ -1159,7 +1160,7 @@ var
 begin
   full_path := GetFullFromRelativePath(AppPath, FFileIco);
   TxtIntIco := nil;
-  if FileExists(full_path) then
+  if FileExistsVFS(full_path) then
   begin
     FTextureIcoGL := BSTextureManager.LoadTexture(full_path);
     if FTextureIcoGL <> nil then
@@ -280,6 +280,7 @@ uses
   , bs.thread
   , bs.config
   , bs.graphics
+  , bs.vfs
   ;
 
 { TBlackSharkSelectorInstances }
@@ -685,7 +686,7 @@ begin
   FMinimalSize := vec3(BSConfig.VoxelSize*10, BSConfig.VoxelSize*10, BSConfig.VoxelSize*10);
   { for avoid exeption in beginnig check exists a file for texture }
   f_tex := GetFilePath('Pictures/sel_point.png');
-  if FileExists(f_tex) then
+  if FileExistsVFS(f_tex) then
     texture := BSTextureManager.LoadTexture(f_tex, true, true)
   else
     texture := nil;
@@ -694,7 +695,7 @@ begin
     FPointsBB[p] := CreatePoint(GroupMD, NativeInt(p));
 
   f_tex := GetFilePath('Pictures/sel_point_mid.png');
-  if FileExists(f_tex) then
+  if FileExistsVFS(f_tex) then
     texture := BSTextureManager.LoadTexture(f_tex, true, true)
   else
     texture := nil;
@@ -0,0 +1,721 @@
+unit bs.bench;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+uses
+    SysUtils
+  ;
+
+const
+  BENCH_WARMUP = 3;
+  BENCH_ITERATIONS = 10;
+  { a median slower than the baseline by more percents is a regression }
+  BENCH_THRESHOLD = 10.0;
+  BENCH_OUT_FILE = 'bench.json';
+
+type
+
+  { TBSBenchmark
+
+    A CPU workload measured by TBSBenchmarkRunner without a window and GPU;
+    Setup and TearDown are not measured; Run is invoked for the warm-up and
+    for every iteration and must do the same work every time; Operations is
+    amount of elementary operations of one Run (inserts, queries, glyphs...)
+    for the time of one operation in the report }
+
+  TBSBenchmark = class
+  private
+    FOperations: int32;
+  protected
+    FParam: int32;
+    FSize: int32;
+  public
+    constructor Create(AParam, ASize: int32); virtual;
+    procedure Setup; virtual;
+    procedure TearDown; virtual;
+    procedure Run; virtual; abstract;
+    { a variant of the workload; it is set by RegisterBenchmark }
+    property Param: int32 read FParam;
+    { a size of the data; it is set by RegisterBenchmark }
+    property Size: int32 read FSize;
+    property Operations: int32 read FOperations write FOperations;
+  end;
+
+  TBSBenchmarkClass = class of TBSBenchmark;
+
+  TBenchmarkResult = record
+    Name: string;
+    Iterations: int32;
+    Operations: int32;
+    { microseconds of one iteration }
+    Mean: double;
+    StdDev: double;
+    Min: double;
+    Median: double;
+    P90: double;
+    P99: double;
+    Max: double;
+    { allocations of the memory manager by one iteration }
+    Allocs: double;
+    AllocBytes: double;
+  end;
+
+  TBenchmarkResults = array of TBenchmarkResult;
+
+  TBenchmarkVerdict = (
+    { there is not the benchmark in the baseline }
+    bvNew,
+    bvOk,
+    bvFaster,
+    { the median or amount of allocations grew more than a threshold }
+    bvRegression
+  );
+
+  TBenchmarkComparison = record
+    Name: string;
+    Baseline: double;
+    Current: double;
+    { the change of the median in percents }
+    Delta: double;
+    AllocsGrown: boolean;
+    Verdict: TBenchmarkVerdict;
+  end;
+
+  TBenchmarkComparisons = array of TBenchmarkComparison;
+
+  { TBSBenchmarkRunner }
+
+  TBSBenchmarkRunner = class
+  private
+    FWarmup: int32;
+    FIterations: int32;
+    FFilter: string;
+    FResults: TBenchmarkResults;
+    FFailed: int32;
+    function Measure(const AName: string; AClass: TBSBenchmarkClass; AParam, ASize: int32;
+      out AResult: TBenchmarkResult): boolean;
+  public
+    constructor Create;
+    { runs all registered benchmarks which names contain Filter; returns amount
+      of the run benchmarks }
+    function Run: int32;
+    procedure SaveToFile(const AFileName: string);
+    { reads the results written by SaveToFile }
+    class function LoadFromFile(const AFileName: string): TBenchmarkResults; static;
+    { compares medians of ACurrent with ABaseline; returns amount of regressions }
+    class function Compare(const ABaseline, ACurrent: TBenchmarkResults; AThreshold: double;
+      out AComparisons: TBenchmarkComparisons): int32; static;
+    property Warmup: int32 read FWarmup write FWarmup;
+    property Iterations: int32 read FIterations write FIterations;
+    property Filter: string read FFilter write FFilter;
+    property Results: TBenchmarkResults read FResults;
+    { benchmarks which raised an exception }
+    property Failed: int32 read FFailed;
+  end;
+
+  { AName is a path as "subsystem/workload" }
+  procedure RegisterBenchmark(const AName: string; AClass: TBSBenchmarkClass; AParam: int32 = 0; ASize: int32 = 0);
+
+  { the entry point of the console runner; options:
+      --list              prints names of the benchmarks;
+      --filter=TEXT       runs only benchmarks which names contain TEXT;
+      --warmup=N          not measured runs before iterations;
+      --iterations=N      measured runs;
+      --out=FILE          the JSON result, bench.json by default;
+      --compare=FILE      compares the result with a baseline saved by --out;
+      --threshold=PERCENT a change of the median which is a regression;
+      --input=FILE        takes the result from FILE instead of the run;
+    returns 0, 1 if there are regressions, 2 if a benchmark failed or options
+    are wrong }
+  function BenchmarkMain: int32;
+
+implementation
+
+uses
+    Classes
+  , bs.thread
+  ;
+
+type
+
+  TRegisteredBenchmark = record
+    Name: string;
+    BenchmarkClass: TBSBenchmarkClass;
+    Param: int32;
+    Size: int32;
+  end;
+
+const
+  JSON_FORMAT_SETTINGS: TFormatSettings = (
+    DecimalSeparator: {%H-}'.'
+  );
+
+var
+  Benchmarks: array of TRegisteredBenchmark;
+  { counters of the memory manager wrapper }
+  CountAllocs: int64;
+  CountAllocBytes: int64;
+  {$ifdef FPC}
+  PrevMemoryManager: TMemoryManager;
+  {$else}
+  PrevMemoryManager: TMemoryManagerEx;
+  {$endif}
+
+{$ifdef FPC}
+
+function CountingGetMem(Size: ptruint): Pointer;
+begin
+  InterLockedIncrement64(CountAllocs);
+  InterLockedExchangeAdd64(CountAllocBytes, Size);
+  Result := PrevMemoryManager.GetMem(Size);
+end;
+
+function CountingAllocMem(Size: ptruint): Pointer;
+begin
+  InterLockedIncrement64(CountAllocs);
+  InterLockedExchangeAdd64(CountAllocBytes, Size);
+  Result := PrevMemoryManager.AllocMem(Size);
+end;
+
+function CountingReAllocMem(var p: Pointer; Size: ptruint): Pointer;
+begin
+  { a change of a size is counted as a new allocation }
+  if Size > 0 then
+  begin
+    InterLockedIncrement64(CountAllocs);
+    InterLockedExchangeAdd64(CountAllocBytes, Size);
+  end;
+  Result := PrevMemoryManager.ReAllocMem(p, Size);
+end;
+
+{$else}
+
+function CountingGetMem(Size: NativeInt): Pointer;
+begin
+  AtomicIncrement(CountAllocs);
+  AtomicIncrement(CountAllocBytes, Size);
+  Result := PrevMemoryManager.GetMem(Size);
+end;
+
+function CountingAllocMem(Size: NativeInt): Pointer;
+begin
+  AtomicIncrement(CountAllocs);
+  AtomicIncrement(CountAllocBytes, Size);
+  Result := PrevMemoryManager.AllocMem(Size);
+end;
+
+function CountingReallocMem(P: Pointer; Size: NativeInt): Pointer;
+begin
+  { a change of a size is counted as a new allocation }
+  if Size > 0 then
+  begin
+    AtomicIncrement(CountAllocs);
+    AtomicIncrement(CountAllocBytes, Size);
+  end;
+  Result := PrevMemoryManager.ReallocMem(P, Size);
+end;
+
+{$endif}
+
+procedure InstallCountingMemoryManager;
+var
+  {$ifdef FPC}
+  mm: TMemoryManager;
+  {$else}
+  mm: TMemoryManagerEx;
+  {$endif}
+begin
+  GetMemoryManager(PrevMemoryManager);
+  mm := PrevMemoryManager;
+  mm.GetMem := CountingGetMem;
+  mm.AllocMem := CountingAllocMem;
+  {$ifdef FPC}
+  mm.ReAllocMem := CountingReAllocMem;
+  {$else}
+  mm.ReallocMem := CountingReallocMem;
+  {$endif}
+  SetMemoryManager(mm);
+end;
+
+procedure UninstallCountingMemoryManager;
+begin
+  SetMemoryManager(PrevMemoryManager);
+end;
+
+procedure RegisterBenchmark(const AName: string; AClass: TBSBenchmarkClass; AParam: int32; ASize: int32);
+begin
+  SetLength(Benchmarks, Length(Benchmarks) + 1);
+  Benchmarks[High(Benchmarks)].Name := AName;
+  Benchmarks[High(Benchmarks)].BenchmarkClass := AClass;
+  Benchmarks[High(Benchmarks)].Param := AParam;
+  Benchmarks[High(Benchmarks)].Size := ASize;
+end;
+
+procedure SortTimes(var ATimes: array of double);
+var
+  i, j: int32;
+  v: double;
+begin
+  for i := 1 to Length(ATimes) - 1 do
+  begin
+    v := ATimes[i];
+    j := i - 1;
+    while (j >= 0) and (ATimes[j] > v) do
+    begin
+      ATimes[j + 1] := ATimes[j];
+      dec(j);
+    end;
+    ATimes[j + 1] := v;
+  end;
+end;
+
+{ nearest-rank percentile of sorted times }
+function Percentile(const ATimes: array of double; APercent: double): double;
+var
+  index: int32;
+begin
+  index := Trunc(APercent / 100 * Length(ATimes) + 0.9999999) - 1;
+  if index < 0 then
+    index := 0
+  else
+  if index > High(ATimes) then
+    index := High(ATimes);
+  Result := ATimes[index];
+end;
+
+function JsonString(const AValue: string): string;
+var
+  i: int32;
+begin
+  Result := '"';
+  for i := 1 to Length(AValue) do
+    if (AValue[i] = '"') or (AValue[i] = '\') then
+      Result := Result + '\' + AValue[i]
+    else
+      Result := Result + AValue[i];
+  Result := Result + '"';
+end;
+
+function JsonFloat(AValue: double): string;
+begin
+  Result := FormatFloat('0.###', AValue, JSON_FORMAT_SETTINGS);
+end;
+
+{ returns a raw value of the key AKey of the flat object AObject; quotes of
+  a string are removed }
+function JsonValue(const AObject, AKey: string): string;
+var
+  i, j: int32;
+begin
+  Result := '';
+  i := Pos('"' + AKey + '"', AObject);
+  if i = 0 then
+    exit;
+  inc(i, Length(AKey) + 2);
+  while (i <= Length(AObject)) and (AObject[i] <> ':') do
+    inc(i);
+  inc(i);
+  while (i <= Length(AObject)) and (AObject[i] <= ' ') do
+    inc(i);
+  if (i <= Length(AObject)) and (AObject[i] = '"') then
+  begin
+    inc(i);
+    j := i;
+    while (j <= Length(AObject)) and (AObject[j] <> '"') do
+    begin
+      if AObject[j] = '\' then
+        inc(j);
+      inc(j);
+    end;
+    Result := StringReplace(StringReplace(Copy(AObject, i, j - i), '\"', '"', [rfReplaceAll]), '\\', '\', [rfReplaceAll]);
+  end else
+  begin
+    j := i;
+    while (j <= Length(AObject)) and not CharInSet(AObject[j], [',', '}', ' ', #9, #10, #13]) do
+      inc(j);
+    Result := Copy(AObject, i, j - i);
+  end;
+end;
+
+function JsonFloatValue(const AObject, AKey: string): double;
+begin
+  Result := StrToFloatDef(JsonValue(AObject, AKey), 0.0, JSON_FORMAT_SETTINGS);
+end;
+
+{ TBSBenchmark }
+
+constructor TBSBenchmark.Create(AParam, ASize: int32);
+begin
+  inherited Create;
+  FParam := AParam;
+  FSize := ASize;
+  FOperations := 1;
+end;
+
+procedure TBSBenchmark.Setup;
+begin
+
+end;
+
+procedure TBSBenchmark.TearDown;
+begin
+
+end;
+
+{ TBSBenchmarkRunner }
+
+constructor TBSBenchmarkRunner.Create;
+begin
+  inherited;
+  FWarmup := BENCH_WARMUP;
+  FIterations := BENCH_ITERATIONS;
+end;
+
+function TBSBenchmarkRunner.Measure(const AName: string; AClass: TBSBenchmarkClass; AParam, ASize: int32;
+  out AResult: TBenchmarkResult): boolean;
+var
+  bench: TBSBenchmark;
+  times: array of double;
+  i: int32;
+  t: uint64;
+  allocs, bytes: int64;
+  sum: double;
+begin
+  AResult := Default(TBenchmarkResult);
+  AResult.Name := AName;
+  AResult.Iterations := FIterations;
+  SetLength(times, FIterations);
+  try
+    bench := AClass.Create(AParam, ASize);
+    try
+      bench.Setup;
+      try
+        for i := 0 to FWarmup - 1 do
+          bench.Run;
+        allocs := CountAllocs;
+        bytes := CountAllocBytes;
+        for i := 0 to FIterations - 1 do
+        begin
+          t := TBTimer.MicroSeconds;
+          bench.Run;
+          times[i] := TBTimer.MicroSeconds - t;
+        end;
+        AResult.Allocs := (CountAllocs - allocs) / FIterations;
+        AResult.AllocBytes := (CountAllocBytes - bytes) / FIterations;
+        AResult.Operations := bench.Operations;
+      finally
+        bench.TearDown;
+      end;
+    finally
+      bench.Free;
+    end;
+  except
+    on e: Exception do
+    begin
+      WriteLn(AName, ': failed: ', e.Message);
+      exit(false);
+    end;
+  end;
+
+  sum := 0;
+  for i := 0 to FIterations - 1 do
+    sum := sum + times[i];
+  AResult.Mean := sum / FIterations;
+  sum := 0;
+  for i := 0 to FIterations - 1 do
+    sum := sum + sqr(times[i] - AResult.Mean);
+  AResult.StdDev := sqrt(sum / FIterations);
+  SortTimes(times);
+  AResult.Min := times[0];
+  AResult.Max := times[FIterations - 1];
+  if FIterations mod 2 = 0 then
+    AResult.Median := (times[FIterations div 2 - 1] + times[FIterations div 2]) / 2
+  else
+    AResult.Median := times[FIterations div 2];
+  AResult.P90 := Percentile(times, 90);
+  AResult.P99 := Percentile(times, 99);
+  Result := true;
+end;
+
+function TBSBenchmarkRunner.Run: int32;
+var
+  i: int32;
+  res: TBenchmarkResult;
+begin
+  Result := 0;
+  FFailed := 0;
+  SetLength(FResults, 0);
+  if FIterations < 1 then
+    FIterations := 1;
+  InstallCountingMemoryManager;
+  try
+    for i := 0 to High(Benchmarks) do
+    begin
+      if (FFilter <> '') and (Pos(FFilter, Benchmarks[i].Name) = 0) then
+        continue;
+      inc(Result);
+      if Measure(Benchmarks[i].Name, Benchmarks[i].BenchmarkClass, Benchmarks[i].Param, Benchmarks[i].Size, res) then
+      begin
+        SetLength(FResults, Length(FResults) + 1);
+        FResults[High(FResults)] := res;
+        WriteLn(Format('%-36s median %10.1f us  p90 %10.1f us  p99 %10.1f us  %10.1f ns/op  allocs %8.1f',
+          [res.Name, res.Median, res.P90, res.P99, res.Median * 1000 / res.Operations, res.Allocs]));
+      end else
+        inc(FFailed);
+    end;
+  finally
+    UninstallCountingMemoryManager;
+  end;
+end;
+
+procedure TBSBenchmarkRunner.SaveToFile(const AFileName: string);
+var
+  list: TStringList;
+  i: int32;
+  s: string;
+begin
+  list := TStringList.Create;
+  try
+    list.Add('{');
+    list.Add('  "warmup": ' + IntToStr(FWarmup) + ',');
+    list.Add('  "iterations": ' + IntToStr(FIterations) + ',');
+    list.Add('  "results": [');
+    for i := 0 to High(FResults) do
+    begin
+      s := '    {"name": ' + JsonString(FResults[i].Name) +
+        ', "iterations": ' + IntToStr(FResults[i].Iterations) +
+        ', "operations": ' + IntToStr(FResults[i].Operations) +
+        ', "mean_us": ' + JsonFloat(FResults[i].Mean) +
+        ', "stddev_us": ' + JsonFloat(FResults[i].StdDev) +
+        ', "min_us": ' + JsonFloat(FResults[i].Min) +
+        ', "median_us": ' + JsonFloat(FResults[i].Median) +
+        ', "p90_us": ' + JsonFloat(FResults[i].P90) +
+        ', "p99_us": ' + JsonFloat(FResults[i].P99) +
+        ', "max_us": ' + JsonFloat(FResults[i].Max) +
+        ', "ns_per_op": ' + JsonFloat(FResults[i].Median * 1000 / FResults[i].Operations) +
+        ', "allocs": ' + JsonFloat(FResults[i].Allocs) +
+        ', "alloc_bytes": ' + JsonFloat(FResults[i].AllocBytes) + '}';
+      if i < High(FResults) then
+        s := s + ',';
+      list.Add(s);
+    end;
+    list.Add('  ]');
+    list.Add('}');
+    list.SaveToFile(AFileName);
+  finally
+    list.Free;
+  end;
+end;
+
+class function TBSBenchmarkRunner.LoadFromFile(const AFileName: string): TBenchmarkResults;
+var
+  list: TStringList;
+  text, obj: string;
+  i, j: int32;
+  res: TBenchmarkResult;
+begin
+  Result := nil;
+  list := TStringList.Create;
+  try
+    list.LoadFromFile(AFileName);
+    text := list.Text;
+  finally
+    list.Free;
+  end;
+
+  i := Pos('"results"', text);
+  if i = 0 then
+    raise Exception.Create('TBSBenchmarkRunner.LoadFromFile: "results" are not found in ' + AFileName);
+
+  { the results are flat objects }
+  while i <= Length(text) do
+  begin
+    while (i <= Length(text)) and (text[i] <> '{') do
+      inc(i);
+    if i > Length(text) then
+      break;
+    j := i;
+    while (j <= Length(text)) and (text[j] <> '}') do
+      inc(j);
+    obj := Copy(text, i, j - i + 1);
+    i := j + 1;
+
+    res := Default(TBenchmarkResult);
+    res.Name := JsonValue(obj, 'name');
+    res.Iterations := StrToIntDef(JsonValue(obj, 'iterations'), 0);
+    res.Operations := StrToIntDef(JsonValue(obj, 'operations'), 1);
+    res.Mean := JsonFloatValue(obj, 'mean_us');
+    res.StdDev := JsonFloatValue(obj, 'stddev_us');
+    res.Min := JsonFloatValue(obj, 'min_us');
+    res.Median := JsonFloatValue(obj, 'median_us');
+    res.P90 := JsonFloatValue(obj, 'p90_us');
+    res.P99 := JsonFloatValue(obj, 'p99_us');
+    res.Max := JsonFloatValue(obj, 'max_us');
+    res.Allocs := JsonFloatValue(obj, 'allocs');
+    res.AllocBytes := JsonFloatValue(obj, 'alloc_bytes');
+    SetLength(Result, Length(Result) + 1);
+    Result[High(Result)] := res;
+  end;
+end;
+
+class function TBSBenchmarkRunner.Compare(const ABaseline, ACurrent: TBenchmarkResults; AThreshold: double;
+  out AComparisons: TBenchmarkComparisons): int32;
+var
+  i, j: int32;
+  cmp: TBenchmarkComparison;
+begin
+  Result := 0;
+  SetLength(AComparisons, Length(ACurrent));
+  for i := 0 to High(ACurrent) do
+  begin
+    cmp := Default(TBenchmarkComparison);
+    cmp.Name := ACurrent[i].Name;
+    cmp.Current := ACurrent[i].Median;
+    cmp.Verdict := bvNew;
+    for j := 0 to High(ABaseline) do
+      if ABaseline[j].Name = cmp.Name then
+      begin
+        cmp.Baseline := ABaseline[j].Median;
+        if cmp.Baseline > 0 then
+          cmp.Delta := (cmp.Current - cmp.Baseline) / cmp.Baseline * 100
+        else
+          cmp.Delta := 0;
+        { the counts are exact, the threshold only allows for rounding of averages }
+        cmp.AllocsGrown := ACurrent[i].Allocs > ABaseline[j].Allocs * (1 + AThreshold / 100) + 0.5;
+        if (cmp.Delta > AThreshold) or cmp.AllocsGrown then
+          cmp.Verdict := bvRegression
+        else
+        if cmp.Delta < -AThreshold then
+          cmp.Verdict := bvFaster
+        else
+          cmp.Verdict := bvOk;
+        break;
+      end;
+    if cmp.Verdict = bvRegression then
+      inc(Result);
+    AComparisons[i] := cmp;
+  end;
+end;
+
+function BenchmarkMain: int32;
+const
+  VERDICTS: array[TBenchmarkVerdict] of string = ('new', 'ok', 'faster', 'REGRESSION');
+var
+  runner: TBSBenchmarkRunner;
+  i: int32;
+  param, value, out_file, compare_file, input_file: string;
+  threshold: double;
+  list_only: boolean;
+  current: TBenchmarkResults;
+  comparisons: TBenchmarkComparisons;
+  regressions: int32;
+  s, sign: string;
+begin
+  Result := 0;
+  out_file := BENCH_OUT_FILE;
+  compare_file := '';
+  input_file := '';
+  threshold := BENCH_THRESHOLD;
+  list_only := false;
+  runner := TBSBenchmarkRunner.Create;
+  try
+    for i := 1 to ParamCount do
+    begin
+      param := ParamStr(i);
+      value := Copy(param, Pos('=', param) + 1, Length(param));
+      if param = '--list' then
+        list_only := true
+      else
+      if Pos('--filter=', param) = 1 then
+        runner.Filter := value
+      else
+      if Pos('--warmup=', param) = 1 then
+        runner.Warmup := StrToIntDef(value, BENCH_WARMUP)
+      else
+      if Pos('--iterations=', param) = 1 then
+        runner.Iterations := StrToIntDef(value, BENCH_ITERATIONS)
+      else
+      if Pos('--out=', param) = 1 then
+        out_file := value
+      else
+      if Pos('--compare=', param) = 1 then
+        compare_file := value
+      else
+      if Pos('--threshold=', param) = 1 then
+        threshold := StrToFloatDef(value, BENCH_THRESHOLD, JSON_FORMAT_SETTINGS)
+      else
+      if Pos('--input=', param) = 1 then
+        input_file := value
+      else
+      begin
+        WriteLn('Unknown option: ', param);
+        exit(2);
+      end;
+    end;
+
+    if list_only then
+    begin
+      for i := 0 to High(Benchmarks) do
+        if (runner.Filter = '') or (Pos(runner.Filter, Benchmarks[i].Name) > 0) then
+          WriteLn(Benchmarks[i].Name);
+      exit;
+    end;
+
+    try
+      if input_file <> '' then
+        current := TBSBenchmarkRunner.LoadFromFile(input_file)
+      else
+      begin
+        if runner.Run = 0 then
+        begin
+          WriteLn('There are no benchmarks matching "', runner.Filter, '"');
+          exit(2);
+        end;
+        current := runner.Results;
+        if out_file <> '' then
+        begin
+          runner.SaveToFile(out_file);
+          WriteLn('The results are written to ', out_file);
+        end;
+        if runner.Failed > 0 then
+          Result := 2;
+      end;
+
+      if compare_file <> '' then
+      begin
+        regressions := TBSBenchmarkRunner.Compare(TBSBenchmarkRunner.LoadFromFile(compare_file), current,
+          threshold, comparisons);
+        WriteLn;
+        WriteLn('Comparison with ', compare_file, ' (threshold ', FormatFloat('0.#', threshold), '%):');
+        for i := 0 to High(comparisons) do
+        begin
+          if comparisons[i].Delta > 0 then
+            sign := '+'
+          else
+            sign := '';
+          s := Format('%-36s %10.1f -> %10.1f us  %s%.1f%%  %s',
+            [comparisons[i].Name, comparisons[i].Baseline, comparisons[i].Current, sign, comparisons[i].Delta,
+             VERDICTS[comparisons[i].Verdict]]);
+          if comparisons[i].AllocsGrown then
+            s := s + ' (allocations grew)';
+          WriteLn(s);
+        end;
+        WriteLn(regressions, ' regression(s)');
+        if (regressions > 0) and (Result = 0) then
+          Result := 1;
+      end;
+    except
+      on e: Exception do
+      begin
+        WriteLn(e.Message);
+        Result := 2;
+      end;
+    end;
+  finally
+    runner.Free;
+  end;
+end;
+
+end.
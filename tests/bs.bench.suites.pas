@@ -0,0 +1,841 @@
+unit bs.bench.suites;
+
+{$I BlackSharkCfg.inc}
+
+{ The workloads of the headless benchmark runner (see bs.bench); they are
+  registered in initialization, so it is enough to add the unit to a program }
+
+interface
+
+implementation
+
+uses
+    Classes
+  , SysUtils
+  , math
+  , XmlWriter
+  , bs.basetypes
+  , bs.collections
+  , bs.thread
+  , bs.tesselator
+  , bs.geometry
+  , bs.graphics
+  , bs.zlib
+  , bs.font
+  , bs.mesh
+  , bs.mesh.loaders
+  , bs.config
+  , bs.utils
+  , bs.bench
+  , bs.test.queues
+  ;
+
+const
+  { variants of hash tables }
+  HASH_TABLE = 0;
+  OPEN_HASH_MAP = 1;
+  INT64_HASH_MAP = 2;
+
+  { shapes for the tesselator }
+  TESS_STAR = 0;
+  TESS_GROUPS = 1;
+  TESS_COUNT_GROUPS = 64;
+
+  { workloads of the space trees }
+  TREE_ADD = 0;
+  TREE_BULK_LOAD = 1;
+  TREE_QUERY = 2;
+  TREE_MOVE_REINSERT = 3;
+  TREE_MOVE_REFIT = 4;
+  TREE_COUNT_QUERIES = 1000;
+
+  QUEUE_ITEMS_PER_PRODUCER = 100000;
+
+  PNG_FILE = 'Pictures/earth/earthmap1k.png';
+  FONT_FILE = 'NotoSans-Regular.ttf';
+  OBJ_FILE = 'Models/Obj/aquafish01.obj';
+  COLLADA_FILE = 'Models/Collada/Shark.dae';
+
+type
+
+  { insertion, search and deletion of int64 keys; Param selects the table }
+
+  TBenchHashMapInt = class(TBSBenchmark)
+  private
+    Keys: array of int64;
+  public
+    procedure Setup; override;
+    procedure Run; override;
+  end;
+
+  { the same for string keys; Param is HASH_TABLE or OPEN_HASH_MAP }
+
+  TBenchHashMapStr = class(TBSBenchmark)
+  private
+    Keys: array of string;
+  public
+    procedure Setup; override;
+    procedure Run; override;
+  end;
+
+  { two rounds of filling and emptying, the second one takes nodes from the pool }
+
+  TBenchListDual = class(TBSBenchmark)
+  private
+    Items: array of TListDual<int32>.PListItem;
+  public
+    procedure Setup; override;
+    procedure Run; override;
+  end;
+
+  TBenchListVecSort = class(TBSBenchmark)
+  private
+    Values: array of int32;
+  public
+    procedure Setup; override;
+    procedure Run; override;
+  end;
+
+  { TBlackSharkTesselator.Triangulate of a star of Size points (TESS_STAR) or of
+    TESS_COUNT_GROUPS separate circles of Size points (TESS_GROUPS) }
+
+  TBenchTesselator = class(TBSBenchmark)
+  private
+    Points: TBlackSharkTesselator.TListPoints.TSingleListHead;
+    Contours: TBlackSharkTesselator.TListContours.TSingleListHead;
+    Indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  { Size random boxes; Param is one of TREE_* }
+
+  TBenchSpaceTree = class(TBSBenchmark)
+  protected
+    SpaceItems: array of TSpaceTreeItem;
+    Moved: array of TBox3d;
+    Queries: array of TBox3d;
+    procedure GenerateBoxes;
+  end;
+
+  TBenchRTree = class(TBenchSpaceTree)
+  private
+    Tree: TBlackSharkRTree;
+    Nodes: array of PNodeSpaceTree;
+    List: TListNodes;
+    WasMoved: boolean;
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  TBenchKDTree = class(TBenchSpaceTree)
+  private
+    Tree: TBlackSharkKDTree;
+    List: TListVec<Pointer>;
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  { a decoding of the whole picture through TPicCodecManager }
+
+  TBenchPng = class(TBSBenchmark)
+  private
+    Source: TMemoryStream;
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  { inflate of the IDAT chunks of the same picture }
+
+  TBenchZLib = class(TBSBenchmark)
+  private
+    Compressed: array of byte;
+    Output: TMemoryStream;
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  { loading of a TrueType font and triangulation of glyphs of Latin and Cyrillic;
+    the font is created anew every time, so the glyphs are not cached }
+
+  TBenchTrueTypeFont = class(TBSBenchmark)
+  private
+    FileName: string;
+    Codes: array of uint16;
+  public
+    procedure Setup; override;
+    procedure Run; override;
+  end;
+
+  { parsing of the OBJ model without the binary cache }
+
+  TBenchMeshObj = class(TBSBenchmark)
+  private
+    MeshCache: boolean;
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  { MeshLoadCollada creates graphic objects and needs a renderer, therefore only
+    its CPU stages are measured: the XML tree and the numeric arrays of the model }
+
+  TBenchCollada = class(TBSBenchmark)
+  private
+    Source: TMemoryStream;
+    CountValues: int32;
+    procedure ParseArrays(ANode: TheXmlNode);
+  public
+    procedure Setup; override;
+    procedure TearDown; override;
+    procedure Run; override;
+  end;
+
+  { Size writing threads through TQueueFIFO<T> under a lock or TQueueMPSC<T>
+    (see BenchmarkQueue); Param is TQueueBenchmarkKind }
+
+  TBenchQueue = class(TBSBenchmark)
+  public
+    procedure Setup; override;
+    procedure Run; override;
+  end;
+
+function RandomBox(const AFieldSize: double): TBox3d;
+var
+  p, size: TVec3d;
+begin
+  p := vec3d(Random * AFieldSize, Random * AFieldSize, Random * AFieldSize);
+  size := vec3d(1.0 + Random * 4.0, 1.0 + Random * 4.0, 1.0 + Random * 4.0);
+  Result := Box3(p, p + size);
+end;
+
+procedure CheckFile(const AFileName: string);
+begin
+  if not FileExists(AFileName) then
+    raise EFOpenError.Create('The file is not found: ' + AFileName);
+end;
+
+{ TBenchHashMapInt }
+
+procedure TBenchHashMapInt.Setup;
+var
+  i: int32;
+begin
+  { the same data for every run }
+  RandSeed := 1;
+  SetLength(Keys, Size);
+  for i := 0 to Size - 1 do
+    Keys[i] := int64(i) * 7919 + Random(7919);
+  Operations := Size * 3;
+end;
+
+procedure TBenchHashMapInt.Run;
+var
+  table: THashTable<int64, int32>;
+  open_map: TOpenHashMap<int64, int32>;
+  int_map: TInt64HashMap<int32>;
+  i, v: int32;
+begin
+  case Param of
+    HASH_TABLE: begin
+      table := THashTable<int64, int32>.Create(GetHashBlackSharkInt64, Int64cmpEqual);
+      try
+        for i := 0 to Size - 1 do
+          table.TryAdd(Keys[i], i);
+        for i := 0 to Size - 1 do
+          table.Find(Keys[i], v);
+        for i := 0 to Size - 1 do
+          table.Delete(Keys[i]);
+      finally
+        table.Free;
+      end;
+    end;
+    OPEN_HASH_MAP: begin
+      open_map := TOpenHashMap<int64, int32>.Create(GetHashBlackSharkInt64, Int64cmpEqual);
+      try
+        for i := 0 to Size - 1 do
+          open_map.TryAdd(Keys[i], i);
+        for i := 0 to Size - 1 do
+          open_map.Find(Keys[i], v);
+        for i := 0 to Size - 1 do
+          open_map.Delete(Keys[i]);
+      finally
+        open_map.Free;
+      end;
+    end
+  else
+    int_map := TInt64HashMap<int32>.Create;
+    try
+      for i := 0 to Size - 1 do
+        int_map.TryAdd(Keys[i], i);
+      for i := 0 to Size - 1 do
+        int_map.Find(Keys[i], v);
+      for i := 0 to Size - 1 do
+        int_map.Delete(Keys[i]);
+    finally
+      int_map.Free;
+    end;
+  end;
+end;
+
+{ TBenchHashMapStr }
+
+procedure TBenchHashMapStr.Setup;
+var
+  i: int32;
+begin
+  RandSeed := 1;
+  SetLength(Keys, Size);
+  for i := 0 to Size - 1 do
+    Keys[i] := 'key' + IntToStr(int64(i) * 7919 + Random(7919));
+  Operations := Size * 3;
+end;
+
+procedure TBenchHashMapStr.Run;
+var
+  table: THashTable<string, int32>;
+  open_map: TOpenHashMap<string, int32>;
+  i, v: int32;
+begin
+  if Param = HASH_TABLE then
+  begin
+    table := THashTable<string, int32>.Create(GetHashBlackSharkS, StrCmpBool);
+    try
+      for i := 0 to Size - 1 do
+        table.TryAdd(Keys[i], i);
+      for i := 0 to Size - 1 do
+        table.Find(Keys[i], v);
+      for i := 0 to Size - 1 do
+        table.Delete(Keys[i]);
+    finally
+      table.Free;
+    end;
+  end else
+  begin
+    open_map := TOpenHashMap<string, int32>.Create(GetHashBlackSharkS, StrCmpBool);
+    try
+      for i := 0 to Size - 1 do
+        open_map.TryAdd(Keys[i], i);
+      for i := 0 to Size - 1 do
+        open_map.Find(Keys[i], v);
+      for i := 0 to Size - 1 do
+        open_map.Delete(Keys[i]);
+    finally
+      open_map.Free;
+    end;
+  end;
+end;
+
+{ TBenchListDual }
+
+procedure TBenchListDual.Setup;
+begin
+  SetLength(Items, Size);
+  Operations := Size * 4;
+end;
+
+procedure TBenchListDual.Run;
+var
+  list: TListDual<int32>;
+  i, r: int32;
+begin
+  list := TListDual<int32>.Create;
+  try
+    for r := 0 to 1 do
+    begin
+      for i := 0 to Size - 1 do
+        Items[i] := list.PushToEnd(i);
+      for i := 0 to Size - 1 do
+        list.Remove(Items[i]);
+    end;
+  finally
+    list.Free;
+  end;
+end;
+
+{ TBenchListVecSort }
+
+procedure TBenchListVecSort.Setup;
+var
+  i: int32;
+begin
+  RandSeed := 1;
+  SetLength(Values, Size);
+  for i := 0 to Size - 1 do
+    Values[i] := Random(MaxInt);
+  Operations := Size;
+end;
+
+procedure TBenchListVecSort.Run;
+var
+  list: TListVec<int32>;
+begin
+  list := TListVec<int32>.Create(Int32cmp);
+  try
+    list.Add(Values);
+    list.Sort;
+  finally
+    list.Free;
+  end;
+end;
+
+{ TBenchTesselator }
+
+procedure TBenchTesselator.Setup;
+var
+  contour: TContour;
+  i, j: int32;
+  center: TVec2f;
+  radius: BSFloat;
+begin
+  TBlackSharkTesselator.TListPoints.Create(Points{%H-}, Size * TESS_COUNT_GROUPS);
+  TBlackSharkTesselator.TListContours.Create(Contours{%H-}, TESS_COUNT_GROUPS);
+  TBlackSharkTesselator.TListIndexes.Create(Indexes{%H-}, 64);
+  if Param = TESS_STAR then
+  begin
+    TBlackSharkTesselator.TListContours.Add(Contours, TBlackSharkTesselator.Contour(0, Size));
+    { clockwise, as the glyphs; odd points are inside, so the contour is concave }
+    for j := 0 to Size - 1 do
+    begin
+      if j mod 2 = 0 then
+        radius := 100.0
+      else
+        radius := 40.0;
+      TBlackSharkTesselator.TListPoints.Add(Points, vec3(radius * cos(-2 * pi * j / Size),
+        radius * sin(-2 * pi * j / Size), 0.0));
+    end;
+  end else
+  begin
+    for i := 0 to TESS_COUNT_GROUPS - 1 do
+    begin
+      center := vec2((i mod 8) * 10.0, (i div 8) * 10.0);
+      contour := TBlackSharkTesselator.Contour(Points.Count, Size);
+      contour.Group := i;
+      TBlackSharkTesselator.TListContours.Add(Contours, contour);
+      for j := 0 to Size - 1 do
+        TBlackSharkTesselator.TListPoints.Add(Points, vec3(center.x + 4.0 * cos(-2 * pi * j / Size),
+          center.y + 4.0 * sin(-2 * pi * j / Size), 0.0));
+    end;
+  end;
+  Operations := Contours.Count;
+end;
+
+procedure TBenchTesselator.TearDown;
+begin
+  TBlackSharkTesselator.TListPoints.Free(Points);
+  TBlackSharkTesselator.TListContours.Free(Contours);
+  TBlackSharkTesselator.TListIndexes.Free(Indexes);
+end;
+
+procedure TBenchTesselator.Run;
+begin
+  Indexes.Count := 0;
+  Tesselator.Triangulate(Points, Contours, Indexes);
+end;
+
+{ TBenchSpaceTree }
+
+procedure TBenchSpaceTree.GenerateBoxes;
+var
+  field: double;
+  i: int32;
+begin
+  RandSeed := 1;
+  { ~10 items hit into a query }
+  field := Power(Size * 125.0 / 10.0, 1/3) * 2.0;
+  SetLength(SpaceItems, Size);
+  SetLength(Moved, Size);
+  for i := 0 to Size - 1 do
+  begin
+    SpaceItems[i].Data := Pointer(NativeInt(i + 1));
+    SpaceItems[i].BB := RandomBox(field);
+    Moved[i] := Box3(SpaceItems[i].BB.Min + vec3d(1.0, 0.0, 0.0), SpaceItems[i].BB.Max + vec3d(1.0, 0.0, 0.0));
+  end;
+  SetLength(Queries, TREE_COUNT_QUERIES);
+  for i := 0 to TREE_COUNT_QUERIES - 1 do
+    Queries[i] := RandomBox(field);
+end;
+
+{ TBenchRTree }
+
+procedure TBenchRTree.Setup;
+begin
+  GenerateBoxes;
+  SetLength(Nodes, Size);
+  List := TListNodes.Create;
+  if Param >= TREE_QUERY then
+  begin
+    Tree := TBlackSharkRTree.Create;
+    if Param = TREE_MOVE_REFIT then
+    begin
+      Tree.UpdateMode := umRefit;
+      { there is not GUIThread loop to receive a result of RebuildAsync }
+      Tree.BackgroundRebuild := false;
+    end else
+      Tree.UpdateMode := umReinsert;
+    Tree.BulkLoad(SpaceItems, Nodes);
+  end;
+  if Param = TREE_QUERY then
+    Operations := TREE_COUNT_QUERIES
+  else
+    Operations := Size;
+end;
+
+procedure TBenchRTree.TearDown;
+begin
+  Tree.Free;
+  List.Free;
+end;
+
+procedure TBenchRTree.Run;
+var
+  tr: TBlackSharkRTree;
+  i: int32;
+begin
+  case Param of
+    TREE_ADD, TREE_BULK_LOAD: begin
+      tr := TBlackSharkRTree.Create;
+      try
+        if Param = TREE_ADD then
+        begin
+          for i := 0 to Size - 1 do
+            tr.Add(SpaceItems[i].Data, SpaceItems[i].BB, Nodes[i]);
+        end else
+          tr.BulkLoad(SpaceItems, Nodes);
+      finally
+        tr.Free;
+      end;
+    end;
+    TREE_QUERY: begin
+      for i := 0 to TREE_COUNT_QUERIES - 1 do
+      begin
+        List.Count := 0;
+        Tree.SelectData(Queries[i], List);
+      end;
+    end
+  else
+    { the boxes go forth and back, so every run does the same work }
+    WasMoved := not WasMoved;
+    if WasMoved then
+    begin
+      for i := 0 to Size - 1 do
+        Nodes[i] := Tree.UpdatePosition(Nodes[i], Moved[i]);
+    end else
+    begin
+      for i := 0 to Size - 1 do
+        Nodes[i] := Tree.UpdatePosition(Nodes[i], SpaceItems[i].BB);
+    end;
+  end;
+end;
+
+{ TBenchKDTree }
+
+procedure TBenchKDTree.Setup;
+var
+  i: int32;
+begin
+  GenerateBoxes;
+  List := TListVec<Pointer>.Create;
+  if Param = TREE_QUERY then
+  begin
+    Tree := TBlackSharkKDTree.Create;
+    for i := 0 to Size - 1 do
+      Tree.AddBB(SpaceItems[i].Data, TBox3f(SpaceItems[i].BB));
+    Operations := TREE_COUNT_QUERIES;
+  end else
+    Operations := Size;
+end;
+
+procedure TBenchKDTree.TearDown;
+begin
+  Tree.Free;
+  List.Free;
+end;
+
+procedure TBenchKDTree.Run;
+var
+  tr: TBlackSharkKDTree;
+  i: int32;
+begin
+  if Param = TREE_QUERY then
+  begin
+    for i := 0 to TREE_COUNT_QUERIES - 1 do
+    begin
+      List.Count := 0;
+      Tree.Select(TBox3f(Queries[i]), List);
+    end;
+  end else
+  begin
+    tr := TBlackSharkKDTree.Create;
+    try
+      for i := 0 to Size - 1 do
+        tr.AddBB(SpaceItems[i].Data, TBox3f(SpaceItems[i].BB));
+    finally
+      tr.Free;
+    end;
+  end;
+end;
+
+{ TBenchPng }
+
+procedure TBenchPng.Setup;
+begin
+  CheckFile(GetFilePath(PNG_FILE));
+  Source := TMemoryStream.Create;
+  Source.LoadFromFile(GetFilePath(PNG_FILE));
+end;
+
+procedure TBenchPng.TearDown;
+begin
+  Source.Free;
+end;
+
+procedure TBenchPng.Run;
+var
+  pic: TBlackSharkPicture;
+begin
+  pic := TPicCodecManager.Open(Source, '.png');
+  if pic = nil then
+    raise Exception.Create('TBenchPng: the picture is not decoded: ' + PNG_FILE);
+  Operations := pic.Width * pic.Height;
+  pic.Free;
+end;
+
+{ TBenchZLib }
+
+procedure TBenchZLib.Setup;
+const
+  PNG_IDAT = $54414449;
+var
+  png: TMemoryStream;
+  p: PByte;
+  len, name: uint32;
+  offset: int64;
+begin
+  CheckFile(GetFilePath(PNG_FILE));
+  png := TMemoryStream.Create;
+  try
+    png.LoadFromFile(GetFilePath(PNG_FILE));
+    { the data of all IDAT chunks together is one zlib stream; 8 - the signature }
+    offset := 8;
+    while offset + 12 <= png.Size do
+    begin
+      p := PByte(png.Memory) + offset;
+      len := (uint32(p[0]) shl 24) or (uint32(p[1]) shl 16) or (uint32(p[2]) shl 8) or p[3];
+      name := PCardinal(p + 4)^;
+      if name = PNG_IDAT then
+      begin
+        SetLength(Compressed, Length(Compressed) + int32(len));
+        move(p[8], Compressed[Length(Compressed) - int32(len)], len);
+      end;
+      { length, name, data, CRC }
+      inc(offset, int64(len) + 12);
+    end;
+  finally
+    png.Free;
+  end;
+  if Length(Compressed) = 0 then
+    raise Exception.Create('TBenchZLib: there is not IDAT in ' + PNG_FILE);
+  Output := TMemoryStream.Create;
+  Operations := Length(Compressed);
+end;
+
+procedure TBenchZLib.TearDown;
+begin
+  Output.Free;
+end;
+
+procedure TBenchZLib.Run;
+var
+  decompressor: ZLibDecompressor;
+begin
+  Output.Position := 0;
+  decompressor := ZLibDecompressor.Create;
+  try
+    decompressor.Decompress(@Compressed[0], Length(Compressed), Output);
+  finally
+    decompressor.Free;
+  end;
+end;
+
+{ TBenchTrueTypeFont }
+
+procedure TBenchTrueTypeFont.Setup;
+var
+  c: uint16;
+begin
+  { the font has not a saved index file, so the glyphs are really triangulated }
+  FileName := GetFilePath(FONT_FILE, 'Fonts');
+  CheckFile(FileName);
+  for c := 33 to 126 do
+  begin
+    SetLength(Codes, Length(Codes) + 1);
+    Codes[High(Codes)] := c;
+  end;
+  for c := $0410 to $044F do
+  begin
+    SetLength(Codes, Length(Codes) + 1);
+    Codes[High(Codes)] := c;
+  end;
+end;
+
+procedure TBenchTrueTypeFont.Run;
+var
+  font: TTrueTypeFont;
+  i, count: int32;
+begin
+  font := TTrueTypeFont.Create('BenchFont');
+  try
+    font.SaveIndexes := false;
+    if not font.Load(FileName) then
+      raise Exception.Create('TBenchTrueTypeFont: the font is not loaded: ' + FileName);
+    count := 0;
+    for i := 0 to High(Codes) do
+      if font.Key[Codes[i]] <> nil then
+        inc(count);
+    Operations := count;
+  finally
+    font.Free;
+  end;
+end;
+
+{ TBenchMeshObj }
+
+procedure TBenchMeshObj.Setup;
+begin
+  CheckFile(GetFilePath(OBJ_FILE));
+  MeshCache := BSConfig.MeshCache;
+  BSConfig.MeshCache := false;
+end;
+
+procedure TBenchMeshObj.TearDown;
+begin
+  BSConfig.MeshCache := MeshCache;
+end;
+
+procedure TBenchMeshObj.Run;
+var
+  mesh: TMesh;
+begin
+  mesh := MeshLoadObj(OBJ_FILE);
+  if mesh = nil then
+    raise Exception.Create('TBenchMeshObj: the model is not loaded: ' + OBJ_FILE);
+  mesh.Free;
+end;
+
+{ TBenchCollada }
+
+procedure TBenchCollada.Setup;
+begin
+  CheckFile(GetFilePath(COLLADA_FILE));
+  Source := TMemoryStream.Create;
+  Source.LoadFromFile(GetFilePath(COLLADA_FILE));
+end;
+
+procedure TBenchCollada.TearDown;
+begin
+  Source.Free;
+end;
+
+procedure TBenchCollada.ParseArrays(ANode: TheXmlNode);
+var
+  i: int32;
+  text: string;
+  p, p_end: PChar;
+  f: BSFloat;
+  v: int32;
+begin
+  if (ANode.Name = 'float_array') or (ANode.Name = 'p') or (ANode.Name = 'vcount') or (ANode.Name = 'v') then
+  begin
+    text := WideToString(ANode.StrData);
+    if text <> '' then
+    begin
+      p := PChar(text);
+      p_end := p + Length(text);
+      if ANode.Name = 'float_array' then
+      begin
+        while ParseFloat(p, p_end, f) do
+          inc(CountValues);
+      end else
+        while ParseInt(p, p_end, v) do
+          inc(CountValues);
+    end;
+  end;
+  for i := 0 to ANode.CountChilds - 1 do
+    ParseArrays(ANode.Childs[i]);
+end;
+
+procedure TBenchCollada.Run;
+var
+  xml: TheXmlWriter;
+begin
+  xml := TheXmlWriter.Create('', false);
+  try
+    xml.LoadFromBuf(Source.Memory, Source.Size);
+    if not Assigned(xml.Root) then
+      raise Exception.Create('TBenchCollada: the model is not parsed: ' + COLLADA_FILE);
+    CountValues := 0;
+    ParseArrays(xml.Root);
+    Operations := CountValues;
+  finally
+    xml.Free;
+  end;
+end;
+
+{ TBenchQueue }
+
+procedure TBenchQueue.Setup;
+begin
+  Operations := Size * QUEUE_ITEMS_PER_PRODUCER;
+end;
+
+procedure TBenchQueue.Run;
+begin
+  BenchmarkQueue(TQueueBenchmarkKind(Param), Size, QUEUE_ITEMS_PER_PRODUCER);
+end;
+
+initialization
+  RegisterBenchmark('collections/hashtable.int64', TBenchHashMapInt, HASH_TABLE, 100000);
+  RegisterBenchmark('collections/openhashmap.int64', TBenchHashMapInt, OPEN_HASH_MAP, 100000);
+  RegisterBenchmark('collections/int64hashmap', TBenchHashMapInt, INT64_HASH_MAP, 100000);
+  RegisterBenchmark('collections/hashtable.string', TBenchHashMapStr, HASH_TABLE, 50000);
+  RegisterBenchmark('collections/openhashmap.string', TBenchHashMapStr, OPEN_HASH_MAP, 50000);
+  RegisterBenchmark('collections/listdual', TBenchListDual, 0, 100000);
+  RegisterBenchmark('collections/listvec.sort', TBenchListVecSort, 0, 100000);
+
+  RegisterBenchmark('tesselator/star.512', TBenchTesselator, TESS_STAR, 512);
+  RegisterBenchmark('tesselator/groups.64x32', TBenchTesselator, TESS_GROUPS, 32);
+
+  RegisterBenchmark('spacetree/rtree.add.10k', TBenchRTree, TREE_ADD, 10000);
+  RegisterBenchmark('spacetree/rtree.bulkload.10k', TBenchRTree, TREE_BULK_LOAD, 10000);
+  RegisterBenchmark('spacetree/rtree.query.10k', TBenchRTree, TREE_QUERY, 10000);
+  RegisterBenchmark('spacetree/rtree.move.reinsert.10k', TBenchRTree, TREE_MOVE_REINSERT, 10000);
+  RegisterBenchmark('spacetree/rtree.move.refit.10k', TBenchRTree, TREE_MOVE_REFIT, 10000);
+  RegisterBenchmark('spacetree/kdtree.add.10k', TBenchKDTree, TREE_ADD, 10000);
+  RegisterBenchmark('spacetree/kdtree.query.10k', TBenchKDTree, TREE_QUERY, 10000);
+
+  RegisterBenchmark('codecs/png.decode', TBenchPng);
+  RegisterBenchmark('codecs/zlib.inflate', TBenchZLib);
+
+  RegisterBenchmark('font/truetype.glyphs', TBenchTrueTypeFont);
+
+  RegisterBenchmark('mesh/obj.parse', TBenchMeshObj);
+  RegisterBenchmark('mesh/collada.parse', TBenchCollada);
+
+  RegisterBenchmark('thread/queue.fifo-locked.1', TBenchQueue, ord(qbFIFOLocked), 1);
+  RegisterBenchmark('thread/queue.mpsc.1', TBenchQueue, ord(qbMPSC), 1);
+  RegisterBenchmark('thread/queue.fifo-locked.4', TBenchQueue, ord(qbFIFOLocked), 4);
+  RegisterBenchmark('thread/queue.mpsc.4', TBenchQueue, ord(qbMPSC), 4);
+
+end.
@@ -86,6 +86,27 @@ type
     //class function TestClass: TBSTestClass; override;
   end;
 
+  { TBSTestCanvasImagesAsync
+
+    the pictures are loaded by BSTextureManager.LoadTextureAsync; placeholders
+    are shown at once and are replaced when textures have been uploaded }
+
+  TBSTestCanvasImagesAsync = class(TBSTest)
+  private
+    Canvas: TBCanvas;
+    Pictures: array of TPicture;
+    Observers: array of IBEmptyEventObserver;
+    TxtInfo: TCanvasText;
+    StartTime: uint64;
+    CountLoaded: int32;
+    procedure OnTextureLoaded(const Value: BEmpty);
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
   TBSTestCanvasAlign = class(TBSTest)
   private
     Canvas: TBCanvas;
@@ -111,6 +132,36 @@ type
     //class function TestClass: TBSTestClass; override;
   end;
 
+  { TBSTestCanvasFontsSDF
+
+    Benchmark: the same page of a text is scaled through a range of sizes by
+    TTrueTypeRasterFont (it rasterizes glyphs for every size) and by
+    TTrueTypeSDFFont (glyphs are rasterized once into the atlas of distance
+    fields) }
+
+  TBSTestCanvasFontsSDF = class(TBSTest)
+  private
+    const
+      COUNT_LINES = 12;
+      PASSES = 3;
+      SIZES: array[0..6] of int32 = (8, 12, 16, 20, 24, 28, 32);
+  private
+    RasterCanvas: TBCanvas;
+    SDFCanvas: TBCanvas;
+    ResultCanvas: TBCanvas;
+    RasterLines: array of TCanvasText;
+    SDFLines: array of TCanvasText;
+    CountResults: int32;
+    procedure CreatePage(ACanvas: TBCanvas; var ALines: array of TCanvasText; ALeft: BSFloat);
+    function Scale(ACanvas: TBCanvas; const ALines: array of TCanvasText): double;
+    procedure AddResult(const AText: string);
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
   { TBSTestCanvasScalableMode }
 
   TBSTestCanvasScalableMode = class(TBSTest)
@@ -551,6 +602,81 @@ begin
   Result := 'Draw Images';
 end;
 
+{ TBSTestCanvasImagesAsync }
+
+constructor TBSTestCanvasImagesAsync.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Canvas := TBCanvas.Create(Renderer, Self);
+  TxtInfo := TCanvasText.Create(Canvas, nil);
+  TxtInfo.Position2d := vec2(10, 10);
+end;
+
+destructor TBSTestCanvasImagesAsync.Destroy;
+begin
+  Observers := nil;
+  Canvas.Free;
+  inherited;
+end;
+
+procedure TBSTestCanvasImagesAsync.OnTextureLoaded(const Value: BEmpty);
+var
+  i: int32;
+begin
+  inc(CountLoaded);
+  for i := 0 to length(Pictures) - 1 do
+    if Pointer(Pictures[i].Texture.Texture as TBlackSharkTexture) = Value.Instance then
+      Pictures[i].Build;
+  TxtInfo.Text := Format('Loaded %d from %d in %.1f ms', [CountLoaded, length(Pictures),
+    (TBTimer.MicroSeconds - StartTime) / 1000]);
+end;
+
+function TBSTestCanvasImagesAsync.Run: boolean;
+const
+  FILES: array[0..7] of string = (
+    'Pictures/earth/earth.png',
+    'Pictures/earth/earthmap1k.png',
+    'Pictures/earth/earthcloudmapcolortrans.png',
+    'Pictures/earth/moonmap1k.png',
+    'Pictures/earth/moonmap1k2.png',
+    'Pictures/earth/moonmap1k3.png',
+    'Pictures/earth/moonmap2.png',
+    'Pictures/earth/sky.png'
+  );
+  PICTURE_WIDTH = 240;
+  PICTURE_HEIGHT = 120;
+var
+  i: int32;
+  area: PTextureArea;
+  texture: TBlackSharkTexture;
+begin
+  SetLength(Pictures, length(FILES));
+  SetLength(Observers, length(FILES));
+  StartTime := TBTimer.MicroSeconds;
+  CountLoaded := 0;
+  for i := 0 to length(FILES) - 1 do
+  begin
+    area := BSTextureManager.LoadTextureAsync(FILES[i]);
+    Pictures[i] := TPicture.Create(Canvas, nil);
+    Pictures[i].AutoFit := false;
+    Pictures[i].Size := vec2(PICTURE_WIDTH, PICTURE_HEIGHT);
+    Pictures[i].Texture := area;
+    Pictures[i].Position2d := vec2(10 + (i mod 3) * (PICTURE_WIDTH + 10), 40 + (i div 3) * (PICTURE_HEIGHT + 10));
+    texture := area.Texture as TBlackSharkTexture;
+    if texture.Loading then
+      Observers[i] := CreateEmptyObserver(texture.EventLoaded, OnTextureLoaded)
+    else
+      inc(CountLoaded);
+  end;
+  TxtInfo.Text := Format('Requested %d pictures in %.1f ms', [length(FILES), (TBTimer.MicroSeconds - StartTime) / 1000]);
+  Result := true;
+end;
+
+class function TBSTestCanvasImagesAsync.TestName: string;
+begin
+  Result := 'Draw Images loaded asynchronously';
+end;
+
 { TBSTestCanvasPrimitives }
 
 constructor TBSTestCanvasPrimitives.Create(ARenderer: TBlackSharkRenderer);
@@ -838,6 +964,93 @@ begin
   Result := 'Test right separate the usage resourses of font';
 end;
 
+{ TBSTestCanvasFontsSDF }
+
+procedure TBSTestCanvasFontsSDF.AddResult(const AText: string);
+var
+  txt: TCanvasText;
+begin
+  txt := TCanvasText.Create(ResultCanvas, nil);
+  txt.Text := AText;
+  txt.Color := BS_CL_WHITE;
+  txt.Position2d := vec2(10, 10 + CountResults * 17);
+  inc(CountResults);
+end;
+
+constructor TBSTestCanvasFontsSDF.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  ResultCanvas := TBCanvas.Create(Renderer, Self);
+  RasterCanvas := TBCanvas.Create(Renderer, Self);
+  RasterCanvas.Font := BSFontManager.GetFont('NotoSerif-Regular.ttf', TTrueTypeRasterFont);
+  SDFCanvas := TBCanvas.Create(Renderer, Self);
+  SDFCanvas.Font := BSFontManager.GetFont('NotoSerif-Regular.ttf', TTrueTypeSDFFont);
+  SetLength(RasterLines, COUNT_LINES);
+  SetLength(SDFLines, COUNT_LINES);
+  CreatePage(RasterCanvas, RasterLines, 10);
+  CreatePage(SDFCanvas, SDFLines, Renderer.WindowWidth shr 1);
+end;
+
+procedure TBSTestCanvasFontsSDF.CreatePage(ACanvas: TBCanvas; var ALines: array of TCanvasText; ALeft: BSFloat);
+var
+  i: int32;
+begin
+  ACanvas.Font.SizeInPixels := SIZES[0];
+  for i := 0 to length(ALines) - 1 do
+  begin
+    ALines[i] := TCanvasText.Create(ACanvas, nil);
+    ALines[i].Color := BS_CL_WHITE;
+    ALines[i].Text := IntToStr(i) + ': The quick brown fox jumps over the lazy dog; Съешь же ещё этих мягких французских булок';
+    ALines[i].Position2d := vec2(ALeft, 100 + i * 40);
+  end;
+end;
+
+destructor TBSTestCanvasFontsSDF.Destroy;
+begin
+  ResultCanvas.Free;
+  RasterCanvas.Free;
+  SDFCanvas.Free;
+  inherited;
+end;
+
+function TBSTestCanvasFontsSDF.Scale(ACanvas: TBCanvas; const ALines: array of TCanvasText): double;
+var
+  pass, i, j: int32;
+  t: uint64;
+begin
+  t := TBTimer.MicroSeconds;
+  for pass := 0 to PASSES - 1 do
+    for i := 0 to length(SIZES) - 1 do
+    begin
+      ACanvas.Font.SizeInPixels := SIZES[i];
+      for j := 0 to length(ALines) - 1 do
+        ALines[j].Build;
+    end;
+  Result := (TBTimer.MicroSeconds - t) / 1000;
+end;
+
+function TBSTestCanvasFontsSDF.Run: boolean;
+var
+  t_raster, t_sdf: double;
+  changes: int32;
+  sdf: TTrueTypeSDFFont;
+begin
+  changes := PASSES * length(SIZES);
+  t_raster := Scale(RasterCanvas, RasterLines);
+  t_sdf := Scale(SDFCanvas, SDFLines);
+  sdf := SDFCanvas.Font as TTrueTypeSDFFont;
+  AddResult(Format('TTrueTypeRasterFont: %d changes of the size; time: %.1f ms; ms/change: %.2f',
+    [changes, t_raster, t_raster / changes]));
+  AddResult(Format('TTrueTypeSDFFont: %d changes of the size; time: %.1f ms; ms/change: %.2f; rasterized glyphs: %d; evictions: %d; atlas: %d',
+    [changes, t_sdf, t_sdf / changes, sdf.CountRasterized, sdf.Atlas.Evictions, sdf.Atlas.Size]));
+  Result := true;
+end;
+
+class function TBSTestCanvasFontsSDF.TestName: string;
+begin
+  Result := 'Benchmark of scaling a text by raster and SDF fonts';
+end;
+
 { TBSTestCanvasScalableMode }
 
 function TBSTestCanvasScalableMode.CheckColor(const APostoin: TVec2i; AMust: TGuiColor): boolean;
@@ -0,0 +1,397 @@
+unit bs.test.collections;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+uses
+    bs.basetypes
+  , bs.renderer
+  , bs.test
+  , bs.canvas
+  , bs.thread
+  ;
+
+type
+
+  TCollectionBenchmarkKind = (
+    { THashTable<int64, int32> with linear probing }
+    cbHashTableInt,
+    { TOpenHashMap<int64, int32> with robin-hood probing }
+    cbOpenHashMapInt,
+    { TInt64HashMap<int32>, hashing without invocations by pointers }
+    cbInt64HashMap,
+    { THashTable<string, int32> }
+    cbHashTableStr,
+    { TOpenHashMap<string, int32> }
+    cbOpenHashMapStr,
+    { TListDual<int32>: PushToEnd, cursor reads, Remove, reading by ItemListFirst }
+    cbListDual
+  );
+
+  { all times are in nanoseconds per an item }
+  TCollectionBenchmarkResult = record
+    Kind: TCollectionBenchmarkKind;
+    Size: int32;
+    Insert: double;
+    Lookup: double;
+    Delete: double;
+    Iterate: double;
+  end;
+
+  { fills a container by ASize unique keys starting from empty, finds all of them,
+    iterates over them and deletes them; every stage is repeated ARounds times }
+  function BenchmarkCollection(AKind: TCollectionBenchmarkKind; ASize: int32; ARounds: int32 = 1): TCollectionBenchmarkResult;
+
+type
+
+  { TBSTestCollections
+
+    CPU benchmark: the hash tables and the linked list from bs.collections
+    for different amount of items }
+
+  TBSTestCollections = class(TBSTest)
+  private
+    const
+      SIZES: array[0..3] of int32 = (1000, 10000, 100000, 1000000);
+  private
+    Canvas: TBCanvas;
+    CountLines: int32;
+    procedure AddLine(const AText: string);
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
+implementation
+
+uses
+    SysUtils
+  , Math
+  , bs.collections
+  ;
+
+type
+
+  TBenchmarkKeys = record
+    Ints: array of int64;
+    Strings: array of string;
+  end;
+
+procedure GenerateKeys(AKind: TCollectionBenchmarkKind; ASize: int32; out AKeys: TBenchmarkKeys);
+var
+  i: int32;
+begin
+  SetLength(AKeys.Ints, ASize);
+  { multiplication by an odd number is a bijection, so all keys are unique }
+  for i := 0 to ASize - 1 do
+    AKeys.Ints[i] := int64(uint64(i + 1) * uint64($D6E8FEB86659FD93));
+  if AKind in [cbHashTableStr, cbOpenHashMapStr] then
+  begin
+    SetLength(AKeys.Strings, ASize);
+    for i := 0 to ASize - 1 do
+      AKeys.Strings[i] := 'key_' + IntToHex(AKeys.Ints[i], 16);
+  end;
+end;
+
+function ToNs(AStart: uint64; ACount: int64): double;
+begin
+  Result := (TBTimer.MicroSeconds - AStart) * 1000.0 / Max(ACount, 1);
+end;
+
+function BenchmarkCollection(AKind: TCollectionBenchmarkKind; ASize: int32; ARounds: int32): TCollectionBenchmarkResult;
+var
+  keys: TBenchmarkKeys;
+  hash_int: THashTable<int64, int32>;
+  hash_str: THashTable<string, int32>;
+  open_int: TOpenHashMap<int64, int32>;
+  open_str: TOpenHashMap<string, int32>;
+  map_int: TInt64HashMap<int32>;
+  list: TListDual<int32>;
+  bucket_hash_int: THashTable<int64, int32>.TBucket;
+  bucket_hash_str: THashTable<string, int32>.TBucket;
+  bucket_open_int: TOpenHashMap<int64, int32>.TBucket;
+  bucket_open_str: TOpenHashMap<string, int32>.TBucket;
+  bucket_map_int: TInt64HashMap<int32>.TBucket;
+  items: array of TListDual<int32>.PListItem;
+  item: TListDual<int32>.PListItem;
+  i, r, v: int32;
+  checksum, expected, total: int64;
+  t: uint64;
+begin
+  Result.Kind := AKind;
+  Result.Size := ASize;
+  Result.Insert := 0;
+  Result.Lookup := 0;
+  Result.Delete := 0;
+  Result.Iterate := 0;
+  GenerateKeys(AKind, ASize, keys);
+  hash_int := nil;
+  hash_str := nil;
+  open_int := nil;
+  open_str := nil;
+  map_int := nil;
+  list := nil;
+  total := int64(ASize) * ARounds;
+  expected := int64(ASize) * (ASize - 1) div 2 * ARounds;
+  try
+    case AKind of
+      cbHashTableInt: hash_int := THashTable<int64, int32>.Create(GetHashBlackSharkInt64, Int64cmpEqual);
+      cbOpenHashMapInt: open_int := TOpenHashMap<int64, int32>.Create(GetHashBlackSharkInt64, Int64cmpEqual);
+      cbInt64HashMap: map_int := TInt64HashMap<int32>.Create;
+      cbHashTableStr: hash_str := THashTable<string, int32>.Create(GetHashBlackSharkS, StrCmpBool);
+      cbOpenHashMapStr: open_str := TOpenHashMap<string, int32>.Create(GetHashBlackSharkS, StrCmpBool);
+      cbListDual: begin
+        list := TListDual<int32>.Create;
+        SetLength(items, ASize);
+      end;
+    end;
+
+    { insert; containers are emptied between rounds, so the time includes growth }
+    t := TBTimer.MicroSeconds;
+    for r := 1 to ARounds do
+    begin
+      case AKind of
+        cbHashTableInt: begin
+          hash_int.Clear(true);
+          for i := 0 to ASize - 1 do
+            hash_int.TryAdd(keys.Ints[i], i);
+        end;
+        cbOpenHashMapInt: begin
+          open_int.Clear(true);
+          for i := 0 to ASize - 1 do
+            open_int.TryAdd(keys.Ints[i], i);
+        end;
+        cbInt64HashMap: begin
+          map_int.Clear(true);
+          for i := 0 to ASize - 1 do
+            map_int.TryAdd(keys.Ints[i], i);
+        end;
+        cbHashTableStr: begin
+          hash_str.Clear(true);
+          for i := 0 to ASize - 1 do
+            hash_str.TryAdd(keys.Strings[i], i);
+        end;
+        cbOpenHashMapStr: begin
+          open_str.Clear(true);
+          for i := 0 to ASize - 1 do
+            open_str.TryAdd(keys.Strings[i], i);
+        end;
+        cbListDual: begin
+          list.Clear;
+          for i := 0 to ASize - 1 do
+            items[i] := list.PushToEnd(i);
+        end;
+      end;
+    end;
+    Result.Insert := ToNs(t, total);
+
+    { lookup of all keys; the list is read through its cursor }
+    checksum := 0;
+    t := TBTimer.MicroSeconds;
+    for r := 1 to ARounds do
+    begin
+      case AKind of
+        cbHashTableInt:
+          for i := 0 to ASize - 1 do
+            if hash_int.Find(keys.Ints[i], v) then
+              inc(checksum, v);
+        cbOpenHashMapInt:
+          for i := 0 to ASize - 1 do
+            if open_int.Find(keys.Ints[i], v) then
+              inc(checksum, v);
+        cbInt64HashMap:
+          for i := 0 to ASize - 1 do
+            if map_int.Find(keys.Ints[i], v) then
+              inc(checksum, v);
+        cbHashTableStr:
+          for i := 0 to ASize - 1 do
+            if hash_str.Find(keys.Strings[i], v) then
+              inc(checksum, v);
+        cbOpenHashMapStr:
+          for i := 0 to ASize - 1 do
+            if open_str.Find(keys.Strings[i], v) then
+              inc(checksum, v);
+        cbListDual: begin
+          list.Cursor := 0;
+          for i := 0 to ASize - 1 do
+            inc(checksum, list.Read.Item);
+        end;
+      end;
+    end;
+    Result.Lookup := ToNs(t, total);
+    Assert(checksum = expected, 'BenchmarkCollection: not all keys are found!');
+
+    { iteration }
+    checksum := 0;
+    t := TBTimer.MicroSeconds;
+    for r := 1 to ARounds do
+    begin
+      case AKind of
+        cbHashTableInt:
+          if hash_int.GetFirst(bucket_hash_int) then
+          repeat
+            inc(checksum, bucket_hash_int.Value);
+          until not hash_int.GetNext(bucket_hash_int);
+        cbOpenHashMapInt:
+          if open_int.GetFirst(bucket_open_int) then
+          repeat
+            inc(checksum, bucket_open_int.Value);
+          until not open_int.GetNext(bucket_open_int);
+        cbInt64HashMap:
+          if map_int.GetFirst(bucket_map_int) then
+          repeat
+            inc(checksum, bucket_map_int.Value);
+          until not map_int.GetNext(bucket_map_int);
+        cbHashTableStr:
+          if hash_str.GetFirst(bucket_hash_str) then
+          repeat
+            inc(checksum, bucket_hash_str.Value);
+          until not hash_str.GetNext(bucket_hash_str);
+        cbOpenHashMapStr:
+          if open_str.GetFirst(bucket_open_str) then
+          repeat
+            inc(checksum, bucket_open_str.Value);
+          until not open_str.GetNext(bucket_open_str);
+        cbListDual: begin
+          item := list.ItemListFirst;
+          while item <> nil do
+          begin
+            inc(checksum, item.Item);
+            item := item.Next;
+          end;
+        end;
+      end;
+    end;
+    Result.Iterate := ToNs(t, total);
+    Assert(checksum = expected, 'BenchmarkCollection: not all keys are iterated!');
+
+    { delete; the containers are filled again out of the measurement }
+    t := 0;
+    for r := 1 to ARounds do
+    begin
+      if r > 1 then
+      begin
+        for i := 0 to ASize - 1 do
+          case AKind of
+            cbHashTableInt: hash_int.TryAdd(keys.Ints[i], i);
+            cbOpenHashMapInt: open_int.TryAdd(keys.Ints[i], i);
+            cbInt64HashMap: map_int.TryAdd(keys.Ints[i], i);
+            cbHashTableStr: hash_str.TryAdd(keys.Strings[i], i);
+            cbOpenHashMapStr: open_str.TryAdd(keys.Strings[i], i);
+            cbListDual: items[i] := list.PushToEnd(i);
+          end;
+      end;
+      t := t - TBTimer.MicroSeconds;
+      case AKind of
+        cbHashTableInt:
+          for i := 0 to ASize - 1 do
+            hash_int.Delete(keys.Ints[i]);
+        cbOpenHashMapInt:
+          for i := 0 to ASize - 1 do
+            open_int.Delete(keys.Ints[i]);
+        cbInt64HashMap:
+          for i := 0 to ASize - 1 do
+            map_int.Delete(keys.Ints[i]);
+        cbHashTableStr:
+          for i := 0 to ASize - 1 do
+            hash_str.Delete(keys.Strings[i]);
+        cbOpenHashMapStr:
+          for i := 0 to ASize - 1 do
+            open_str.Delete(keys.Strings[i]);
+        cbListDual: begin
+          { every second item, then the rest; the free nodes are mixed for next rounds }
+          i := 0;
+          while i < ASize do
+          begin
+            list.Remove(items[i]);
+            inc(i, 2);
+          end;
+          i := 1;
+          while i < ASize do
+          begin
+            list.Remove(items[i]);
+            inc(i, 2);
+          end;
+        end;
+      end;
+      t := t + TBTimer.MicroSeconds;
+    end;
+    Result.Delete := t * 1000.0 / Max(total, 1);
+
+    case AKind of
+      cbHashTableInt: v := hash_int.Count;
+      cbOpenHashMapInt: v := open_int.Count;
+      cbInt64HashMap: v := map_int.Count;
+      cbHashTableStr: v := hash_str.Count;
+      cbOpenHashMapStr: v := open_str.Count;
+      cbListDual: v := list.Count;
+    end;
+    Assert(v = 0, 'BenchmarkCollection: not all keys are deleted!');
+  finally
+    hash_int.Free;
+    hash_str.Free;
+    open_int.Free;
+    open_str.Free;
+    map_int.Free;
+    list.Free;
+  end;
+end;
+
+{ TBSTestCollections }
+
+procedure TBSTestCollections.AddLine(const AText: string);
+var
+  txt: TCanvasText;
+begin
+  txt := TCanvasText.Create(Canvas, nil);
+  txt.Text := AText;
+  txt.Data.Interactive := false;
+  txt.Position2d := vec2(10, 10 + CountLines * 17);
+  inc(CountLines);
+end;
+
+constructor TBSTestCollections.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Canvas := TBCanvas.Create(Renderer, Self);
+end;
+
+destructor TBSTestCollections.Destroy;
+begin
+  Canvas.Free;
+  inherited;
+end;
+
+function TBSTestCollections.Run: boolean;
+const
+  KIND_NAMES: array[TCollectionBenchmarkKind] of string = (
+    'THashTable<int64>', 'TOpenHashMap<int64>', 'TInt64HashMap', 'THashTable<string>',
+    'TOpenHashMap<string>', 'TListDual');
+var
+  i: int32;
+  kind: TCollectionBenchmarkKind;
+  res: TCollectionBenchmarkResult;
+begin
+  Result := true;
+  AddLine('ns per item: insert / lookup / iterate / delete');
+  for i := 0 to High(SIZES) do
+  begin
+    for kind := Low(TCollectionBenchmarkKind) to High(TCollectionBenchmarkKind) do
+    begin
+      { small sizes are repeated for stable numbers }
+      res := BenchmarkCollection(kind, SIZES[i], Max(1, SIZES[High(SIZES)] div (SIZES[i] * 10)));
+      AddLine(Format('%s, items: %d; %.1f / %.1f / %.1f / %.1f',
+        [KIND_NAMES[kind], res.Size, res.Insert, res.Lookup, res.Iterate, res.Delete]));
+    end;
+  end;
+end;
+
+class function TBSTestCollections.TestName: string;
+begin
+  Result := 'Benchmark of collections';
+end;
+
+end.
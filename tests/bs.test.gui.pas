@@ -259,6 +259,30 @@ type
     class function TestName: string; override;
   end;
 
+  { TBSTestGridFile
+
+    a hex view of a big file; the grid reads only visible rows from
+    TGridFileDataSource }
+
+  TBSTestGridFile = class(TBSTest)
+  private
+    const
+      { more than 256Mb, what is a limit for a buffer passed to TBGrid.Present }
+      FILE_SIZE = 320 * 1024 * 1024;
+  private
+    Grid: TBGrid;
+    DataSource: TGridFileDataSource;
+    FileName: string;
+    procedure CreateFile;
+  protected
+    procedure OnResizeViewport({%H-}const Data: BResizeEventData); override;
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
 
   { TBSTestChart }
 
@@ -288,6 +312,31 @@ type
     class function TestName: string; override;
   end;
 
+  { TBSTestStreamChart
+
+    a live data in the ring buffer of a million points; the curve is decimated
+    to about two points on a pixel }
+
+  TBSTestStreamChart = class(TBSTest)
+  private
+    const
+      CAPACITY = 1000000;
+      POINTS_IN_UPDATE = 2000;
+  private
+    Chart: TBChartCurvesFloat;
+    Curve: TBChartCurvesFloat.TDataContainerPairXY;
+    Task: IBEmptyTask;
+    TaskObsrv: IBEmptyTaskObserver;
+    Time: int32;
+    procedure AppendPoints(ACount: int32);
+    procedure OnUpdateValue(const Data: byte);
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
   { TBSTestDateChart }
 
   TBSTestDateChart = class(TBSTest)
@@ -894,6 +943,83 @@ begin
   Result := 'Test Grid';
 end;
 
+{ TBSTestGridFile }
+
+constructor TBSTestGridFile.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Renderer.Frustum.OrtogonalProjection := true;
+  FileName := ExtractFilePath(ParamStr(0)) + 'bs_test_grid.bin';
+end;
+
+procedure TBSTestGridFile.CreateFile;
+var
+  f: TFileStream;
+  buf: array of byte;
+  i, j: int32;
+begin
+  SetLength(buf, 1024*1024);
+  f := TFileStream.Create(FileName, fmCreate);
+  try
+    { every row of 16 bytes begins from its number, then letters follow }
+    for i := 0 to FILE_SIZE div length(buf) - 1 do
+    begin
+      for j := 0 to length(buf) div 16 - 1 do
+      begin
+        PInteger(@buf[j*16])^ := i * (length(buf) div 16) + j;
+        FillChar(buf[j*16 + 4], 12, Ord('a') + j mod 26);
+      end;
+      f.WriteBuffer(buf[0], length(buf));
+    end;
+  finally
+    f.Free;
+  end;
+end;
+
+destructor TBSTestGridFile.Destroy;
+begin
+  if Grid <> nil then
+  begin
+    Grid.DataSource := nil;
+    Grid.CurrentPresent.Free;
+  end;
+  Grid.Free;
+  DataSource.Free;
+  DeleteFile(FileName);
+  inherited;
+end;
+
+procedure TBSTestGridFile.OnResizeViewport(const Data: BResizeEventData);
+begin
+  inherited;
+  if Grid <> nil then
+    Grid.Resize(Renderer.WindowWidth, Renderer.WindowHeight);
+end;
+
+function TBSTestGridFile.Run: boolean;
+begin
+  if Grid = nil then
+  begin
+    CreateFile;
+    DataSource := TGridFileDataSource.Create(FileName);
+    Grid := TBGrid.Create(Renderer);
+    Grid.MainBody.Data.DragResolve := false;
+    Grid.Resize(Renderer.WindowWidth, Renderer.WindowHeight);
+    Grid.CurrentPresent := TGridHexDataPresentation.Create(Grid);
+    Grid.CurrentPresent.Color := BS_CL_SILVER2;
+    Grid.ClipObject.Data.Opacity := 0.0;
+    Grid.Position2d := vec2(0.0, 0.0);
+    Grid.BytesInRow := 16;
+    Grid.DataSource := DataSource;
+  end;
+  Result := true;
+end;
+
+class function TBSTestGridFile.TestName: string;
+begin
+  Result := 'Test Grid: a big file';
+end;
+
 { TBSTestChartCircular }
 
 constructor TBSTestChartCircular.Create(ARenderer: TBlackSharkRenderer);
@@ -1034,6 +1160,63 @@ begin
   Result := 'Test Float Chart';
 end;
 
+{ TBSTestStreamChart }
+
+constructor TBSTestStreamChart.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Chart := TBChartCurvesFloat.Create(ARenderer);
+  Chart.Resize(ARenderer.WindowWidth * 0.8, ARenderer.WindowHeight * 0.6);
+  Chart.ShowPoints := false;
+  Curve := Chart.CreateChart;
+  Curve.Capacity := CAPACITY;
+  AppendPoints(CAPACITY);
+  Task := CreateEmptyTask;
+  TaskObsrv := Task.CreateObserver(GUIThread, OnUpdateValue);
+  { 25 frames per second }
+  Task.IntervalUpdate := 40;
+end;
+
+destructor TBSTestStreamChart.Destroy;
+begin
+  if Task.IsRun then
+    Task.Stop;
+  TaskObsrv := nil;
+  Task := nil;
+  Chart.Free;
+  inherited;
+end;
+
+procedure TBSTestStreamChart.AppendPoints(ACount: int32);
+var
+  i: int32;
+begin
+  for i := 0 to ACount - 1 do
+  begin
+    Curve.Append(Time * 0.001, sin(Time * 0.00005) * 10 + sin(Time * 0.003) + (Random - 0.5));
+    inc(Time);
+  end;
+end;
+
+procedure TBSTestStreamChart.OnUpdateValue(const Data: byte);
+begin
+  AppendPoints(POINTS_IN_UPDATE);
+  Chart.Refresh;
+end;
+
+function TBSTestStreamChart.Run: boolean;
+begin
+  Result := true;
+  Chart.BuildView;
+  Chart.MainBody.ToParentCenter;
+  Task.Run;
+end;
+
+class function TBSTestStreamChart.TestName: string;
+begin
+  Result := 'Test Chart: a stream of data';
+end;
+
 { TBSTestChartBar }
 
 constructor TBSTestChartBar.Create(ARenderer: TBlackSharkRenderer);
@@ -35,15 +35,40 @@ type
   end;
 
 
+  { besides of instances the test compares the same fountain of particles
+    simulated on the CPU (TParticlesSingleUV) and by the shader (TParticlesGPU):
+    time of an update and amount of uploaded data per frame }
+
   TBSTestInstancing2d = class(TBSTest)
   private
     const
       COUNT_INSTANCES = 1000;
+      COUNT_PARTICLES = 5000;
+      { seconds }
+      PARTICLE_LIFE = 3.0;
   private
     Instancing: TBlackSharkInstancing2d;
     Canvas: TBCanvas;
     TimeOut: TCanvasText;
     Proto: TArc;
+    CpuParticles: TParticlesSingleUV;
+    CpuVelocities: array of TVec3f;
+    CpuAges: array of BSFloat;
+    CpuOrigin: TVec3f;
+    GpuParticles: TParticlesGPU;
+    GpuOrigin: TVec3f;
+    Gravity: TVec3f;
+    Speed: BSFloat;
+    CpuStat: TCanvasText;
+    GpuStat: TCanvasText;
+    CpuTime: uint64;
+    Ticks: int32;
+    LastTick: uint32;
+    LastStat: uint32;
+    Task: IBEmptyTask;
+    TaskObserver: IBEmptyTaskObserver;
+    function RandomVelocity: TVec3f;
+    procedure OnUpdateValue(const Value: byte);
   public
     constructor Create(ARenderer: TBlackSharkRenderer); override;
     destructor Destroy; override;
@@ -323,19 +348,111 @@ begin
   TimeOut.Color := BS_CL_GREEN;
   TimeOut.Position2d := TVec2f(vec2(50.0, Renderer.WindowHeight - 20.0));
   colorEnumerator.Free;
+
+  CpuStat := TCanvasText.Create(Canvas, nil);
+  CpuStat.Color := BS_CL_GREEN;
+  CpuStat.Position2d := TVec2f(vec2(50.0, Renderer.WindowHeight - 40.0));
+  GpuStat := TCanvasText.Create(Canvas, nil);
+  GpuStat.Color := BS_CL_GREEN;
+  GpuStat.Position2d := TVec2f(vec2(50.0, Renderer.WindowHeight - 60.0));
+
+  Speed := Renderer.ScreenSizeToScene(400);
+  Gravity := vec3(0.0, -Speed, 0.0);
+  CpuOrigin := Renderer.ScreenPositionToScene(Renderer.WindowWidth * 0.3, Renderer.WindowHeight * 0.7);
+  GpuOrigin := Renderer.ScreenPositionToScene(Renderer.WindowWidth * 0.7, Renderer.WindowHeight * 0.7);
+
+  CpuParticles := TParticlesSingleUV.Create(ARenderer, nil);
+  CpuParticles.Texture := BSTextureManager.LoadTexture('Pictures\snowflake.png');
+  CpuParticles.CountParticle := COUNT_PARTICLES;
+  SetLength(CpuVelocities, COUNT_PARTICLES);
+  SetLength(CpuAges, COUNT_PARTICLES);
+  for i := 0 to COUNT_PARTICLES - 1 do
+  begin
+    CpuVelocities[i] := RandomVelocity;
+    { spreads births over the life as the delays of GpuParticles }
+    CpuAges[i] := -Random * PARTICLE_LIFE;
+    CpuParticles.Position[i] := CpuOrigin;
+  end;
+
+  GpuParticles := TParticlesGPU.Create(ARenderer, nil);
+  GpuParticles.Gravity := Gravity;
+  for i := 0 to COUNT_PARTICLES - 1 do
+    GpuParticles.Spawn(i, GpuOrigin, RandomVelocity, PARTICLE_LIFE, BS_CL_SKY, Random * PARTICLE_LIFE);
+
+  Task := CreateEmptyTask(GUIThread);
+  TaskObserver := Task.CreateObserver(GUIThread, OnUpdateValue);
 end;
 
 destructor TBSTestInstancing2d.Destroy;
 begin
+  Task := nil;
+  TaskObserver := nil;
+  CpuParticles.Free;
+  GpuParticles.Free;
   Instancing.Free;
   TimeOut.Free;
   Canvas.Free;
   inherited;
 end;
 
+function TBSTestInstancing2d.RandomVelocity: TVec3f;
+begin
+  Result := vec3((Random - 0.5) * Speed * 0.5, Speed * (0.5 + Random * 0.5), 0.0);
+end;
+
+procedure TBSTestInstancing2d.OnUpdateValue(const Value: byte);
+var
+  i: int32;
+  current: uint32;
+  dt: BSFloat;
+  t: uint64;
+  pos: TVec3f;
+begin
+  current := TBTimer.CurrentTime.Low;
+  dt := (current - LastTick) * 0.001;
+  LastTick := current;
+
+  { GpuParticles needs nothing here }
+  t := TBTimer.MicroSeconds;
+  for i := 0 to COUNT_PARTICLES - 1 do
+  begin
+    CpuAges[i] := CpuAges[i] + dt;
+    if CpuAges[i] < 0 then
+      continue;
+    if CpuAges[i] > PARTICLE_LIFE then
+    begin
+      CpuAges[i] := CpuAges[i] - PARTICLE_LIFE;
+      CpuVelocities[i] := RandomVelocity;
+      pos := CpuOrigin;
+    end else
+    begin
+      CpuVelocities[i] := CpuVelocities[i] + Gravity * dt;
+      pos := CpuParticles.Position[i] + CpuVelocities[i] * dt;
+    end;
+    CpuParticles.Position[i] := pos;
+  end;
+  inc(CpuTime, TBTimer.MicroSeconds - t);
+  inc(Ticks);
+
+  if current - LastStat < 1000 then
+    exit;
+  CpuStat.Text := Format('CPU particles: %d; update: %d us/frame; upload: %d KB/frame',
+    [COUNT_PARTICLES, CpuTime div uint64(Ticks), (CpuParticles.VertexBuffer.UploadedBytes div uint64(Ticks)) shr 10]);
+  GpuStat.Text := Format('GPU particles: %d; update: none; upload: %d KB/frame',
+    [COUNT_PARTICLES, (GpuParticles.VertexBuffer.UploadedBytes div uint64(Ticks)) shr 10]);
+  CpuParticles.VertexBuffer.ResetStatistics;
+  GpuParticles.VertexBuffer.ResetStatistics;
+  CpuTime := 0;
+  Ticks := 0;
+  LastStat := current;
+end;
+
 function TBSTestInstancing2d.Run: boolean;
 begin
+  LastTick := TBTimer.CurrentTime.Low;
+  LastStat := LastTick;
   Result := true;
+  Task.Run;
 end;
 
 class function TBSTestInstancing2d.TestName: string;
@@ -54,6 +54,30 @@ type
     class function TestName: string; override;
   end;
 
+  { TBSTestSkeletonStress
+
+    Many instances of an animated Collada model; a skinning is done either
+    on GPU by the palette of bones or by BSJobs.ParallelFor on CPU }
+
+  TBSTestSkeletonStress = class(TBSTest)
+  private
+    const
+      COUNT_SIDE = 8;
+      STEP = 6.0;
+  private
+    Skeletons: array of TSkeleton;
+    Canvas: TBCanvas;
+    cbOnGPU: TBCheckBox;
+    TxtInfo: TCanvasText;
+    procedure OnCheckOnGPU(ASender: TObject);
+    procedure StartAnimations;
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
 implementation
 
 uses
@@ -67,6 +91,7 @@ uses
   , bs.collections
   , bs.thread
   , bs.graphics
+  , bs.jobs
   ;
 
 { TBSTestCollada }
@@ -303,5 +328,91 @@ begin
   Result := 'Test of Collada';
 end;
 
+{ TBSTestSkeletonStress }
+
+constructor TBSTestSkeletonStress.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Allow3dManipulationByMouse := true;
+  AllowMoveCameraByKeyboard := true;
+  Renderer.Frustum.DistanceFarPlane := 500;
+  Renderer.Frustum.Position := vec3(0.0, 25.0, 45.0);
+  Renderer.Frustum.Angle := vec3(-30.0, 0.0, 0.0);
+  Canvas := TBCanvas.Create(ARenderer, nil);
+  Canvas.Font.Size := 6;
+  cbOnGPU := TBCheckBox.Create(Canvas);
+  cbOnGPU.Text := 'Skinning on GPU';
+  cbOnGPU.IsChecked := true;
+  cbOnGPU.OnCheck := OnCheckOnGPU;
+  cbOnGPU.Position2d := vec2(10.0*ToHiDpiScale, 10.0*ToHiDpiScale);
+  TxtInfo := TCanvasText.Create(Canvas, nil);
+  TxtInfo.Position2d := vec2(cbOnGPU.Left, cbOnGPU.Top + cbOnGPU.Height + 5.0*ToHiDpiScale);
+end;
+
+destructor TBSTestSkeletonStress.Destroy;
+var
+  i: int32;
+begin
+  for i := 0 to Length(Skeletons) - 1 do
+    Skeletons[i].Free;
+  cbOnGPU.Free;
+  Canvas.Free;
+  Renderer.Scene.Clear;
+  inherited;
+end;
+
+procedure TBSTestSkeletonStress.OnCheckOnGPU(ASender: TObject);
+begin
+  StartAnimations;
+end;
+
+procedure TBSTestSkeletonStress.StartAnimations;
+var
+  i: int32;
+  bucket: THashTable<string, TSkeletonAnimation>.TBucket;
+begin
+  for i := 0 to Length(Skeletons) - 1 do
+  begin
+    if not Assigned(Skeletons[i].Skin) or not Skeletons[i].Animations.GetFirst(bucket) then
+      continue;
+    Skeletons[i].PauseAnimation := true;
+    Skeletons[i].CalculateOnGPU := cbOnGPU.IsChecked;
+    Skeletons[i].Animation := bucket.Key;
+    Skeletons[i].PauseAnimation := false;
+  end;
+  if cbOnGPU.IsChecked then
+    TxtInfo.Text := Format('Skinned instances: %d', [Length(Skeletons)])
+  else
+    TxtInfo.Text := Format('Skinned instances: %d; CPU threads: %d', [Length(Skeletons), BSJobs.CountWorkers + 1]);
+end;
+
+function TBSTestSkeletonStress.Run: boolean;
+var
+  i: int32;
+  skeleton: TSkeleton;
+begin
+  SetLength(Skeletons, COUNT_SIDE*COUNT_SIDE);
+  for i := 0 to Length(Skeletons) - 1 do
+  begin
+    skeleton := MeshLoadCollada('Models/Collada/Shark.dae', Renderer, nil);
+    if not Assigned(skeleton) then
+    begin
+      SetLength(Skeletons, i);
+      break;
+    end;
+    Skeletons[i] := skeleton;
+    if Assigned(skeleton.Skin) then
+      skeleton.Skin.Interactive := false;
+    skeleton.Position := vec3(((i mod COUNT_SIDE) - COUNT_SIDE*0.5)*STEP, 0.0, -(i div COUNT_SIDE)*STEP) - skeleton.SkinCenterOffset;
+  end;
+  Result := Length(Skeletons) > 0;
+  if Result then
+    StartAnimations;
+end;
+
+class function TBSTestSkeletonStress.TestName: string;
+begin
+  Result := 'Stress test of skeletal animation';
+end;
 
 end.
@@ -0,0 +1,266 @@
+unit bs.test.queues;
+
+{$I BlackSharkCfg.inc}
+
+interface
+
+uses
+    bs.basetypes
+  , bs.renderer
+  , bs.test
+  , bs.canvas
+  , bs.thread
+  ;
+
+type
+
+  TQueueBenchmarkKind = (
+    { TQueueFIFO<T> shared by writers under TCriticalSection }
+    qbFIFOLocked,
+    { TQueueMPSC<T> shared by writers without locks }
+    qbMPSC
+  );
+
+  TQueueBenchmarkResult = record
+    Kind: TQueueBenchmarkKind;
+    Producers: int32;
+    Items: int64;
+    { amount of repeated Push because of the full queue }
+    Retries: int64;
+    MaxDepth: int32;
+    TimeMs: double;
+  end;
+
+  { runs AProducers writing threads, every thread writes AItemsPerProducer values;
+    the calling thread reads all of them }
+  function BenchmarkQueue(AKind: TQueueBenchmarkKind; AProducers, AItemsPerProducer: int32): TQueueBenchmarkResult;
+
+type
+
+  { TBSTestQueues
+
+    CPU benchmark: the current queue under a lock versus the lock-free
+    TQueueMPSC<T> for 1..N writing threads }
+
+  TBSTestQueues = class(TBSTest)
+  private
+    const
+      ITEMS_PER_PRODUCER = 200000;
+      MAX_PRODUCERS = 8;
+  private
+    Canvas: TBCanvas;
+    CountLines: int32;
+    procedure AddLine(const AText: string);
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
+implementation
+
+uses
+    Classes
+  , SysUtils
+  , Math
+  , syncobjs
+  , bs.collections
+  ;
+
+type
+
+  TBenchmarkQueue = class
+  public
+    Kind: TQueueBenchmarkKind;
+    FIFO: TQueueFIFO<int32>;
+    MPSC: TQueueMPSC<int32>;
+    CS: TCriticalSection;
+    Started: int32;
+    Retries: int32;
+  end;
+
+  TProducer = class(TThread)
+  private
+    FQueue: TBenchmarkQueue;
+    FCount: int32;
+  protected
+    procedure Execute; override;
+  public
+    constructor Create(AQueue: TBenchmarkQueue; ACount: int32);
+  end;
+
+{ TProducer }
+
+constructor TProducer.Create(AQueue: TBenchmarkQueue; ACount: int32);
+begin
+  FQueue := AQueue;
+  FCount := ACount;
+  inherited Create(false);
+end;
+
+procedure TProducer.Execute;
+var
+  i: int32;
+begin
+  { all writers begin at the same time }
+  while TAtomic.Load(FQueue.Started) = 0 do
+    TThread.Yield;
+
+  if FQueue.Kind = qbFIFOLocked then
+  begin
+    for i := 1 to FCount do
+    begin
+      FQueue.CS.Enter;
+      try
+        FQueue.FIFO.Push(i);
+      finally
+        FQueue.CS.Leave;
+      end;
+    end;
+  end else
+  begin
+    for i := 1 to FCount do
+      while not FQueue.MPSC.Push(i) do
+      begin
+        TAtomic.Increment(FQueue.Retries);
+        TThread.Yield;
+      end;
+  end;
+end;
+
+function BenchmarkQueue(AKind: TQueueBenchmarkKind; AProducers, AItemsPerProducer: int32): TQueueBenchmarkResult;
+var
+  queue: TBenchmarkQueue;
+  producers: array of TProducer;
+  batch: array[0..MPSC_QUEUE_BATCH - 1] of int32;
+  i, count, depth: int32;
+  v: int32;
+  received, checksum, expected: int64;
+  t: uint64;
+begin
+  queue := TBenchmarkQueue.Create;
+  try
+    queue.Kind := AKind;
+    if AKind = qbFIFOLocked then
+    begin
+      queue.FIFO := TQueueFIFO<int32>.Create;
+      queue.CS := TCriticalSection.Create;
+    end else
+      queue.MPSC := TQueueMPSC<int32>.Create;
+
+    SetLength(producers, AProducers);
+    for i := 0 to AProducers - 1 do
+      producers[i] := TProducer.Create(queue, AItemsPerProducer);
+
+    Result.Kind := AKind;
+    Result.Producers := AProducers;
+    Result.MaxDepth := 0;
+    received := 0;
+    checksum := 0;
+    expected := int64(AProducers) * AItemsPerProducer;
+    t := TBTimer.MicroSeconds;
+    TAtomic.Store(queue.Started, 1);
+
+    while received < expected do
+    begin
+      if AKind = qbFIFOLocked then
+      begin
+        queue.CS.Enter;
+        try
+          depth := queue.FIFO.Count;
+          while queue.FIFO.Pop(v) do
+          begin
+            inc(checksum, v);
+            inc(received);
+          end;
+        finally
+          queue.CS.Leave;
+        end;
+        Result.MaxDepth := Max(Result.MaxDepth, depth);
+      end else
+      begin
+        count := queue.MPSC.Drain(batch);
+        for i := 0 to count - 1 do
+          inc(checksum, batch[i]);
+        inc(received, count);
+      end;
+    end;
+
+    Result.TimeMs := (TBTimer.MicroSeconds - t) / 1000;
+
+    for i := 0 to AProducers - 1 do
+    begin
+      producers[i].WaitFor;
+      producers[i].Free;
+    end;
+
+    if AKind = qbMPSC then
+      Result.MaxDepth := queue.MPSC.MaxDepth;
+    Result.Items := received;
+    Result.Retries := queue.Retries;
+    { every writer sends 1..AItemsPerProducer }
+    Assert(checksum = int64(AProducers) * (int64(AItemsPerProducer) * (AItemsPerProducer + 1) div 2),
+      'BenchmarkQueue: the data is lost!');
+  finally
+    queue.FIFO.Free;
+    queue.MPSC.Free;
+    queue.CS.Free;
+    queue.Free;
+  end;
+end;
+
+{ TBSTestQueues }
+
+procedure TBSTestQueues.AddLine(const AText: string);
+var
+  txt: TCanvasText;
+begin
+  txt := TCanvasText.Create(Canvas, nil);
+  txt.Text := AText;
+  txt.Data.Interactive := false;
+  txt.Position2d := vec2(10, 10 + CountLines * 17);
+  inc(CountLines);
+end;
+
+constructor TBSTestQueues.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Canvas := TBCanvas.Create(Renderer, Self);
+end;
+
+destructor TBSTestQueues.Destroy;
+begin
+  Canvas.Free;
+  inherited;
+end;
+
+function TBSTestQueues.Run: boolean;
+const
+  KIND_NAMES: array[TQueueBenchmarkKind] of string = ('TQueueFIFO + lock', 'TQueueMPSC');
+var
+  producers: int32;
+  kind: TQueueBenchmarkKind;
+  res: TQueueBenchmarkResult;
+begin
+  Result := true;
+  producers := 1;
+  while producers <= Min(MAX_PRODUCERS, Max(2, TThread.ProcessorCount)) do
+  begin
+    for kind := Low(TQueueBenchmarkKind) to High(TQueueBenchmarkKind) do
+    begin
+      res := BenchmarkQueue(kind, producers, ITEMS_PER_PRODUCER);
+      AddLine(Format('%s, writers: %d; items: %d; time: %.1f ms; items/ms: %.0f; max depth: %d; retries: %d',
+        [KIND_NAMES[kind], res.Producers, res.Items, res.TimeMs, res.Items / Max(res.TimeMs, 0.001),
+        res.MaxDepth, res.Retries]));
+    end;
+    producers := producers * 2;
+  end;
+end;
+
+class function TBSTestQueues.TestName: string;
+begin
+  Result := 'Benchmark of queues of threads';
+end;
+
+end.
@@ -171,6 +171,48 @@ type
     class function TestName: string; override;
   end;
 
+  TSpaceTreeBenchmarkResult = record
+    Items: int32;
+    Moves: int32;
+    Queries: int32;
+    { TBlackSharkRTree.Add of every item }
+    InsertTimeMs: double;
+    { TBlackSharkRTree.BulkLoad of all items }
+    BulkLoadTimeMs: double;
+    { UpdatePosition in umReinsert and umRefit modes }
+    MoveReinsertTimeMs: double;
+    MoveRefitTimeMs: double;
+    { SelectData in the trees after Add, BulkLoad and the moves of refit }
+    QueryInsertedTimeMs: double;
+    QueryBulkLoadedTimeMs: double;
+    QueryRefittedTimeMs: double;
+    { amount of the found items by all queries }
+    Found: int64;
+  end;
+
+  { fills the R-tree by ACount random boxes one by one and by BulkLoad, then
+    moves AMoves of them in both modes of update and does AQueries selections
+    after every stage }
+  function BenchmarkSpaceTree(ACount, AMoves, AQueries: int32): TSpaceTreeBenchmarkResult;
+
+type
+
+  { TBSTestSpaceTreeBenchmark
+
+    CPU benchmark of TBlackSharkRTree: insert, move and query }
+
+  TBSTestSpaceTreeBenchmark = class(TBSTest)
+  private
+    Canvas: TBCanvas;
+    CountLines: int32;
+    procedure AddLine(const AText: string);
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
 implementation
 
 uses
@@ -182,6 +224,170 @@ uses
   , bs.mesh.primitives
   ;
 
+function RandomBox(const AFieldSize: double): TBox3d;
+var
+  p, size: TVec3d;
+begin
+  p := vec3d(Random * AFieldSize, Random * AFieldSize, Random * AFieldSize);
+  size := vec3d(1.0 + Random * 4.0, 1.0 + Random * 4.0, 1.0 + Random * 4.0);
+  Result := Box3(p, p + size);
+end;
+
+function MovedBox(const ABox: TBox3d): TBox3d;
+var
+  delta: TVec3d;
+begin
+  delta := vec3d(Random * 2.0 - 1.0, Random * 2.0 - 1.0, Random * 2.0 - 1.0);
+  Result := Box3(ABox.Min + delta, ABox.Max + delta);
+end;
+
+function QueryTree(ATree: TBlackSharkRTree; const AQueries: array of TBox3d; AList: TListNodes; out AFound: int64): double;
+var
+  i: int32;
+  t: uint64;
+begin
+  AFound := 0;
+  t := TBTimer.MicroSeconds;
+  for i := 0 to Length(AQueries) - 1 do
+  begin
+    AList.Count := 0;
+    ATree.SelectData(AQueries[i], AList);
+    inc(AFound, AList.Count);
+  end;
+  Result := (TBTimer.MicroSeconds - t) / 1000;
+end;
+
+function BenchmarkSpaceTree(ACount, AMoves, AQueries: int32): TSpaceTreeBenchmarkResult;
+var
+  items: array of TSpaceTreeItem;
+  nodes: array of PNodeSpaceTree;
+  queries: array of TBox3d;
+  moves: array of int32;
+  moved: array of TBox3d;
+  tree: TBlackSharkRTree;
+  list: TListNodes;
+  field: double;
+  found, found_bulk: int64;
+  i: int32;
+  t: uint64;
+begin
+  { the same data for every run }
+  RandSeed := 1;
+  { ~10 items hit into a query }
+  field := Power(ACount * 125.0 / 10.0, 1/3) * 2.0;
+  SetLength(items, ACount);
+  for i := 0 to ACount - 1 do
+  begin
+    items[i].Data := Pointer(NativeInt(i + 1));
+    items[i].BB := RandomBox(field);
+  end;
+  SetLength(queries, AQueries);
+  for i := 0 to AQueries - 1 do
+    queries[i] := RandomBox(field);
+  SetLength(moves, AMoves);
+  SetLength(moved, AMoves);
+  for i := 0 to AMoves - 1 do
+  begin
+    moves[i] := Random(ACount);
+    moved[i] := MovedBox(items[moves[i]].BB);
+  end;
+
+  Result.Items := ACount;
+  Result.Moves := AMoves;
+  Result.Queries := AQueries;
+  SetLength(nodes, ACount);
+  list := TListNodes.Create;
+  try
+    tree := TBlackSharkRTree.Create;
+    try
+      t := TBTimer.MicroSeconds;
+      for i := 0 to ACount - 1 do
+        tree.Add(items[i].Data, items[i].BB, nodes[i]);
+      Result.InsertTimeMs := (TBTimer.MicroSeconds - t) / 1000;
+      Result.QueryInsertedTimeMs := QueryTree(tree, queries, list, found);
+
+      tree.UpdateMode := umReinsert;
+      t := TBTimer.MicroSeconds;
+      for i := 0 to AMoves - 1 do
+        nodes[moves[i]] := tree.UpdatePosition(nodes[moves[i]], moved[i]);
+      Result.MoveReinsertTimeMs := (TBTimer.MicroSeconds - t) / 1000;
+    finally
+      tree.Free;
+    end;
+
+    tree := TBlackSharkRTree.Create;
+    try
+      t := TBTimer.MicroSeconds;
+      tree.BulkLoad(items, nodes);
+      Result.BulkLoadTimeMs := (TBTimer.MicroSeconds - t) / 1000;
+      Result.QueryBulkLoadedTimeMs := QueryTree(tree, queries, list, found_bulk);
+      Assert(found = found_bulk, 'BenchmarkSpaceTree: BulkLoad lost the data!');
+
+      tree.UpdateMode := umRefit;
+      { the benchmark has not GUIThread loop to receive a result of RebuildAsync }
+      tree.BackgroundRebuild := false;
+      t := TBTimer.MicroSeconds;
+      for i := 0 to AMoves - 1 do
+        nodes[moves[i]] := tree.UpdatePosition(nodes[moves[i]], moved[i]);
+      Result.MoveRefitTimeMs := (TBTimer.MicroSeconds - t) / 1000;
+      Result.QueryRefittedTimeMs := QueryTree(tree, queries, list, found);
+      Result.Found := found_bulk + found;
+    finally
+      tree.Free;
+    end;
+  finally
+    list.Free;
+  end;
+end;
+
+{ TBSTestSpaceTreeBenchmark }
+
+procedure TBSTestSpaceTreeBenchmark.AddLine(const AText: string);
+var
+  txt: TCanvasText;
+begin
+  txt := TCanvasText.Create(Canvas, nil);
+  txt.Text := AText;
+  txt.Data.Interactive := false;
+  txt.Position2d := vec2(10, 10 + CountLines * 17);
+  inc(CountLines);
+end;
+
+constructor TBSTestSpaceTreeBenchmark.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Canvas := TBCanvas.Create(Renderer, Self);
+end;
+
+destructor TBSTestSpaceTreeBenchmark.Destroy;
+begin
+  Canvas.Free;
+  inherited;
+end;
+
+function TBSTestSpaceTreeBenchmark.Run: boolean;
+const
+  COUNTS: array[0..2] of int32 = (10000, 50000, 100000);
+var
+  i: int32;
+  res: TSpaceTreeBenchmarkResult;
+begin
+  Result := true;
+  for i := 0 to Length(COUNTS) - 1 do
+  begin
+    res := BenchmarkSpaceTree(COUNTS[i], COUNTS[i], 1000);
+    AddLine(Format('items: %d; insert: %.1f ms; bulk load: %.1f ms', [res.Items, res.InsertTimeMs, res.BulkLoadTimeMs]));
+    AddLine(Format('    moves: %d; reinsert: %.1f ms; refit: %.1f ms', [res.Moves, res.MoveReinsertTimeMs, res.MoveRefitTimeMs]));
+    AddLine(Format('    queries: %d; after insert: %.1f ms; after bulk load: %.1f ms; after refit: %.1f ms',
+      [res.Queries, res.QueryInsertedTimeMs, res.QueryBulkLoadedTimeMs, res.QueryRefittedTimeMs]));
+  end;
+end;
+
+class function TBSTestSpaceTreeBenchmark.TestName: string;
+begin
+  Result := 'Benchmark of the space tree (RTree)';
+end;
+
 { TBSTestScrollBoxSpaceTree }
 
 procedure TBSTestScrollBoxSpaceTree.ClearModel;
@@ -22,6 +22,8 @@ uses
   , bs.test.spacetree
   , bs.test.instancing
   , bs.test.scheme
+  , bs.test.queues
+  , bs.test.collections
   ;
 
 initialization
@@ -37,6 +39,7 @@ initialization
 
   { Chart tests }
   RegisterTest(TBSTestFloatChart);
+  RegisterTest(TBSTestStreamChart);
   RegisterTest(TBSTestDateChart);
   RegisterTest(TBSTestChart);
   RegisterTest(TBSTestChartCircular);
@@ -53,6 +56,7 @@ initialization
   RegisterTest(TBSTestScrollBox);
   RegisterTest(TBSTestForm);
   RegisterTest(TBSTestGrid);
+  RegisterTest(TBSTestGridFile);
   RegisterTest(TBSTestTable);
   RegisterTest(TBSTestComboBox);
   RegisterTest(TBSTestTrackBar);
@@ -70,9 +74,11 @@ initialization
     //RegisterTest(TBSTestVecToRastFont);
     RegisterTest(TBSTestCanvas);
     RegisterTest(TBSTestCanvasFonts);
+    RegisterTest(TBSTestCanvasFontsSDF);
     RegisterTest(TBSTestCanvasAlign);
     RegisterTest(TBSTestCanvasPrimitives);
     RegisterTest(TBSTestCanvasImages);
+    RegisterTest(TBSTestCanvasImagesAsync);
     RegisterTest(TBSTestTrueTypeFont);
     //RegisterTest(TBSTestTrueTypeSmiles);
     RegisterTest(TBSTestCanvasMap);
@@ -99,9 +105,17 @@ initialization
   RegisterTest(TBSTestTesselatorSymbol_W);
   RegisterTest(TBSTestTesselatorSymbol_0631);
   RegisterTest(TBSTestTesselatorSymbol_1563);
+  RegisterTest(TBSTestTesselatorBenchmark);
 
   { Test of scheme }
 
   RegisterTest(TBSTestScheme);
 
+  { Benchmarks }
+
+  RegisterTest(TBSTestQueues);
+  RegisterTest(TBSTestCollections);
+  RegisterTest(TBSTestSkeletonStress);
+  RegisterTest(TBSTestSpaceTreeBenchmark);
+
 end.
@@ -13,6 +13,23 @@ uses
   , bs.canvas
   ;
 
+type
+
+  TTesselatorBenchmarkResult = record
+    Points: int32;
+    Triangles: int32;
+    { an average time of TBlackSharkTesselator.Triangulate }
+    TimeMs: double;
+    { the first pass through an empty TTesselationCache }
+    ColdMs: double;
+    { an average time of the next passes, they are taken from the cache }
+    WarmMs: double;
+  end;
+
+  { triangulates the contours ARepeats times directly and through a new TTesselationCache }
+  function BenchmarkTesselator(const APoints: TBlackSharkTesselator.TListPoints.TSingleListHead;
+    const AContours: TBlackSharkTesselator.TListContours.TSingleListHead; ARepeats: int32): TTesselatorBenchmarkResult;
+
 type
 
   { TBSTestTesselator }
@@ -30,6 +47,33 @@ type
     function Run: boolean; override;
   end;
 
+  TBSTestTesselatorClass = class of TBSTestTesselator;
+
+  { TBSTestTesselatorBenchmark
+
+    CPU benchmark: triangulation of the shapes of the tests below directly and
+    through TTesselationCache; then a scene of many groups of contours, in
+    which only one group is changed }
+
+  TBSTestTesselatorBenchmark = class(TBSTest)
+  private
+    const
+      REPEATS = 200;
+      COUNT_GROUPS = 32;
+      POINTS_IN_GROUP = 40;
+  private
+    Canvas: TBCanvas;
+    CountLines: int32;
+    procedure AddLine(const AText: string);
+    procedure BenchmarkShape(AClass: TBSTestTesselatorClass);
+    procedure BenchmarkGroups;
+  public
+    constructor Create(ARenderer: TBlackSharkRenderer); override;
+    destructor Destroy; override;
+    function Run: boolean; override;
+    class function TestName: string; override;
+  end;
+
   { TBSTestTesselatorQuad }
 
   TBSTestTesselatorQuad = class(TBSTestTesselator)
@@ -105,7 +149,166 @@ type
 
 implementation
 
-  uses bs.math;
+uses
+    SysUtils
+  , bs.math
+  , bs.thread
+  ;
+
+function BenchmarkTesselator(const APoints: TBlackSharkTesselator.TListPoints.TSingleListHead;
+  const AContours: TBlackSharkTesselator.TListContours.TSingleListHead; ARepeats: int32): TTesselatorBenchmarkResult;
+var
+  points: TBlackSharkTesselator.TListPoints.TSingleListHead;
+  contours: TBlackSharkTesselator.TListContours.TSingleListHead;
+  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
+  cache: TTesselationCache;
+  i: int32;
+  t: uint64;
+begin
+  { Triangulate takes the lists as var, so works with copies }
+  TBlackSharkTesselator.TListPoints.Create(points{%H-}, APoints.Count);
+  TBlackSharkTesselator.TListPoints.Copy(points, APoints);
+  TBlackSharkTesselator.TListContours.Create(contours{%H-}, AContours.Count);
+  TBlackSharkTesselator.TListContours.Copy(contours, AContours);
+  TBlackSharkTesselator.TListIndexes.Create(indexes{%H-}, 64);
+  Result.Points := APoints.Count;
+
+  t := TBTimer.MicroSeconds;
+  for i := 0 to ARepeats - 1 do
+  begin
+    indexes.Count := 0;
+    Tesselator.Triangulate(points, contours, indexes);
+  end;
+  Result.TimeMs := (TBTimer.MicroSeconds - t) / 1000 / ARepeats;
+  Result.Triangles := indexes.Count div 3;
+
+  cache := TTesselationCache.Create;
+  try
+    indexes.Count := 0;
+    t := TBTimer.MicroSeconds;
+    cache.Triangulate(Tesselator, points, contours, indexes);
+    Result.ColdMs := (TBTimer.MicroSeconds - t) / 1000;
+    t := TBTimer.MicroSeconds;
+    for i := 0 to ARepeats - 1 do
+    begin
+      indexes.Count := 0;
+      cache.Triangulate(Tesselator, points, contours, indexes);
+    end;
+    Result.WarmMs := (TBTimer.MicroSeconds - t) / 1000 / ARepeats;
+    Assert(indexes.Count div 3 = Result.Triangles, 'BenchmarkTesselator: the cache returned other triangles!');
+  finally
+    cache.Free;
+  end;
+end;
+
+{ TBSTestTesselatorBenchmark }
+
+procedure TBSTestTesselatorBenchmark.AddLine(const AText: string);
+var
+  txt: TCanvasText;
+begin
+  txt := TCanvasText.Create(Canvas, nil);
+  txt.Text := AText;
+  txt.Data.Interactive := false;
+  txt.Position2d := vec2(10, 10 + CountLines * 17);
+  inc(CountLines);
+end;
+
+procedure TBSTestTesselatorBenchmark.BenchmarkShape(AClass: TBSTestTesselatorClass);
+var
+  test: TBSTestTesselator;
+  res: TTesselatorBenchmarkResult;
+begin
+  test := AClass.Create(Renderer);
+  try
+    res := BenchmarkTesselator(test.Points, test.Contours, REPEATS);
+    AddLine(Format('%s: points: %d; triangles: %d; triangulation: %.3f ms; cache, first: %.3f ms, next: %.4f ms',
+      [AClass.TestName, res.Points, res.Triangles, res.TimeMs, res.ColdMs, res.WarmMs]));
+  finally
+    test.Free;
+  end;
+end;
+
+procedure TBSTestTesselatorBenchmark.BenchmarkGroups;
+var
+  points: TBlackSharkTesselator.TListPoints.TSingleListHead;
+  contours: TBlackSharkTesselator.TListContours.TSingleListHead;
+  indexes: TBlackSharkTesselator.TListIndexes.TSingleListHead;
+  contour: TContour;
+  cache: TTesselationCache;
+  i, j: int32;
+  center: TVec2f;
+  t: uint64;
+  time_full, time_changed: double;
+begin
+  TBlackSharkTesselator.TListPoints.Create(points{%H-}, COUNT_GROUPS * POINTS_IN_GROUP);
+  TBlackSharkTesselator.TListContours.Create(contours{%H-}, COUNT_GROUPS);
+  TBlackSharkTesselator.TListIndexes.Create(indexes{%H-}, 64);
+  for i := 0 to COUNT_GROUPS - 1 do
+  begin
+    center := vec2((i mod 8) * 10.0, (i div 8) * 10.0);
+    contour := TBlackSharkTesselator.Contour(points.Count, POINTS_IN_GROUP);
+    contour.Group := i;
+    TBlackSharkTesselator.TListContours.Add(contours, contour);
+    { clockwise, as the glyphs }
+    for j := 0 to POINTS_IN_GROUP - 1 do
+      TBlackSharkTesselator.TListPoints.Add(points, vec3(center.x + 4.0 * cos(-2 * pi * j / POINTS_IN_GROUP),
+        center.y + 4.0 * sin(-2 * pi * j / POINTS_IN_GROUP), 0.0));
+  end;
+
+  t := TBTimer.MicroSeconds;
+  Tesselator.Triangulate(points, contours, indexes);
+  time_full := (TBTimer.MicroSeconds - t) / 1000;
+
+  cache := TTesselationCache.Create;
+  try
+    indexes.Count := 0;
+    cache.Triangulate(Tesselator, points, contours, indexes);
+    { moves only the first group, as an interactive edit of one element of a scene }
+    for j := 0 to POINTS_IN_GROUP - 1 do
+      points.Items[j].x := points.Items[j].x + 1.0;
+    indexes.Count := 0;
+    t := TBTimer.MicroSeconds;
+    cache.Triangulate(Tesselator, points, contours, indexes);
+    time_changed := (TBTimer.MicroSeconds - t) / 1000;
+    AddLine(Format('%d groups of %d points: whole triangulation: %.3f ms; one group changed, through the cache: %.3f ms (hits: %d, misses: %d)',
+      [COUNT_GROUPS, POINTS_IN_GROUP, time_full, time_changed, cache.Hits, cache.Misses]));
+  finally
+    cache.Free;
+  end;
+end;
+
+constructor TBSTestTesselatorBenchmark.Create(ARenderer: TBlackSharkRenderer);
+begin
+  inherited;
+  Canvas := TBCanvas.Create(Renderer, Self);
+end;
+
+destructor TBSTestTesselatorBenchmark.Destroy;
+begin
+  Canvas.Free;
+  inherited;
+end;
+
+function TBSTestTesselatorBenchmark.Run: boolean;
+begin
+  Result := true;
+  BenchmarkShape(TBSTestTesselatorQuad);
+  BenchmarkShape(TBSTestTesselatorOctagon);
+  BenchmarkShape(TBSTestTesselatorCircle);
+  BenchmarkShape(TBSTestTesselatorSymbol_i);
+  BenchmarkShape(TBSTestTesselatorSymbol_A);
+  BenchmarkShape(TBSTestTesselatorSymbol_c);
+  BenchmarkShape(TBSTestTesselatorSymbol_W);
+  BenchmarkShape(TBSTestTesselatorSymbol_0631);
+  BenchmarkShape(TBSTestTesselatorSymbol_1563);
+  BenchmarkGroups;
+end;
+
+class function TBSTestTesselatorBenchmark.TestName: string;
+begin
+  Result := 'Benchmark of triangulation';
+end;
 
 { TBSTestTesselatorSymbol_1563 }
 
@@ -0,0 +1,189 @@
+unit TestDamageTracker;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  ;
+
+type
+
+  [TestFixture]
+  TDamageTrackerTest = class(TObject)
+  public
+    [Test]
+    procedure TestFirstFrameIsFull;
+    [Test]
+    procedure TestUnionAndClip;
+    [Test]
+    procedure TestMergeOverflow;
+    [Test]
+    procedure TestBufferAge;
+    [Test]
+    procedure TestOverlay;
+  end;
+
+implementation
+
+uses
+    bs.basetypes
+  , bs.renderer.damage
+  ;
+
+{ TDamageTrackerTest }
+
+procedure TDamageTrackerTest.TestFirstFrameIsFull;
+var
+  d: TDamageTracker;
+  r: TRectBSi;
+  full: boolean;
+begin
+  d := TDamageTracker.Create;
+  try
+    d.Resize(800, 600);
+    d.Add(RectBS(10, 10, 20, 20));
+    r := d.GetDamage(1, full);
+    Assert.IsTrue(full);
+    Assert.AreEqual(800, r.Width);
+    Assert.AreEqual(600, r.Height);
+    d.EndFrame;
+    { nothing has changed }
+    r := d.GetDamage(1, full);
+    Assert.IsFalse(full);
+    Assert.AreEqual(int64(0), RectArea(r));
+  finally
+    d.Free;
+  end;
+end;
+
+procedure TDamageTrackerTest.TestUnionAndClip;
+var
+  d: TDamageTracker;
+  r: TRectBSi;
+  full: boolean;
+begin
+  d := TDamageTracker.Create;
+  try
+    d.Resize(800, 600);
+    d.EndFrame;
+    d.Add(RectBS(10, 20, 30, 40));
+    d.Add(RectBS(100, 200, 10, 10));
+    { contained in the first one }
+    d.Add(RectBS(15, 25, 5, 5));
+    Assert.AreEqual(2, d.Count);
+    r := d.GetDamage(1, full);
+    Assert.IsFalse(full);
+    Assert.AreEqual(10, r.X);
+    Assert.AreEqual(20, r.Y);
+    Assert.AreEqual(100, r.Width);
+    Assert.AreEqual(190, r.Height);
+    { a part out of the screen is cut }
+    d.Add(RectBS(790, -10, 50, 20));
+    r := d.Rects[2];
+    Assert.AreEqual(790, r.X);
+    Assert.AreEqual(0, r.Y);
+    Assert.AreEqual(10, r.Width);
+    Assert.AreEqual(10, r.Height);
+    { the whole screen }
+    d.Add(RectBS(-5, -5, 900, 700));
+    Assert.IsTrue(d.Full);
+  finally
+    d.Free;
+  end;
+end;
+
+procedure TDamageTrackerTest.TestMergeOverflow;
+var
+  d: TDamageTracker;
+  i, j: int32;
+  r: TRectBSi;
+  full, covered: boolean;
+begin
+  d := TDamageTracker.Create;
+  try
+    d.Resize(1000, 1000);
+    d.EndFrame;
+    for i := 0 to DAMAGE_MAX_RECTS * 2 - 1 do
+      d.Add(RectBS(i * 30, i * 30, 10, 10));
+    Assert.AreEqual(DAMAGE_MAX_RECTS, d.Count);
+    { every added rectangle is covered by one of the kept ones }
+    for i := 0 to DAMAGE_MAX_RECTS * 2 - 1 do
+    begin
+      covered := false;
+      for j := 0 to d.Count - 1 do
+        covered := covered or RectContains(d.Rects[j], RectBS(i * 30, i * 30, 10, 10));
+      Assert.IsTrue(covered);
+    end;
+    r := d.GetDamage(1, full);
+    Assert.AreEqual(0, r.X);
+    Assert.AreEqual((DAMAGE_MAX_RECTS * 2 - 1) * 30 + 10, r.Width);
+  finally
+    d.Free;
+  end;
+end;
+
+procedure TDamageTrackerTest.TestBufferAge;
+var
+  d: TDamageTracker;
+  r: TRectBSi;
+  full: boolean;
+begin
+  d := TDamageTracker.Create;
+  try
+    d.Resize(800, 600);
+    d.EndFrame;
+    d.Add(RectBS(0, 0, 10, 10));
+    d.EndFrame;
+    d.Add(RectBS(100, 100, 10, 10));
+    d.EndFrame;
+    d.Add(RectBS(50, 50, 10, 10));
+    { the buffer of the previous frame }
+    r := d.GetDamage(1, full);
+    Assert.IsFalse(full);
+    Assert.AreEqual(50, r.X);
+    Assert.AreEqual(10, r.Width);
+    { two frames ago: repairs the damage of the previous frame as well }
+    r := d.GetDamage(2, full);
+    Assert.AreEqual(50, r.X);
+    Assert.AreEqual(60, r.Width);
+    r := d.GetDamage(3, full);
+    Assert.AreEqual(0, r.X);
+    Assert.AreEqual(110, r.Width);
+    { the full first frame is in the history }
+    d.GetDamage(4, full);
+    Assert.IsTrue(full);
+    { unknown content }
+    d.GetDamage(0, full);
+    Assert.IsTrue(full);
+    d.GetDamage(DAMAGE_HISTORY + 2, full);
+    Assert.IsTrue(full);
+  finally
+    d.Free;
+  end;
+end;
+
+procedure TDamageTrackerTest.TestOverlay;
+var
+  d: TDamageTracker;
+  r: TRectBSi;
+  full: boolean;
+begin
+  d := TDamageTracker.Create;
+  try
+    d.Resize(800, 600);
+    d.EndFrame;
+    d.AddOverlay(RectBS(20, 20, 10, 10));
+    Assert.AreEqual(0, d.Count);
+    r := d.GetDamage(1, full);
+    Assert.IsFalse(full);
+    Assert.AreEqual(20, r.X);
+    Assert.AreEqual(10, r.Width);
+  finally
+    d.Free;
+  end;
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(TDamageTrackerTest);
+
+end.
@@ -0,0 +1,203 @@
+unit TestHashMaps;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  ;
+
+type
+
+  [TestFixture]
+  THashMapsTest = class(TObject)
+  private
+    const
+      COUNT_KEYS = 20000;
+  public
+    [Test]
+    procedure TestInt64HashMap;
+    [Test]
+    procedure TestPointerHashMap;
+    [Test]
+    procedure TestOpenHashMapStrings;
+    [Test]
+    procedure TestDeleteWhileIterating;
+    [Test]
+    procedure TestListDualPool;
+  end;
+
+implementation
+
+uses
+    System.SysUtils
+  , bs.collections
+  ;
+
+{ THashMapsTest }
+
+procedure THashMapsTest.TestInt64HashMap;
+var
+  map: TInt64HashMap<int32>;
+  bucket: TInt64HashMap<int32>.TBucket;
+  i, v: int32;
+  sum: int64;
+begin
+  map := TInt64HashMap<int32>.Create;
+  try
+    for i := 0 to COUNT_KEYS - 1 do
+      Assert.IsTrue(map.TryAdd(int64(i) shl 20, i));
+    Assert.IsFalse(map.TryAdd(0, 1));
+    Assert.AreEqual(COUNT_KEYS, map.Count);
+    { delete every third key; backward shift must keep the others reachable }
+    i := 0;
+    while i < COUNT_KEYS do
+    begin
+      map.Delete(int64(i) shl 20);
+      inc(i, 3);
+    end;
+    for i := 0 to COUNT_KEYS - 1 do
+    begin
+      Assert.AreEqual(i mod 3 <> 0, map.Find(int64(i) shl 20, v));
+      if i mod 3 <> 0 then
+        Assert.AreEqual(i, v);
+    end;
+    sum := 0;
+    v := 0;
+    if map.GetFirst(bucket) then
+    repeat
+      inc(sum, bucket.Value);
+      inc(v);
+    until not map.GetNext(bucket);
+    Assert.AreEqual(map.Count, v);
+    Assert.AreEqual(int64(COUNT_KEYS) * (COUNT_KEYS - 1) div 2 - int64(3) * (COUNT_KEYS div 3) * (COUNT_KEYS div 3 + 1) div 2, sum);
+    map.Clear;
+    Assert.AreEqual(0, map.Count);
+    Assert.IsFalse(map.Exists(int64(1) shl 20));
+  finally
+    map.Free;
+  end;
+end;
+
+procedure THashMapsTest.TestDeleteWhileIterating;
+var
+  map: TInt64HashMap<int32>;
+  bucket: TInt64HashMap<int32>.TBucket;
+  i, j, count, added: int32;
+  sum, sum_iterated: int64;
+begin
+  map := TInt64HashMap<int32>.Create(8);
+  try
+    RandSeed := 5;
+    { small full tables make backward shifts wrap from the first bucket to the last }
+    for i := 0 to 999 do
+    begin
+      map.Clear;
+      sum := 0;
+      added := 0;
+      for j := 0 to 6 do
+        if map.TryAdd(Random(1000), j) then
+        begin
+          inc(sum, j);
+          inc(added);
+        end;
+      count := 0;
+      sum_iterated := 0;
+      if map.GetFirst(bucket) then
+      repeat
+        inc(count);
+        inc(sum_iterated, bucket.Value);
+        if odd(i + count) or (Random(2) = 0) then
+          map.Delete(bucket.Key);
+      until not map.GetNext(bucket);
+      { every key is visited once }
+      Assert.AreEqual(added, count);
+      Assert.AreEqual(sum, sum_iterated);
+    end;
+  finally
+    map.Free;
+  end;
+end;
+
+procedure THashMapsTest.TestPointerHashMap;
+var
+  map: TPointerHashMap<int32>;
+  objects: array[0..99] of TObject;
+  i, v: int32;
+begin
+  map := TPointerHashMap<int32>.Create;
+  try
+    for i := 0 to High(objects) do
+    begin
+      objects[i] := TObject.Create;
+      map.TryAdd(Pointer(objects[i]), i);
+    end;
+    for i := 0 to High(objects) do
+    begin
+      Assert.IsTrue(map.Find(Pointer(objects[i]), v));
+      Assert.AreEqual(i, v);
+    end;
+    map.Delete(Pointer(objects[0]));
+    Assert.IsFalse(map.Exists(Pointer(objects[0])));
+    Assert.AreEqual(Length(objects) - 1, map.Count);
+  finally
+    for i := 0 to High(objects) do
+      objects[i].Free;
+    map.Free;
+  end;
+end;
+
+procedure THashMapsTest.TestOpenHashMapStrings;
+var
+  map: TOpenHashMap<string, int32>;
+  i, v: int32;
+begin
+  map := TOpenHashMap<string, int32>.Create(GetHashBlackSharkS, StrCmpBool);
+  try
+    for i := 0 to COUNT_KEYS - 1 do
+      map.TryAdd(IntToStr(i), i);
+    map.TryAddOrReplace('7', -7);
+    Assert.AreEqual(COUNT_KEYS, map.Count);
+    Assert.IsTrue(map.Find('7', v));
+    Assert.AreEqual(-7, v);
+    for i := 0 to COUNT_KEYS div 2 - 1 do
+      map.Delete(IntToStr(i));
+    Assert.AreEqual(COUNT_KEYS - COUNT_KEYS div 2, map.Count);
+    for i := 0 to COUNT_KEYS - 1 do
+      Assert.AreEqual(i >= COUNT_KEYS div 2, map.Exists(IntToStr(i)));
+    Assert.IsFalse(map.Exists('absent'));
+  finally
+    map.Free;
+  end;
+end;
+
+procedure THashMapsTest.TestListDualPool;
+var
+  list: TListDual<string>;
+  items: array of TListDual<string>.PListItem;
+  i, r: int32;
+begin
+  list := TListDual<string>.Create;
+  try
+    SetLength(items, 1000);
+    for r := 0 to 2 do
+    begin
+      for i := 0 to High(items) do
+        items[i] := list.PushToEnd(IntToStr(i));
+      Assert.AreEqual(Length(items), list.Count);
+      Assert.AreEqual('0', list.ItemListFirst.Item);
+      { the freed nodes go back to the pool and are taken on the next round }
+      for i := High(items) downto 0 do
+        list.Remove(items[i]);
+      Assert.AreEqual(0, list.Count);
+    end;
+    { managed items are left in the list and have to be finalized by the destructor }
+    list.PushToEnd('last');
+  finally
+    list.Free;
+  end;
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(THashMapsTest);
+
+end.
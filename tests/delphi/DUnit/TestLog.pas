@@ -0,0 +1,143 @@
+unit TestLog;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  ;
+
+type
+
+  [TestFixture]
+  TLogTest = class(TObject)
+  private
+    const
+      COUNT_THREADS = 4;
+      MESSAGES_PER_THREAD = 5000;
+  private
+    FMaxSize: int64;
+    function CountInLog(const AMarker: string): int32;
+  public
+    [Setup]
+    procedure Setup;
+    [TearDown]
+    procedure TearDown;
+    [Test]
+    procedure TestManyWriters;
+    [Test]
+    procedure TestUnique;
+    [Test]
+    procedure TestLevel;
+  end;
+
+implementation
+
+uses
+    System.SysUtils
+  , System.Classes
+  , bs.config
+  , bs.log
+  ;
+
+{ TLogTest }
+
+function TLogTest.CountInLog(const AMarker: string): int32;
+var
+  f: TFileStream;
+  text, marker: AnsiString;
+  p: int32;
+begin
+  BSLogFlush;
+  f := TFileStream.Create(ExtractFilePath(GetModuleName(0)) + 'BlackSharkLog.txt', fmOpenRead or fmShareDenyNone);
+  try
+    SetLength(text, f.Size);
+    if f.Size > 0 then
+      f.ReadBuffer(text[1], f.Size);
+  finally
+    f.Free;
+  end;
+  marker := AnsiString(AMarker);
+  Result := 0;
+  p := Pos(marker, text);
+  while p > 0 do
+  begin
+    inc(Result);
+    p := Pos(marker, text, p + length(marker));
+  end;
+end;
+
+procedure TLogTest.Setup;
+begin
+  BSConfig.WriteLog := true;
+  FMaxSize := g_LogMaxSize;
+  { the rotation would divide the checked messages between files }
+  g_LogMaxSize := 0;
+end;
+
+procedure TLogTest.TearDown;
+begin
+  g_LogMaxSize := FMaxSize;
+  g_LogLevel := llDebug;
+end;
+
+procedure TLogTest.TestManyWriters;
+var
+  threads: array[0..COUNT_THREADS - 1] of TThread;
+  marker: string;
+  i: int32;
+begin
+  marker := 'many_writers_' + IntToStr(Random(MaxInt));
+  for i := 0 to COUNT_THREADS - 1 do
+  begin
+    threads[i] := TThread.CreateAnonymousThread(
+      procedure
+      var
+        j: int32;
+      begin
+        for j := 0 to MESSAGES_PER_THREAD - 1 do
+          BSWriteMsg(marker, IntToStr(j));
+      end);
+    threads[i].FreeOnTerminate := false;
+    threads[i].Start;
+  end;
+  for i := 0 to COUNT_THREADS - 1 do
+  begin
+    threads[i].WaitFor;
+    threads[i].Free;
+  end;
+  { the queue is smaller than the amount of messages, so the writers also
+    exercised the synchronous path }
+  Assert.AreEqual(COUNT_THREADS * MESSAGES_PER_THREAD, CountInLog(marker));
+end;
+
+procedure TLogTest.TestUnique;
+var
+  marker: string;
+  i: int32;
+begin
+  marker := 'unique_' + IntToStr(Random(MaxInt));
+  BSWriteMsg('TLogTest', marker, true);
+  BSWriteMsg('TLogTest', marker, true);
+  Assert.AreEqual(1, CountInLog(marker));
+  { the cache of unique messages is bounded, the old message is forgotten }
+  for i := 0 to 2047 do
+    BSWriteMsg('TLogTest', marker + '_' + IntToStr(i), true);
+  BSWriteMsg('TLogTest', marker, true);
+  Assert.AreEqual(2, CountInLog(marker + #13));
+end;
+
+procedure TLogTest.TestLevel;
+var
+  marker: string;
+begin
+  marker := 'level_' + IntToStr(Random(MaxInt));
+  g_LogLevel := llWarning;
+  BSWriteMsg(llInfo, 'TLogTest', marker);
+  BSWriteMsg(llError, 'TLogTest', marker);
+  Assert.AreEqual(1, CountInLog(marker));
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(TLogTest);
+
+end.
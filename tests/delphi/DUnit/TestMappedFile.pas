@@ -0,0 +1,132 @@
+unit TestMappedFile;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  ;
+
+type
+
+  [TestFixture]
+  TMappedFileTest = class(TObject)
+  private
+    const
+      FILE_SIZE = 300000;
+  private
+    FFileName: string;
+  public
+    [Setup]
+    procedure Setup;
+    [TearDown]
+    procedure TearDown;
+    [Test]
+    procedure TestRead;
+    [Test]
+    procedure TestCrossWindows;
+    [Test]
+    procedure TestOutOfFile;
+  end;
+
+implementation
+
+uses
+    System.SysUtils
+  , System.Classes
+  , System.IOUtils
+  , bs.vfs
+  ;
+
+{ TMappedFileTest }
+
+procedure TMappedFileTest.Setup;
+var
+  f: TFileStream;
+  buf: array of byte;
+  i: int32;
+begin
+  FFileName := TPath.Combine(TPath.GetTempPath, 'bs_test_mapped_file.bin');
+  SetLength(buf, FILE_SIZE);
+  for i := 0 to FILE_SIZE - 1 do
+    buf[i] := byte(i mod 251);
+  f := TFileStream.Create(FFileName, fmCreate);
+  try
+    f.WriteBuffer(buf[0], FILE_SIZE);
+  finally
+    f.Free;
+  end;
+end;
+
+procedure TMappedFileTest.TearDown;
+begin
+  DeleteFile(FFileName);
+end;
+
+procedure TMappedFileTest.TestRead;
+var
+  mf: TMappedFile;
+  p: PByte;
+begin
+  mf := TMappedFile.Create(FFileName, 2, $10000);
+  try
+    Assert.AreEqual(int64(FILE_SIZE), mf.Size);
+    p := mf.Read(0, 16);
+    Assert.IsNotNull(p);
+    Assert.AreEqual(0, int32(p[0]));
+    Assert.AreEqual(15, int32(p[15]));
+    p := mf.Read(FILE_SIZE - 1, 1);
+    Assert.IsNotNull(p);
+    Assert.AreEqual((FILE_SIZE - 1) mod 251, int32(p[0]));
+  finally
+    mf.Free;
+  end;
+end;
+
+procedure TMappedFileTest.TestCrossWindows;
+var
+  mf: TMappedFile;
+  p: PByte;
+  i: int32;
+begin
+  mf := TMappedFile.Create(FFileName, 2, $10000);
+  try
+    { the range crosses a bound of windows }
+    p := mf.Read($10000 - 8, 16);
+    Assert.IsNotNull(p);
+    for i := 0 to 15 do
+      Assert.AreEqual(($10000 - 8 + i) mod 251, int32(p[i]));
+    { recycling of the least recently used windows }
+    for i := 0 to 3 do
+    begin
+      p := mf.Read(i * $10000 + 100, 4);
+      Assert.IsNotNull(p);
+      Assert.AreEqual((i * $10000 + 100) mod 251, int32(p[0]));
+    end;
+  finally
+    mf.Free;
+  end;
+end;
+
+procedure TMappedFileTest.TestOutOfFile;
+var
+  mf: TMappedFile;
+begin
+  mf := TMappedFile.Create(FFileName);
+  try
+    Assert.IsNull(mf.Read(FILE_SIZE - 4, 8));
+    Assert.IsNull(mf.Read(-1, 1));
+    Assert.IsNull(mf.Read(0, 0));
+  finally
+    mf.Free;
+  end;
+  Assert.WillRaise(
+    procedure
+    begin
+      TMappedFile.Create(FFileName + '.absent').Free;
+    end, EFOpenError);
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(TMappedFileTest);
+
+end.
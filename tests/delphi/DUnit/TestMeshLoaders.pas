@@ -0,0 +1,203 @@
+unit TestMeshLoaders;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  , bs.basetypes
+  , bs.mesh
+  ;
+
+type
+
+  [TestFixture]
+  TMeshLoadersTest = class(TObject)
+  private
+    function CreateMesh(ACountVertex: int32): TMesh;
+  public
+    [Test]
+    procedure TestParseInt;
+    [Test]
+    procedure TestParseFloat;
+    [Test]
+    procedure TestBinaryShortIndexes;
+    [Test]
+    procedure TestBinaryIntIndexes;
+    [Test]
+    procedure TestBinaryOtherLayout;
+    [Test]
+    procedure TestBinaryInMemory;
+  end;
+
+implementation
+
+uses
+    System.SysUtils
+  , System.Classes
+  , bs.mesh.loaders
+  ;
+
+{ TMeshLoadersTest }
+
+function TMeshLoadersTest.CreateMesh(ACountVertex: int32): TMesh;
+var
+  i: int32;
+begin
+  Result := TMeshPTN.Create;
+  for i := 0 to ACountVertex - 1 do
+  begin
+    Result.AddVertex(vec3(i, -i, i * 0.5));
+    Result.Write(i, vcTexture1, vec2(i * 0.1, 1.0 - i * 0.1));
+    Result.Write(i, vcNormal, vec3(0.0, 1.0, 0.0));
+    Result.Indexes.Add(i);
+  end;
+end;
+
+procedure TMeshLoadersTest.TestParseInt;
+var
+  s: string;
+  p, e: PChar;
+  v: int32;
+begin
+  s := '  12 -7'#13#10'+3/4 x';
+  p := PChar(s);
+  e := p + length(s);
+  Assert.IsTrue(ParseInt(p, e, v));
+  Assert.AreEqual(12, v);
+  Assert.IsTrue(ParseInt(p, e, v));
+  Assert.AreEqual(-7, v);
+  Assert.IsTrue(ParseInt(p, e, v));
+  Assert.AreEqual(3, v);
+  Assert.IsTrue(p^ = '/');
+  inc(p);
+  Assert.IsTrue(ParseInt(p, e, v));
+  Assert.AreEqual(4, v);
+  { not a number; the position stays on it }
+  Assert.IsFalse(ParseInt(p, e, v));
+  Assert.IsTrue(p^ = 'x');
+end;
+
+procedure TMeshLoadersTest.TestParseFloat;
+var
+  s: string;
+  p, e: PChar;
+  v: BSFloat;
+begin
+  s := '1.5 -0.25 3e2 -1.25E-3 .5 7, 0,75';
+  p := PChar(s);
+  e := p + length(s);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(1.5, v, 1e-6);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(-0.25, v, 1e-6);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(300.0, v, 1e-4);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(-0.00125, v, 1e-8);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(0.5, v, 1e-6);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(7.0, v, 1e-6);
+  Assert.IsTrue(ParseFloat(p, e, v));
+  Assert.AreEqual(0.75, v, 1e-6);
+  { the end of the buffer }
+  Assert.IsFalse(ParseFloat(p, e, v));
+  Assert.IsTrue(p = e);
+end;
+
+procedure TMeshLoadersTest.TestBinaryShortIndexes;
+var
+  src, dst: TMesh;
+  stream: TMemoryStream;
+begin
+  src := CreateMesh(100);
+  dst := TMeshPTN.Create;
+  stream := TMemoryStream.Create;
+  try
+    MeshWriteBinary(src, stream);
+    stream.Position := 0;
+    Assert.IsTrue(MeshReadBinary(dst, stream));
+    Assert.AreEqual(src.CountVertex, dst.CountVertex);
+    Assert.AreEqual(src.Indexes.Count, dst.Indexes.Count);
+    Assert.AreEqual(2, int32(dst.Indexes.IndexSizeOf));
+    Assert.IsTrue(CompareMem(src.VertexesData, dst.VertexesData, src.CountVertex * src.SizeOfVertex));
+    Assert.AreEqual(99, int32(dst.Indexes.Items[99]));
+    Assert.IsTrue(stream.Position = stream.Size);
+  finally
+    stream.Free;
+    src.Free;
+    dst.Free;
+  end;
+end;
+
+procedure TMeshLoadersTest.TestBinaryIntIndexes;
+var
+  src, dst: TMesh;
+  stream: TMemoryStream;
+begin
+  src := CreateMesh(70000);
+  dst := TMeshPTN.Create;
+  stream := TMemoryStream.Create;
+  try
+    Assert.IsTrue(src.Indexes.KindUnsignedInt);
+    MeshWriteBinary(src, stream);
+    stream.Position := 0;
+    Assert.IsTrue(MeshReadBinary(dst, stream));
+    Assert.IsTrue(dst.Indexes.KindUnsignedInt);
+    Assert.AreEqual(70000, dst.Indexes.Count);
+    Assert.AreEqual(69999, int32(dst.Indexes.Items[69999]));
+  finally
+    stream.Free;
+    src.Free;
+    dst.Free;
+  end;
+end;
+
+procedure TMeshLoadersTest.TestBinaryOtherLayout;
+var
+  src, dst: TMesh;
+  stream: TMemoryStream;
+begin
+  src := CreateMesh(10);
+  dst := TMeshPT.Create;
+  stream := TMemoryStream.Create;
+  try
+    MeshWriteBinary(src, stream);
+    stream.Position := 0;
+    Assert.IsFalse(MeshReadBinary(dst, stream));
+    Assert.AreEqual(0, dst.CountVertex);
+  finally
+    stream.Free;
+    src.Free;
+    dst.Free;
+  end;
+end;
+
+procedure TMeshLoadersTest.TestBinaryInMemory;
+var
+  src, dst: TMesh;
+  stream: TMemoryStream;
+  vertexes, indexes: Pointer;
+begin
+  src := CreateMesh(10);
+  dst := TMeshPTN.Create;
+  stream := TMemoryStream.Create;
+  try
+    MeshWriteBinary(src, stream);
+    stream.Position := 0;
+    Assert.IsTrue(MeshReadBinary(dst, stream, vertexes, indexes));
+    { the buffers are pointed inside the stream }
+    Assert.IsTrue(PByte(indexes) + src.Indexes.Count * src.Indexes.IndexSizeOf = PByte(stream.Memory) + stream.Size);
+    Assert.IsTrue(CompareMem(vertexes, src.VertexesData, src.CountVertex * src.SizeOfVertex));
+    Assert.IsTrue(CompareMem(indexes, src.Indexes.ShiftData[0], src.Indexes.Count * src.Indexes.IndexSizeOf));
+  finally
+    stream.Free;
+    src.Free;
+    dst.Free;
+  end;
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(TMeshLoadersTest);
+
+end.
@@ -0,0 +1,188 @@
+unit TestPicCodecs;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  , System.Classes
+  , bs.graphics
+  ;
+
+type
+
+  [TestFixture]
+  TPicCodecsCompressedTest = class(TObject)
+  private
+    procedure WriteKTX(AStream: TStream; AInternalFormat: uint32; AWidth, AHeight, ALevels: int32);
+    procedure WriteDDS(AStream: TStream; const AFourCC: AnsiString; AWidth, AHeight, ALevels: int32);
+  public
+    [Test]
+    procedure TestKTXETC2;
+    [Test]
+    procedure TestKTXUnsupportedFormat;
+    [Test]
+    procedure TestDDSDXT5;
+    [Test]
+    procedure TestLevelSize;
+  end;
+
+implementation
+
+uses
+    System.SysUtils
+  , System.Math
+  ;
+
+const
+  KTX_IDENTIFIER: array[0..11] of byte = ($AB, $4B, $54, $58, $20, $31, $31, $BB, $0D, $0A, $1A, $0A);
+
+procedure WriteUInt32(AStream: TStream; AValue: uint32);
+begin
+  AStream.WriteBuffer(AValue, SizeOf(AValue));
+end;
+
+procedure WriteZeros(AStream: TStream; ACount: int32);
+var
+  b: byte;
+  i: int32;
+begin
+  b := 0;
+  for i := 0 to ACount - 1 do
+    AStream.WriteBuffer(b, 1);
+end;
+
+{ TPicCodecsCompressedTest }
+
+procedure TPicCodecsCompressedTest.WriteKTX(AStream: TStream; AInternalFormat: uint32; AWidth, AHeight, ALevels: int32);
+var
+  i, w, h, size: int32;
+begin
+  AStream.WriteBuffer(KTX_IDENTIFIER[0], SizeOf(KTX_IDENTIFIER));
+  WriteUInt32(AStream, $04030201);
+  WriteUInt32(AStream, 0); // glType
+  WriteUInt32(AStream, 1); // glTypeSize
+  WriteUInt32(AStream, 0); // glFormat
+  WriteUInt32(AStream, AInternalFormat);
+  WriteUInt32(AStream, $1908); // glBaseInternalFormat
+  WriteUInt32(AStream, AWidth);
+  WriteUInt32(AStream, AHeight);
+  WriteUInt32(AStream, 0); // pixelDepth
+  WriteUInt32(AStream, 0); // numberOfArrayElements
+  WriteUInt32(AStream, 1); // numberOfFaces
+  WriteUInt32(AStream, ALevels);
+  WriteUInt32(AStream, 8); // bytesOfKeyValueData
+  WriteZeros(AStream, 8);
+  w := AWidth;
+  h := AHeight;
+  for i := 0 to ALevels - 1 do
+  begin
+    size := ((w + 3) div 4) * ((h + 3) div 4) * 16;
+    WriteUInt32(AStream, size);
+    WriteZeros(AStream, size);
+    w := Max(1, w div 2);
+    h := Max(1, h div 2);
+  end;
+  AStream.Position := 0;
+end;
+
+procedure TPicCodecsCompressedTest.WriteDDS(AStream: TStream; const AFourCC: AnsiString; AWidth, AHeight, ALevels: int32);
+var
+  header: array[0..31] of uint32;
+  i, w, h: int32;
+begin
+  FillChar(header, SizeOf(header), 0);
+  header[0] := $20534444;
+  header[3] := AHeight;
+  header[4] := AWidth;
+  header[7] := ALevels;
+  Move(AFourCC[1], header[21], 4);
+  AStream.WriteBuffer(header, SizeOf(header));
+  w := AWidth;
+  h := AHeight;
+  for i := 0 to ALevels - 1 do
+  begin
+    WriteZeros(AStream, ((w + 3) div 4) * ((h + 3) div 4) * 16);
+    w := Max(1, w div 2);
+    h := Max(1, h div 2);
+  end;
+  AStream.Position := 0;
+end;
+
+procedure TPicCodecsCompressedTest.TestKTXETC2;
+var
+  stream: TMemoryStream;
+  pic: TBlackSharkPicture;
+begin
+  stream := TMemoryStream.Create;
+  try
+    WriteKTX(stream, $9278, 64, 32, 7);
+    pic := TPicCodecManager.Open(stream, '.ktx');
+    try
+      Assert.IsTrue(pic is TBlackSharkKTX);
+      Assert.AreEqual(64, pic.Width);
+      Assert.AreEqual(32, pic.Height);
+      Assert.IsNull(pic.Canvas);
+      Assert.IsTrue(TBlackSharkKTX(pic).Format = cfETC2RGBA);
+      Assert.AreEqual(7, TBlackSharkKTX(pic).CountLevels);
+      Assert.AreEqual(16*8*16, TBlackSharkKTX(pic).Levels[0].Size);
+      Assert.AreEqual(1, TBlackSharkKTX(pic).Levels[6].Width);
+      Assert.AreEqual(1, TBlackSharkKTX(pic).Levels[6].Height);
+    finally
+      pic.Free;
+    end;
+  finally
+    stream.Free;
+  end;
+end;
+
+procedure TPicCodecsCompressedTest.TestKTXUnsupportedFormat;
+var
+  stream: TMemoryStream;
+  pic: TBlackSharkKTX;
+begin
+  stream := TMemoryStream.Create;
+  pic := TBlackSharkKTX.Create;
+  try
+    { ASTC is not supported }
+    WriteKTX(stream, $93B0, 16, 16, 1);
+    Assert.IsFalse(pic.Open(stream));
+  finally
+    pic.Free;
+    stream.Free;
+  end;
+end;
+
+procedure TPicCodecsCompressedTest.TestDDSDXT5;
+var
+  stream: TMemoryStream;
+  pic: TBlackSharkPicture;
+begin
+  stream := TMemoryStream.Create;
+  try
+    WriteDDS(stream, 'DXT5', 128, 128, 8);
+    pic := TPicCodecManager.Open(stream, '.dds');
+    try
+      Assert.IsTrue(pic is TBlackSharkDDS);
+      Assert.AreEqual(128, pic.Width);
+      Assert.IsTrue(TBlackSharkDDS(pic).Format = cfDXT5);
+      Assert.AreEqual(8, TBlackSharkDDS(pic).CountLevels);
+      Assert.AreEqual(TBlackSharkDDS(pic).DataSize, int32(stream.Size - 128));
+    finally
+      pic.Free;
+    end;
+  finally
+    stream.Free;
+  end;
+end;
+
+procedure TPicCodecsCompressedTest.TestLevelSize;
+begin
+  Assert.AreEqual(8, TBlackSharkCompressedPicture.LevelSize(cfETC2RGB, 1, 1));
+  Assert.AreEqual(16, TBlackSharkCompressedPicture.LevelSize(cfETC2RGBA, 3, 4));
+  Assert.AreEqual(4*4*8, TBlackSharkCompressedPicture.LevelSize(cfDXT1, 16, 13));
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(TPicCodecsCompressedTest);
+
+end.
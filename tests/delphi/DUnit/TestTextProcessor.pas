@@ -0,0 +1,252 @@
+unit TestTextProcessor;
+
+interface
+
+uses
+    DUnitX.TestFramework
+  , bs.basetypes
+  , bs.font
+  , bs.textprocessor
+  ;
+
+type
+
+  [TestFixture]
+  TTextProcessorTest = class(TObject)
+  private
+    FText: string;
+    FKey: TKeyInfo;
+    function SelectorKey(Index: int32; out Code: int32): PKeyInfo;
+    function SelectAverageWidth(Index: int32): BSFloat;
+    function CreateProcessor: TTextProcessor;
+    procedure Edit(Processor: TTextProcessor; Position, CountDeleted: int32; const Value: string);
+    procedure CheckSameLayout(Processor: TTextProcessor; OutWidth: BSFloat);
+  public
+    [Setup]
+    procedure Setup;
+    [Test]
+    procedure TestParagraphs;
+    [Test]
+    procedure TestLineFromIndexChar;
+    [Test]
+    procedure TestEditsAsFullBuild;
+    [Test]
+    procedure TestEditsWithWrap;
+    [Test]
+    procedure TestTypingInPlace;
+  end;
+
+implementation
+
+uses
+    System.SysUtils
+  , System.Math
+  , bs.align
+  ;
+
+{ TTextProcessorTest }
+
+procedure TTextProcessorTest.Setup;
+begin
+  FillChar(FKey, SizeOf(FKey), 0);
+  FKey.Rect.Width := 8;
+  FKey.Rect.Height := 16;
+end;
+
+function TTextProcessorTest.SelectorKey(Index: int32; out Code: int32): PKeyInfo;
+begin
+  Code := int32(FText[Index]);
+  Result := @FKey;
+end;
+
+function TTextProcessorTest.SelectAverageWidth(Index: int32): BSFloat;
+begin
+  Result := 8;
+end;
+
+function TTextProcessorTest.CreateProcessor: TTextProcessor;
+begin
+  Result := TTextProcessor.Create(SelectorKey, SelectAverageWidth);
+  Result.CountChars := Length(FText);
+end;
+
+procedure TTextProcessorTest.Edit(Processor: TTextProcessor; Position, CountDeleted: int32; const Value: string);
+begin
+  CountDeleted := Min(CountDeleted, Length(FText) - Position + 1);
+  Delete(FText, Position, CountDeleted);
+  Insert(Value, FText, Position);
+  Processor.TextChanged(Position, CountDeleted, Length(Value));
+end;
+
+procedure TTextProcessorTest.CheckSameLayout(Processor: TTextProcessor; OutWidth: BSFloat);
+var
+  full: TTextProcessor;
+  i: int32;
+begin
+  full := TTextProcessor.Create(SelectorKey, SelectAverageWidth);
+  try
+    full.BeginFill;
+    full.AlignText := Processor.AlignText;
+    full.SetOutRect(OutWidth, 0);
+    full.EndFill;
+    full.BeginFill;
+    full.CountChars := Length(FText);
+    full.EndFill;
+    Assert.AreEqual(Length(FText), Processor.CountChars);
+    Assert.AreEqual(full.Lines.Count, Processor.Lines.Count);
+    for i := 0 to full.Lines.Count - 1 do
+    begin
+      Assert.AreEqual(full.LineBegin[i], Processor.LineBegin[i]);
+      Assert.AreEqual(full.Lines.Items[i].CountChars, Processor.Lines.Items[i].CountChars);
+      Assert.AreEqual(full.Lines.Items[i].CountBlanks, Processor.Lines.Items[i].CountBlanks);
+      Assert.AreEqual(full.Lines.Items[i].Width, Processor.Lines.Items[i].Width, 0.001);
+    end;
+    Assert.AreEqual(full.Height, Processor.Height, 0.01);
+  finally
+    full.Free;
+  end;
+end;
+
+procedure TTextProcessorTest.TestParagraphs;
+var
+  p: TTextProcessor;
+begin
+  FText := 'ab cd'#13'xyz'#13'q';
+  p := CreateProcessor;
+  try
+    Assert.AreEqual(3, p.Lines.Count);
+    Assert.AreEqual(1, p.LineBegin[0]);
+    { a line broken by CR begins from the CR }
+    Assert.AreEqual(6, p.LineBegin[1]);
+    Assert.AreEqual(10, p.LineBegin[2]);
+    Assert.AreEqual(1, p.Lines.Items[0].CountBlanks);
+    { the widest line is the first one }
+    Assert.AreEqual(p.Lines.Items[0].Width, p.Width, 0.001);
+  finally
+    p.Free;
+  end;
+end;
+
+procedure TTextProcessorTest.TestLineFromIndexChar;
+var
+  p: TTextProcessor;
+  i: int32;
+begin
+  FText := '';
+  for i := 0 to 999 do
+    FText := FText + 'line ' + IntToStr(i) + #13;
+  p := CreateProcessor;
+  try
+    Assert.AreEqual(1000, p.Lines.Count);
+    Assert.AreEqual(0, p.GetIndexLineFromIndexChar(1));
+    for i := 1 to p.Lines.Count - 1 do
+    begin
+      Assert.AreEqual(i, p.GetIndexLineFromIndexChar(p.LineBegin[i] + 1));
+      Assert.AreEqual(i, p.GetIndexLineFromIndexChar(p.LineBegin[i] + p.Lines.Items[i].CountChars - 1));
+    end;
+  finally
+    p.Free;
+  end;
+end;
+
+procedure TTextProcessorTest.TestEditsAsFullBuild;
+var
+  p: TTextProcessor;
+  i, pos: int32;
+begin
+  FText := '';
+  for i := 0 to 199 do
+    FText := FText + 'word ' + IntToStr(i) + ' and   more'#13;
+  p := CreateProcessor;
+  try
+    RandSeed := 7;
+    for i := 0 to 299 do
+    begin
+      pos := Random(Length(FText)) + 1;
+      case i mod 4 of
+        0: Edit(p, pos, 0, 'x');
+        1: Edit(p, pos, 0, 'new'#13'paragraph ');
+        2: Edit(p, pos, 1, '');
+        3: Edit(p, pos, 3, 'yz');
+      end;
+      CheckSameLayout(p, 0);
+    end;
+    { typing at the end }
+    for i := 0 to 9 do
+    begin
+      Edit(p, Length(FText) + 1, 0, 'e');
+      CheckSameLayout(p, 0);
+    end;
+  finally
+    p.Free;
+  end;
+end;
+
+procedure TTextProcessorTest.TestEditsWithWrap;
+var
+  p: TTextProcessor;
+  i, pos: int32;
+begin
+  FText := '';
+  for i := 0 to 49 do
+    FText := FText + 'a long paragraph number ' + IntToStr(i) + ' which is wrapped into some lines'#13;
+  p := CreateProcessor;
+  try
+    p.BeginFill;
+    p.AlignText := TObjectAlign.oaCenter;
+    p.SetOutRect(120, 0);
+    p.EndFill;
+    RandSeed := 11;
+    for i := 0 to 199 do
+    begin
+      pos := Random(Length(FText)) + 1;
+      if odd(i) then
+        Edit(p, pos, 0, 'some inserted words')
+      else
+        Edit(p, pos, 5, '');
+      CheckSameLayout(p, 120);
+    end;
+  finally
+    p.Free;
+  end;
+end;
+
+procedure TTextProcessorTest.TestTypingInPlace;
+var
+  p: TTextProcessor;
+  i, pos: int32;
+begin
+  FText := '';
+  for i := 0 to 99 do
+    FText := FText + 'paragraph ' + IntToStr(i) + #13;
+  p := CreateProcessor;
+  try
+    { typing and backspaces in one place keep the shift of the next lines pending }
+    pos := Length(FText) div 2;
+    for i := 0 to 29 do
+    begin
+      if i mod 3 = 2 then
+      begin
+        dec(pos);
+        Edit(p, pos, 1, '');
+      end else
+      begin
+        Edit(p, pos, 0, 't');
+        inc(pos);
+      end;
+      CheckSameLayout(p, 0);
+    end;
+    { an edit before the pending shift and after it }
+    Edit(p, 3, 0, 'ab');
+    CheckSameLayout(p, 0);
+    Edit(p, Length(FText) - 2, 0, 'cd');
+    CheckSameLayout(p, 0);
+  finally
+    p.Free;
+  end;
+end;
+
+initialization
+  TDUnitX.RegisterTestFixture(TTextProcessorTest);
+
+end.
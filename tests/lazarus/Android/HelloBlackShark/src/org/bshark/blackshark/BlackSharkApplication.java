@@ -2,17 +2,20 @@ package org.bshark.blackshark;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.Override;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
@@ -23,14 +26,19 @@ import android.content.res.Configuration;
 import android.hardware.input.InputManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
 import android.view.KeyEvent;
 import android.view.WindowManager;
 import android.os.Bundle;
 import android.os.StrictMode;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.Log;
 import android.view.*;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.FrameLayout;
+import android.widget.TextView;
 
 
 public class BlackSharkApplication extends Activity {
@@ -55,6 +63,32 @@ public class BlackSharkApplication extends Activity {
     private static final int MOUSE_MIDDLE_BUTTON    = 4; // The Middle mouse button is pressed
     private static final int MOUSE_SIDE_BUTTON      = 8; // The Side mouse button is pressed
 
+    private static final int FRAME_PACING_DEFAULT   = 60; // Hz
+
+    // a touch sample in the batch: int32 ActionID, int32 PointerID, float X, float Y, float Pressure
+    // (see TTouchSample in bs.window.pas)
+    private static final int TOUCH_SAMPLE_SIZE      = 20;
+    private static final int TOUCH_BATCH_CAPACITY   = 1024; // samples
+
+    // the ring of actions shared with the engine (see TActionsRingHeader in bs.window.pas):
+    // a header int32 Head, Tail, Capacity, Deferred and slots int32 OpCode, int32 Payload
+    private static final int ACTIONS_RING_HEAD      = 0;
+    private static final int ACTIONS_RING_TAIL      = 4;
+    private static final int ACTIONS_RING_CAPACITY  = 8;
+    private static final int ACTIONS_RING_DEFERRED  = 12; // actions waiting in the engine for a place in the ring
+    private static final int ACTIONS_RING_HEADER    = 16;
+    private static final int ACTION_SLOT_SIZE       = 8;
+    private static final int ACTIONS_RING_SLOTS     = 64;
+
+    // a sample of the frame statistics (see TFrameStatsSample in bs.frame.stats.pas): uint32 Frame, TotalTime,
+    // EventsTime, CullingTime, DrawTime, SwapTime (all times in microseconds), DrawCalls, VisibleInstances, StateChanges,
+    // UnbatchedDrawCalls
+    private static final int FRAME_STATS_SAMPLE_SIZE = 40;
+    private static final int FRAME_STATS_CAPACITY    = 256; // samples
+    private static final int FRAME_STATS_UPDATE      = 500; // ms
+    // a frame longer than the average in the factor times is a spike
+    private static final int FRAME_STATS_SPIKE       = 2;
+
 
     public native int bsNativeInit(String appPath, String filesPath);
     public native void bsNativeOnViewCreated(Object nativeHandle, float displayWidthPixels, float displayHeightPixels, float dpiX, float dpiY);
@@ -62,6 +96,7 @@ public class BlackSharkApplication extends Activity {
     public native int bsNativeOnDraw();
     public native void bsNativeOnChangeFocus(Object nativeHandle, boolean isFocused);
     private native int bsNativeOnTouch(int ActionId, int PointerID, float X, float Y, float Pressure);
+    private native int bsNativeOnTouchBatch(ByteBuffer Batch, int Count);
     public native int bsNativeGetIntAttribute(String Name, int Default);
     public native boolean bsNativeGetBoolAttribute(String Name, boolean Default);
 
@@ -73,6 +108,11 @@ public class BlackSharkApplication extends Activity {
     public native int bsNativeOnKeyDown(char keyChar, int keyCode, int shiftState);
     public native int bsNativeOnKeyUp(char keyChar, int keyCode, int shiftState);
     public native int bsNativeNextAction();
+    private native void bsNativeMapActionsRing(ByteBuffer Ring);
+    private native void bsNativeFlushActions();
+    private native int bsNativeGetFrameStats(ByteBuffer Stats);
+    private native void bsNativeDumpFrameStats();
+    private native void bsNativeAttachThread();
 
 //
 //    public native int bsNativeOnRotate(int rotate);
@@ -103,6 +143,18 @@ public class BlackSharkApplication extends Activity {
     private UpdateTask updateTask;
     private Timer timer;
     private boolean isPaused = false;
+    // the render thread is used when "RenderThread" attribute is switched on (by default) and Choreographer is available
+    private RenderThread renderThread;
+    private final TouchBatch touchBatch = new TouchBatch();
+    // the engine writes actions to the ring, the host reads them without JNI calls
+    private final ByteBuffer actionsRing = ByteBuffer.allocateDirect(ACTIONS_RING_HEADER + ACTIONS_RING_SLOTS * ACTION_SLOT_SIZE).order(ByteOrder.nativeOrder());
+    // the overlay of the frame statistics; it is shown when "FrameStatsOverlay" attribute is switched on
+    private FrameStats frameStats;
+    // it is shown until the engine is initialized, the engine waits for the unpacked assets
+    private View placeholder;
+    // the engine is initialized (see onAssetsReady); until that events are not passed to it
+    private boolean nativeReady = false;
+    private boolean destroyed = false;
 
     // update task
     class UpdateTask extends TimerTask {
@@ -130,128 +182,493 @@ public class BlackSharkApplication extends Activity {
         }
     };
 
+    // a native call which result is waited by a caller thread
+    abstract class NativeCall {
+        int result = -1;
+        abstract int call();
+    }
 
-    public class BlackSharkSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+    // the dedicated render thread; it owns EGL surface of the engine, therefore all native calls
+    // go through it; the frames are paced by Choreographer (vsync)
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    class RenderThread extends HandlerThread implements Choreographer.FrameCallback {
 
-    	public BlackSharkSurfaceView(Context context) {
-            super(context);
-            getHolder().addCallback(this);
-            onRestart();
+        private Handler handler;
+        private volatile boolean animating = false;
+        private boolean frameRequested = false;
+        private long frameIntervalNanos;
+        private long lastFrameTimeNanos = 0;
+
+        RenderThread() {
+            super("BlackSharkRender");
+            setFramePacing(FRAME_PACING_DEFAULT);
         }
 
         @Override
-        protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        	super.onSizeChanged(w, h, oldw, oldh);
+        protected void onLooperPrepared() {
+            handler = new Handler(getLooper());
+            // the engine is executed on the thread since now; it runs before any posted runnable
+            bsNativeAttachThread();
+        }
 
-            //if( w < h ) screenOrientation = 1;
-            //if( w > h ) screenOrientation = 2;
+        Handler getHandler() {
+            if (handler == null)
+                handler = new Handler(getLooper());
+            return handler;
+        }
 
-            //bsNativeOnRotate(screenOrientation);
-            bsNativeOnViewChanged(w, h);
+        // a target of frames per second; the engine draws not more often, than the value; actual rate is
+        // a divisor of the display refresh rate
+        void setFramePacing(int framesPerSecond) {
+            if (framesPerSecond <= 0)
+                framesPerSecond = FRAME_PACING_DEFAULT;
+            frameIntervalNanos = 1000000000L / framesPerSecond;
         }
-        
+
+        void queueEvent(Runnable r) {
+            getHandler().post(r);
+        }
+
+        int invokeAndWait(final NativeCall nativeCall) {
+            if (Thread.currentThread() == this)
+                return nativeCall.call();
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    nativeCall.result = nativeCall.call();
+                    latch.countDown();
+                }
+            });
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            return nativeCall.result;
+        }
+
+        private final Runnable frameRequest = new Runnable() {
+            @Override
+            public void run() {
+                postFrame();
+            }
+        };
+
+        // draw one frame on a next vsync (on-demand mode)
+        void requestRender() {
+            queueEvent(frameRequest);
+        }
+
+        // continuous drawing (animation or MaxFps mode); thread safe
+        void setAnimating(final boolean value) {
+            animating = value;
+            if (value)
+                requestRender();
+        }
+
+        private void postFrame() {
+            if (frameRequested)
+                return;
+            frameRequested = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
         @Override
-        protected void onDraw(Canvas canvas) {
+        public void doFrame(long frameTimeNanos) {
+            frameRequested = false;
+
+            if (isPaused)
+                return;
+
+            // 4 ms is a tolerance for jitter of the frame time
+            if ((lastFrameTimeNanos > 0) && (frameTimeNanos - lastFrameTimeNanos < frameIntervalNanos - 4000000L)) {
+                postFrame();
+                return;
+            }
+
+            lastFrameTimeNanos = frameTimeNanos;
             int opCode = bsNativeOnDraw();
-            if (opCode > 0)
+            if (opCode == OPCODE_ANIMATION_STOP) {
+                // nothing changes in the scene, skip frames until a next event or OPCODE_ANIMATION_RUN
+                if (!maxFps)
+                    animating = false;
+            } else if (opCode > 0)
                 processOpCode(opCode);
+
+            if (animating || maxFps)
+                postFrame();
         }
 
-        @Override
-        public void surfaceCreated(SurfaceHolder holder) {
-    	    // set native handle ANativeWindow is described here:
-            // https://android.googlesource.com/platform/frameworks/native/+/master/libs/nativewindow/include/android/native_window.h
-            bsNativeOnViewCreated(getHolder().getSurface(), screenWidth, screenHeight, dpiX, dpiY);
-            maxFps = bsNativeGetBoolAttribute("MaxFps", false);
-            if (maxFps)
-                runLoop();
+        void stopFrames() {
+            animating = false;
+            if (frameRequested) {
+                frameRequested = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
         }
+    }
 
-        @Override
-        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-            bsNativeOnViewChanged(width, height);
+
+    // collects samples of motion events (including historical ones) and passes them to the engine
+    // by one JNI call; two direct buffers are swapped, so the UI thread can fill one while
+    // the render thread drains another; nothing is allocated per event
+    class TouchBatch implements Runnable {
+
+        private ByteBuffer filling = allocateBuffer();
+        private ByteBuffer draining = allocateBuffer();
+        private int count = 0;
+        private boolean drainPosted = false;
+
+        private ByteBuffer allocateBuffer() {
+            return ByteBuffer.allocateDirect(TOUCH_SAMPLE_SIZE * TOUCH_BATCH_CAPACITY).order(ByteOrder.nativeOrder());
         }
 
-        @Override
-        public void surfaceDestroyed(SurfaceHolder holder) {
+        private int capacity() {
+            return filling.capacity() / TOUCH_SAMPLE_SIZE;
+        }
 
-            //bsNativeOnViewDestroy();
-            stopLoop();
+        // a full batch loses only moves: a move replaces the last move of its pointer if it ends
+        // the batch, other actions take a place of the last move or grow the buffer
+        private void add(int actionId, int pointerId, float x, float y, float pressure) {
+            if (count == capacity()) {
+                if (actionId == MotionEvent.ACTION_MOVE) {
+                    int last = (count - 1) * TOUCH_SAMPLE_SIZE;
+                    if (filling.getInt(last) != MotionEvent.ACTION_MOVE || filling.getInt(last + 4) != pointerId)
+                        return;
+                    count--;
+                } else if (!removeLastMove())
+                    grow();
+            }
+            int pos = count * TOUCH_SAMPLE_SIZE;
+            filling.putInt(pos, actionId);
+            filling.putInt(pos + 4, pointerId);
+            filling.putFloat(pos + 8, x);
+            filling.putFloat(pos + 12, y);
+            filling.putFloat(pos + 16, pressure);
+            count++;
         }
 
-        @Override
-        public boolean onTouchEvent(MotionEvent event ){
+        private boolean removeLastMove() {
+            for (int i = count - 1; i >= 0; i--) {
+                if (filling.getInt(i * TOUCH_SAMPLE_SIZE) != MotionEvent.ACTION_MOVE)
+                    continue;
+                for (int pos = i * TOUCH_SAMPLE_SIZE; pos < (count - 1) * TOUCH_SAMPLE_SIZE; pos += 4)
+                    filling.putInt(pos, filling.getInt(pos + TOUCH_SAMPLE_SIZE));
+                count--;
+                return true;
+            }
+            return false;
+        }
+
+        // only when the batch holds no moves at all; the buffer stays grown
+        private void grow() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(filling.capacity() * 2).order(ByteOrder.nativeOrder());
+            for (int pos = 0; pos < count * TOUCH_SAMPLE_SIZE; pos += 4)
+                buffer.putInt(pos, filling.getInt(pos));
+            filling = buffer;
+        }
 
+        synchronized void addMotionEvent(MotionEvent event) {
             int action = event.getAction();
             int actionType = action & MotionEvent.ACTION_MASK;
-            int opCode = -1;
+            int pointerCount = event.getPointerCount();
             switch ( actionType )
             {
                 case MotionEvent.ACTION_DOWN: {
-                    int count = event.getPointerCount();
-                    for ( int i = 0; i < count; i++ )
-                    {
-                        //int pointerID = event.getPointerId( i );
-                        opCode = bsNativeOnTouch(MotionEvent.ACTION_DOWN, MOUSE_LEFT_BUTTON, event.getX( i ), event.getY( i ), event.getPressure( i ) );
-                    }
+                    for ( int i = 0; i < pointerCount; i++ )
+                        add(MotionEvent.ACTION_DOWN, event.getPointerId( i ), event.getX( i ), event.getY( i ), event.getPressure( i ) );
                     break;
                 }
 
                 case MotionEvent.ACTION_MOVE: {
-                    int count = event.getPointerCount();
-                    for ( int i = 0; i < count; i++ )
+                    // samples between the previous and the current events
+                    int historySize = event.getHistorySize();
+                    if (count + (historySize + 1) * pointerCount > capacity())
+                        historySize = 0;
+                    for ( int h = 0; h < historySize; h++ )
                     {
-                        //int pointerID = event.getPointerId( i );
-                        opCode = bsNativeOnTouch(MotionEvent.ACTION_MOVE, MOUSE_LEFT_BUTTON, event.getX( i ), event.getY( i ), event.getPressure( i ) );
+                        for ( int i = 0; i < pointerCount; i++ )
+                            add(MotionEvent.ACTION_MOVE, event.getPointerId( i ), event.getHistoricalX( i, h ), event.getHistoricalY( i, h ), event.getHistoricalPressure( i, h ) );
                     }
+                    for ( int i = 0; i < pointerCount; i++ )
+                        add(MotionEvent.ACTION_MOVE, event.getPointerId( i ), event.getX( i ), event.getY( i ), event.getPressure( i ) );
                     break;
                 }
 
-                case MotionEvent.ACTION_UP:
-                {
-                    int count = event.getPointerCount();
-                    for ( int i = 0; i < count; i++ )
-                    {
-                        //int pointerID = event.getPointerId( i );
-                        opCode = bsNativeOnTouch(MotionEvent.ACTION_UP, MOUSE_LEFT_BUTTON, event.getX( i ), event.getY( i ), 0 );
-                    }
+                case MotionEvent.ACTION_UP: {
+                    for ( int i = 0; i < pointerCount; i++ )
+                        add(MotionEvent.ACTION_UP, event.getPointerId( i ), event.getX( i ), event.getY( i ), 0 );
                     break;
                 }
 
-                case MotionEvent.ACTION_POINTER_DOWN:
-                {
+                case MotionEvent.ACTION_POINTER_DOWN: {
                     int pointerID = ( action & MotionEvent.ACTION_POINTER_ID_MASK ) >> MotionEvent.ACTION_POINTER_ID_SHIFT;
-                    int pointerIndex = event.getPointerId( pointerID );
-                    if ( pointerID >= 0 && pointerID < event.getPointerCount() )
-                        opCode = bsNativeOnTouch(MotionEvent.ACTION_DOWN, pointerIndex, event.getX( pointerID ), event.getY( pointerID ), event.getPressure( pointerID ) );
+                    if ( pointerID >= 0 && pointerID < pointerCount )
+                        add(MotionEvent.ACTION_DOWN, event.getPointerId( pointerID ), event.getX( pointerID ), event.getY( pointerID ), event.getPressure( pointerID ) );
                     break;
                 }
 
-                case MotionEvent.ACTION_POINTER_UP:
-                {
+                case MotionEvent.ACTION_POINTER_UP: {
                     int pointerID = ( action & MotionEvent.ACTION_POINTER_ID_MASK ) >> MotionEvent.ACTION_POINTER_ID_SHIFT;
-                    int pointerIndex = event.getPointerId( pointerID );
-                    if ( pointerID >= 0 && pointerID < event.getPointerCount() )
-                        opCode = bsNativeOnTouch(MotionEvent.ACTION_UP, pointerIndex, event.getX( pointerID ), event.getY( pointerID ), 0 );
+                    if ( pointerID >= 0 && pointerID < pointerCount )
+                        add(MotionEvent.ACTION_UP, event.getPointerId( pointerID ), event.getX( pointerID ), event.getY( pointerID ), 0 );
                     break;
                 }
-//                default:
-//                {
-//                    int count = event.getPointerCount();
-//                    for ( int i = 0; i < count; i++ )
-//                    {
-//                        int pointerID = event.getPointerId( i );
-//                        bsNativeOnTouch(MotionEvent.ACTION_UP, pointerID, event.getX( i ), event.getY( i ), 0 );
-//                    }
-//                    break;
-//                }
+            }
+        }
+
+        // passes collected samples to the engine; returns an opcode of the engine
+        int flush() {
+            ByteBuffer batch;
+            int n;
+            synchronized (this) {
+                batch = filling;
+                filling = draining;
+                draining = batch;
+                n = count;
+                count = 0;
+                drainPosted = false;
+            }
+            if (n == 0)
+                return -1;
+            return bsNativeOnTouchBatch(batch, n);
+        }
 
+        // schedules flush on the render thread
+        void post() {
+            synchronized (this) {
+                if (drainPosted)
+                    return;
+                drainPosted = true;
             }
+            renderThread.queueEvent(this);
+        }
 
-            processOpCode(opCode);
+        @Override
+        public void run() {
+            processOpCode(flush());
+        }
+    }
+
+    // reads the frame statistics of the engine by one JNI call into a direct buffer, shows a summary
+    // over the surface and dumps all kept frames to logcat and the engine log by a long click on it
+    class FrameStats implements Runnable {
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_STATS_SAMPLE_SIZE * FRAME_STATS_CAPACITY).order(ByteOrder.nativeOrder());
+        private final TextView view;
+        private volatile boolean stopped = false;
+
+        FrameStats(Context context) {
+            view = new TextView(context);
+            view.setTextColor(Color.GREEN);
+            view.setBackgroundColor(0x80000000);
+            view.setTextSize(11);
+            view.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    runOnEngine(new Runnable() {
+                        @Override
+                        public void run() {
+                            dump();
+                        }
+                    }, 0);
+                    return true;
+                }
+            });
+        }
+
+        TextView getView() {
+            return view;
+        }
+
+        void start() {
+            stopped = false;
+            runOnEngine(this, FRAME_STATS_UPDATE);
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        // the engine is called from the render thread, or from the UI thread without it
+        private void runOnEngine(Runnable r, long delayMillis) {
+            if (renderThread != null)
+                renderThread.getHandler().postDelayed(r, delayMillis);
+            else
+                glSurfaceView.postDelayed(r, delayMillis);
+        }
+
+        private int read() {
+            buffer.clear();
+            int count = bsNativeGetFrameStats(buffer);
+            return (count < 0) ? 0 : count;
+        }
+
+        private int getInt(int sample, int field) {
+            return buffer.getInt(sample * FRAME_STATS_SAMPLE_SIZE + field * 4);
+        }
+
+        @Override
+        public void run() {
+            if (stopped)
+                return;
+            int count = read();
+            if (count > 0) {
+                long total = 0;
+                int max = 0;
+                for (int i = 0; i < count; i++) {
+                    int t = getInt(i, 1);
+                    total += t;
+                    if (t > max)
+                        max = t;
+                }
+                long average = total / count;
+                int spikes = 0;
+                for (int i = 0; i < count; i++) {
+                    if (getInt(i, 1) > average * FRAME_STATS_SPIKE)
+                        spikes++;
+                }
+                int last = count - 1;
+                final String text = String.format("frame %.2f ms (max %.2f), spikes %d/%d\n" +
+                        "events %.2f, culling %.2f, draw %.2f, swap %.2f ms\n" +
+                        "draw calls %d (unbatched %d), visible %d, state changes %d",
+                        average / 1000.0, max / 1000.0, spikes, count,
+                        getInt(last, 2) / 1000.0, getInt(last, 3) / 1000.0, getInt(last, 4) / 1000.0, getInt(last, 5) / 1000.0,
+                        getInt(last, 6), getInt(last, 9), getInt(last, 7), getInt(last, 8));
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        view.setText(text);
+                    }
+                });
+            }
+            runOnEngine(this, FRAME_STATS_UPDATE);
+        }
+
+        void dump() {
+            int count = read();
+            for (int i = 0; i < count; i++) {
+                Log.i("BlackShark", String.format("frame #%d: total %d us, events %d, culling %d, draw %d, swap %d, " +
+                        "draw calls %d (unbatched %d), visible %d, state changes %d", getInt(i, 0), getInt(i, 1), getInt(i, 2),
+                        getInt(i, 3), getInt(i, 4), getInt(i, 5), getInt(i, 6), getInt(i, 9), getInt(i, 7), getInt(i, 8)));
+            }
+            bsNativeDumpFrameStats();
+        }
+    }
+
+    public class BlackSharkSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    	public BlackSharkSurfaceView(Context context) {
+            super(context);
+            getHolder().addCallback(this);
+            onRestart();
+        }
+
+        @Override
+        protected void onSizeChanged(final int w, final int h, int oldw, int oldh) {
+        	super.onSizeChanged(w, h, oldw, oldh);
+
+            //if( w < h ) screenOrientation = 1;
+            //if( w > h ) screenOrientation = 2;
+
+            //bsNativeOnRotate(screenOrientation);
+            if (renderThread != null) {
+                renderThread.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        bsNativeOnViewChanged(w, h);
+                    }
+                });
+            } else
+                bsNativeOnViewChanged(w, h);
+        }
+        
+        @Override
+        protected void onDraw(Canvas canvas) {
+            if (renderThread != null) {
+                renderThread.requestRender();
+                return;
+            }
+            int opCode = bsNativeOnDraw();
+            if (opCode > 0)
+                processOpCode(opCode);
+        }
+
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            if (renderThread != null) {
+                final Surface surface = getHolder().getSurface();
+                renderThread.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        doSurfaceCreated(surface);
+                    }
+                });
+            } else
+                doSurfaceCreated(getHolder().getSurface());
+        }
+
+        private void doSurfaceCreated(Surface surface) {
+    	    // set native handle ANativeWindow is described here:
+            // https://android.googlesource.com/platform/frameworks/native/+/master/libs/nativewindow/include/android/native_window.h
+            bsNativeOnViewCreated(surface, screenWidth, screenHeight, dpiX, dpiY);
+            maxFps = bsNativeGetBoolAttribute("MaxFps", false);
+            if (renderThread != null) {
+                renderThread.setFramePacing(bsNativeGetIntAttribute("FramePacing", FRAME_PACING_DEFAULT));
+                renderThread.setAnimating(maxFps);
+                renderThread.requestRender();
+            } else
+            if (maxFps)
+                runLoop();
+        }
 
-            if (!maxFps)
-                bsNativeOnDraw();
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, final int width, final int height) {
+            if (renderThread != null) {
+                renderThread.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        bsNativeOnViewChanged(width, height);
+                    }
+                });
+                renderThread.requestRender();
+            } else
+                bsNativeOnViewChanged(width, height);
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+
+            //bsNativeOnViewDestroy();
+            if (renderThread != null) {
+                // the surface must not be used by the render thread after return
+                renderThread.invokeAndWait(new NativeCall() {
+                    @Override
+                    int call() {
+                        renderThread.stopFrames();
+                        return 0;
+                    }
+                });
+            } else
+                stopLoop();
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event ){
+
+            touchBatch.addMotionEvent(event);
+
+            if (renderThread != null) {
+                touchBatch.post();
+                renderThread.requestRender();
+            } else {
+                processOpCode(touchBatch.flush());
+                // the view system calls onDraw not more often than once per vsync
+                if (!maxFps)
+                    invalidate();
+            }
 
             return true;
         }
@@ -273,30 +690,40 @@ public class BlackSharkApplication extends Activity {
             StrictMode.setThreadPolicy(policy);
         }
 
-        File file = new File(dataDir + "/Shaders");
-        if (!file.exists()) {
-            try {
-                unpackAssets();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
         screenWidth  = getResources().getDisplayMetrics().widthPixels;
         screenHeight = getResources().getDisplayMetrics().heightPixels;
         dpiX = getResources().getDisplayMetrics().xdpi;
         dpiY = getResources().getDisplayMetrics().ydpi;
 
-        // you can set own orientation of screen for your application
-        screenOrientation = bsNativeInit(appSourceDir, dataDir);
-
         // TODO: request full screen option???
         getWindow().setFlags( WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN );
 
         getActionBar().hide();
 
+        placeholder = new View(this);
+        placeholder.setBackgroundColor(Color.BLACK);
+        setContentView(placeholder);
+
+        // the engine reads stored (not compressed) assets straight from the APK (see bs.vfs.pas);
+        // the rest are unpacked in background, onCreate does not wait for them: the engine is
+        // initialized by onAssetsReady when the extractor has finished
+        new AssetsExtractor().start();
+    }
+
+    // it is posted to the UI thread by AssetsExtractor when all assets are available
+    private void onAssetsReady() {
+        if (destroyed || isFinishing())
+            return;
+
+        // you can set own orientation of screen for your application
+        screenOrientation = bsNativeInit(appSourceDir, dataDir);
+        bsNativeMapActionsRing(actionsRing);
+
+        if ((android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) && bsNativeGetBoolAttribute("RenderThread", true)) {
+            renderThread = new RenderThread();
+            renderThread.start();
+        }
+
         //screenOrientation = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;//bsNativeGetIntAttribute("ScreenOrientation", ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
 
         switch(screenOrientation) {
@@ -311,29 +738,84 @@ public class BlackSharkApplication extends Activity {
 
         glSurfaceView = new BlackSharkSurfaceView(this);
 
-        setContentView(glSurfaceView);
+        if (bsNativeGetBoolAttribute("FrameStatsOverlay", false)) {
+            frameStats = new FrameStats(this);
+            FrameLayout layout = new FrameLayout(this);
+            layout.addView(glSurfaceView);
+            layout.addView(frameStats.getView(), new FrameLayout.LayoutParams(
+                    FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT));
+            setContentView(layout);
+            frameStats.start();
+        } else
+            setContentView(glSurfaceView);
 
         getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_ADJUST_PAN);
         //getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_VISIBLE);
 
         glSurfaceView.requestLayout();
-        glSurfaceView.setWillNotDraw(false);
+        // the render thread draws by vsync itself
+        glSurfaceView.setWillNotDraw(renderThread != null);
         glSurfaceView.setFocusable(true);
         glSurfaceView.setFocusableInTouchMode(true);
 
+        placeholder = null;
+        nativeReady = true;
+
+        // the window got the focus before the engine was initialized
+        if (hasWindowFocus()) {
+            glSurfaceView.post(new Runnable() {
+                @Override
+                public void run() {
+                    changeFocus(hasWindowFocus());
+                }
+            });
+        }
     }
 
     @Override
-    public void onWindowFocusChanged(boolean hasFocus) {
+    public void onWindowFocusChanged(final boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
-        bsNativeOnChangeFocus(glSurfaceView.getHolder().getSurface(), hasFocus);
+        if (nativeReady)
+            changeFocus(hasFocus);
+    }
+
+    private void changeFocus(final boolean hasFocus) {
+        if (renderThread != null) {
+            final Surface surface = glSurfaceView.getHolder().getSurface();
+            renderThread.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    bsNativeOnChangeFocus(surface, hasFocus);
+                }
+            });
+            renderThread.requestRender();
+        } else
+            bsNativeOnChangeFocus(glSurfaceView.getHolder().getSurface(), hasFocus);
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        bsNativeOnViewDestroy();
-        stopLoop();
+        destroyed = true;
+        if (!nativeReady)
+            return;
+        if (frameStats != null)
+            frameStats.stop();
+        if (renderThread != null) {
+            renderThread.invokeAndWait(new NativeCall() {
+                @Override
+                int call() {
+                    renderThread.stopFrames();
+                    bsNativeOnViewDestroy();
+                    return 0;
+                }
+            });
+            renderThread.quit();
+            renderThread = null;
+        } else {
+            bsNativeOnViewDestroy();
+            stopLoop();
+        }
     }
     
     @Override
@@ -347,12 +829,15 @@ public class BlackSharkApplication extends Activity {
     	
     	screenOrientation = newConfig.orientation;
 
-    	glSurfaceView.requestLayout();
+        if (glSurfaceView != null)
+    	    glSurfaceView.requestLayout();
     	//bsNativeOnChanged();
     }
 
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
+        if (!nativeReady)
+            return super.dispatchKeyEvent(event);
         int action = event.getAction();
         if (action == KeyEvent.ACTION_DOWN) {
             return doOnKeyDown(event.getKeyCode(), event);
@@ -381,7 +866,7 @@ public class BlackSharkApplication extends Activity {
             case KeyEvent.KEYCODE_BACK:
              //opCode = bsNativeOnBackPressed();
 
-             opCode = bsNativeOnKeyDown(c, keyCode, shiftState);
+             opCode = sendKeyDown(c, keyCode, shiftState);
              if (opCode == OPCODE_EXIT) { //continue ...
                  return false;         }
              else {  // exit!
@@ -430,7 +915,7 @@ public class BlackSharkApplication extends Activity {
                 break;*/
 
             default: {
-                opCode = bsNativeOnKeyDown(c, keyCode, shiftState);
+                opCode = sendKeyDown(c, keyCode, shiftState);
             }
         }
 
@@ -449,10 +934,40 @@ public class BlackSharkApplication extends Activity {
 
         int shiftState = getShiftState(event);
 
-        bsNativeOnKeyUp(c, keyCode, shiftState);
+        sendKeyUp(c, keyCode, shiftState);
         return true;
     }
 
+    private int sendKeyDown(final char keyChar, final int keyCode, final int shiftState) {
+        if (renderThread == null)
+            return bsNativeOnKeyDown(keyChar, keyCode, shiftState);
+
+        // the result defines whether the key was handled, so wait for it
+        int opCode = renderThread.invokeAndWait(new NativeCall() {
+            @Override
+            int call() {
+                return bsNativeOnKeyDown(keyChar, keyCode, shiftState);
+            }
+        });
+        renderThread.requestRender();
+        return opCode;
+    }
+
+    private void sendKeyUp(final char keyChar, final int keyCode, final int shiftState) {
+        if (renderThread == null) {
+            bsNativeOnKeyUp(keyChar, keyCode, shiftState);
+            return;
+        }
+
+        renderThread.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                processOpCode(bsNativeOnKeyUp(keyChar, keyCode, shiftState));
+            }
+        });
+        renderThread.requestRender();
+    }
+
     private char getCharKeyEvent(KeyEvent event) {
         char result = 0;
         String characters = event.getCharacters();
@@ -485,59 +1000,140 @@ public class BlackSharkApplication extends Activity {
         }
     }
 
-    private void unpackAssets() throws IOException {
-        ZipInputStream zis = null;
-        try {
-            zis = new ZipInputStream(new FileInputStream(appSourceDir));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        ZipEntry zipEntry = null;
-        try {
-            zipEntry = zis.getNextEntry();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        byte[] buffer = new byte[1024];
-        while (zipEntry != null) {
-            if (!zipEntry.isDirectory() && (zipEntry.toString().contains("assets/"))) {
-                String newFile = dataDir + "/" + zipEntry.toString().substring(7);
-                int len;
-                File file = new File(newFile);
-                File parent = new File(file.getParent());
-                if (!parent.exists()) {
-                    parent.mkdirs();
+    /*
+     * Unpacks compressed assets of the APK to the files directory; stored assets are not
+     * unpacked because the engine maps them from the APK directly. The unpacked assets are
+     * marked by a version (the APK size and CRC32 over names and CRCs of the entries), so
+     * the APK is unpacked again only after it has been changed.
+     */
+    private class AssetsExtractor extends Thread {
+        private static final String VERSION_FILE = ".assets.version";
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        AssetsExtractor() {
+            super("BlackSharkAssets");
+        }
+
+        @Override
+        public void run() {
+            try {
+                extractAll();
+            } finally {
+                // the engine is initialized even if unpacking failed, it reports missing files itself
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onAssetsReady();
+                    }
+                });
+            }
+        }
+
+        private void extractAll() {
+            ZipFile zip = null;
+            try {
+                zip = new ZipFile(appSourceDir);
+                String version = getVersion(zip);
+                File versionFile = new File(dataDir, VERSION_FILE);
+                if (version.equals(readVersion(versionFile))) {
+                    return;
                 }
-                FileOutputStream fos = new FileOutputStream(newFile);
-                while (true) {
-                    len = 0;
-                    try {
-                        len = zis.read(buffer);
-                        if (len <= 0) break;
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory() || !entry.getName().startsWith("assets/")
+                            || (entry.getMethod() != ZipEntry.DEFLATED)) {
+                        continue;
                     }
+                    extract(zip, entry, new File(dataDir, entry.getName().substring(7)), buffer);
+                }
+                writeVersion(versionFile, version);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (zip != null) {
                     try {
-                        fos.write(buffer, 0, len);
+                        zip.close();
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
-                try {
-                    fos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+            }
+        }
+
+        private String getVersion(ZipFile zip) {
+            CRC32 crc = new CRC32();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.getName().startsWith("assets/")) {
+                    continue;
                 }
-                fos = null;
+                crc.update(entry.getName().getBytes());
+                long entryCrc = entry.getCrc();
+                for (int i = 0; i < 8; i++) {
+                    crc.update((int)(entryCrc >>> (i * 8)) & 0xFF);
+                }
+            }
+            return new File(appSourceDir).length() + ":" + crc.getValue();
+        }
+
+        private String readVersion(File file) {
+            if (!file.exists()) {
+                return null;
             }
+            InputStream is = null;
             try {
-                zipEntry = zis.getNextEntry();
+                is = new FileInputStream(file);
+                byte[] buffer = new byte[(int)file.length()];
+                int len = is.read(buffer);
+                return (len > 0) ? new String(buffer, 0, len) : null;
             } catch (IOException e) {
-                e.printStackTrace();
+                return null;
+            } finally {
+                closeQuietly(is);
+            }
+        }
+
+        private void writeVersion(File file, String version) throws IOException {
+            OutputStream os = new FileOutputStream(file);
+            try {
+                os.write(version.getBytes());
+            } finally {
+                closeQuietly(os);
+            }
+        }
+
+        private void extract(ZipFile zip, ZipEntry entry, File file, byte[] buffer) throws IOException {
+            File parent = file.getParentFile();
+            if ((parent != null) && !parent.exists()) {
+                parent.mkdirs();
+            }
+            InputStream is = zip.getInputStream(entry);
+            OutputStream os = null;
+            try {
+                os = new FileOutputStream(file);
+                int len;
+                while ((len = is.read(buffer)) > 0) {
+                    os.write(buffer, 0, len);
+                }
+            } finally {
+                closeQuietly(os);
+                closeQuietly(is);
+            }
+        }
+
+        private void closeQuietly(java.io.Closeable c) {
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
-        zis = null;
-   }
+    }
 
     private void showKeyboard() {
        InputMethodManager imm = (InputMethodManager) getSystemService(Activity.INPUT_METHOD_SERVICE);
@@ -576,36 +1172,98 @@ public class BlackSharkApplication extends Activity {
         return result;
     }
 
-    private void processOpCode(int OpCode) {
+    private void processOpCode(final int OpCode) {
+        if ((renderThread != null) && (Thread.currentThread() != renderThread)) {
+            // the engine state is accessed only from the render thread
+            if (OpCode > 0)
+                renderThread.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        processOpCode(OpCode);
+                    }
+                });
+            return;
+        }
+
         if (OpCode == OPCODE_LIST_ACTIONS) {
-            int opCode = bsNativeNextAction();
-            while (opCode > 0)
-            {
-                processOpCodeDo(opCode);
-                opCode = bsNativeNextAction();
+            if (actionsRing.getInt(ACTIONS_RING_CAPACITY) > 0) {
+                drainActions();
+            } else {
+                int opCode = bsNativeNextAction();
+                while (opCode > 0)
+                {
+                    processOpCodeDo(opCode, 0);
+                    opCode = bsNativeNextAction();
+                }
             }
-        } else if (OpCode == OPCODE_ANIMATION_STOP) { // most often opcode process here
-            if ((!maxFps) && (updateTask != null))
-                stopLoop();
         } else
-            processOpCodeDo(OpCode);
+            processOpCodeDo(OpCode, 0);
     }
 
-    private void processOpCodeDo(int OpCode) {
+    // reads actions in FIFO order; the ring is drained on the thread which calls the engine,
+    // so the engine never writes it at the same time; actions deferred by the full ring are
+    // flushed at once, otherwise on an idle frame they wait for a next call of the engine
+    private void drainActions() {
+        int capacity = actionsRing.getInt(ACTIONS_RING_CAPACITY);
+        int tail = actionsRing.getInt(ACTIONS_RING_TAIL);
+        int head = actionsRing.getInt(ACTIONS_RING_HEAD);
+        while (true) {
+            while (tail != head) {
+                int pos = ACTIONS_RING_HEADER + tail * ACTION_SLOT_SIZE;
+                int opCode = actionsRing.getInt(pos);
+                int payload = actionsRing.getInt(pos + 4);
+                tail = (tail + 1) % capacity;
+                actionsRing.putInt(ACTIONS_RING_TAIL, tail);
+                processOpCodeDo(opCode, payload);
+            }
+            if (actionsRing.getInt(ACTIONS_RING_DEFERRED) == 0)
+                break;
+            bsNativeFlushActions();
+            head = actionsRing.getInt(ACTIONS_RING_HEAD);
+            if (head == tail)
+                break;
+        }
+    }
+
+    // Payload is an argument of the action; it is reserved for actions which need it
+    private void processOpCodeDo(int OpCode, int Payload) {
 
         switch (OpCode)
         {
+            case OPCODE_ANIMATION_STOP:{ // most often opcode process here
+                if (renderThread != null) {
+                    if (!maxFps)
+                        renderThread.setAnimating(false);
+                } else
+                if ((!maxFps) && (updateTask != null))
+                    stopLoop();
+                break;
+            }
+
             case OPCODE_SHOW_KEYBOARD:{
-                showKeyboard();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showKeyboard();
+                    }
+                });
                 break;
             }
 
             case OPCODE_HIDE_KEYBOARD:{
-                hideKeyboard();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        hideKeyboard();
+                    }
+                });
                 break;
             }
 
             case OPCODE_ANIMATION_RUN:{
+                if (renderThread != null)
+                    renderThread.setAnimating(true);
+                else
                 if ((!maxFps) && (updateTask == null))
                     runLoop();
                 break;